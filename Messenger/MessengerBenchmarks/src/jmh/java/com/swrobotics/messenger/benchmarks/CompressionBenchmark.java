@@ -0,0 +1,95 @@
+package com.swrobotics.messenger.benchmarks;
+
+import com.swrobotics.messenger.client.MessageBuilder;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compressing and decompressing message data the way the client and server do when compression is
+ * negotiated. The compressed size of each payload is printed during setup.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CompressionBenchmark {
+    @Param({"log", "text", "grids", "cells", "path"})
+    public String payload;
+
+    private byte[] data;
+    private byte[] compressed;
+    private int compressedLen;
+    private byte[] output;
+
+    private Deflater deflater;
+    private Inflater inflater;
+
+    @Setup
+    public void setup() {
+        switch (payload) {
+            case "log":
+                data = Payloads.logLines().getBytes(StandardCharsets.UTF_8);
+                break;
+            case "text":
+                data = Payloads.textFile();
+                break;
+            case "grids":
+                data = Payloads.addGrids(new MessageBuilder(null, Payloads.GRIDS_TYPE)).getData();
+                break;
+            case "cells":
+                data =
+                        Payloads.addCellData(
+                                        new MessageBuilder(null, Payloads.CELL_DATA_TYPE),
+                                        Payloads.cellData())
+                                .getData();
+                break;
+            case "path":
+                data =
+                        Payloads.addPath(
+                                        new MessageBuilder(null, Payloads.PATH_TYPE),
+                                        Payloads.path())
+                                .getData();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown payload: " + payload);
+        }
+
+        // Same settings as the client uses
+        deflater = new Deflater(Deflater.BEST_SPEED, true);
+        inflater = new Inflater(true);
+        compressed = new byte[data.length * 2 + 64];
+        output = new byte[data.length];
+
+        compressedLen = compress();
+        System.out.printf(
+                "%n%s: %d bytes -> %d bytes (%.1f%%)%n",
+                payload, data.length, compressedLen, 100.0 * compressedLen / data.length);
+    }
+
+    @TearDown
+    public void tearDown() {
+        deflater.end();
+        inflater.end();
+    }
+
+    @Benchmark
+    public int compress() {
+        deflater.reset();
+        deflater.setInput(data);
+        deflater.finish();
+        return deflater.deflate(compressed);
+    }
+
+    @Benchmark
+    public byte[] decompress() throws DataFormatException {
+        inflater.reset();
+        inflater.setInput(compressed, 0, compressedLen);
+        inflater.inflate(output);
+        return output;
+    }
+}
@@ -0,0 +1,78 @@
+package com.swrobotics.messenger.benchmarks;
+
+import com.swrobotics.messenger.client.MessageBuilder;
+import com.swrobotics.messenger.client.MessageReader;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/** Decoding typical messages with {@link MessageReader}. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DecodeBenchmark {
+    private byte[] pathData;
+    private byte[] matrixData;
+    private byte[] fileChunkData;
+
+    private double[] pathPoints;
+    private float[] matrix;
+
+    @Setup
+    public void setup() {
+        pathData =
+                Payloads.addPath(new MessageBuilder(null, Payloads.PATH_TYPE), Payloads.path())
+                        .getData();
+        matrixData =
+                Payloads.addMatrix(
+                                new MessageBuilder(null, Payloads.MATRIX_TYPE), Payloads.matrix())
+                        .getData();
+        fileChunkData =
+                Payloads.addFileChunk(
+                                new MessageBuilder(null, Payloads.FILE_CONTENT_TYPE),
+                                Payloads.fileChunk())
+                        .getData();
+
+        pathPoints = new double[Payloads.PATH_POINTS * 2];
+        matrix = new float[16];
+    }
+
+    @Benchmark
+    public double[] path() {
+        MessageReader reader = new MessageReader(pathData);
+        if (!reader.readBoolean()) return null;
+
+        reader.readDoubleArray(pathPoints, 0, reader.readInt() * 2);
+        return pathPoints;
+    }
+
+    @Benchmark
+    public void pathPerValue(Blackhole bh) {
+        MessageReader reader = new MessageReader(pathData);
+        if (!reader.readBoolean()) return;
+
+        int count = reader.readInt();
+        for (int i = 0; i < count; i++) {
+            bh.consume(reader.readDouble());
+            bh.consume(reader.readDouble());
+        }
+    }
+
+    @Benchmark
+    public float[] matrix() {
+        new MessageReader(matrixData).readFloatArray(matrix);
+        return matrix;
+    }
+
+    @Benchmark
+    public byte[] fileChunk() {
+        MessageReader reader = new MessageReader(fileChunkData);
+        if (reader.readByte() != 1) return null;
+        reader.readLong();
+        reader.readLong();
+
+        return reader.readAllData();
+    }
+}
@@ -0,0 +1,73 @@
+package com.swrobotics.messenger.benchmarks;
+
+import com.swrobotics.messenger.client.MessengerClient;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Receiving and dispatching messages to handlers through {@link MessengerClient#readMessages()},
+ * with different numbers of registered handlers. Each invocation asks the stand-in server for a
+ * burst of small messages spread over all handled types, then reads until all of them have been
+ * handled.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DispatchBenchmark {
+    private static final int BURST_SIZE = 1000;
+
+    @Param({"1", "50", "500"})
+    public int handlerCount;
+
+    private StandInServer server;
+    private MessengerClient client;
+    private long handled;
+
+    private static String type(int i) {
+        return "Bench:Type" + i;
+    }
+
+    @Setup
+    public void setup() throws IOException, InterruptedException {
+        ByteArrayOutputStream burst = new ByteArrayOutputStream();
+        byte[] data = ByteBuffer.allocate(16).putDouble(1.5).putDouble(-2.5).array();
+        for (int i = 0; i < BURST_SIZE; i++)
+            burst.write(StandInServer.encode(type(i % handlerCount), data));
+
+        server = StandInServer.burst(burst.toByteArray());
+        client = server.connectClient();
+        handled = 0;
+        for (int i = 0; i < handlerCount; i++) {
+            client.addHandler(
+                    type(i),
+                    (type, reader) -> {
+                        reader.readDouble();
+                        reader.readDouble();
+                        handled++;
+                    });
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        client.disconnect();
+        server.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST_SIZE)
+    public long dispatch() {
+        long target = handled + BURST_SIZE;
+        client.send("Bench:Go");
+        while (handled < target) {
+            client.readMessages();
+            if (!client.isConnected()) throw new IllegalStateException("Connection lost");
+        }
+        return handled;
+    }
+}
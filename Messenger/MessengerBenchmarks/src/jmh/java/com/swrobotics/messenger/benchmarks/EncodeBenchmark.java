@@ -0,0 +1,53 @@
+package com.swrobotics.messenger.benchmarks;
+
+import com.swrobotics.messenger.client.MessengerClient;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding typical messages with {@link com.swrobotics.messenger.client.MessageBuilder}. The
+ * client is not connected, so sending only encodes the message and returns the builder to the
+ * pool.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class EncodeBenchmark {
+    private MessengerClient client;
+    private double[] path;
+    private float[] matrix;
+    private byte[] fileChunk;
+
+    @Setup
+    public void setup() {
+        // Nothing listens on port 1, and disconnecting stops any further attempts
+        client = new MessengerClient("localhost", 1, "Bench");
+        client.disconnect();
+
+        path = Payloads.path();
+        matrix = Payloads.matrix();
+        fileChunk = Payloads.fileChunk();
+    }
+
+    @Benchmark
+    public void path() {
+        Payloads.addPath(client.prepare(Payloads.PATH_TYPE), path).send();
+    }
+
+    @Benchmark
+    public void pathPerValue() {
+        Payloads.addPathPerValue(client.prepare(Payloads.PATH_TYPE), path).send();
+    }
+
+    @Benchmark
+    public void matrix() {
+        Payloads.addMatrix(client.prepare(Payloads.MATRIX_TYPE), matrix).send();
+    }
+
+    @Benchmark
+    public void fileChunk() {
+        Payloads.addFileChunk(client.prepare(Payloads.FILE_CONTENT_TYPE), fileChunk).send();
+    }
+}
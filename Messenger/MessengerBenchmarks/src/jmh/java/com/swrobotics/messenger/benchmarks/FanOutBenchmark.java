@@ -0,0 +1,110 @@
+package com.swrobotics.messenger.benchmarks;
+
+import com.swrobotics.messenger.client.MessengerClient;
+import com.swrobotics.messenger.server.MessengerServer;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Forwarding throughput of the embedded {@link MessengerServer}. Each invocation sends a batch of
+ * messages from one client, and reads until every receiving client has received all of them.
+ * Throughput is counted in messages sent, so each operation is delivered once to every receiver.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class FanOutBenchmark {
+    private static final String TYPE = "Bench:FanOut";
+    private static final int BATCH_SIZE = 100;
+
+    // Read while sending so neither side's socket buffers fill up
+    private static final int READ_INTERVAL = 16;
+
+    @Param({"1", "8", "32"})
+    public int receiverCount;
+
+    @Param({"16", "1024"})
+    public int payloadSize;
+
+    private MessengerServer server;
+    private MessengerClient sender;
+    private MessengerClient[] receivers;
+    private byte[] payload;
+    private boolean[] listening;
+    private long received;
+
+    private MessengerClient connect(String name) throws InterruptedException {
+        MessengerClient client = new MessengerClient("localhost", server.getPort(), name);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!client.isConnected()) {
+            if (System.currentTimeMillis() > deadline)
+                throw new IllegalStateException("Client did not connect");
+            Thread.sleep(10);
+        }
+        return client;
+    }
+
+    @Setup
+    public void setup() throws IOException, InterruptedException {
+        server = new MessengerServer("localhost", 0);
+        server.setLogEvents(false);
+        server.start();
+
+        receivers = new MessengerClient[receiverCount];
+        listening = new boolean[receiverCount];
+        for (int i = 0; i < receiverCount; i++) {
+            int index = i;
+            receivers[i] = connect("Receiver " + i);
+            receivers[i].addHandler(
+                    TYPE,
+                    (type, reader) -> {
+                        listening[index] = true;
+                        received++;
+                    });
+        }
+        sender = connect("Sender");
+        payload = new byte[payloadSize];
+        received = 0;
+
+        // Wait for the server to register all the listeners
+        for (int i = 0; i < receiverCount; i++) {
+            while (!listening[i]) {
+                sender.send(TYPE);
+                Thread.sleep(10);
+                for (MessengerClient receiver : receivers) receiver.readMessages();
+            }
+        }
+
+        // Discard any leftover messages from waiting
+        Thread.sleep(100);
+        for (MessengerClient receiver : receivers) receiver.readMessages();
+        received = 0;
+    }
+
+    @TearDown
+    public void tearDown() {
+        sender.disconnect();
+        for (MessengerClient receiver : receivers) receiver.disconnect();
+        server.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public long fanOut() {
+        long target = received + (long) BATCH_SIZE * receiverCount;
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            sender.prepare(TYPE).addRaw(payload).send();
+            if (i % READ_INTERVAL == READ_INTERVAL - 1) {
+                for (MessengerClient receiver : receivers) receiver.readMessages();
+            }
+        }
+
+        while (received < target) {
+            for (MessengerClient receiver : receivers) receiver.readMessages();
+        }
+        return received;
+    }
+}
@@ -0,0 +1,72 @@
+package com.swrobotics.messenger.benchmarks;
+
+import com.swrobotics.messenger.client.FlushPolicy;
+import com.swrobotics.messenger.client.MessengerClient;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end throughput over a loopback connection. Each invocation sends a batch of messages to
+ * a stand-in server that echoes them back, and reads until all of them have been received.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class LoopbackBenchmark {
+    private static final String TYPE = "Bench:Echo";
+    private static final int BATCH_SIZE = 100;
+
+    // Read while sending so neither side's socket buffers fill up
+    private static final int READ_INTERVAL = 16;
+
+    @Param({"16", "1024", "16384"})
+    public int payloadSize;
+
+    @Param({"IMMEDIATE", "BUFFERED"})
+    public FlushPolicy flushPolicy;
+
+    private StandInServer server;
+    private MessengerClient client;
+    private byte[] payload;
+    private long received;
+
+    @Setup
+    public void setup() throws IOException, InterruptedException {
+        server = StandInServer.echo();
+        client = server.connectClient();
+        client.setFlushPolicy(flushPolicy);
+        client.addHandler(TYPE, (type, reader) -> received++);
+
+        payload = new byte[payloadSize];
+        received = 0;
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        client.disconnect();
+        server.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public long roundTrip() {
+        long target = received + BATCH_SIZE;
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            client.prepare(TYPE).addRaw(payload).send();
+            if (i % READ_INTERVAL == READ_INTERVAL - 1) {
+                client.flush();
+                client.readMessages();
+            }
+        }
+        client.flush();
+
+        while (received < target) {
+            client.readMessages();
+            if (!client.isConnected()) throw new IllegalStateException("Connection lost");
+        }
+        return received;
+    }
+}
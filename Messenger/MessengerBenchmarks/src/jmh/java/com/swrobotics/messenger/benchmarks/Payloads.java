@@ -0,0 +1,165 @@
+package com.swrobotics.messenger.benchmarks;
+
+import com.swrobotics.messenger.client.MessageBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/** Typical message payloads, matching the formats used by the robot and ShuffleLog. */
+final class Payloads {
+    public static final String PATH_TYPE = "Pathfinder:Path";
+    public static final String MATRIX_TYPE = "TagTracker:TestMtx";
+    public static final String FILE_CONTENT_TYPE = "TaskManager:FileContent";
+    public static final String GRIDS_TYPE = "Pathfinder:Grids";
+    public static final String CELL_DATA_TYPE = "Pathfinder:CellData";
+
+    public static final int PATH_POINTS = 200;
+    public static final int FILE_CHUNK_SIZE = 16 * 1024;
+    public static final long FILE_STREAM_ID = 0x5EED2129L;
+
+    public static final int LOG_LINES = 200;
+    public static final int GRID_SHAPES = 40;
+
+    // Cell grid covering the field at 10 cm resolution
+    public static final int CELLS_WIDTH = 166;
+    public static final int CELLS_HEIGHT = 81;
+
+    /** @return x and y coordinates of each point in a path, interleaved */
+    public static double[] path() {
+        Random random = new Random(2129);
+        double[] points = new double[PATH_POINTS * 2];
+        for (int i = 0; i < points.length; i++) points[i] = random.nextDouble() * 16;
+        return points;
+    }
+
+    /** @return 4x4 transformation matrix */
+    public static float[] matrix() {
+        float[] matrix = new float[16];
+        for (int i = 0; i < 4; i++) matrix[i * 5] = 1;
+        matrix[3] = 1.5f;
+        matrix[7] = -0.25f;
+        matrix[11] = 3.0f;
+        return matrix;
+    }
+
+    /** @return file content for one chunk */
+    public static byte[] fileChunk() {
+        byte[] chunk = new byte[FILE_CHUNK_SIZE];
+        new Random(2129).nextBytes(chunk);
+        return chunk;
+    }
+
+    /** @return lines of output from a vision task, as one block of text */
+    public static String logLines() {
+        Random random = new Random(2129);
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < LOG_LINES; i++) {
+            lines.append(String.format("[%.3f] INFO vision: ", 12.5 + i * 0.02));
+            if (i % 10 == 0) {
+                lines.append("Camera 0 connected, 640x480 @ 30 fps");
+            } else {
+                lines.append(
+                        String.format(
+                                "Tag %d at (%.3f, %.3f, %.3f) in %d ms",
+                                1 + random.nextInt(8),
+                                random.nextDouble() * 4,
+                                random.nextDouble() - 0.5,
+                                random.nextDouble() * 0.3,
+                                8 + random.nextInt(6)));
+            }
+            lines.append('\n');
+        }
+        return lines.toString();
+    }
+
+    /** @return JSON text file, like a task's configuration */
+    public static byte[] textFile() {
+        StringBuilder json = new StringBuilder("{\n  \"cameras\": [\n");
+        for (int i = 0; i < 24; i++) {
+            json.append("    {\n");
+            json.append("      \"name\": \"camera").append(i).append("\",\n");
+            json.append("      \"device\": \"/dev/video").append(i).append("\",\n");
+            json.append("      \"width\": 640,\n      \"height\": 480,\n");
+            json.append("      \"exposure\": ").append(10 + i).append(",\n");
+            json.append("      \"position\": [").append(i * 0.1).append(", 0.25, 0.5],\n");
+            json.append("      \"rotation\": [0.0, ").append(i * 15).append(", 0.0]\n");
+            json.append(i == 23 ? "    }\n" : "    },\n");
+        }
+        json.append("  ]\n}\n");
+        return json.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** @return occupied cells of the field grid, one bit per cell */
+    public static long[] cellData() {
+        long[] bits = new long[(CELLS_WIDTH * CELLS_HEIGHT + 63) / 64];
+        for (int y = 0; y < CELLS_HEIGHT; y++) {
+            for (int x = 0; x < CELLS_WIDTH; x++) {
+                // Field walls, and a few obstacles near the middle
+                boolean wall = x < 4 || y < 4 || x >= CELLS_WIDTH - 4 || y >= CELLS_HEIGHT - 4;
+                boolean station = Math.abs(x - 40) < 10 && Math.abs(y - 40) < 10;
+                boolean pillar = Math.hypot(x - 120, y - 25) < 6 || Math.hypot(x - 120, y - 55) < 6;
+                if (wall || station || pillar) {
+                    int i = x + y * CELLS_WIDTH;
+                    bits[i / 64] |= 1L << (i % 64);
+                }
+            }
+        }
+        return bits;
+    }
+
+    // Pathfinder:Path is a validity flag, point count, and the points
+    public static MessageBuilder addPath(MessageBuilder builder, double[] points) {
+        return builder.addBoolean(true).addInt(points.length / 2).addDoubleArray(points);
+    }
+
+    // Same as addPath(), but adding each coordinate separately
+    public static MessageBuilder addPathPerValue(MessageBuilder builder, double[] points) {
+        builder.addBoolean(true).addInt(points.length / 2);
+        for (double d : points) builder.addDouble(d);
+        return builder;
+    }
+
+    public static MessageBuilder addMatrix(MessageBuilder builder, float[] matrix) {
+        return builder.addFloatArray(matrix);
+    }
+
+    // Same format as a data chunk of the FileSystemAPI's file content stream
+    public static MessageBuilder addFileChunk(MessageBuilder builder, byte[] chunk) {
+        return builder.addByte((byte) 1).addLong(FILE_STREAM_ID).addLong(0).addRaw(chunk);
+    }
+
+    // Same as Pathfinder:Grids, a union of shape grids. Each grid and shape
+    // has a random ID
+    public static MessageBuilder addGrids(MessageBuilder builder) {
+        Random random = new Random(2129);
+        builder.addLong(random.nextLong()).addLong(random.nextLong()).addByte((byte) 0);
+        builder.addInt(GRID_SHAPES / 4);
+        for (int grid = 0; grid < GRID_SHAPES / 4; grid++) {
+            builder.addLong(random.nextLong()).addLong(random.nextLong()).addByte((byte) 2);
+            builder.addInt(4);
+            for (int shape = 0; shape < 4; shape++) {
+                builder.addLong(random.nextLong()).addLong(random.nextLong()).addBoolean(false);
+                if (shape % 2 == 0) {
+                    builder.addByte((byte) 0);
+                    builder.addDouble(random.nextDouble() * 16).addDouble(random.nextDouble() * 8);
+                    builder.addDouble(0.5);
+                } else {
+                    builder.addByte((byte) 1);
+                    builder.addDouble(random.nextDouble() * 16).addDouble(random.nextDouble() * 8);
+                    builder.addDouble(1.2).addDouble(0.3).addDouble(Math.PI / 4);
+                }
+            }
+        }
+        return builder;
+    }
+
+    // Pathfinder:CellData is the grid size, then the bits as longs
+    public static MessageBuilder addCellData(MessageBuilder builder, long[] bits) {
+        builder.addInt(CELLS_WIDTH).addInt(CELLS_HEIGHT).addInt(bits.length);
+        return builder.addLongArray(bits);
+    }
+
+    private Payloads() {
+        throw new AssertionError();
+    }
+}
@@ -0,0 +1,126 @@
+package com.swrobotics.messenger.benchmarks;
+
+import com.swrobotics.messenger.client.MessengerClient;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Minimal stand-in for the Messenger server, so benchmarks don't depend on a real server. Internal
+ * messages are ignored, and other messages are either echoed back to the sender, or answered with
+ * a fixed burst of encoded messages.
+ */
+final class StandInServer implements AutoCloseable {
+    private final ServerSocket server;
+    private final byte[] burst;
+
+    private StandInServer(byte[] burst) throws IOException {
+        this.burst = burst;
+        server = new ServerSocket();
+        server.bind(new InetSocketAddress("localhost", 0));
+
+        Thread thread = new Thread(this::run, "Stand-in Server");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** @return server that sends every message back to its sender */
+    public static StandInServer echo() throws IOException {
+        return new StandInServer(null);
+    }
+
+    /**
+     * @param burst encoded messages to send in response to each message
+     * @return server that responds to every message with the burst
+     */
+    public static StandInServer burst(byte[] burst) throws IOException {
+        return new StandInServer(burst);
+    }
+
+    /**
+     * Encodes a message the same way the server sends it.
+     *
+     * @param type message type
+     * @param data message data
+     * @return encoded message
+     */
+    public static byte[] encode(String type, byte[] data) {
+        byte[] typeBytes = type.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buf = ByteBuffer.allocate(2 + typeBytes.length + 4 + data.length);
+        buf.putShort((short) typeBytes.length);
+        buf.put(typeBytes);
+        buf.putInt(data.length);
+        buf.put(data);
+        return buf.array();
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                Socket client = server.accept();
+                client.setTcpNoDelay(true);
+                Thread thread = new Thread(() -> handle(client), "Stand-in Client");
+                thread.setDaemon(true);
+                thread.start();
+            }
+        } catch (IOException e) {
+            // Server closed
+        }
+    }
+
+    private void handle(Socket client) {
+        try (client) {
+            DataInputStream in =
+                    new DataInputStream(new BufferedInputStream(client.getInputStream()));
+            OutputStream out = client.getOutputStream();
+
+            // Handshake is the client name
+            in.readFully(new byte[in.readUnsignedShort()]);
+
+            while (true) {
+                byte[] type = new byte[in.readUnsignedShort()];
+                in.readFully(type);
+                byte[] data = new byte[in.readInt()];
+                in.readFully(data);
+
+                if (type.length > 0 && type[0] == '_') continue;
+
+                if (burst != null) {
+                    out.write(burst);
+                } else {
+                    out.write(encode(new String(type, StandardCharsets.UTF_8), data));
+                }
+            }
+        } catch (IOException e) {
+            // Client disconnected
+        }
+    }
+
+    /**
+     * Creates a client connected to this server, waiting until the connection is established.
+     *
+     * @return connected client
+     */
+    public MessengerClient connectClient() throws InterruptedException {
+        MessengerClient client = new MessengerClient("localhost", server.getLocalPort(), "Bench");
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!client.isConnected()) {
+            if (System.currentTimeMillis() > deadline)
+                throw new IllegalStateException("Client did not connect");
+            Thread.sleep(10);
+        }
+        return client;
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+    }
+}
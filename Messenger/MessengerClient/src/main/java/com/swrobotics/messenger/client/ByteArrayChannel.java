@@ -0,0 +1,64 @@
+package com.swrobotics.messenger.client;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+// Read-only channel over an array, so arrays can be sent as streams
+final class ByteArrayChannel implements SeekableByteChannel {
+    private final byte[] data;
+    private int position;
+    private boolean open;
+
+    public ByteArrayChannel(byte[] data) {
+        this.data = data;
+        position = 0;
+        open = true;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) {
+        if (position >= data.length) return -1;
+
+        int count = Math.min(dst.remaining(), data.length - position);
+        dst.put(data, position, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public long position() {
+        return position;
+    }
+
+    @Override
+    public SeekableByteChannel position(long newPosition) {
+        position = (int) Math.min(newPosition, data.length);
+        return this;
+    }
+
+    @Override
+    public long size() {
+        return data.length;
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() {
+        open = false;
+    }
+}
@@ -0,0 +1,71 @@
+package com.swrobotics.messenger.client;
+
+import java.util.Arrays;
+
+/**
+ * Estimates the round trip time to the server and the offset between the local clock and the
+ * server's clock from timestamped heartbeats. Only the most recent samples are kept, so the
+ * estimates follow changes in network conditions. Methods may be called from any thread.
+ */
+final class ClockEstimator {
+    private final long[] rttSamples;
+    private final long[] offsetSamples;
+    private int count;
+    private int next;
+
+    /** @param windowSize number of recent samples to keep */
+    public ClockEstimator(int windowSize) {
+        rttSamples = new long[windowSize];
+        offsetSamples = new long[windowSize];
+        reset();
+    }
+
+    /**
+     * Adds a sample from a heartbeat response.
+     *
+     * @param sendTime local time the heartbeat was sent
+     * @param serverTime server time the heartbeat was handled
+     * @param receiveTime local time the response was received
+     */
+    public synchronized void addSample(long sendTime, long serverTime, long receiveTime) {
+        long rtt = receiveTime - sendTime;
+        if (rtt < 0) return;
+
+        // Assume the server handled it halfway through the round trip
+        rttSamples[next] = rtt;
+        offsetSamples[next] = serverTime - (sendTime + rtt / 2);
+        next = (next + 1) % rttSamples.length;
+        if (count < rttSamples.length) count++;
+    }
+
+    public synchronized boolean hasSamples() {
+        return count > 0;
+    }
+
+    /**
+     * Gets the estimated offset of the server clock from the local clock. The sample with the
+     * shortest round trip is used, since its timing is the least affected by queueing delays.
+     *
+     * @return server time minus local time, or 0 if there are no samples
+     */
+    public synchronized long getOffset() {
+        long bestRtt = Long.MAX_VALUE;
+        long offset = 0;
+        for (int i = 0; i < count; i++) {
+            if (rttSamples[i] < bestRtt) {
+                bestRtt = rttSamples[i];
+                offset = offsetSamples[i];
+            }
+        }
+        return offset;
+    }
+
+    public synchronized LatencyStats getRoundTripTime() {
+        return LatencyStats.fromSamples(Arrays.copyOf(rttSamples, count));
+    }
+
+    public synchronized void reset() {
+        count = 0;
+        next = 0;
+    }
+}
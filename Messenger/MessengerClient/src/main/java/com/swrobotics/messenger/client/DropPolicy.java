@@ -0,0 +1,13 @@
+package com.swrobotics.messenger.client;
+
+/** Determines what happens when a message is sent while its outbound queue is full. */
+public enum DropPolicy {
+    /** The oldest queued message is discarded to make room for the new one. */
+    DROP_OLDEST,
+
+    /** The new message is discarded. */
+    DROP_NEWEST,
+
+    /** The sending thread waits until the queue has space. */
+    BLOCK
+}
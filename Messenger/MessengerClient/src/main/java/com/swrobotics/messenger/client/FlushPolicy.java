@@ -0,0 +1,14 @@
+package com.swrobotics.messenger.client;
+
+/** Controls when messages sent by a {@link MessengerClient} are written to the socket. */
+public enum FlushPolicy {
+    /** Each message is written to the socket as soon as it is sent. */
+    IMMEDIATE,
+
+    /**
+     * Messages are collected into a buffer, which is written to the socket all at once when {@link
+     * MessengerClient#flush()} is called, or when the buffer reaches the flush threshold. This
+     * allows all messages sent during one periodic to go out in a single write.
+     */
+    BUFFERED
+}
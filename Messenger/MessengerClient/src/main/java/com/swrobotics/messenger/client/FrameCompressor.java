@@ -0,0 +1,66 @@
+package com.swrobotics.messenger.client;
+
+import java.nio.ByteBuffer;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses the data of encoded messages with deflate. A compressed message has the highest bit
+ * of its data size set, and its data is the uncompressed size followed by the deflated data. The
+ * format is described in {@code spec.md}.
+ *
+ * <p>This is not thread safe, it is only used while holding the client's write lock.
+ */
+final class FrameCompressor {
+    /** Set in the data size field of messages that are compressed. */
+    static final int COMPRESSED_FLAG = 0x80000000;
+
+    private final Deflater deflater;
+    private ByteBuffer output;
+
+    /** @param level deflate compression level, from 1 (fastest) to 9 (smallest) */
+    public FrameCompressor(int level) {
+        // Raw deflate, since the zlib header and checksum aren't needed over TCP
+        deflater = new Deflater(level, true);
+        output = ByteBuffer.allocateDirect(1024);
+    }
+
+    /**
+     * Compresses an encoded message, including the type and data size header. The position of the
+     * frame is not modified.
+     *
+     * @param frame message to compress
+     * @return compressed message, which is only valid until the next call, or null if compressing
+     *     would not make the message smaller
+     */
+    public ByteBuffer compress(ByteBuffer frame) {
+        int start = frame.position();
+        int headerLen = 2 + (frame.getShort(start) & 0xFFFF) + 4;
+        int dataLen = frame.remaining() - headerLen;
+
+        if (output.capacity() < frame.remaining())
+            output = ByteBuffer.allocateDirect(frame.remaining());
+
+        // Copy the header, then the uncompressed size. Anything that ends up
+        // at least as large as the original is not worth sending
+        output.clear();
+        ByteBuffer header = frame.duplicate();
+        header.limit(start + headerLen);
+        output.put(header);
+        output.putInt(dataLen);
+        output.limit(headerLen + dataLen - 1);
+
+        ByteBuffer data = frame.duplicate();
+        data.position(start + headerLen);
+        deflater.reset();
+        deflater.setInput(data);
+        deflater.finish();
+        while (!deflater.finished()) {
+            if (!output.hasRemaining()) return null;
+            deflater.deflate(output);
+        }
+
+        output.putInt(headerLen - 4, (output.position() - headerLen) | COMPRESSED_FLAG);
+        output.flip();
+        return output;
+    }
+}
@@ -0,0 +1,272 @@
+package com.swrobotics.messenger.client;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Splits the incoming byte stream from the server into complete messages. Bytes are read into a
+ * reusable direct buffer, and a message is only made available once all of its bytes have been
+ * received, so reading never has to wait for the rest of a partially received message.
+ *
+ * <p>Decoded type strings are cached, so receiving a type that has been seen before does not
+ * allocate. Messages that use a type alias instead of the full type are also supported, as are
+ * compressed messages, which are decompressed into a separate reusable buffer.
+ */
+final class FrameDecoder {
+    private static final int INITIAL_CAPACITY = 64 * 1024;
+    private static final int MAX_FRAME_SIZE = 1 << 30;
+
+    // Size of the type length prefix, alias ID, and data size fields
+    private static final int TYPE_LEN_SIZE = 2;
+    private static final int ALIAS_ID_SIZE = 2;
+    private static final int DATA_LEN_SIZE = 4;
+
+    // Must be a power of two
+    private static final int INTERN_TABLE_SIZE = 512;
+
+    private ByteBuffer buffer;
+    private int readPos;
+
+    // Direct-mapped cache of decoded types, indexed by hash of the UTF-8 bytes.
+    // A colliding type replaces the previous entry.
+    private final byte[][] internedBytes;
+    private final String[] internedTypes;
+
+    private String[] aliases;
+
+    // Only created once a compressed message is received
+    private Inflater inflater;
+    private ByteBuffer inflated;
+
+    private String type;
+    private ByteBuffer data;
+    private int dataStart;
+    private int dataLength;
+
+    public FrameDecoder() {
+        buffer = ByteBuffer.allocateDirect(INITIAL_CAPACITY);
+        inflater = null;
+        inflated = null;
+        internedBytes = new byte[INTERN_TABLE_SIZE][];
+        internedTypes = new String[INTERN_TABLE_SIZE];
+        aliases = new String[16];
+        reset();
+    }
+
+    /**
+     * Discards all buffered data and type aliases. This should be called when a new connection is
+     * opened.
+     */
+    public void reset() {
+        buffer.clear();
+        readPos = 0;
+        type = null;
+        Arrays.fill(aliases, null);
+    }
+
+    /**
+     * Sets the type that messages using an alias ID refer to.
+     *
+     * @param id alias ID
+     * @param type full message type
+     */
+    public void setAlias(int id, String type) {
+        if (id >= aliases.length)
+            aliases = Arrays.copyOf(aliases, Math.max(id + 1, aliases.length * 2));
+        aliases[id] = type;
+    }
+
+    /**
+     * Reads as many bytes as are currently available from a non-blocking channel.
+     *
+     * @param channel channel to read from
+     * @return number of bytes read, or -1 if the channel has reached end of stream
+     * @throws IOException if reading fails
+     */
+    public int read(ReadableByteChannel channel) throws IOException {
+        if (readPos == buffer.position()) {
+            // Everything has been processed, so start from the beginning again
+            buffer.clear();
+            readPos = 0;
+        } else if (!buffer.hasRemaining()) {
+            compact();
+        }
+        return channel.read(buffer);
+    }
+
+    /**
+     * Advances to the next complete message in the buffer, if there is one. After this returns
+     * true, the message can be accessed using {@link #getType()}, {@link #getData(byte[])} and
+     * {@link #wrapData} until the next call to this method or {@link #read}.
+     *
+     * @return whether a complete message is available
+     * @throws IOException if the buffered data is not a valid message
+     */
+    public boolean nextFrame() throws IOException {
+        int available = buffer.position() - readPos;
+        if (available < TYPE_LEN_SIZE) return false;
+
+        // An empty type means the type is given as an alias ID instead
+        int typeLen = buffer.getShort(readPos) & 0xFFFF;
+        int typeFieldLen = typeLen == 0 ? ALIAS_ID_SIZE : typeLen;
+        int headerLen = TYPE_LEN_SIZE + typeFieldLen + DATA_LEN_SIZE;
+        if (available < headerLen) {
+            ensureFrameFits(headerLen);
+            return false;
+        }
+
+        int dataLen = buffer.getInt(readPos + TYPE_LEN_SIZE + typeFieldLen);
+        boolean compressed = (dataLen & FrameCompressor.COMPRESSED_FLAG) != 0;
+        dataLen &= ~FrameCompressor.COMPRESSED_FLAG;
+        if (dataLen > MAX_FRAME_SIZE - headerLen)
+            throw new IOException("Invalid message data size: " + dataLen);
+        if (available < headerLen + dataLen) {
+            ensureFrameFits(headerLen + dataLen);
+            return false;
+        }
+
+        if (typeLen == 0) {
+            int id = buffer.getShort(readPos + TYPE_LEN_SIZE) & 0xFFFF;
+            type = id < aliases.length ? aliases[id] : null;
+            if (type == null) throw new IOException("Unknown type alias: " + id);
+        } else {
+            type = decodeType(readPos + TYPE_LEN_SIZE, typeLen);
+        }
+        data = buffer;
+        dataStart = readPos + headerLen;
+        dataLength = dataLen;
+        readPos += headerLen + dataLen;
+
+        if (compressed) inflate();
+        return true;
+    }
+
+    // Decompresses the current message's data, and points the data at the
+    // decompressed copy
+    private void inflate() throws IOException {
+        if (dataLength < 4) throw new IOException("Compressed message data is too short");
+        int size = buffer.getInt(dataStart);
+        if (size < 0 || size > MAX_FRAME_SIZE)
+            throw new IOException("Invalid uncompressed message data size: " + size);
+
+        if (inflater == null) inflater = new Inflater(true);
+        if (inflated == null || inflated.capacity() < size + 1)
+            inflated = ByteBuffer.allocateDirect(Math.max(size + 1, INITIAL_CAPACITY));
+
+        ByteBuffer input = buffer.duplicate();
+        input.limit(dataStart + dataLength).position(dataStart + 4);
+        inflater.reset();
+        inflater.setInput(input);
+
+        // One byte of extra space, so data longer than the given size is noticed
+        inflated.clear().limit(size + 1);
+        try {
+            while (!inflater.finished() && inflated.hasRemaining()) {
+                int inflatedBytes = inflater.inflate(inflated);
+                if (inflatedBytes == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    break;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Invalid compressed message data", e);
+        }
+        if (!inflater.finished() || inflated.position() != size)
+            throw new IOException("Compressed message data does not match its size");
+
+        data = inflated;
+        dataStart = 0;
+        dataLength = size;
+    }
+
+    /**
+     * Gets the type of the current message.
+     *
+     * @return message type
+     */
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * Gets the size of the current message's data.
+     *
+     * @return data size in bytes
+     */
+    public int getDataLength() {
+        return dataLength;
+    }
+
+    /**
+     * Copies the current message's data into an array.
+     *
+     * @param dst array to copy into, must be at least {@link #getDataLength()} bytes long
+     */
+    public void getData(byte[] dst) {
+        ByteBuffer dup = data.duplicate();
+        dup.limit(dataStart + dataLength).position(dataStart);
+        dup.get(dst, 0, dataLength);
+    }
+
+    /**
+     * Points a reader at the current message's data without copying it. The reader is only valid
+     * until the next call to {@link #nextFrame()} or {@link #read}.
+     *
+     * @param reader reader to reset
+     */
+    public void wrapData(MessageReader reader) {
+        reader.reset(data, dataStart, dataLength);
+    }
+
+    private String decodeType(int start, int len) {
+        int hash = 1;
+        for (int i = 0; i < len; i++) hash = 31 * hash + buffer.get(start + i);
+        int index = (hash ^ (hash >>> 16)) & (INTERN_TABLE_SIZE - 1);
+
+        byte[] cached = internedBytes[index];
+        if (cached != null && matches(cached, start, len)) return internedTypes[index];
+
+        byte[] bytes = new byte[len];
+        for (int i = 0; i < len; i++) bytes[i] = buffer.get(start + i);
+        String decoded = new String(bytes, StandardCharsets.UTF_8);
+
+        internedBytes[index] = bytes;
+        internedTypes[index] = decoded;
+        return decoded;
+    }
+
+    private boolean matches(byte[] bytes, int start, int len) {
+        if (bytes.length != len) return false;
+        for (int i = 0; i < len; i++) {
+            if (bytes[i] != buffer.get(start + i)) return false;
+        }
+        return true;
+    }
+
+    // Moves unprocessed data to the start of the buffer to make space for more
+    private void compact() {
+        buffer.limit(buffer.position()).position(readPos);
+        buffer.compact();
+        readPos = 0;
+    }
+
+    // Makes sure the buffer is large enough to hold a frame of the given size
+    // starting from the current read position
+    private void ensureFrameFits(int frameSize) {
+        if (readPos + frameSize <= buffer.capacity()) return;
+
+        compact();
+        if (frameSize <= buffer.capacity()) return;
+
+        int newCapacity = buffer.capacity();
+        while (newCapacity < frameSize) newCapacity *= 2;
+
+        ByteBuffer newBuffer = ByteBuffer.allocateDirect(newCapacity);
+        buffer.flip();
+        newBuffer.put(buffer);
+        buffer = newBuffer;
+    }
+}
@@ -0,0 +1,96 @@
+package com.swrobotics.messenger.client;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded single-producer single-consumer queue of received messages. The reader thread decodes
+ * messages into preallocated slots, and the thread calling {@link MessengerClient#readMessages()}
+ * handles them. Slots are reused once handled, so the queue does not allocate in a steady state.
+ * Neither side ever takes a lock.
+ */
+final class InboundQueue {
+    static final class Slot {
+        String type;
+        byte[] data = new byte[256];
+        int length;
+    }
+
+    private final Slot[] slots;
+    private final int mask;
+
+    // Index of the next slot to be read by the consumer
+    private final AtomicLong head;
+    // Index of the next slot to be written by the producer
+    private final AtomicLong tail;
+
+    private final AtomicLong dropped;
+    private volatile int peakDepth;
+
+    /**
+     * @param capacity maximum number of queued messages, rounded up to a power of two
+     */
+    public InboundQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        slots = new Slot[size];
+        for (int i = 0; i < size; i++) slots[i] = new Slot();
+        mask = size - 1;
+
+        head = new AtomicLong(0);
+        tail = new AtomicLong(0);
+        dropped = new AtomicLong(0);
+        peakDepth = 0;
+    }
+
+    /**
+     * Gets the next free slot to write into. Producer only. The slot is not visible to the
+     * consumer until {@link #publish()} is called. If the queue is full, the message is counted as
+     * dropped and null is returned.
+     *
+     * @return slot to write, or null if full
+     */
+    public Slot claim() {
+        long t = tail.get();
+        if (t - head.get() >= slots.length) {
+            dropped.incrementAndGet();
+            return null;
+        }
+        return slots[(int) (t & mask)];
+    }
+
+    /** Makes the most recently claimed slot visible to the consumer. Producer only. */
+    public void publish() {
+        long t = tail.get() + 1;
+        tail.lazySet(t);
+
+        int depth = (int) (t - head.get());
+        if (depth > peakDepth) peakDepth = depth;
+    }
+
+    /**
+     * Gets the oldest queued message without removing it. Consumer only.
+     *
+     * @return oldest slot, or null if empty
+     */
+    public Slot peek() {
+        long h = head.get();
+        if (h >= tail.get()) return null;
+        return slots[(int) (h & mask)];
+    }
+
+    /** Removes the message returned by {@link #peek()}, allowing its slot to be reused. */
+    public void release() {
+        head.lazySet(head.get() + 1);
+    }
+
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    public int getPeakSize() {
+        return peakDepth;
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+}
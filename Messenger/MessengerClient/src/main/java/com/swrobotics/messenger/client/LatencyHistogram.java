@@ -0,0 +1,114 @@
+package com.swrobotics.messenger.client;
+
+import java.util.Arrays;
+
+/**
+ * Histogram of durations with fixed relative precision, in the style of HdrHistogram. Each power
+ * of two range is split into 16 linear sub-buckets, so recorded values are accurate to within
+ * about 6%. Recording never allocates.
+ */
+final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    // Values below SUB_BUCKET_COUNT each get their own bucket, and each power
+    // of two above that gets SUB_BUCKET_COUNT buckets
+    private static final int BUCKET_COUNT =
+            SUB_BUCKET_COUNT + (63 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+    private final long[] counts;
+    private long totalCount;
+    private long sum;
+    private long min;
+    private long max;
+
+    public LatencyHistogram() {
+        counts = new long[BUCKET_COUNT];
+        reset();
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) return (int) Math.max(value, 0);
+
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int shift = magnitude - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) - SUB_BUCKET_COUNT;
+        return SUB_BUCKET_COUNT + shift * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    // Highest value that is recorded in a bucket
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKET_COUNT) return index;
+
+        int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_COUNT;
+        long subBucket = SUB_BUCKET_COUNT + (index - SUB_BUCKET_COUNT) % SUB_BUCKET_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    /**
+     * Records a value.
+     *
+     * @param value value to record, negative values are recorded as zero
+     */
+    public void record(long value) {
+        if (value < 0) value = 0;
+
+        counts[bucketIndex(value)]++;
+        totalCount++;
+        sum += value;
+        if (value < min) min = value;
+        if (value > max) max = value;
+    }
+
+    /**
+     * Gets the value at a percentile of the recorded values. The result is the highest value that
+     * could have been recorded in the same bucket, but never more than the maximum recorded value.
+     *
+     * @param percentile percentile from 0 to 100
+     * @return value at the percentile, or 0 if nothing has been recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (totalCount == 0) return 0;
+
+        long target = (long) Math.ceil(totalCount * Math.min(percentile, 100) / 100.0);
+        if (target < 1) target = 1;
+
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= target) return Math.min(bucketUpperBound(i), max);
+        }
+        return max;
+    }
+
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    public void reset() {
+        Arrays.fill(counts, 0);
+        totalCount = 0;
+        sum = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+    }
+
+    /**
+     * Gets an immutable summary of the recorded values.
+     *
+     * @return summary
+     */
+    public LatencyStats snapshot() {
+        if (totalCount == 0) return LatencyStats.EMPTY;
+
+        return new LatencyStats(
+                totalCount,
+                min,
+                (double) sum / totalCount,
+                getValueAtPercentile(50),
+                getValueAtPercentile(90),
+                getValueAtPercentile(99),
+                getValueAtPercentile(99.9),
+                max);
+    }
+}
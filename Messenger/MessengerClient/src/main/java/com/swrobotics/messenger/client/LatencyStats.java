@@ -0,0 +1,103 @@
+package com.swrobotics.messenger.client;
+
+import java.util.Arrays;
+
+/**
+ * Summary of a set of measured durations. All durations are in nanoseconds. Percentiles that come
+ * from a histogram are accurate to within about 6%.
+ */
+public final class LatencyStats {
+    static final LatencyStats EMPTY = new LatencyStats(0, 0, 0, 0, 0, 0, 0, 0);
+
+    private final long count;
+    private final long min;
+    private final double mean;
+    private final long p50;
+    private final long p90;
+    private final long p99;
+    private final long p999;
+    private final long max;
+
+    // Creates a summary with exact percentiles. The array is sorted in place
+    static LatencyStats fromSamples(long[] samples) {
+        if (samples.length == 0) return EMPTY;
+
+        Arrays.sort(samples);
+        long sum = 0;
+        for (long sample : samples) sum += sample;
+
+        return new LatencyStats(
+                samples.length,
+                samples[0],
+                (double) sum / samples.length,
+                percentile(samples, 50),
+                percentile(samples, 90),
+                percentile(samples, 99),
+                percentile(samples, 99.9),
+                samples[samples.length - 1]);
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        int index = (int) Math.ceil(sorted.length * percentile / 100.0) - 1;
+        return sorted[Math.max(index, 0)];
+    }
+
+    LatencyStats(
+            long count, long min, double mean, long p50, long p90, long p99, long p999, long max) {
+        this.count = count;
+        this.min = min;
+        this.mean = mean;
+        this.p50 = p50;
+        this.p90 = p90;
+        this.p99 = p99;
+        this.p999 = p999;
+        this.max = max;
+    }
+
+    /** @return number of measurements */
+    public long getCount() {
+        return count;
+    }
+
+    /** @return shortest duration */
+    public long getMin() {
+        return min;
+    }
+
+    /** @return average duration */
+    public double getMean() {
+        return mean;
+    }
+
+    /** @return median duration */
+    public long getP50() {
+        return p50;
+    }
+
+    /** @return 90th percentile duration */
+    public long getP90() {
+        return p90;
+    }
+
+    /** @return 99th percentile duration */
+    public long getP99() {
+        return p99;
+    }
+
+    /** @return 99.9th percentile duration */
+    public long getP999() {
+        return p999;
+    }
+
+    /** @return longest duration */
+    public long getMax() {
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "count=%d min=%.3fms mean=%.3fms p50=%.3fms p99=%.3fms max=%.3fms",
+                count, min / 1e6, mean / 1e6, p50 / 1e6, p99 / 1e6, max / 1e6);
+    }
+}
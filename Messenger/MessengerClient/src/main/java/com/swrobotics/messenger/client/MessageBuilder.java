@@ -1,30 +1,179 @@
 package com.swrobotics.messenger.client;
 
-import java.io.ByteArrayOutputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Predicate;
 
 /**
- * Allows easy storage of data into a message.
+ * Allows easy storage of data into a message. The message is encoded directly into a reusable
+ * buffer, including the type and data size, so it can be written to the socket without copying.
+ *
+ * <p>Builders obtained from {@link MessengerClient#prepare(String)} are pooled, so a builder must
+ * not be used again after {@link #send()} has been called.
  *
  * @author rmheuer
  */
 public final class MessageBuilder {
+    /** Maximum size in UTF-8 bytes of a {@code String} added to a message, or of a message type. */
+    public static final int MAX_STRING_SIZE = 0xFFFF;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
     private final MessengerClient client;
-    private final String type;
-    private final ByteArrayOutputStream b;
-    private final DataOutputStream out;
+    private final boolean pooled;
+    private String type;
+    private ByteBuffer buf;
+    private int dataStart;
 
     public MessageBuilder(MessengerClient client, String type) {
+        this(client, false);
+        begin(type);
+    }
+
+    MessageBuilder(MessengerClient client, boolean pooled) {
         this.client = client;
+        this.pooled = pooled;
+        buf = ByteBuffer.allocateDirect(INITIAL_CAPACITY);
+    }
+
+    // Starts a new message, discarding any previous content
+    void begin(String type) {
         this.type = type;
-        b = new ByteArrayOutputStream();
-        out = new DataOutputStream(b);
+        buf.clear();
+        putString(type);
+        buf.putInt(0); // Data size is filled in when sending
+        dataStart = buf.position();
+    }
+
+    int getCapacity() {
+        return buf.capacity();
     }
 
     /** Sends the message with the type and data. */
     public void send() {
-        client.sendMessage(type, b.toByteArray());
+        buf.putInt(dataStart - 4, buf.position() - dataStart);
+        buf.flip();
+        client.sendFrame(type, buf);
+
+        if (pooled) client.releaseBuilder(this);
+    }
+
+    /**
+     * Sends the message as a request, and waits for the first message of the response type to be
+     * received. If an identical request (same type, data, and response type) is already waiting
+     * for a response, this message is not sent, and the response to the earlier request is used
+     * instead.
+     *
+     * <p>The returned future is completed from {@link MessengerClient#readMessages()}, with a
+     * reader that remains valid after the callbacks return. If no response is received within the
+     * client's request timeout, it is completed exceptionally with a {@link
+     * java.util.concurrent.TimeoutException}.
+     *
+     * <p>Handlers added for the response type with {@link MessengerClient#addHandler} still receive
+     * every response, including responses that were sent without a request.
+     *
+     * @param responseType type of the response message
+     * @return future completed with the response
+     */
+    public CompletableFuture<MessageReader> request(String responseType) {
+        return request(responseType, null);
+    }
+
+    /**
+     * Sends the message as a request, and waits for a message of the response type that is
+     * accepted by the matcher. This is needed when responses to different requests share the same
+     * type, such as a response that includes the path that was requested. Otherwise, this behaves
+     * the same as {@link #request(String)}.
+     *
+     * @param responseType type of the response message
+     * @param matcher checks whether a response is for this request, may be {@code null} to accept
+     *     any response
+     * @return future completed with the response
+     */
+    public CompletableFuture<MessageReader> request(
+            String responseType, Predicate<MessageReader> matcher) {
+        return client.request(this, type, responseType, matcher);
+    }
+
+    /**
+     * Sends a stream of data, which is received by a {@link StreamHandler} registered with {@link
+     * MessengerClient#addStreamHandler}. The data added to this builder is given to the handler as
+     * the stream's header, for example to say what the data is. This should be used instead of
+     * {@link #addRaw} for large amounts of data, since the data is sent in chunks that don't delay
+     * other messages for long, and only part of it is read into memory at a time.
+     *
+     * @param source data to send, starting from position 0. The channel is closed once the stream
+     *     ends.
+     * @return stream that was started
+     * @throws IOException if the size of the source can't be read
+     */
+    public OutgoingStream sendStream(SeekableByteChannel source) throws IOException {
+        byte[] header = getData();
+        discard();
+        return client.sendStream(type, header, source);
+    }
+
+    /**
+     * Sends a stream of data from an array. See {@link #sendStream(SeekableByteChannel)}.
+     *
+     * @param data data to send
+     * @return stream that was started
+     */
+    public OutgoingStream sendStream(byte[] data) {
+        try {
+            return sendStream(new ByteArrayChannel(data));
+        } catch (IOException e) {
+            throw new AssertionError(e); // Arrays always have a size
+        }
+    }
+
+    // Reads data from a position in a channel into this message, returns the
+    // number of bytes read
+    int addRaw(SeekableByteChannel src, long position, int maxLength) throws IOException {
+        ensureSpace(maxLength);
+        int limit = buf.limit();
+        buf.limit(buf.position() + maxLength);
+        try {
+            src.position(position);
+            int total = 0;
+            while (buf.hasRemaining()) {
+                int read = src.read(buf);
+                if (read <= 0) break;
+                total += read;
+            }
+            return total;
+        } finally {
+            buf.limit(limit);
+        }
+    }
+
+    // Releases the builder without sending the message
+    void discard() {
+        if (pooled) client.releaseBuilder(this);
+    }
+
+    private void ensureSpace(int bytes) {
+        if (buf.remaining() >= bytes) return;
+
+        int newCapacity = buf.capacity() * 2;
+        while (newCapacity - buf.position() < bytes) newCapacity *= 2;
+
+        ByteBuffer newBuf = ByteBuffer.allocateDirect(newCapacity);
+        buf.flip();
+        newBuf.put(buf);
+        buf = newBuf;
+    }
+
+    private void putString(String s) {
+        int len = MessengerClient.utf8Length(s);
+        if (len > MAX_STRING_SIZE)
+            throw new IllegalArgumentException("String is too long to encode");
+
+        ensureSpace(2 + len);
+        buf.putShort((short) len);
+        MessengerClient.putUtf8(buf, s);
     }
 
     /**
@@ -34,26 +183,33 @@ public final class MessageBuilder {
      * @return this
      */
     public MessageBuilder addBoolean(boolean b) {
-        try {
-            out.writeBoolean(b);
-        } catch (IOException e) {
-            throw new RuntimeException("Failed to write boolean", e);
-        }
+        ensureSpace(1);
+        buf.put(b ? (byte) 1 : (byte) 0);
         return this;
     }
 
     /**
-     * Adds a {@code String} to this message.
+     * Adds the current server time to this message as a {@code long}. The receiver can use {@link
+     * MessengerClient#getTimestampAge(long)} to find how long ago the message was sent.
+     *
+     * @return this
+     */
+    public MessageBuilder addTimestamp() {
+        return addLong(client.getServerTime());
+    }
+
+    /**
+     * Adds a {@code String} to this message. Strings longer than {@link #MAX_STRING_SIZE} bytes
+     * can't be encoded, so text that comes from outside the program should be checked or truncated
+     * first.
      *
      * @param s String to add
      * @return this
+     * @throws IllegalArgumentException if the string is longer than {@link #MAX_STRING_SIZE} bytes
+     *     in UTF-8. Nothing is added to the message.
      */
     public MessageBuilder addString(String s) {
-        try {
-            MessengerClient.writeStringUtf8(out, s);
-        } catch (IOException e) {
-            throw new RuntimeException("Failed to write String", e);
-        }
+        putString(s);
         return this;
     }
 
@@ -64,11 +220,8 @@ public final class MessageBuilder {
      * @return this
      */
     public MessageBuilder addChar(char c) {
-        try {
-            out.writeChar(c);
-        } catch (IOException e) {
-            throw new RuntimeException("Failed to write char", e);
-        }
+        ensureSpace(2);
+        buf.putChar(c);
         return this;
     }
 
@@ -79,11 +232,8 @@ public final class MessageBuilder {
      * @return this
      */
     public MessageBuilder addByte(byte b) {
-        try {
-            out.writeByte(b);
-        } catch (IOException e) {
-            throw new RuntimeException("Failed to write byte", e);
-        }
+        ensureSpace(1);
+        buf.put(b);
         return this;
     }
 
@@ -94,11 +244,8 @@ public final class MessageBuilder {
      * @return this
      */
     public MessageBuilder addShort(short s) {
-        try {
-            out.writeShort(s);
-        } catch (IOException e) {
-            throw new RuntimeException("Failed to write short", e);
-        }
+        ensureSpace(2);
+        buf.putShort(s);
         return this;
     }
 
@@ -109,11 +256,8 @@ public final class MessageBuilder {
      * @return this
      */
     public MessageBuilder addInt(int i) {
-        try {
-            out.writeInt(i);
-        } catch (IOException e) {
-            throw new RuntimeException("Failed to write int", e);
-        }
+        ensureSpace(4);
+        buf.putInt(i);
         return this;
     }
 
@@ -124,11 +268,8 @@ public final class MessageBuilder {
      * @return this
      */
     public MessageBuilder addLong(long l) {
-        try {
-            out.writeLong(l);
-        } catch (IOException e) {
-            throw new RuntimeException("Failed to write long", e);
-        }
+        ensureSpace(8);
+        buf.putLong(l);
         return this;
     }
 
@@ -139,11 +280,8 @@ public final class MessageBuilder {
      * @return this
      */
     public MessageBuilder addFloat(float f) {
-        try {
-            out.writeFloat(f);
-        } catch (IOException e) {
-            throw new RuntimeException("Failed to write float", e);
-        }
+        ensureSpace(4);
+        buf.putFloat(f);
         return this;
     }
 
@@ -154,11 +292,89 @@ public final class MessageBuilder {
      * @return this
      */
     public MessageBuilder addDouble(double d) {
-        try {
-            out.writeDouble(d);
-        } catch (IOException e) {
-            throw new RuntimeException("Failed to write double", e);
-        }
+        ensureSpace(8);
+        buf.putDouble(d);
+        return this;
+    }
+
+    /**
+     * Adds an array of {@code double}s to this message. The length of the array is not included, so
+     * the reader must know it from context.
+     *
+     * @param values doubles to add
+     * @return this
+     */
+    public MessageBuilder addDoubleArray(double[] values) {
+        return addDoubleArray(values, 0, values.length);
+    }
+
+    /**
+     * Adds part of an array of {@code double}s to this message. The length is not included, so the
+     * reader must know it from context.
+     *
+     * @param values array containing the doubles to add
+     * @param offset index in the array of the first value
+     * @param length number of doubles to add
+     * @return this
+     */
+    public MessageBuilder addDoubleArray(double[] values, int offset, int length) {
+        ensureSpace(length * Double.BYTES);
+        buf.asDoubleBuffer().put(values, offset, length);
+        buf.position(buf.position() + length * Double.BYTES);
+        return this;
+    }
+
+    /**
+     * Adds an array of {@code float}s to this message. The length of the array is not included, so
+     * the reader must know it from context.
+     *
+     * @param values floats to add
+     * @return this
+     */
+    public MessageBuilder addFloatArray(float[] values) {
+        return addFloatArray(values, 0, values.length);
+    }
+
+    /**
+     * Adds part of an array of {@code float}s to this message. The length is not included, so the
+     * reader must know it from context.
+     *
+     * @param values array containing the floats to add
+     * @param offset index in the array of the first value
+     * @param length number of floats to add
+     * @return this
+     */
+    public MessageBuilder addFloatArray(float[] values, int offset, int length) {
+        ensureSpace(length * Float.BYTES);
+        buf.asFloatBuffer().put(values, offset, length);
+        buf.position(buf.position() + length * Float.BYTES);
+        return this;
+    }
+
+    /**
+     * Adds an array of {@code long}s to this message. The length of the array is not included, so
+     * the reader must know it from context.
+     *
+     * @param values longs to add
+     * @return this
+     */
+    public MessageBuilder addLongArray(long[] values) {
+        return addLongArray(values, 0, values.length);
+    }
+
+    /**
+     * Adds part of an array of {@code long}s to this message. The length is not included, so the
+     * reader must know it from context.
+     *
+     * @param values array containing the longs to add
+     * @param offset index in the array of the first value
+     * @param length number of longs to add
+     * @return this
+     */
+    public MessageBuilder addLongArray(long[] values, int offset, int length) {
+        ensureSpace(length * Long.BYTES);
+        buf.asLongBuffer().put(values, offset, length);
+        buf.position(buf.position() + length * Long.BYTES);
         return this;
     }
 
@@ -169,15 +385,21 @@ public final class MessageBuilder {
      * @return self
      */
     public MessageBuilder addRaw(byte[] b) {
-        try {
-            out.write(b);
-        } catch (IOException e) {
-            throw new RuntimeException("Failed to write raw data", e);
-        }
+        ensureSpace(b.length);
+        buf.put(b);
         return this;
     }
 
+    /**
+     * Gets a copy of the data that has been added to this message so far.
+     *
+     * @return message data
+     */
     public byte[] getData() {
-        return b.toByteArray();
+        byte[] data = new byte[buf.position() - dataStart];
+        ByteBuffer dup = buf.duplicate();
+        dup.flip().position(dataStart);
+        dup.get(data);
+        return data;
     }
 }
@@ -8,7 +8,8 @@ package com.swrobotics.messenger.client;
 @FunctionalInterface
 public interface MessageHandler {
     /**
-     * Called when a matching message is received.
+     * Called when a matching message is received. The reader is only valid until this method
+     * returns, use {@link MessageReader#detach()} to keep the data for longer.
      *
      * @param type message type
      * @param reader message data reader
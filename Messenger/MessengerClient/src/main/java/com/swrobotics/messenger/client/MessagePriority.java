@@ -0,0 +1,23 @@
+package com.swrobotics.messenger.client;
+
+/**
+ * Priority class of a sent message. When the connection can't keep up with the messages being
+ * sent, each class is queued separately, and queued messages of a higher priority are always
+ * written before those of a lower priority.
+ */
+public enum MessagePriority {
+    /**
+     * Messages used by the protocol itself, such as heartbeats and listens. All message types
+     * starting with an underscore are in this class, and are never dropped.
+     */
+    CONTROL,
+
+    /** Time-critical messages, such as setpoints, that should not wait behind other traffic. */
+    HIGH,
+
+    /** The default priority for messages. */
+    NORMAL,
+
+    /** Bulk traffic, such as file contents and logs, that can wait for everything else. */
+    LOW
+}
@@ -1,17 +1,26 @@
 package com.swrobotics.messenger.client;
 
-import java.io.ByteArrayInputStream;
-import java.io.DataInputStream;
-import java.io.IOException;
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 /**
  * Allows easy access to data stored within a message.
  *
+ * <p>Readers given to a {@link MessageHandler} read directly from the client's receive buffer,
+ * and are reused for later messages, so they are only valid until the handler returns. Use {@link
+ * #detach()} to keep the data for longer.
+ *
  * @author rmheuer
  */
 public final class MessageReader {
-    private final DataInputStream in;
-    private boolean closed;
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    // Buffer or array the data is read from, used to tell when buf needs to be
+    // recreated for a different source
+    private Object source;
+    private ByteBuffer buf;
+    private int start;
 
     /**
      * Creates a new MessageReader that reads from a raw byte array.
@@ -19,8 +28,85 @@ public final class MessageReader {
      * @param data raw data
      */
     public MessageReader(byte[] data) {
-        in = new DataInputStream(new ByteArrayInputStream(data));
-        closed = false;
+        this();
+        reset(data, data.length);
+    }
+
+    // Creates a reader with no data, to be pointed at messages with reset()
+    MessageReader() {
+        source = null;
+        buf = EMPTY;
+        start = 0;
+    }
+
+    // Points this reader at the first length bytes of an array
+    void reset(byte[] data, int length) {
+        if (data != source) {
+            source = data;
+            buf = ByteBuffer.wrap(data);
+        }
+        setBounds(0, length);
+    }
+
+    // Points this reader at a region of a buffer without copying it. The
+    // buffer's position and limit are not modified
+    void reset(ByteBuffer data, int start, int length) {
+        if (data != source) {
+            source = data;
+            buf = data.duplicate();
+        }
+        setBounds(start, length);
+    }
+
+    private void setBounds(int start, int length) {
+        this.start = start;
+        buf.clear();
+        buf.limit(start + length).position(start);
+    }
+
+    // Gets the total size of the message data
+    int getLength() {
+        return buf.limit() - start;
+    }
+
+    // Copies the entire message data into an array, which must be at least
+    // getLength() bytes long
+    void copyTo(byte[] dst) {
+        int pos = buf.position();
+        buf.position(start);
+        buf.get(dst, 0, getLength());
+        buf.position(pos);
+    }
+
+    // Copies the entire message data into a buffer, which must have at least
+    // getLength() bytes remaining
+    void copyTo(ByteBuffer dst) {
+        int pos = buf.position();
+        buf.position(start);
+        dst.put(buf);
+        buf.position(pos);
+    }
+
+    // Gets a read-only view of the data that has not been read yet, which is
+    // only valid as long as the reader is
+    ByteBuffer getRemaining() {
+        return buf.slice().asReadOnlyBuffer();
+    }
+
+    // Checks that enough data is left to read a value, so the reads below
+    // can't fail partway through
+    private void require(long bytes, String what) {
+        // Lengths read from the message can be negative if the data is corrupt
+        if (bytes < 0)
+            throw new RuntimeException("Failed to read " + what + ", length is negative");
+        if (buf.remaining() < bytes)
+            throw new RuntimeException("Failed to read " + what, new EOFException());
+    }
+
+    private static void checkRange(int arrayLength, int offset, int length) {
+        if (offset < 0 || length < 0 || offset > arrayLength - length)
+            throw new IndexOutOfBoundsException(
+                    "Range [" + offset + ", " + offset + " + " + length + ") out of bounds");
     }
 
     /**
@@ -29,11 +115,8 @@ public final class MessageReader {
      * @return boolean read
      */
     public boolean readBoolean() {
-        try {
-            return in.readBoolean();
-        } catch (IOException e) {
-            throw new RuntimeException("Failed to read boolean", e);
-        }
+        require(1, "boolean");
+        return buf.get() != 0;
     }
 
     /**
@@ -42,11 +125,20 @@ public final class MessageReader {
      * @return String read
      */
     public String readString() {
-        try {
-            return MessengerClient.readStringUtf8(in);
-        } catch (IOException e) {
-            throw new RuntimeException("Failed to read String", e);
+        require(2, "String");
+        int len = buf.getShort(buf.position()) & 0xFFFF;
+        require(2 + len, "String");
+
+        buf.position(buf.position() + 2);
+        if (buf.hasArray()) {
+            int offset = buf.arrayOffset() + buf.position();
+            buf.position(buf.position() + len);
+            return new String(buf.array(), offset, len, StandardCharsets.UTF_8);
         }
+
+        byte[] utf8 = new byte[len];
+        buf.get(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
     }
 
     /**
@@ -55,11 +147,8 @@ public final class MessageReader {
      * @return char read
      */
     public char readChar() {
-        try {
-            return in.readChar();
-        } catch (IOException e) {
-            throw new RuntimeException("Failed to read char", e);
-        }
+        require(2, "char");
+        return buf.getChar();
     }
 
     /**
@@ -68,11 +157,8 @@ public final class MessageReader {
      * @return byte read
      */
     public byte readByte() {
-        try {
-            return in.readByte();
-        } catch (IOException e) {
-            throw new RuntimeException("Failed to read byte", e);
-        }
+        require(1, "byte");
+        return buf.get();
     }
 
     /**
@@ -81,11 +167,8 @@ public final class MessageReader {
      * @return short read
      */
     public short readShort() {
-        try {
-            return in.readShort();
-        } catch (IOException e) {
-            throw new RuntimeException("Failed to read short", e);
-        }
+        require(2, "short");
+        return buf.getShort();
     }
 
     /**
@@ -94,11 +177,8 @@ public final class MessageReader {
      * @return int read
      */
     public int readInt() {
-        try {
-            return in.readInt();
-        } catch (IOException e) {
-            throw new RuntimeException("Failed to read int", e);
-        }
+        require(4, "int");
+        return buf.getInt();
     }
 
     /**
@@ -107,11 +187,8 @@ public final class MessageReader {
      * @return long read
      */
     public long readLong() {
-        try {
-            return in.readLong();
-        } catch (IOException e) {
-            throw new RuntimeException("Failed to read long", e);
-        }
+        require(8, "long");
+        return buf.getLong();
     }
 
     /**
@@ -120,11 +197,8 @@ public final class MessageReader {
      * @return float read
      */
     public float readFloat() {
-        try {
-            return in.readFloat();
-        } catch (IOException e) {
-            throw new RuntimeException("Failed to read float", e);
-        }
+        require(4, "float");
+        return buf.getFloat();
     }
 
     /**
@@ -133,11 +207,119 @@ public final class MessageReader {
      * @return double read
      */
     public double readDouble() {
-        try {
-            return in.readDouble();
-        } catch (IOException e) {
-            throw new RuntimeException("Failed to read double", e);
-        }
+        require(8, "double");
+        return buf.getDouble();
+    }
+
+    /**
+     * Reads an array of {@code double}s from the message. The length is not read from the message,
+     * so it must be known from context.
+     *
+     * @param count number of doubles to read
+     * @return doubles read
+     */
+    public double[] readDoubleArray(int count) {
+        require((long) count * Double.BYTES, "double array");
+        double[] values = new double[count];
+        readDoubleArray(values, 0, count);
+        return values;
+    }
+
+    /**
+     * Reads {@code double}s from the message to fill an array.
+     *
+     * @param dst array to read into
+     */
+    public void readDoubleArray(double[] dst) {
+        readDoubleArray(dst, 0, dst.length);
+    }
+
+    /**
+     * Reads {@code double}s from the message into part of an array.
+     *
+     * @param dst array to read into
+     * @param offset index in the array of the first value
+     * @param length number of doubles to read
+     */
+    public void readDoubleArray(double[] dst, int offset, int length) {
+        checkRange(dst.length, offset, length);
+        require((long) length * Double.BYTES, "double array");
+        buf.asDoubleBuffer().get(dst, offset, length);
+        buf.position(buf.position() + length * Double.BYTES);
+    }
+
+    /**
+     * Reads an array of {@code float}s from the message. The length is not read from the message,
+     * so it must be known from context.
+     *
+     * @param count number of floats to read
+     * @return floats read
+     */
+    public float[] readFloatArray(int count) {
+        require((long) count * Float.BYTES, "float array");
+        float[] values = new float[count];
+        readFloatArray(values, 0, count);
+        return values;
+    }
+
+    /**
+     * Reads {@code float}s from the message to fill an array.
+     *
+     * @param dst array to read into
+     */
+    public void readFloatArray(float[] dst) {
+        readFloatArray(dst, 0, dst.length);
+    }
+
+    /**
+     * Reads {@code float}s from the message into part of an array.
+     *
+     * @param dst array to read into
+     * @param offset index in the array of the first value
+     * @param length number of floats to read
+     */
+    public void readFloatArray(float[] dst, int offset, int length) {
+        checkRange(dst.length, offset, length);
+        require((long) length * Float.BYTES, "float array");
+        buf.asFloatBuffer().get(dst, offset, length);
+        buf.position(buf.position() + length * Float.BYTES);
+    }
+
+    /**
+     * Reads an array of {@code long}s from the message. The length is not read from the message,
+     * so it must be known from context.
+     *
+     * @param count number of longs to read
+     * @return longs read
+     */
+    public long[] readLongArray(int count) {
+        require((long) count * Long.BYTES, "long array");
+        long[] values = new long[count];
+        readLongArray(values, 0, count);
+        return values;
+    }
+
+    /**
+     * Reads {@code long}s from the message to fill an array.
+     *
+     * @param dst array to read into
+     */
+    public void readLongArray(long[] dst) {
+        readLongArray(dst, 0, dst.length);
+    }
+
+    /**
+     * Reads {@code long}s from the message into part of an array.
+     *
+     * @param dst array to read into
+     * @param offset index in the array of the first value
+     * @param length number of longs to read
+     */
+    public void readLongArray(long[] dst, int offset, int length) {
+        checkRange(dst.length, offset, length);
+        require((long) length * Long.BYTES, "long array");
+        buf.asLongBuffer().get(dst, offset, length);
+        buf.position(buf.position() + length * Long.BYTES);
     }
 
     /**
@@ -147,13 +329,20 @@ public final class MessageReader {
      * @return bytes read
      */
     public byte[] readRaw(int length) {
-        try {
-            byte[] buf = new byte[length];
-            in.readFully(buf);
-            return buf;
-        } catch (IOException e) {
-            throw new RuntimeException("Failed to read data", e);
-        }
+        require(length, "data");
+        byte[] data = new byte[length];
+        buf.get(data);
+        return data;
+    }
+
+    /**
+     * Gets whether any data is left to read. This allows reading fields that were added to the end
+     * of a message, which older senders leave out.
+     *
+     * @return whether there is data left
+     */
+    public boolean hasRemaining() {
+        return buf.hasRemaining();
     }
 
     /**
@@ -162,23 +351,32 @@ public final class MessageReader {
      * @return data read
      */
     public byte[] readAllData() {
-        try {
-            return readRaw(in.available());
-        } catch (IOException e) {
-            throw new RuntimeException("Failed to read data", e);
-        }
+        return readRaw(buf.remaining());
+    }
+
+    /**
+     * Creates a copy of this reader that has its own copy of the message data. The copy continues
+     * reading from the same position as this reader. This allows keeping the data after the
+     * message handler returns.
+     *
+     * @return detached copy
+     */
+    public MessageReader detach() {
+        byte[] data = new byte[getLength()];
+        copyTo(data);
+
+        MessageReader copy = new MessageReader(data);
+        copy.buf.position(buf.position() - start);
+        return copy;
+    }
+
+    // Moves back to the start of the data so it can be read again
+    void rewind() {
+        buf.position(start);
     }
 
     /** Closes the reader when done reading. */
     public void close() {
-        if (!closed) {
-            try {
-                in.close();
-            } catch (IOException e) {
-                throw new RuntimeException("Failed to close reader", e);
-            }
-
-            closed = true;
-        }
+        // Nothing to release, the data is only held in memory
     }
 }
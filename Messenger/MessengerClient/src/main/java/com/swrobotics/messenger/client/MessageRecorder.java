@@ -0,0 +1,275 @@
+package com.swrobotics.messenger.client;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Records the messages a {@link MessengerClient} sends and receives to a file, so they can be
+ * replayed later with a {@link MessageReplayer}. Use {@link MessengerClient#setRecorder} to start
+ * recording.
+ *
+ * <p>The recording is appended to a memory-mapped file, so recording a message is only a copy into
+ * memory, and the data is kept by the operating system even if the program crashes. An index of
+ * the recording's timestamps is written next to it, so replay can start from any time without
+ * reading everything before it.
+ *
+ * <p>The recording starts with a {@code long} magic number, followed by entries in this format,
+ * all big-endian:
+ *
+ * <table>
+ *   <caption>Recording entry</caption>
+ *   <tr><th>Type</th><th>Description</th></tr>
+ *   <tr><td>{@code int}</td><td>Size of the rest of the entry, or 0 for the end of the
+ *       recording</td></tr>
+ *   <tr><td>{@code long}</td><td>Time in nanoseconds since the Unix epoch</td></tr>
+ *   <tr><td>{@code byte}</td><td>0 if the message was received, 1 if it was sent</td></tr>
+ *   <tr><td>{@code raw}</td><td>Message type and data, in the same format as over the
+ *       socket</td></tr>
+ * </table>
+ *
+ * <p>The index starts with its own magic number, followed by pairs of {@code long} timestamps and
+ * the offset of the first entry in the recording at or after that time, ending at a zero offset.
+ * Entries are indexed at most every 100 milliseconds.
+ */
+public final class MessageRecorder implements AutoCloseable {
+    static final long MAGIC = 0x4D53475245430001L;
+    static final long INDEX_MAGIC = 0x4D53474944580001L;
+    static final String INDEX_EXTENSION = ".index";
+
+    static final byte RECEIVED = 0;
+    static final byte SENT = 1;
+
+    // Size of the entry size, timestamp, and direction fields
+    static final int ENTRY_HEADER_SIZE = 4 + 8 + 1;
+    static final int INDEX_ENTRY_SIZE = 8 + 8;
+
+    // Recordings are mapped as a whole when replaying
+    static final long MAX_SIZE = Integer.MAX_VALUE;
+
+    static final long INDEX_INTERVAL = 100_000_000L;
+
+    private static final int REGION_SIZE = 16 * 1024 * 1024;
+    private static final int INDEX_REGION_SIZE = 64 * 1024;
+
+    /**
+     * Gets the path of the index for a recording.
+     *
+     * @param file path of the recording
+     * @return path of its index
+     */
+    public static Path getIndexPath(Path file) {
+        return Paths.get(file.toString() + INDEX_EXTENSION);
+    }
+
+    private final MappedFile log;
+    private final MappedFile index;
+    private final long maxSize;
+    private final long clockBase;
+    private long lastTime;
+    private long nextIndexTime;
+    private long messageCount;
+    private boolean open;
+
+    /**
+     * Creates a new recording. If the file already exists, it is overwritten.
+     *
+     * @param file path to write the recording to
+     * @throws IOException if the file can't be created
+     */
+    public MessageRecorder(Path file) throws IOException {
+        this(file, MAX_SIZE);
+    }
+
+    /**
+     * Creates a new recording that stops once it reaches a maximum size. If the file already
+     * exists, it is overwritten.
+     *
+     * @param file path to write the recording to
+     * @param maxSize maximum size of the recording in bytes, at most {@code Integer.MAX_VALUE}
+     * @throws IllegalArgumentException if the maximum size is too small or too large
+     * @throws IOException if the file can't be created
+     */
+    public MessageRecorder(Path file, long maxSize) throws IOException {
+        if (maxSize < 12 || maxSize > MAX_SIZE)
+            throw new IllegalArgumentException("Invalid maximum recording size: " + maxSize);
+
+        this.maxSize = maxSize;
+        log = new MappedFile(file, (int) Math.min(REGION_SIZE, maxSize));
+        index = new MappedFile(getIndexPath(file), INDEX_REGION_SIZE);
+        log.reserve(8).putLong(MAGIC);
+        index.reserve(8).putLong(INDEX_MAGIC);
+
+        // Same clock as MessengerClient.getLocalTime()
+        clockBase = System.currentTimeMillis() * 1_000_000L - System.nanoTime();
+        lastTime = Long.MIN_VALUE;
+        nextIndexTime = Long.MIN_VALUE;
+        messageCount = 0;
+        open = true;
+    }
+
+    // Records a received message, reader is the message data
+    synchronized void recordReceived(String type, MessageReader reader) {
+        int typeLen = MessengerClient.utf8Length(type);
+        ByteBuffer buf = beginEntry(RECEIVED, 2 + typeLen + 4 + reader.getLength());
+        if (buf == null) return;
+
+        buf.putShort((short) typeLen);
+        MessengerClient.putUtf8(buf, type);
+        buf.putInt(reader.getLength());
+        reader.copyTo(buf);
+        endEntry(buf);
+    }
+
+    // Records a sent message. The frame includes the type and data size
+    // header, and its position is not modified
+    synchronized void recordSent(ByteBuffer frame) {
+        ByteBuffer buf = beginEntry(SENT, frame.remaining());
+        if (buf == null) return;
+
+        int pos = frame.position();
+        buf.put(frame);
+        frame.position(pos);
+        endEntry(buf);
+    }
+
+    // Reserves space for an entry and writes everything except its size
+    private ByteBuffer beginEntry(byte direction, int frameSize) {
+        if (!open) return null;
+
+        // Timestamps must never go backwards, so they are taken while locked
+        long time = Math.max(clockBase + System.nanoTime(), lastTime);
+        long offset = log.getSize();
+        int entrySize = ENTRY_HEADER_SIZE + frameSize;
+
+        // Leaves space for the end marker
+        if (offset + entrySize + 4 > maxSize) {
+            System.err.println("Messenger: Recording is full, no more messages will be recorded");
+            close();
+            return null;
+        }
+
+        ByteBuffer buf;
+        try {
+            buf = log.reserve(entrySize);
+            if (time >= nextIndexTime) {
+                index.reserve(INDEX_ENTRY_SIZE).putLong(time).putLong(offset);
+                nextIndexTime = time + INDEX_INTERVAL;
+            }
+        } catch (IOException e) {
+            System.err.println("Messenger: Failed to extend recording:");
+            e.printStackTrace();
+            close();
+            return null;
+        }
+
+        buf.mark();
+        buf.putInt(0).putLong(time).put(direction);
+        lastTime = time;
+        return buf;
+    }
+
+    // Writes the entry's size last, so a partially written entry is never read
+    private void endEntry(ByteBuffer buf) {
+        int end = buf.position();
+        buf.reset();
+        buf.putInt(end - buf.position() - 4);
+        buf.position(end);
+        messageCount++;
+    }
+
+    /** @return number of messages recorded */
+    public synchronized long getMessageCount() {
+        return messageCount;
+    }
+
+    /** @return whether messages are still being recorded */
+    public synchronized boolean isRecording() {
+        return open;
+    }
+
+    /** @return size of the recording in bytes */
+    public synchronized long getSize() {
+        return log.getSize();
+    }
+
+    /**
+     * Stops recording and closes the files. Messages recorded after this are ignored. This does not
+     * need to be called for the recording to be readable, but it removes unused space at the end
+     * of the files.
+     */
+    @Override
+    public synchronized void close() {
+        if (!open) return;
+        open = false;
+
+        log.close();
+        index.close();
+    }
+
+    // Append-only file that is mapped into memory a region at a time, so
+    // the file can grow without remapping what has already been written
+    private static final class MappedFile {
+        private final Path path;
+        private final FileChannel channel;
+        private final int regionSize;
+        private MappedByteBuffer region;
+        private long regionStart;
+
+        MappedFile(Path path, int regionSize) throws IOException {
+            this.path = path;
+            this.regionSize = regionSize;
+            channel =
+                    FileChannel.open(
+                            path,
+                            StandardOpenOption.CREATE,
+                            StandardOpenOption.TRUNCATE_EXISTING,
+                            StandardOpenOption.READ,
+                            StandardOpenOption.WRITE);
+            region = null;
+            regionStart = 0;
+        }
+
+        long getSize() {
+            return region == null ? 0 : regionStart + region.position();
+        }
+
+        // Gets a buffer with at least the given number of bytes remaining to
+        // write into. Unwritten space after them is zero
+        ByteBuffer reserve(int bytes) throws IOException {
+            if (region == null || region.remaining() < bytes) {
+                // Mapping past the end of the file extends it with zeros
+                long start = getSize();
+                region =
+                        channel.map(
+                                FileChannel.MapMode.READ_WRITE, start, Math.max(regionSize, bytes));
+                regionStart = start;
+            }
+            return region;
+        }
+
+        void close() {
+            long size = getSize();
+            try {
+                if (region != null) region.force();
+
+                // Can fail on Windows while the file is still mapped, in which case
+                // the unused space is left as zeros
+                channel.truncate(size);
+            } catch (IOException e) {
+                System.err.println("Messenger: Failed to trim recording " + path + ":");
+                e.printStackTrace();
+            }
+
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
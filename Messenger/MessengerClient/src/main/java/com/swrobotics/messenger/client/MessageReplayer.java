@@ -0,0 +1,297 @@
+package com.swrobotics.messenger.client;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays a recording made by a {@link MessageRecorder} into the handlers of a {@link
+ * MessengerClient}, as if the messages were being received again. This allows running the same
+ * code against recorded traffic, at the original speed or faster.
+ *
+ * <p>Handlers are invoked from the thread calling {@link #update()} or {@link #run()}, which must
+ * be the same thread that calls {@link MessengerClient#readMessages()} if the client is also
+ * connected. Messages the client sent are not replayed unless enabled with {@link
+ * #setReplaySent}.
+ */
+public final class MessageReplayer {
+    /** Speed that replays messages as fast as possible, without waiting between them. */
+    public static final double MAX_SPEED = Double.POSITIVE_INFINITY;
+
+    private static final int HEADER_SIZE = 8;
+
+    // Smallest message is an empty type with no data
+    private static final int MIN_ENTRY_SIZE = MessageRecorder.ENTRY_HEADER_SIZE + 2 + 4;
+
+    private final MessengerClient client;
+    private final ByteBuffer log;
+    private long[] indexTimes;
+    private int[] indexOffsets;
+    private final long startTime;
+    private final long endTime;
+
+    private double speed;
+    private boolean replaySent;
+
+    // Offset of the next entry to replay
+    private int offset;
+    private long time;
+
+    // Value of System.nanoTime() when pacing started from anchorTime, or -1
+    // if pacing needs to restart from the current time
+    private long anchorNanos;
+    private long anchorTime;
+
+    /**
+     * Opens a recording to replay. If the recording has no index, or the index is damaged,
+     * seeking reads through the recording instead.
+     *
+     * @param file path of the recording
+     * @param client client to replay messages into
+     * @throws IOException if the file can't be read or is not a recording
+     */
+    public MessageReplayer(Path file, MessengerClient client) throws IOException {
+        this.client = client;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = Math.min(channel.size(), MessageRecorder.MAX_SIZE);
+            if (size < HEADER_SIZE) throw new IOException("Not a Messenger recording: " + file);
+            log = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        if (log.getLong(0) != MessageRecorder.MAGIC)
+            throw new IOException("Not a Messenger recording: " + file);
+
+        loadIndex(MessageRecorder.getIndexPath(file));
+
+        // Only the entries after the last indexed one need to be read to find
+        // the end
+        int last = -1;
+        int entry = indexOffsets.length > 0 ? indexOffsets[indexOffsets.length - 1] : HEADER_SIZE;
+        for (; hasEntry(entry); entry = nextEntry(entry)) last = entry;
+
+        startTime = hasEntry(HEADER_SIZE) ? getEntryTime(HEADER_SIZE) : 0;
+        endTime = last >= 0 ? getEntryTime(last) : startTime;
+
+        speed = 1;
+        replaySent = false;
+        offset = HEADER_SIZE;
+        time = startTime;
+        anchorNanos = -1;
+        anchorTime = startTime;
+    }
+
+    private void loadIndex(Path path) {
+        indexTimes = new long[0];
+        indexOffsets = new int[0];
+        if (!Files.exists(path)) return;
+
+        ByteBuffer index;
+        try {
+            index = ByteBuffer.wrap(Files.readAllBytes(path));
+        } catch (IOException e) {
+            System.err.println("Messenger: Failed to read recording index, seeking will be slow");
+            return;
+        }
+        if (index.remaining() < 8 || index.getLong() != MessageRecorder.INDEX_MAGIC) return;
+
+        int count = 0;
+        long[] times = new long[index.remaining() / MessageRecorder.INDEX_ENTRY_SIZE];
+        int[] offsets = new int[times.length];
+        while (index.remaining() >= MessageRecorder.INDEX_ENTRY_SIZE) {
+            long entryTime = index.getLong();
+            long entryOffset = index.getLong();
+
+            // Zero offset is the end of the index. Anything pointing at an
+            // entry that was never completed is also ignored
+            if (entryOffset < HEADER_SIZE
+                    || entryOffset >= log.limit()
+                    || !hasEntry((int) entryOffset)
+                    || (count > 0 && entryOffset <= offsets[count - 1])) {
+                break;
+            }
+
+            times[count] = entryTime;
+            offsets[count] = (int) entryOffset;
+            count++;
+        }
+
+        indexTimes = Arrays.copyOf(times, count);
+        indexOffsets = Arrays.copyOf(offsets, count);
+    }
+
+    private boolean hasEntry(int entry) {
+        if (entry > log.limit() - 4) return false;
+
+        int size = log.getInt(entry);
+        return size >= MIN_ENTRY_SIZE - 4 && size <= log.limit() - entry - 4;
+    }
+
+    private int nextEntry(int entry) {
+        return entry + 4 + log.getInt(entry);
+    }
+
+    private long getEntryTime(int entry) {
+        return log.getLong(entry + 4);
+    }
+
+    /**
+     * Sets how fast the recording is replayed, relative to the original speed. For example, a speed
+     * of 10 replays ten seconds of the recording every second.
+     *
+     * @param speed new speed, or {@link #MAX_SPEED} to replay as fast as possible
+     */
+    public void setSpeed(double speed) {
+        if (!(speed > 0)) throw new IllegalArgumentException("Speed must be positive");
+
+        // Continue from the current point in the recording at the new speed
+        anchorNanos = -1;
+        this.speed = speed;
+    }
+
+    /** @return current replay speed */
+    public double getSpeed() {
+        return speed;
+    }
+
+    /**
+     * Sets whether messages the client sent are replayed too. This is useful to replay the inputs
+     * of code that listens to messages sent by the recorded program.
+     *
+     * @param replaySent whether to replay sent messages
+     */
+    public void setReplaySent(boolean replaySent) {
+        this.replaySent = replaySent;
+    }
+
+    /** @return time of the first message in the recording, in nanoseconds since the Unix epoch */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /** @return time of the last message in the recording, in nanoseconds since the Unix epoch */
+    public long getEndTime() {
+        return endTime;
+    }
+
+    /**
+     * Gets the point in the recording that has been replayed up to.
+     *
+     * @return time in nanoseconds since the Unix epoch
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /** @return whether all messages have been replayed */
+    public boolean isFinished() {
+        return !hasEntry(offset);
+    }
+
+    /**
+     * Moves to a different time in the recording. The next message replayed is the first message
+     * recorded at or after the time.
+     *
+     * @param time time to move to, in nanoseconds since the Unix epoch
+     */
+    public void seek(long time) {
+        // Start from the last indexed entry before the time
+        int low = 0;
+        int high = indexTimes.length - 1;
+        int entry = HEADER_SIZE;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (indexTimes[mid] <= time) {
+                entry = indexOffsets[mid];
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        while (hasEntry(entry) && getEntryTime(entry) < time) entry = nextEntry(entry);
+        offset = entry;
+        this.time = time;
+        anchorNanos = -1;
+    }
+
+    /**
+     * Replays all messages that are due at the current speed since replay started. This is
+     * intended to be called periodically, for example at the same place {@link
+     * MessengerClient#readMessages()} is called. At {@link #MAX_SPEED}, all remaining messages are
+     * replayed.
+     *
+     * @return whether there are more messages to replay
+     */
+    public boolean update() {
+        if (anchorNanos < 0) startPacing();
+
+        long due = getPacedTime();
+        while (hasEntry(offset) && getEntryTime(offset) <= due) replayEntry();
+        client.handleLatestMessages();
+
+        return !isFinished();
+    }
+
+    /**
+     * Replays the rest of the recording, waiting between messages according to the current speed.
+     * This blocks until all messages have been replayed.
+     *
+     * @throws InterruptedException if interrupted while waiting for the next message
+     */
+    public void run() throws InterruptedException {
+        startPacing();
+        while (hasEntry(offset)) {
+            long wait = getWaitTime(getEntryTime(offset));
+            if (wait > 0) {
+                // Latest-only handlers see what arrived before the gap
+                client.handleLatestMessages();
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+            replayEntry();
+        }
+        client.handleLatestMessages();
+    }
+
+    private void startPacing() {
+        anchorTime = time;
+        anchorNanos = System.nanoTime();
+    }
+
+    // Gets the recording time that should have been replayed up to by now
+    private long getPacedTime() {
+        if (speed == MAX_SPEED) return Long.MAX_VALUE;
+        return anchorTime + (long) ((System.nanoTime() - anchorNanos) * speed);
+    }
+
+    // Gets how long to wait until a recording time is due, in nanoseconds
+    private long getWaitTime(long recordingTime) {
+        if (speed == MAX_SPEED) return 0;
+        return anchorNanos + (long) ((recordingTime - anchorTime) / speed) - System.nanoTime();
+    }
+
+    private void replayEntry() {
+        int entry = offset;
+        offset = nextEntry(entry);
+        time = getEntryTime(entry);
+
+        int frame = entry + MessageRecorder.ENTRY_HEADER_SIZE;
+        if (log.get(entry + 12) == MessageRecorder.SENT && !replaySent) return;
+
+        int typeLen = log.getShort(frame) & 0xFFFF;
+        int dataStart = frame + 2 + typeLen + 4;
+        if (typeLen == 0 || dataStart > offset) return;
+        int dataLen = log.getInt(dataStart - 4);
+        if (dataLen != offset - dataStart) return;
+
+        byte[] typeBytes = new byte[typeLen];
+        for (int i = 0; i < typeLen; i++) typeBytes[i] = log.get(frame + 2 + i);
+        String type = new String(typeBytes, StandardCharsets.UTF_8);
+
+        client.replayMessage(type, log, dataStart, dataLen);
+    }
+}
@@ -0,0 +1,71 @@
+package com.swrobotics.messenger.client;
+
+/** Traffic and handler timing for one message type. Byte counts only include message data. */
+public final class MessageTypeStats {
+    private final String type;
+    private final long sentCount;
+    private final long sentBytes;
+    private final long receivedCount;
+    private final long receivedBytes;
+    private final LatencyStats handlerTime;
+
+    MessageTypeStats(
+            String type,
+            long sentCount,
+            long sentBytes,
+            long receivedCount,
+            long receivedBytes,
+            LatencyStats handlerTime) {
+        this.type = type;
+        this.sentCount = sentCount;
+        this.sentBytes = sentBytes;
+        this.receivedCount = receivedCount;
+        this.receivedBytes = receivedBytes;
+        this.handlerTime = handlerTime;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public long getSentCount() {
+        return sentCount;
+    }
+
+    public long getSentBytes() {
+        return sentBytes;
+    }
+
+    public long getReceivedCount() {
+        return receivedCount;
+    }
+
+    public long getReceivedBytes() {
+        return receivedBytes;
+    }
+
+    /**
+     * Gets how long handlers took to handle messages of this type. Each handler invocation is
+     * measured separately.
+     *
+     * @return handler execution time
+     */
+    public LatencyStats getHandlerTime() {
+        return handlerTime;
+    }
+
+    @Override
+    public String toString() {
+        return type
+                + ": sent "
+                + sentCount
+                + " ("
+                + sentBytes
+                + " B), received "
+                + receivedCount
+                + " ("
+                + receivedBytes
+                + " B), handlers "
+                + handlerTime;
+    }
+}
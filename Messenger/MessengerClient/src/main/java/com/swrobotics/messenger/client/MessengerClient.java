@@ -1,16 +1,34 @@
 package com.swrobotics.messenger.client;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.net.Socket;
+import java.net.NetworkInterface;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Predicate;
+import java.util.zip.Deflater;
 
 /**
  * Represents a connection to the Messenger server. This can be used to send messages between
@@ -22,24 +40,118 @@ public final class MessengerClient {
     public static final String EVENT_TYPE = "Messenger:Event";
     public static final String GET_CLIENTS_TYPE = "Messenger:GetClients";
     public static final String CLIENT_LIST_TYPE = "Messenger:Clients";
+    public static final String STATS_TYPE = "Messenger:Stats";
 
     private static final String HEARTBEAT = "_Heartbeat";
     private static final String LISTEN = "_Listen";
     private static final String DISCONNECT = "_Disconnect";
+    private static final String ALIAS = "_Alias";
+    private static final String SHARED_MEMORY = "_SharedMemory";
+    private static final String COMPRESSION = "_Compression";
+    private static final String LISTEN_RATE = "_ListenRate";
+
+    // Kinds of _Alias messages
+    private static final byte ALIAS_DEFINE = 0;
+    private static final byte ALIAS_ACKNOWLEDGE = 1;
+
+    // Kinds of _SharedMemory messages
+    private static final byte SHARED_MEMORY_OFFER = 0;
+    private static final byte SHARED_MEMORY_ACCEPT = 1;
+    private static final byte SHARED_MEMORY_SWITCH = 2;
+    private static final byte SHARED_MEMORY_PEER = 3;
+    private static final byte SHARED_MEMORY_REMOVE = 4;
+    private static final byte SHARED_MEMORY_DETACH = 5;
+
+    // Kinds of _Compression messages
+    private static final byte COMPRESSION_OFFER = 0;
+    private static final byte COMPRESSION_ACCEPT = 1;
+
+    private static final String COMPRESSION_CODEC = "deflate";
+    private static final int COMPRESSION_LEVEL = Deflater.BEST_SPEED;
+    private static final int DEFAULT_COMPRESSION_THRESHOLD = 512;
+
+    // Kinds of _ListenRate messages
+    private static final byte LISTEN_RATE_SET = 0;
+    private static final byte LISTEN_RATE_ACKNOWLEDGE = 1;
+
+    private static final int SHARED_RING_CAPACITY = 4 * 1024 * 1024;
+    private static final long SHARED_RING_WAIT_NANOS = 50_000L;
+
+    // Maximum number of aliases defined per connection
+    private static final int MAX_TYPE_ALIASES = 4096;
 
     private static final long TIMEOUT = 4000L;
 
-    static String readStringUtf8(DataInputStream in) throws IOException {
-        int len = in.readUnsignedShort();
-        byte[] utf8 = new byte[len];
-        in.readFully(utf8);
-        return new String(utf8, StandardCharsets.UTF_8);
+    // Number of recent heartbeats used to estimate round trip time and clock offset
+    private static final int CLOCK_SAMPLE_WINDOW = 64;
+    private static final long DEFAULT_REQUEST_TIMEOUT = 2000L;
+
+    // Limits on the builders kept for reuse by each thread
+    private static final int MAX_POOLED_BUILDERS = 8;
+    private static final int MAX_POOLED_BUILDER_CAPACITY = 1024 * 1024;
+
+    private static final int DEFAULT_FLUSH_THRESHOLD = 16 * 1024;
+    private static final int DEFAULT_CONTROL_QUEUE_CAPACITY = 64;
+    private static final int DEFAULT_OUTBOUND_QUEUE_CAPACITY = 1024;
+    private static final int DEFAULT_INBOUND_QUEUE_CAPACITY = 1024;
+    private static final long READER_SELECT_TIMEOUT = 100L;
+
+    // Longest wait in waitForMessages() while reading shared memory peers,
+    // since they can't wake up the waiting thread
+    private static final long PEER_POLL_NANOS = 1_000_000L;
+
+    // Gets the number of bytes needed to encode a string as UTF-8, without
+    // allocating the encoded bytes
+    static int utf8Length(String str) {
+        int len = 0;
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if (c < 0x80) {
+                len++;
+            } else if (c < 0x800) {
+                len += 2;
+            } else if (isSurrogatePair(str, i)) {
+                len += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                len++; // Unpaired surrogates are encoded as '?'
+            } else {
+                len += 3;
+            }
+        }
+        return len;
+    }
+
+    // Encodes a string as UTF-8 directly into a buffer. The buffer must have
+    // at least utf8Length(str) bytes remaining.
+    static void putUtf8(ByteBuffer buf, String str) {
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if (c < 0x80) {
+                buf.put((byte) c);
+            } else if (c < 0x800) {
+                buf.put((byte) (0xC0 | (c >> 6)));
+                buf.put((byte) (0x80 | (c & 0x3F)));
+            } else if (isSurrogatePair(str, i)) {
+                int cp = Character.toCodePoint(c, str.charAt(++i));
+                buf.put((byte) (0xF0 | (cp >> 18)));
+                buf.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                buf.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                buf.put((byte) (0x80 | (cp & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                buf.put((byte) '?');
+            } else {
+                buf.put((byte) (0xE0 | (c >> 12)));
+                buf.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buf.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
     }
 
-    static void writeStringUtf8(DataOutputStream out, String str) throws IOException {
-        byte[] utf8 = str.getBytes(StandardCharsets.UTF_8);
-        out.writeShort(utf8.length);
-        out.write(utf8);
+    private static boolean isSurrogatePair(String str, int i) {
+        return Character.isHighSurrogate(str.charAt(i))
+                && i + 1 < str.length()
+                && Character.isLowSurrogate(str.charAt(i + 1));
     }
 
     private String host;
@@ -49,21 +161,72 @@ public final class MessengerClient {
     private final AtomicBoolean connected;
     private final ScheduledExecutorService executor;
     private final ScheduledFuture<?> heartbeatFuture;
+    private ScheduledFuture<?> statsFuture;
     private Thread connectThread;
 
     private final Thread watchdogThread;
 
-    private Socket socket;
-    private DataInputStream in;
-    private DataOutputStream out;
+    private final ThreadLocal<ArrayDeque<MessageBuilder>> builderPool;
+    private final Object writeLock;
+    private FlushPolicy flushPolicy;
+    private ByteBuffer outBuffer;
+    private final OutboundQueue[] outboundQueues;
+    private OutboundQueue partialQueue;
+    private final Map<String, MessagePriority> typePriorities;
+    private final Map<String, MessagePriority> wildcardPriorities;
+    private final Map<String, MessagePriority> resolvedPriorities;
+    private boolean typeAliasing;
+    private final Map<String, TypeAlias> typeAliases;
+    private final List<TypeAlias> typeAliasesById;
+    private final FrameDecoder decoder;
+    private volatile boolean compression;
+    private boolean compressionAccepted;
+    private int compressionThreshold;
+    private final FrameCompressor compressor;
+    private SocketChannel channel;
+    private Selector writeSelector;
+
+    private volatile boolean sharedMemory;
+    private volatile SharedRing offeredRing;
+    private volatile SharedRing sharedRing;
+    private final ByteBuffer doorbell;
+    private volatile int connectionId;
+    private final List<SharedMemoryPeer> peers;
+    private final MessageReader sharedMemoryReader;
+
+    private volatile ReadMode readMode;
+    private InboundQueue inboundQueue;
+    private volatile Thread readerThread;
+    private volatile Thread waitingThread;
+    private volatile boolean wakeupPending;
+    private Selector readSelector;
+    private SocketChannel readSelectorChannel;
 
     private final Set<String> listening;
-    private final Set<Handler> handlers;
+    private final Map<String, Long> listenIntervals;
+    private volatile boolean listenRateAccepted;
+    private final Map<String, List<HandlerEntry>> directHandlers;
+    private final PrefixTrie<HandlerEntry> wildcardHandlers;
+    private final List<HandlerEntry> matchedHandlers;
+    private final MessageReader handlerReader;
+    private final Map<String, LatestMessage> latestMessages;
+    private final List<LatestMessage> pendingLatestMessages;
+    private final List<HeldMessage> heldMessages;
+    private final Set<String> sendLatestOnlyTypes;
     private final Set<Runnable> disconnectHandlers;
+    private final List<PendingRequest> pendingRequests;
+    private final Set<String> responseTypes;
+    private long requestTimeoutNanos;
+    private final StreamManager streams;
+    private final MessengerMetrics metrics;
+    private volatile MessageRecorder recorder;
 
     private Exception lastConnectFailException;
 
-    private long prevServerHeartbeatTimestamp;
+    private volatile long prevServerHeartbeatTimestamp;
+    private final long clockBase;
+    private final ClockEstimator clock;
+    private final MessageReader heartbeatReader;
 
     /**
      * Creates a new instance and attempts to connect to a Messenger server at the given address.
@@ -77,22 +240,82 @@ public final class MessengerClient {
         this.port = port;
         this.name = name;
 
-        socket = null;
+        builderPool = ThreadLocal.withInitial(ArrayDeque::new);
+        writeLock = new Object();
+        flushPolicy = FlushPolicy.IMMEDIATE;
+        outBuffer = ByteBuffer.allocateDirect(DEFAULT_FLUSH_THRESHOLD);
+        outboundQueues = new OutboundQueue[MessagePriority.values().length];
+        for (MessagePriority priority : MessagePriority.values()) {
+            int capacity =
+                    priority == MessagePriority.CONTROL
+                            ? DEFAULT_CONTROL_QUEUE_CAPACITY
+                            : DEFAULT_OUTBOUND_QUEUE_CAPACITY;
+            outboundQueues[priority.ordinal()] = new OutboundQueue(capacity, DropPolicy.BLOCK);
+        }
+        partialQueue = null;
+        typePriorities = new HashMap<>();
+        wildcardPriorities = new HashMap<>();
+        resolvedPriorities = new HashMap<>();
+        typeAliasing = true;
+        typeAliases = new HashMap<>();
+        typeAliasesById = new ArrayList<>();
+        decoder = new FrameDecoder();
+        compression = false;
+        compressionAccepted = false;
+        compressionThreshold = DEFAULT_COMPRESSION_THRESHOLD;
+        compressor = new FrameCompressor(COMPRESSION_LEVEL);
+        channel = null;
+        sharedMemory = false;
+        offeredRing = null;
+        sharedRing = null;
+        doorbell = ByteBuffer.allocate(1);
+        connectionId = 0;
+        peers = new ArrayList<>();
+        sharedMemoryReader = new MessageReader();
+        readMode = ReadMode.CALLER_THREAD;
+        inboundQueue = null;
+        readerThread = null;
+        waitingThread = null;
+        wakeupPending = false;
+        readSelector = null;
+        readSelectorChannel = null;
         connected = new AtomicBoolean(false);
 
+        // Local time is based on the monotonic clock so it never jumps
+        clockBase = System.currentTimeMillis() * 1_000_000L - System.nanoTime();
+        clock = new ClockEstimator(CLOCK_SAMPLE_WINDOW);
+        heartbeatReader = new MessageReader();
+
         executor = Executors.newSingleThreadScheduledExecutor();
         heartbeatFuture =
                 executor.scheduleAtFixedRate(
                         () -> {
-                            sendMessage(HEARTBEAT, new byte[0]);
+                            prepare(HEARTBEAT).addLong(getLocalTime()).send();
+                            flush();
                         },
                         0,
                         1,
                         TimeUnit.SECONDS);
 
         listening = Collections.synchronizedSet(new HashSet<>());
-        handlers = new HashSet<>();
+        listenIntervals = new ConcurrentHashMap<>();
+        listenRateAccepted = false;
+        directHandlers = new HashMap<>();
+        wildcardHandlers = new PrefixTrie<>();
+        matchedHandlers = new ArrayList<>();
+        handlerReader = new MessageReader();
+        latestMessages = new HashMap<>();
+        pendingLatestMessages = new ArrayList<>();
+        heldMessages = new ArrayList<>();
+        sendLatestOnlyTypes = new HashSet<>();
         disconnectHandlers = new HashSet<>();
+        pendingRequests = new ArrayList<>();
+        responseTypes = new HashSet<>();
+        requestTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_REQUEST_TIMEOUT);
+        streams = new StreamManager(this);
+        metrics = new MessengerMetrics();
+        recorder = null;
+        statsFuture = null;
 
         lastConnectFailException = null;
 
@@ -113,7 +336,7 @@ public final class MessengerClient {
         this.name = name;
 
         if (connected.get()) {
-            send(DISCONNECT);
+            sendDisconnect();
             disconnectSocket();
             connected.set(false);
         }
@@ -137,14 +360,10 @@ public final class MessengerClient {
                         () -> {
                             while (!connected.get() && !Thread.interrupted()) {
                                 try {
-                                    socket = new Socket();
-                                    socket.setSoTimeout(1000);
-                                    socket.connect(new InetSocketAddress(host, port), 1000);
-                                    in = new DataInputStream(socket.getInputStream());
-                                    out = new DataOutputStream(socket.getOutputStream());
-                                    writeStringUtf8(out, name);
+                                    openChannel();
 
                                     connected.set(true);
+                                    metrics.recordConnect();
                                     System.out.println("Messenger connection established");
 
                                     // Prioritize listening to EVENT_TYPE so that we receive our own
@@ -157,6 +376,12 @@ public final class MessengerClient {
                                         if (listen.equals(EVENT_TYPE)) continue;
                                         listen(listen);
                                     }
+
+                                    if (readMode == ReadMode.BACKGROUND_THREAD)
+                                        startReaderThread();
+
+                                    if (sharedMemory) offerSharedMemory();
+                                    if (compression) offerCompression();
                                 } catch (Exception e) {
                                     lastConnectFailException = e;
                                     System.err.println(
@@ -182,6 +407,450 @@ public final class MessengerClient {
         connectThread.start();
     }
 
+    private void openChannel() throws IOException {
+        SocketChannel ch = SocketChannel.open();
+        Selector selector = null;
+        try {
+            // Connect in blocking mode so the timeout can be used, then switch to non-blocking
+            // so that reading never waits for data that hasn't arrived yet
+            ch.socket().connect(new InetSocketAddress(host, port), 1000);
+            ch.configureBlocking(false);
+            selector = Selector.open();
+            ch.register(selector, SelectionKey.OP_WRITE);
+
+            // The decoder is reset below, so make sure the previous connection's
+            // reader thread is no longer using it
+            stopReaderThread();
+
+            ByteBuffer handshake = ByteBuffer.allocate(2 + utf8Length(name));
+            handshake.putShort((short) (handshake.capacity() - 2));
+            putUtf8(handshake, name);
+            handshake.flip();
+
+            synchronized (writeLock) {
+                channel = ch;
+                writeSelector = selector;
+                decoder.reset();
+
+                // Anything queued was meant for the previous connection
+                outBuffer.clear();
+                for (OutboundQueue queue : outboundQueues) queue.clear(false);
+                partialQueue = null;
+
+                // Aliases must be negotiated again with the new server
+                typeAliases.clear();
+                typeAliasesById.clear();
+
+                // The new server may have a different clock
+                clock.reset();
+
+                // Shared memory and compression must be negotiated again too
+                closeSharedRings();
+                compressionAccepted = false;
+                listenRateAccepted = false;
+                connectionId++;
+
+                writeFully(handshake);
+            }
+        } catch (IOException e) {
+            ch.close();
+            if (selector != null) selector.close();
+            throw e;
+        }
+    }
+
+    // Writes all the data, waiting for the socket to have space if necessary.
+    // Must be called with writeLock held
+    private void writeFully(ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            if (writeOut(buf) == 0) awaitWritable();
+        }
+    }
+
+    // Writes as much data as possible to the server without waiting, through
+    // shared memory once the server has accepted it.
+    // Must be called with writeLock held
+    private int writeOut(ByteBuffer buf) throws IOException {
+        SharedRing ring = sharedRing;
+        if (ring == null) return channel.write(buf);
+
+        int written = ring.write(buf);
+        // Wake up the server if it is waiting for data
+        if (ring.takeWaitingReader()) channel.write(doorbell.clear());
+        return written;
+    }
+
+    // Waits for the socket send buffer or shared ring to have space.
+    // Must be called with writeLock held
+    private void awaitWritable() throws IOException {
+        SharedRing ring = sharedRing;
+        if (ring != null) {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT);
+            while (!ring.hasSpace()) {
+                if (System.nanoTime() > deadline)
+                    throw new IOException("Timed out writing to server");
+                LockSupport.parkNanos(SHARED_RING_WAIT_NANOS);
+            }
+            return;
+        }
+
+        if (writeSelector.select(TIMEOUT) == 0)
+            throw new IOException("Timed out writing to server");
+        writeSelector.selectedKeys().clear();
+    }
+
+    /**
+     * Sets whether to send messages through shared memory when the server is running on the same
+     * host. Messages are written to a ring buffer under {@code /dev/shm} instead of the socket, and
+     * other clients on the same host read them straight from the ring, so they are handed off
+     * without any system calls. If the server does not support shared memory, or is on a
+     * different host, the socket is used as normal. This is disabled by default.
+     *
+     * <p>Type aliases are not used for messages sent through shared memory, since other clients
+     * read them directly.
+     *
+     * @param sharedMemory whether to use shared memory
+     */
+    public void setSharedMemory(boolean sharedMemory) {
+        this.sharedMemory = sharedMemory;
+        if (sharedMemory && connected.get()) offerSharedMemory();
+    }
+
+    /**
+     * Gets whether messages are currently being sent through shared memory.
+     *
+     * @return whether shared memory is in use
+     */
+    public boolean isUsingSharedMemory() {
+        return sharedRing != null;
+    }
+
+    private void offerSharedMemory() {
+        if (!isLocalHost(host) || !Files.isDirectory(SharedRing.DIRECTORY)) return;
+
+        SharedRing ring;
+        synchronized (writeLock) {
+            if (!connected.get() || offeredRing != null || sharedRing != null) return;
+
+            try {
+                ring = SharedRing.create(SHARED_RING_CAPACITY);
+            } catch (IOException e) {
+                System.err.println("Messenger: Could not create shared memory ring:");
+                e.printStackTrace();
+                return;
+            }
+
+            // Stop using aliases now, so nothing sent after switching uses them
+            offeredRing = ring;
+        }
+
+        prepare(SHARED_MEMORY)
+                .addByte(SHARED_MEMORY_OFFER)
+                .addString(ring.getPath().toString())
+                .send();
+    }
+
+    /**
+     * Sets whether to compress the data of large messages. Compression is only used if the server
+     * supports it, which is negotiated when connecting. Messages with at least the compression
+     * threshold of data are compressed with deflate at its fastest level, and are sent compressed
+     * if that makes them smaller. This is useful for text, such as logs and file contents, over a
+     * slow network. Messages sent through shared memory are never compressed. This is disabled by
+     * default.
+     *
+     * <p>Compressed messages from the server are always decompressed before they are handled, so
+     * handlers don't need to know whether a message was compressed.
+     *
+     * @param compression whether to compress messages
+     */
+    public void setCompression(boolean compression) {
+        this.compression = compression;
+        if (compression && connected.get()) offerCompression();
+    }
+
+    /**
+     * Sets the smallest message data size to try compressing. Compressing small messages takes
+     * time without saving much, and usually doesn't make them any smaller. The default is 512
+     * bytes.
+     *
+     * @param bytes threshold in bytes
+     */
+    public void setCompressionThreshold(int bytes) {
+        if (bytes < 0) throw new IllegalArgumentException("Threshold can not be negative");
+        synchronized (writeLock) {
+            compressionThreshold = bytes;
+        }
+    }
+
+    /**
+     * Gets whether messages are currently being compressed, which requires compression to be
+     * enabled and the server to support it.
+     *
+     * @return whether compression is in use
+     */
+    public boolean isUsingCompression() {
+        synchronized (writeLock) {
+            return compression && compressionAccepted;
+        }
+    }
+
+    private void offerCompression() {
+        synchronized (writeLock) {
+            if (compressionAccepted) return;
+        }
+        prepare(COMPRESSION).addByte(COMPRESSION_OFFER).addString(COMPRESSION_CODEC).send();
+    }
+
+    private static boolean isLocalHost(String host) {
+        try {
+            InetAddress address = InetAddress.getByName(host);
+            return address.isLoopbackAddress()
+                    || address.isAnyLocalAddress()
+                    || NetworkInterface.getByInetAddress(address) != null;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // Called when the server accepts the offered ring. Everything already
+    // queued is sent over the socket, followed by a message telling the server
+    // that the rest will be in the ring
+    private void switchToSharedRing() throws IOException {
+        synchronized (writeLock) {
+            SharedRing ring = offeredRing;
+            if (ring == null || !connected.get()) return;
+            offeredRing = null;
+
+            while (!writeQueued()) awaitWritable();
+
+            byte[] type = SHARED_MEMORY.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer frame = ByteBuffer.allocate(2 + type.length + 4 + 1);
+            frame.putShort((short) type.length).put(type).putInt(1).put(SHARED_MEMORY_SWITCH);
+            frame.flip();
+            writeFully(frame);
+
+            sharedRing = ring;
+        }
+    }
+
+    // Starts or stops reading a ring of another client on the same host. This
+    // is handled in order with other messages, since the server stops
+    // forwarding that client's messages over the socket at this point
+    private void handleSharedMemoryMessage(MessageReader reader) {
+        byte kind = reader.readByte();
+        if (kind == SHARED_MEMORY_PEER) {
+            int id = reader.readInt();
+            String path = reader.readString();
+            long position = reader.readLong();
+            if (sharedRing == null) return;
+
+            try {
+                SharedRing ring = SharedRing.open(Paths.get(path), position);
+                peers.add(new SharedMemoryPeer(id, ring, connectionId));
+            } catch (IOException e) {
+                System.err.println("Messenger: Could not open shared memory ring " + path + ":");
+                e.printStackTrace();
+                prepare(SHARED_MEMORY).addByte(SHARED_MEMORY_DETACH).addInt(id).send();
+            }
+        } else if (kind == SHARED_MEMORY_REMOVE) {
+            int id = reader.readInt();
+            for (SharedMemoryPeer peer : peers) {
+                if (peer.id == id) peer.removed = true;
+            }
+        }
+    }
+
+    private void readSharedMemoryPeers() {
+        for (int i = peers.size() - 1; i >= 0; i--) {
+            SharedMemoryPeer peer = peers.get(i);
+            if (peer.connectionId == connectionId) {
+                try {
+                    readSharedMemoryPeer(peer);
+                } catch (IOException e) {
+                    // Have the server forward the peer's messages again. Anything
+                    // sent until the server gets this is lost
+                    System.err.println("Messenger: " + e.getMessage() + ", using socket instead");
+                    prepare(SHARED_MEMORY).addByte(SHARED_MEMORY_DETACH).addInt(peer.id).send();
+                    peer.removed = true;
+                }
+                if (!peer.removed) continue;
+            }
+
+            peer.ring.close();
+            peers.remove(i);
+        }
+    }
+
+    private void readSharedMemoryPeer(SharedMemoryPeer peer) throws IOException {
+        int read;
+        do {
+            read = peer.decoder.read(peer.ring);
+            while (peer.decoder.nextFrame()) {
+                String type = peer.decoder.getType();
+                if (type.startsWith("_")) {
+                    // Internal messages are for the server
+                    if (type.equals(DISCONNECT)) peer.removed = true;
+                    continue;
+                }
+
+                metrics.recordReceived(type, peer.decoder.getDataLength());
+                if (collectHandlers(type)) {
+                    // Read directly from the peer, so the server hasn't limited its rate
+                    peer.decoder.wrapData(handlerReader);
+                    receive(type, handlerReader, false);
+                }
+            }
+        } while (read > 0);
+    }
+
+    private void closeSharedRings() {
+        SharedRing ring = offeredRing;
+        if (ring != null) ring.close();
+        ring = sharedRing;
+        if (ring != null) ring.close();
+        offeredRing = null;
+        sharedRing = null;
+    }
+
+    private void startReaderThread() {
+        SocketChannel ch = channel;
+        InboundQueue queue = inboundQueue;
+        readerThread = new Thread(() -> runReader(ch, queue), "Messenger Reader Thread");
+        readerThread.setDaemon(true);
+        readerThread.start();
+    }
+
+    // Stops the reader thread and waits for it to exit, so that the decoder
+    // can safely be used by another thread
+    private void stopReaderThread() {
+        Thread thread = readerThread;
+        readerThread = null;
+        if (thread == null || thread == Thread.currentThread()) return;
+
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void runReader(SocketChannel ch, InboundQueue queue) {
+        try (Selector selector = Selector.open()) {
+            ch.register(selector, SelectionKey.OP_READ);
+
+            while (!Thread.currentThread().isInterrupted() && ch.isOpen()) {
+                // Wait for data to arrive. The timeout allows noticing when the channel
+                // has been closed by another thread
+                if (selector.select(READER_SELECT_TIMEOUT) == 0) continue;
+                selector.selectedKeys().clear();
+
+                int read;
+                do {
+                    read = decoder.read(ch);
+                    if (read < 0) throw new EOFException("Server closed the connection");
+
+                    while (decoder.nextFrame()) {
+                        String type = decoder.getType();
+                        metrics.recordReceived(type, decoder.getDataLength());
+                        if (handleInternalMessage(type)) continue;
+
+                        InboundQueue.Slot slot = queue.claim();
+                        if (slot == null) continue; // Queue is full, message is dropped
+
+                        int length = decoder.getDataLength();
+                        if (slot.data.length < length) slot.data = new byte[length];
+                        decoder.getData(slot.data);
+                        slot.type = type;
+                        slot.length = length;
+                        queue.publish();
+
+                        Thread waiting = waitingThread;
+                        if (waiting != null) LockSupport.unpark(waiting);
+                    }
+                } while (read > 0);
+            }
+        } catch (ClosedChannelException e) {
+            // Connection was closed by another thread, nothing to do
+        } catch (IOException e) {
+            // Only report if this is still the active connection
+            if (ch == channel && connected.get()) handleError(e);
+        }
+    }
+
+    // Handles messages from the server that are part of the protocol itself.
+    // These are handled in the order they are received, before any following
+    // messages, since they can affect how the following messages are decoded.
+    // Returns whether the message was handled
+    private boolean handleInternalMessage(String type) throws IOException {
+        if (type.equals(HEARTBEAT)) {
+            long receiveTime = getLocalTime();
+            prevServerHeartbeatTimestamp = System.currentTimeMillis();
+
+            // Servers that support timestamps send back our timestamp along with theirs
+            if (decoder.getDataLength() >= 16) {
+                decoder.wrapData(heartbeatReader);
+                long sendTime = heartbeatReader.readLong();
+                long serverTime = heartbeatReader.readLong();
+                clock.addSample(sendTime, serverTime, receiveTime);
+            }
+            return true;
+        }
+
+        if (type.equals(SHARED_MEMORY)) {
+            decoder.wrapData(sharedMemoryReader);
+            if (sharedMemoryReader.readByte() != SHARED_MEMORY_ACCEPT) return false;
+
+            switchToSharedRing();
+            return true;
+        }
+
+        if (type.equals(COMPRESSION)) {
+            byte[] data = new byte[decoder.getDataLength()];
+            decoder.getData(data);
+            MessageReader reader = new MessageReader(data);
+            if (reader.readByte() != COMPRESSION_ACCEPT) return true;
+
+            // Only one codec exists so far
+            if (reader.readString().equals(COMPRESSION_CODEC)) {
+                synchronized (writeLock) {
+                    compressionAccepted = true;
+                }
+            }
+            return true;
+        }
+
+        if (type.equals(LISTEN_RATE)) {
+            byte[] data = new byte[decoder.getDataLength()];
+            decoder.getData(data);
+            if (data.length > 0 && data[0] == LISTEN_RATE_ACKNOWLEDGE) listenRateAccepted = true;
+            return true;
+        }
+
+        if (type.equals(ALIAS)) {
+            byte[] data = new byte[decoder.getDataLength()];
+            decoder.getData(data);
+            MessageReader reader = new MessageReader(data);
+            if (reader.readByte() != ALIAS_ACKNOWLEDGE) return true;
+
+            int id = reader.readShort() & 0xFFFF;
+            String aliasType = reader.readString();
+            synchronized (writeLock) {
+                if (id >= typeAliasesById.size()) return true;
+
+                TypeAlias alias = typeAliasesById.get(id);
+                if (!alias.type.equals(aliasType))
+                    throw new IOException("Server acknowledged alias " + id + " with wrong type");
+
+                alias.acknowledged = true;
+                decoder.setAlias(id, alias.type);
+            }
+            return true;
+        }
+
+        return false;
+    }
+
     private Thread startWatchdog() {
         prevServerHeartbeatTimestamp = -1;
         Thread thr =
@@ -194,7 +863,7 @@ public final class MessengerClient {
                                         System.err.println(
                                                 "Messenger watchdog: Force-closing socket due to"
                                                         + " server timeout");
-                                        if (!socket.isClosed()) {
+                                        if (channel.isOpen()) {
                                             disconnectSocket();
                                             lastConnectFailException =
                                                     new TimeoutException("Server timed out");
@@ -227,11 +896,17 @@ public final class MessengerClient {
         if (connectThread != null) connectThread.interrupt();
         connectThread = null;
 
+        // Closing the channel below will also cause it to exit
+        if (readerThread != null) readerThread.interrupt();
+
         try {
-            socket.close();
+            if (channel != null) channel.close();
+            if (writeSelector != null) writeSelector.close();
         } catch (IOException e) {
             e.printStackTrace();
         }
+        closeSharedRings();
+        connectionId++;
 
         for (Runnable handler : disconnectHandlers) {
             handler.run();
@@ -242,176 +917,1353 @@ public final class MessengerClient {
     }
 
     /**
-     * Reads all incoming messages. If not connected, this will do nothing. Message handlers will be
-     * invoked from this method.
+     * Reads incoming messages. If not connected, this will do nothing. Message handlers will be
+     * invoked from this method. This never waits for more data to arrive; if a message has only
+     * been partially received, it will be handled by a later call once the rest has arrived. The
+     * socket is only read from once per call, so a server that keeps sending can't keep this from
+     * returning; messages that are still waiting in the socket are handled by the next call.
+     *
+     * <p>When using {@link ReadMode#BACKGROUND_THREAD}, this only handles messages that have
+     * already been received by the reader thread.
+     *
+     * <p>Handlers added with {@link #addLatestHandler} are invoked after all other handlers, once
+     * for each type that was received.
+     *
+     * <p>Requests that have not received a response within the request timeout are completed
+     * exceptionally from this method.
      */
     public void readMessages() {
+        long startTime = System.nanoTime();
+
+        // Handle messages that were received before any disconnect too
+        if (inboundQueue != null) drainInboundQueue();
+
+        // Continue writing messages that didn't fit in the socket before
+        writeQueuedMessages();
+
         if (!isConnected()) {
             if (connectThread == null) startConnectThread();
-
-            return;
+        } else if (readMode == ReadMode.CALLER_THREAD) {
+            readFromSocket();
         }
+        if (!peers.isEmpty()) readSharedMemoryPeers();
 
+        // Now that all new messages have been seen, the latest ones are known
+        handleLatestMessages();
+        handleHeldMessages();
+
+        expireRequests();
+        streams.update();
+
+        metrics.recordReadMessagesTime(System.nanoTime() - startTime);
+    }
+
+    /**
+     * Waits until there may be messages for {@link #readMessages()} to handle, the timeout passes,
+     * or {@link #wakeup()} is called. This allows a program that only reacts to messages to sleep
+     * instead of calling {@link #readMessages()} in a loop. It must be called from the thread that
+     * calls {@link #readMessages()}.
+     *
+     * <p>Request timeouts, rate limited handlers, and streams are only updated by {@link
+     * #readMessages()}, so the timeout should not be much longer than those need. Messages from
+     * shared memory peers can't wake up the waiting thread, so while there are any, this returns
+     * at least once per millisecond.
+     *
+     * @param timeout maximum time to wait
+     * @param unit unit of the timeout
+     * @return whether messages may be ready, false if the timeout passed or this was woken up
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public boolean waitForMessages(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        waitingThread = Thread.currentThread();
         try {
-            while (in.available() > 0) {
-                String type = readStringUtf8(in);
-                int dataSize = in.readInt();
-                byte[] data = new byte[dataSize];
-                in.readFully(data);
-
-                if (type.equals(HEARTBEAT)) {
-                    prevServerHeartbeatTimestamp = System.currentTimeMillis();
+            while (true) {
+                if (wakeupPending) {
+                    wakeupPending = false;
+                    return false;
+                }
+
+                if (inboundQueue != null && inboundQueue.size() > 0) return true;
+                if (!heldMessages.isEmpty()) {
+                    long earliest = Long.MAX_VALUE;
+                    for (HeldMessage held : heldMessages)
+                        earliest = Math.min(earliest, held.lastHandled + held.entry.minInterval);
+                    if (earliest - deadline < 0) deadline = earliest;
+                }
+
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) return false;
+                if (!peers.isEmpty()) remaining = Math.min(remaining, PEER_POLL_NANOS);
+
+                if (readMode == ReadMode.CALLER_THREAD && isConnected()) {
+                    if (selectReadable(remaining)) return true;
                 } else {
-                    for (Handler handler : handlers) {
-                        try {
-                            handler.handle(type, data);
-                        } catch (Throwable t) {
-                            System.err.println("Error in message handler " + t.toString() + ":");
-                            t.printStackTrace();
-                        }
-                    }
+                    LockSupport.parkNanos(this, remaining);
                 }
+                if (Thread.interrupted()) throw new InterruptedException();
+                if (!peers.isEmpty()) return true;
             }
-        } catch (IOException e) {
-            handleError(e);
+        } finally {
+            waitingThread = null;
         }
     }
 
     /**
-     * Gets whether this client is currently connected to a server.
-     *
-     * @return connected
+     * Makes a call to {@link #waitForMessages} return immediately, or the next call if none is
+     * waiting. This can be called from any thread, for example to let the waiting thread handle
+     * something other than messages.
      */
-    public boolean isConnected() {
-        return connected.get();
+    public void wakeup() {
+        wakeupPending = true;
+
+        Selector selector = readSelector;
+        if (selector != null) selector.wakeup();
+        Thread waiting = waitingThread;
+        if (waiting != null) LockSupport.unpark(waiting);
     }
 
-    /**
-     * Disconnects from the current server. After this method is called, this object should no
-     * longer be used. If you want to change servers, use {@link #reconnect}.
-     */
-    public void disconnect() {
-        send(DISCONNECT);
+    // Waits for the socket to be readable, returns whether it is
+    private boolean selectReadable(long timeoutNanos) {
+        try {
+            SocketChannel ch = channel;
+            if (readSelector == null) readSelector = Selector.open();
+            if (readSelectorChannel != ch) {
+                // Registering with another selector too is fine, the write
+                // selector only waits for space to write
+                ch.register(readSelector, SelectionKey.OP_READ);
+                readSelectorChannel = ch;
+            }
 
-        heartbeatFuture.cancel(false);
-        executor.shutdown();
+            // Checked again, since wakeup() might have been called before
+            // the selector existed
+            if (wakeupPending) return false;
 
-        disconnectSocket();
-        connected.set(false);
+            long millis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(timeoutNanos));
+            int ready = readSelector.select(millis);
+            readSelector.selectedKeys().clear();
+            return ready > 0;
+        } catch (IOException e) {
+            // The socket was closed, readMessages() will notice and reconnect
+            LockSupport.parkNanos(this, timeoutNanos);
+            return false;
+        }
+    }
 
-        watchdogThread.interrupt();
+    private void readFromSocket() {
+        try {
+            // Only read once, so this can't go on forever if the server sends
+            // messages faster than they are handled. Anything still in the
+            // socket is read by the next call.
+            int read = decoder.read(channel);
+            if (read < 0) throw new EOFException("Server closed the connection");
+
+            while (decoder.nextFrame()) {
+                String type = decoder.getType();
+                metrics.recordReceived(type, decoder.getDataLength());
+                if (handleInternalMessage(type)) continue;
+
+                if (type.equals(SHARED_MEMORY)) {
+                    decoder.wrapData(handlerReader);
+                    handleSharedMemoryMessage(handlerReader);
+                } else if (collectHandlers(type)) {
+                    // Read straight out of the receive buffer
+                    decoder.wrapData(handlerReader);
+                    receive(type, handlerReader, true);
+                }
+            }
+        } catch (IOException e) {
+            handleError(e);
+        }
     }
 
-    /**
-     * Prepares to send a message. This returns a {@link MessageBuilder}, which allows you to add
-     * data to the message.
-     *
-     * @param type type of the message to send
-     * @return builder to add data
-     */
-    public MessageBuilder prepare(String type) {
-        return new MessageBuilder(this, type);
+    private void drainInboundQueue() {
+        // Only handle what is already queued, so this can't go on forever if
+        // messages arrive faster than they are handled
+        int count = inboundQueue.size();
+        for (int i = 0; i < count; i++) {
+            InboundQueue.Slot slot = inboundQueue.peek();
+            if (slot.type.equals(SHARED_MEMORY)) {
+                handlerReader.reset(slot.data, slot.length);
+                handleSharedMemoryMessage(handlerReader);
+            } else if (collectHandlers(slot.type)) {
+                handlerReader.reset(slot.data, slot.length);
+                receive(slot.type, handlerReader, true);
+            }
+            inboundQueue.release();
+        }
     }
 
-    /**
-     * Immediately sends a message with no data.
-     *
-     * @param type type of the message to send
-     */
-    public void send(String type) {
-        sendMessage(type, new byte[0]);
+    // Finds the handlers for a message type, returns whether there are any
+    private boolean collectHandlers(String type) {
+        matchedHandlers.clear();
+        List<HandlerEntry> direct = directHandlers.get(type);
+        if (direct != null) {
+            for (int i = 0; i < direct.size(); i++) matchedHandlers.add(direct.get(i));
+        }
+        wildcardHandlers.collectMatches(type, matchedHandlers);
+
+        return !matchedHandlers.isEmpty();
     }
 
-    /**
-     * Registers a {@link MessageHandler} to handle incoming messages. If the type ends in '*', the
-     * handler will be invoked for all messages that match the content before. For example, "Foo*"
-     * would match a message of type "Foo2", while "Foo" would only match messages of type "Foo".
-     *
-     * @param type type of message to listen to
-     * @param handler handler to invoke
-     */
-    public void addHandler(String type, MessageHandler handler) {
-        Handler h;
-        if (type.endsWith("*")) {
-            h = new WildcardHandler(type.substring(0, type.length() - 1), handler);
-        } else {
-            h = new DirectHandler(type, handler);
+    // Records a received message if recording, then dispatches it
+    private void receive(String type, MessageReader reader, boolean fromServer) {
+        MessageRecorder rec = recorder;
+        if (rec != null) rec.recordReceived(type, reader);
+        dispatch(type, reader, fromServer);
+    }
+
+    // Invokes the handlers found by collectHandlers(). The reader's data is
+    // only valid during this call. fromServer is whether the message was
+    // forwarded by the server, which may have already limited its rate
+    private void dispatch(String type, MessageReader reader, boolean fromServer) {
+        // The server sends each type at the fastest rate any matching handler
+        // wants, so handlers that want exactly that rate don't need to be
+        // limited again here
+        long serverInterval = -1;
+        if (fromServer && listenRateAccepted) {
+            serverInterval = Long.MAX_VALUE;
+            for (int i = 0; i < matchedHandlers.size(); i++)
+                serverInterval = Math.min(serverInterval, matchedHandlers.get(i).minInterval);
         }
-        handlers.add(h);
 
-        if (!listening.contains(type)) {
-            listening.add(type);
+        boolean hasLatestOnly = false;
+        for (int i = 0; i < matchedHandlers.size(); i++) {
+            HandlerEntry entry = matchedHandlers.get(i);
+            if (entry.latestOnly) {
+                hasLatestOnly = true;
+                continue;
+            }
 
-            if (connected.get()) {
-                listen(type);
+            if (entry.minInterval > serverInterval && entry.minInterval > 0)
+                holdOrInvoke(entry, type, reader);
+            else invokeHandler(entry.handler, type, reader);
+        }
+
+        if (hasLatestOnly) {
+            // Replace any older message of this type that hasn't been handled yet
+            LatestMessage latest = latestMessages.computeIfAbsent(type, LatestMessage::new);
+            int length = reader.getLength();
+            if (latest.data.length < length) latest.data = new byte[length];
+            reader.copyTo(latest.data);
+            latest.length = length;
+
+            if (!latest.pending) {
+                latest.pending = true;
+                pendingLatestMessages.add(latest);
             }
         }
     }
 
     /**
-     * Registers a function to call whenever the client disconnects.
+     * Handles a message from a recording as if it had just been received. Must be called from the
+     * thread that calls {@link #readMessages()}.
      *
-     * @param handler handler to call
+     * @param type message type
+     * @param data buffer containing the message data, which is not modified
+     * @param start index of the data in the buffer
+     * @param length size of the data
      */
-    public void addDisconnectHandler(Runnable handler) {
-        disconnectHandlers.add(handler);
-    }
-
-    private void listen(String type) {
-        prepare(LISTEN).addString(type).send();
+    void replayMessage(String type, ByteBuffer data, int start, int length) {
+        if (collectHandlers(type)) {
+            handlerReader.reset(data, start, length);
+            dispatch(type, handlerReader, false);
+        }
     }
 
-    void sendMessage(String type, byte[] data) {
-        if (!connected.get()) return;
-
-        synchronized (out) {
-            try {
-                writeStringUtf8(out, type);
-                out.writeInt(data.length);
-                out.write(data);
-            } catch (IOException e) {
-                handleError(e);
+    // Invokes latest-only handlers for the messages seen since the last call
+    void handleLatestMessages() {
+        for (int i = 0; i < pendingLatestMessages.size(); i++) {
+            LatestMessage latest = pendingLatestMessages.get(i);
+            latest.pending = false;
+
+            collectHandlers(latest.type);
+            handlerReader.reset(latest.data, latest.length);
+            for (int j = 0; j < matchedHandlers.size(); j++) {
+                HandlerEntry entry = matchedHandlers.get(j);
+                if (entry.latestOnly) invokeHandler(entry.handler, latest.type, handlerReader);
             }
         }
+        pendingLatestMessages.clear();
     }
 
-    private interface Handler {
-        void handle(String type, byte[] data);
-    }
-
-    // Handles simple patterns (type must match exactly)
-    private static final class DirectHandler implements Handler {
-        private final String targetType;
-        private final MessageHandler handler;
+    // Invokes a rate limited handler if enough time has passed since it last
+    // handled this type, otherwise holds the message until it has
+    private void holdOrInvoke(HandlerEntry entry, String type, MessageReader reader) {
+        HeldMessage held = entry.held.get(type);
+        if (held == null) {
+            held = new HeldMessage(entry, type);
+            entry.held.put(type, held);
+        }
 
-        public DirectHandler(String targetType, MessageHandler handler) {
-            this.targetType = targetType;
-            this.handler = handler;
+        long now = System.nanoTime();
+        if (!held.pending && (!held.handled || now - held.lastHandled >= entry.minInterval)) {
+            held.handled = true;
+            held.lastHandled = now;
+            invokeHandler(entry.handler, type, reader);
+            return;
         }
 
-        @Override
-        public void handle(String type, byte[] data) {
-            if (type.equals(targetType)) {
-                handler.handle(type, new MessageReader(data));
-            }
+        // Replace any older message that is still waiting
+        int length = reader.getLength();
+        if (held.data.length < length) held.data = new byte[length];
+        reader.copyTo(held.data);
+        held.length = length;
+
+        if (!held.pending) {
+            held.pending = true;
+            heldMessages.add(held);
         }
     }
 
-    // Handles wildcard patterns (i.e. patterns that end in '*')
-    private static final class WildcardHandler implements Handler {
-        private final String targetPrefix;
-        private final MessageHandler handler;
+    // Invokes rate limited handlers for held messages that are now due
+    private void handleHeldMessages() {
+        if (heldMessages.isEmpty()) return;
 
-        public WildcardHandler(String targetPrefix, MessageHandler handler) {
-            this.targetPrefix = targetPrefix;
-            this.handler = handler;
-        }
+        long now = System.nanoTime();
+        for (int i = heldMessages.size() - 1; i >= 0; i--) {
+            HeldMessage held = heldMessages.get(i);
+            if (now - held.lastHandled < held.entry.minInterval) continue;
 
-        @Override
-        public void handle(String type, byte[] data) {
-            if (type.startsWith(targetPrefix)) {
-                handler.handle(type, new MessageReader(data));
+            held.pending = false;
+            held.lastHandled = now;
+            heldMessages.remove(i);
+
+            handlerReader.reset(held.data, held.length);
+            invokeHandler(held.entry.handler, held.type, handlerReader);
+        }
+    }
+
+    private void invokeHandler(MessageHandler handler, String type, MessageReader reader) {
+        // Each handler reads the data from the beginning
+        reader.rewind();
+        long startTime = System.nanoTime();
+        try {
+            handler.handle(type, reader);
+        } catch (Throwable t) {
+            System.err.println("Error in message handler " + t.toString() + ":");
+            t.printStackTrace();
+        }
+        metrics.recordHandlerTime(type, System.nanoTime() - startTime);
+    }
+
+    /**
+     * Sets which thread reads incoming messages from the socket. The default is {@link
+     * ReadMode#CALLER_THREAD}. This should be called from the same thread that calls {@link
+     * #readMessages()}.
+     *
+     * @param mode new read mode
+     */
+    public void setReadMode(ReadMode mode) {
+        setReadMode(mode, DEFAULT_INBOUND_QUEUE_CAPACITY);
+    }
+
+    /**
+     * Sets which thread reads incoming messages from the socket. This should be called from the
+     * same thread that calls {@link #readMessages()}.
+     *
+     * @param mode new read mode
+     * @param queueCapacity maximum number of received messages that can wait to be handled when
+     *     using {@link ReadMode#BACKGROUND_THREAD}
+     */
+    public void setReadMode(ReadMode mode, int queueCapacity) {
+        // Take back ownership of the decoder
+        stopReaderThread();
+        readMode = mode;
+
+        // Handle anything still waiting so it isn't lost if the queue is replaced
+        if (inboundQueue != null) drainInboundQueue();
+
+        if (mode == ReadMode.BACKGROUND_THREAD) {
+            inboundQueue = new InboundQueue(queueCapacity);
+            if (connected.get()) startReaderThread();
+        }
+    }
+
+    /**
+     * Gets the number of received messages waiting to be handled by {@link #readMessages()}. This
+     * is always zero when not using {@link ReadMode#BACKGROUND_THREAD}.
+     *
+     * @return inbound queue depth
+     */
+    public int getInboundQueueDepth() {
+        return inboundQueue == null ? 0 : inboundQueue.size();
+    }
+
+    /**
+     * Gets the highest number of received messages that have been waiting to be handled at once.
+     * If this approaches the queue capacity, messages are not being handled fast enough.
+     *
+     * @return peak inbound queue depth
+     */
+    public int getPeakInboundQueueDepth() {
+        return inboundQueue == null ? 0 : inboundQueue.getPeakSize();
+    }
+
+    /**
+     * Gets the number of received messages that were dropped because the inbound queue was full.
+     *
+     * @return number of dropped messages
+     */
+    public long getDroppedMessageCount() {
+        return inboundQueue == null ? 0 : inboundQueue.getDroppedCount();
+    }
+
+    /**
+     * Gets a snapshot of the traffic and timing metrics collected since this client was created or
+     * {@link #resetStats()} was last called. Messages are counted when they are sent or received,
+     * and handler execution time is measured for each handler invocation.
+     *
+     * @return current metrics
+     */
+    public MessengerStats getStats() {
+        return metrics.snapshot();
+    }
+
+    /** Clears all collected metrics. */
+    public void resetStats() {
+        metrics.reset();
+    }
+
+    /**
+     * Starts recording all messages this client sends and receives. Internal messages used by the
+     * protocol itself are not recorded. Received messages are recorded when they are handled in
+     * {@link #readMessages()}, so the recording can be replayed later with a {@link
+     * MessageReplayer} in the same order the handlers saw them.
+     *
+     * @param recorder recorder to record to, or null to stop recording
+     */
+    public void setRecorder(MessageRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    /** @return recorder currently recording this client, or null if not recording */
+    public MessageRecorder getRecorder() {
+        return recorder;
+    }
+
+    /**
+     * Sets how often the collected metrics are published as a {@link #STATS_TYPE} message, so they
+     * can be monitored by other clients. Publishing is disabled by default.
+     *
+     * @param periodMillis time between publishes in milliseconds, or 0 to stop publishing
+     */
+    public void setStatsPublishPeriod(long periodMillis) {
+        if (periodMillis < 0) throw new IllegalArgumentException("Period can not be negative");
+
+        synchronized (metrics) {
+            if (statsFuture != null) statsFuture.cancel(false);
+            statsFuture =
+                    periodMillis == 0
+                            ? null
+                            : executor.scheduleAtFixedRate(
+                                    this::publishStats,
+                                    periodMillis,
+                                    periodMillis,
+                                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void publishStats() {
+        MessengerStats stats = metrics.snapshot();
+        LatencyStats readTime = stats.getReadMessagesTime();
+
+        MessageBuilder builder =
+                prepare(STATS_TYPE)
+                        .addString(name)
+                        .addInt(stats.getReconnectCount())
+                        .addLong(readTime.getCount())
+                        .addLong(readTime.getP50())
+                        .addLong(readTime.getP99())
+                        .addLong(readTime.getMax())
+                        .addInt(stats.getTypes().size());
+        for (MessageTypeStats type : stats.getTypes().values()) {
+            LatencyStats handlerTime = type.getHandlerTime();
+            builder.addString(type.getType())
+                    .addLong(type.getSentCount())
+                    .addLong(type.getSentBytes())
+                    .addLong(type.getReceivedCount())
+                    .addLong(type.getReceivedBytes())
+                    .addLong(handlerTime.getCount())
+                    .addLong(handlerTime.getP50())
+                    .addLong(handlerTime.getP99())
+                    .addLong(handlerTime.getMax());
+        }
+        builder.send();
+        flush();
+    }
+
+    /**
+     * Gets the round trip time to the server, measured from recent heartbeats. This includes any
+     * time the response waited to be read, so it is most accurate when {@link #readMessages()} is
+     * called often or {@link ReadMode#BACKGROUND_THREAD} is used. If the server does not support
+     * timestamped heartbeats, the returned stats are empty.
+     *
+     * @return recent round trip times in nanoseconds
+     */
+    public LatencyStats getRoundTripTime() {
+        return clock.getRoundTripTime();
+    }
+
+    /**
+     * Gets whether the offset between the local clock and the server's clock is known. This
+     * requires the server to support timestamped heartbeats.
+     *
+     * @return whether the clock offset is known
+     */
+    public boolean isClockSynchronized() {
+        return clock.hasSamples();
+    }
+
+    /**
+     * Gets the estimated offset of the server's clock from the local clock.
+     *
+     * @return server time minus local time in nanoseconds, or 0 if not synchronized
+     */
+    public long getClockOffset() {
+        return clock.getOffset();
+    }
+
+    /**
+     * Gets the current time of the local clock. This is based on the system's monotonic clock, and
+     * is approximately the number of nanoseconds since the Unix epoch.
+     *
+     * @return local time in nanoseconds
+     */
+    public long getLocalTime() {
+        return clockBase + System.nanoTime();
+    }
+
+    /**
+     * Gets the current time according to the server's clock, using the estimated clock offset.
+     * This is a common time base between all clients connected to the same server, so it can be
+     * used to timestamp messages with {@link MessageBuilder#addTimestamp()}. If the clock is not
+     * synchronized, this is the same as the local time.
+     *
+     * @return server time in nanoseconds
+     */
+    public long getServerTime() {
+        return getLocalTime() + clock.getOffset();
+    }
+
+    /**
+     * Gets how long ago a timestamp from {@link MessageBuilder#addTimestamp()} was taken. Both the
+     * sender and the receiver must be synchronized for this to be accurate.
+     *
+     * @param timestamp server time in nanoseconds
+     * @return age in nanoseconds
+     */
+    public long getTimestampAge(long timestamp) {
+        return getServerTime() - timestamp;
+    }
+
+    /**
+     * Gets whether this client is currently connected to a server.
+     *
+     * @return connected
+     */
+    public boolean isConnected() {
+        return connected.get();
+    }
+
+    /**
+     * Disconnects from the current server. After this method is called, this object should no
+     * longer be used. If you want to change servers, use {@link #reconnect}.
+     */
+    public void disconnect() {
+        sendDisconnect();
+
+        heartbeatFuture.cancel(false);
+        if (statsFuture != null) statsFuture.cancel(false);
+        executor.shutdown();
+
+        disconnectSocket();
+        connected.set(false);
+
+        watchdogThread.interrupt();
+
+        if (readSelector != null) {
+            try {
+                readSelector.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            readSelector = null;
+        }
+    }
+
+    /**
+     * Prepares to send a message. This returns a {@link MessageBuilder}, which allows you to add
+     * data to the message. Builders are reused, so the returned builder must not be used after it
+     * has been sent.
+     *
+     * @param type type of the message to send
+     * @return builder to add data
+     * @throws IllegalArgumentException if the type is longer than {@link
+     *     MessageBuilder#MAX_STRING_SIZE} bytes in UTF-8
+     */
+    public MessageBuilder prepare(String type) {
+        MessageBuilder builder = builderPool.get().pollFirst();
+        if (builder == null) builder = new MessageBuilder(this, true);
+
+        builder.begin(type);
+        return builder;
+    }
+
+    // Returns a sent builder to the current thread's pool so it can be reused
+    void releaseBuilder(MessageBuilder builder) {
+        // Don't hold on to large buffers forever, they're usually from one-off messages
+        if (builder.getCapacity() > MAX_POOLED_BUILDER_CAPACITY) return;
+
+        ArrayDeque<MessageBuilder> pool = builderPool.get();
+        if (pool.size() < MAX_POOLED_BUILDERS) pool.addFirst(builder);
+    }
+
+    /**
+     * Immediately sends a message with no data.
+     *
+     * @param type type of the message to send
+     */
+    public void send(String type) {
+        prepare(type).send();
+    }
+
+    /**
+     * Registers a {@link MessageHandler} to handle incoming messages. If the type ends in '*', the
+     * handler will be invoked for all messages that match the content before. For example, "Foo*"
+     * would match a message of type "Foo2", while "Foo" would only match messages of type "Foo".
+     *
+     * @param type type of message to listen to
+     * @param handler handler to invoke
+     */
+    public void addHandler(String type, MessageHandler handler) {
+        addHandler(type, new HandlerEntry(handler, false, 0));
+    }
+
+    /**
+     * Registers a {@link MessageHandler} that is invoked at most a given number of times per
+     * second for each message type. When messages arrive faster than that, only the most recent
+     * one is kept, and it is handled by {@link #readMessages()} once enough time has passed. The
+     * type can end in '*' in the same way as with {@link #addHandler(String, MessageHandler)}.
+     *
+     * <p>This is useful for displaying values that are sent faster than they can be seen. If the
+     * server supports it, it also limits the rate it forwards the messages at, so they don't use
+     * up bandwidth only to be discarded. Otherwise, the rate is only limited by the client.
+     *
+     * @param type type of message to listen to
+     * @param handler handler to invoke
+     * @param maxRateHz maximum number of messages of each type to handle per second
+     */
+    public void addHandler(String type, MessageHandler handler, double maxRateHz) {
+        if (!(maxRateHz > 0) || Double.isInfinite(maxRateHz))
+            throw new IllegalArgumentException("Rate must be positive and finite");
+        long interval = Math.max(1, (long) (1_000_000_000L / maxRateHz));
+        addHandler(type, new HandlerEntry(handler, false, interval));
+    }
+
+    /**
+     * Registers a {@link MessageHandler} that only handles the most recent message of each type.
+     * If multiple matching messages of the same type are received between calls to {@link
+     * #readMessages()}, the handler is only invoked for the last one. This is useful for messages
+     * that represent the current value of something, where older values are no longer relevant.
+     * The type can end in '*' in the same way as with {@link #addHandler}.
+     *
+     * @param type type of message to listen to
+     * @param handler handler to invoke
+     */
+    public void addLatestHandler(String type, MessageHandler handler) {
+        addHandler(type, new HandlerEntry(handler, true, 0));
+    }
+
+    private void addHandler(String type, HandlerEntry entry) {
+        if (type.endsWith("*")) {
+            wildcardHandlers.add(type.substring(0, type.length() - 1), entry);
+        } else {
+            directHandlers.computeIfAbsent(type, (t) -> new ArrayList<>()).add(entry);
+        }
+
+        if (!listening.contains(type)) {
+            if (entry.minInterval > 0) listenIntervals.put(type, entry.minInterval);
+            listening.add(type);
+
+            if (connected.get()) {
+                listen(type);
+            }
+            return;
+        }
+
+        // The server sends at the fastest rate any handler for the type wants
+        Long interval = listenIntervals.get(type);
+        if (interval == null || (entry.minInterval > 0 && entry.minInterval >= interval)) return;
+
+        if (entry.minInterval > 0) listenIntervals.put(type, entry.minInterval);
+        else listenIntervals.remove(type);
+        if (connected.get()) {
+            sendListenRate(type);
+            flush();
+        }
+    }
+
+    /**
+     * Sends a message with no data as a request. See {@link MessageBuilder#request(String)}.
+     *
+     * @param type type of the message to send
+     * @param responseType type of the response message
+     * @return future completed with the response
+     */
+    public CompletableFuture<MessageReader> request(String type, String responseType) {
+        return prepare(type).request(responseType);
+    }
+
+    /**
+     * Registers a {@link StreamHandler} to receive streams sent with {@link
+     * MessageBuilder#sendStream}. Unlike {@link #addHandler}, the type can not be a wildcard.
+     *
+     * @param type type of stream to receive
+     * @param handler handler to open streams
+     */
+    public void addStreamHandler(String type, StreamHandler handler) {
+        if (type.endsWith("*"))
+            throw new IllegalArgumentException("Stream type can not be a wildcard");
+        streams.addHandler(type, handler);
+    }
+
+    // Starts sending a stream with header data built by a builder
+    OutgoingStream sendStream(String type, byte[] header, SeekableByteChannel source)
+            throws IOException {
+        return streams.send(type, header, source);
+    }
+
+    /**
+     * Sets how long to wait for a response to a request before failing it with a {@link
+     * TimeoutException}. The default is 2 seconds. This only affects requests sent afterwards.
+     *
+     * @param timeoutMillis timeout in milliseconds
+     */
+    public void setRequestTimeout(long timeoutMillis) {
+        if (timeoutMillis <= 0) throw new IllegalArgumentException("Timeout must be positive");
+        requestTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    }
+
+    /**
+     * Gets the number of requests that are waiting for a response.
+     *
+     * @return number of pending requests
+     */
+    public int getPendingRequestCount() {
+        return pendingRequests.size();
+    }
+
+    // Sends a request built by a builder, unless an identical request is
+    // already waiting for a response, in which case its response is shared
+    CompletableFuture<MessageReader> request(
+            MessageBuilder builder,
+            String type,
+            String responseType,
+            Predicate<MessageReader> matcher) {
+        byte[] data = builder.getData();
+
+        PendingRequest request = null;
+        for (PendingRequest pending : pendingRequests) {
+            if (pending.matches(type, data, responseType)) {
+                request = pending;
+                break;
+            }
+        }
+
+        if (request != null) {
+            builder.discard();
+        } else {
+            long deadline = System.nanoTime() + requestTimeoutNanos;
+            request = new PendingRequest(type, data, responseType, matcher, deadline);
+            pendingRequests.add(request);
+            if (responseTypes.add(responseType)) addHandler(responseType, this::handleResponse);
+
+            builder.send();
+        }
+
+        // Each caller gets its own reader so they can read the response independently
+        return request.response.thenApply(MessageReader::detach);
+    }
+
+    private void handleResponse(String type, MessageReader reader) {
+        List<PendingRequest> completed = null;
+        for (Iterator<PendingRequest> iter = pendingRequests.iterator(); iter.hasNext(); ) {
+            PendingRequest request = iter.next();
+            if (!request.responseType.equals(type) || !request.accepts(reader)) continue;
+
+            iter.remove();
+            if (completed == null) completed = new ArrayList<>();
+            completed.add(request);
+        }
+        if (completed == null) return;
+
+        // Complete after removing, since completing runs callbacks that might
+        // send more requests
+        reader.rewind();
+        MessageReader response = reader.detach();
+        for (PendingRequest request : completed) request.response.complete(response);
+    }
+
+    private void expireRequests() {
+        if (pendingRequests.isEmpty()) return;
+
+        long now = System.nanoTime();
+        List<PendingRequest> expired = null;
+        for (Iterator<PendingRequest> iter = pendingRequests.iterator(); iter.hasNext(); ) {
+            PendingRequest request = iter.next();
+            if (now - request.deadline < 0) continue;
+
+            iter.remove();
+            if (expired == null) expired = new ArrayList<>();
+            expired.add(request);
+        }
+        if (expired == null) return;
+
+        for (PendingRequest request : expired) {
+            request.response.completeExceptionally(
+                    new TimeoutException("No response to " + request.type));
+        }
+    }
+
+    /**
+     * Registers a function to call whenever the client disconnects.
+     *
+     * @param handler handler to call
+     */
+    public void addDisconnectHandler(Runnable handler) {
+        disconnectHandlers.add(handler);
+    }
+
+    private void listen(String type) {
+        prepare(LISTEN).addString(type).send();
+        if (listenIntervals.containsKey(type)) sendListenRate(type);
+
+        // Allow the server to alias the messages it sends us too
+        if (!type.endsWith("*")) {
+            synchronized (writeLock) {
+                if (connected.get() && typeAliasing && !typeAliases.containsKey(type))
+                    defineAlias(type);
+            }
+        }
+
+        flush();
+    }
+
+    // Asks the server to limit how often it sends messages matching a pattern.
+    // A rate of zero removes the limit
+    private void sendListenRate(String pattern) {
+        Long interval = listenIntervals.get(pattern);
+        double rate = interval == null ? 0 : 1_000_000_000.0 / interval;
+        prepare(LISTEN_RATE).addByte(LISTEN_RATE_SET).addString(pattern).addDouble(rate).send();
+    }
+
+    /**
+     * Sets whether to negotiate type aliases with the server. When enabled, the client assigns a
+     * short ID to each message type it sends or listens to, and once the server acknowledges it,
+     * messages of that type are sent with the ID instead of the full type. If the server does not
+     * support aliases, it will never acknowledge them, and full types are always used. This is
+     * enabled by default.
+     *
+     * @param typeAliasing whether to use type aliases
+     */
+    public void setTypeAliasing(boolean typeAliasing) {
+        synchronized (writeLock) {
+            this.typeAliasing = typeAliasing;
+        }
+    }
+
+    // Gets a compressed copy of an encoded message if it should be compressed
+    // and is smaller that way, otherwise the original message. Must be called
+    // with writeLock held
+    private ByteBuffer compress(String type, ByteBuffer frame, int dataLen) {
+        // Other clients read messages sent through shared memory directly
+        if (!compression
+                || !compressionAccepted
+                || dataLen < compressionThreshold
+                || offeredRing != null
+                || sharedRing != null
+                || type.startsWith("_")) return frame;
+
+        ByteBuffer compressed = compressor.compress(frame);
+        return compressed != null ? compressed : frame;
+    }
+
+    // Replaces the type at the start of an encoded message with its alias, if
+    // the server has acknowledged one. Must be called with writeLock held
+    private void applyAlias(String type, ByteBuffer frame) {
+        // Other clients can't decode aliases in messages sent through shared memory
+        if (!typeAliasing || offeredRing != null || sharedRing != null || type.equals(ALIAS))
+            return;
+
+        TypeAlias alias = typeAliases.get(type);
+        if (alias == null) {
+            defineAlias(type);
+            return;
+        }
+        if (!alias.acknowledged) return;
+
+        // The alias header is an empty type followed by the ID, which is never
+        // longer than the full type, so it can overwrite the end of the type.
+        // The data size after it stays in place
+        int typeLen = frame.getShort(frame.position()) & 0xFFFF;
+        int start = frame.position() + typeLen - 2;
+        frame.putShort(start, (short) 0);
+        frame.putShort(start + 2, (short) alias.id);
+        frame.position(start);
+    }
+
+    // Must be called with writeLock held
+    private void defineAlias(String type) {
+        // Types shorter than two bytes wouldn't get any shorter
+        if (typeAliasesById.size() >= MAX_TYPE_ALIASES || utf8Length(type) < 2) {
+            typeAliases.put(type, new TypeAlias(type, -1));
+            return;
+        }
+
+        TypeAlias alias = new TypeAlias(type, typeAliasesById.size());
+        typeAliases.put(type, alias);
+        typeAliasesById.add(alias);
+        prepare(ALIAS).addByte(ALIAS_DEFINE).addShort((short) alias.id).addString(type).send();
+    }
+
+    /**
+     * Sets when sent messages are written to the socket. The default is {@link
+     * FlushPolicy#IMMEDIATE}. When using {@link FlushPolicy#BUFFERED}, {@link #flush()} should be
+     * called once all messages for the current periodic have been sent.
+     *
+     * @param policy new flush policy
+     */
+    public void setFlushPolicy(FlushPolicy policy) {
+        synchronized (writeLock) {
+            flushPolicy = policy;
+        }
+
+        // Don't leave anything stuck in the buffer
+        if (policy == FlushPolicy.IMMEDIATE) flush();
+    }
+
+    /**
+     * Sets the size of the output buffer. When using {@link FlushPolicy#BUFFERED}, queued messages
+     * are written without waiting for {@link #flush()} once they reach this size.
+     *
+     * @param bytes threshold in bytes
+     */
+    public void setFlushThreshold(int bytes) {
+        if (bytes <= 0) throw new IllegalArgumentException("Flush threshold must be positive");
+
+        flush();
+        synchronized (writeLock) {
+            if (outBuffer.position() == 0) {
+                outBuffer = ByteBuffer.allocateDirect(bytes);
+            } else {
+                // Something was sent after flushing, keep it
+                ByteBuffer newBuffer =
+                        ByteBuffer.allocateDirect(Math.max(bytes, outBuffer.position()));
+                outBuffer.flip();
+                newBuffer.put(outBuffer);
+                outBuffer = newBuffer;
+            }
+        }
+    }
+
+    /**
+     * Sets whether only the most recent unsent message of a type should be sent. Sending a message
+     * of this type replaces any message of the same type that is still queued and hasn't started
+     * being written, instead of sending both. The new message takes the place of the old one in
+     * the queue. With {@link FlushPolicy#BUFFERED}, this means only the newest message of the type
+     * is written by each {@link #flush()}. With {@link FlushPolicy#IMMEDIATE}, messages are only
+     * queued when the connection can't keep up, so this skips messages that would otherwise be
+     * sent late.
+     *
+     * @param type message type
+     * @param latestOnly whether to only send the latest message
+     */
+    public void setSendLatestOnly(String type, boolean latestOnly) {
+        synchronized (writeLock) {
+            if (latestOnly) sendLatestOnlyTypes.add(type);
+            else sendLatestOnlyTypes.remove(type);
+        }
+    }
+
+    /**
+     * Sets the priority class of a message type. If the type ends in '*', this applies to all
+     * types that start with the content before, unless a longer or exact match is also set. Types
+     * starting with an underscore are always {@link MessagePriority#CONTROL}, and others are
+     * {@link MessagePriority#NORMAL} by default.
+     *
+     * @param type message type
+     * @param priority priority of the messages
+     */
+    public void setPriority(String type, MessagePriority priority) {
+        synchronized (writeLock) {
+            if (type.endsWith("*")) {
+                wildcardPriorities.put(type.substring(0, type.length() - 1), priority);
+            } else {
+                typePriorities.put(type, priority);
+            }
+            resolvedPriorities.clear();
+        }
+    }
+
+    /**
+     * Configures the outbound queue for a priority class. Messages are queued when the connection
+     * can't keep up with them, or while waiting to be flushed when using {@link
+     * FlushPolicy#BUFFERED}. By default, every queue blocks when full. The {@link
+     * MessagePriority#CONTROL} queue must always use {@link DropPolicy#BLOCK}.
+     *
+     * @param priority priority class to configure
+     * @param capacity maximum number of queued messages
+     * @param dropPolicy what to do when a message is sent while the queue is full
+     */
+    public void setQueuePolicy(MessagePriority priority, int capacity, DropPolicy dropPolicy) {
+        if (capacity <= 0) throw new IllegalArgumentException("Queue capacity must be positive");
+        if (priority == MessagePriority.CONTROL && dropPolicy != DropPolicy.BLOCK)
+            throw new IllegalArgumentException("Control messages can not be dropped");
+
+        synchronized (writeLock) {
+            outboundQueues[priority.ordinal()].configure(capacity, dropPolicy);
+        }
+    }
+
+    /**
+     * Gets the number of messages of a priority class waiting to be written.
+     *
+     * @param priority priority class
+     * @return number of queued messages
+     */
+    public int getOutboundQueueDepth(MessagePriority priority) {
+        synchronized (writeLock) {
+            return outboundQueues[priority.ordinal()].size();
+        }
+    }
+
+    /**
+     * Gets the number of sent messages of a priority class that were dropped because the queue
+     * was full.
+     *
+     * @param priority priority class
+     * @return number of dropped messages
+     */
+    public long getDroppedOutboundCount(MessagePriority priority) {
+        synchronized (writeLock) {
+            return outboundQueues[priority.ordinal()].getDroppedCount();
+        }
+    }
+
+    /**
+     * Writes all buffered messages to the socket. If the socket can't accept all of them right
+     * now, the rest stay queued and are written in priority order by later calls to this, {@link
+     * #readMessages()}, or sending.
+     */
+    public void flush() {
+        synchronized (writeLock) {
+            if (!connected.get()) return;
+
+            try {
+                writeQueued();
+            } catch (IOException e) {
+                handleError(e);
+            }
+        }
+    }
+
+    private void writeQueuedMessages() {
+        synchronized (writeLock) {
+            if (!connected.get() || (outBuffer.position() == 0 && getQueuedBytes() == 0)) return;
+
+            try {
+                writeQueued();
+            } catch (IOException e) {
+                handleError(e);
+            }
+        }
+    }
+
+    // Sends the disconnect message, waiting for it to be written. Other queued
+    // messages are discarded so they don't delay disconnecting
+    private void sendDisconnect() {
+        synchronized (writeLock) {
+            for (OutboundQueue queue : outboundQueues) {
+                if (queue != outboundQueues[MessagePriority.CONTROL.ordinal()]) queue.clear(true);
+            }
+        }
+
+        send(DISCONNECT);
+
+        synchronized (writeLock) {
+            if (!connected.get()) return;
+
+            try {
+                while (!writeQueued()) awaitWritable();
+            } catch (IOException e) {
+                // Disconnecting anyway
+            }
+        }
+    }
+
+    // Must be called with writeLock held
+    private int getQueuedBytes() {
+        int bytes = 0;
+        for (OutboundQueue queue : outboundQueues) bytes += queue.getQueuedBytes();
+        return bytes;
+    }
+
+    // Writes as much queued data as the socket accepts without waiting. Returns
+    // whether everything was written. Must be called with writeLock held
+    private boolean writeQueued() throws IOException {
+        while (true) {
+            fillOutBuffer();
+            if (outBuffer.position() == 0) return true;
+
+            outBuffer.flip();
+            int written = writeOut(outBuffer);
+            outBuffer.compact();
+
+            if (written == 0) return false;
+        }
+    }
+
+    // Moves queued messages into the output buffer in priority order. Bytes in
+    // the output buffer are committed, so a message that only partially fits
+    // must be finished before any other is started.
+    // Must be called with writeLock held
+    private void fillOutBuffer() {
+        while (outBuffer.hasRemaining()) {
+            OutboundQueue queue = partialQueue;
+            if (queue == null) {
+                for (OutboundQueue q : outboundQueues) {
+                    if (!q.isEmpty()) {
+                        queue = q;
+                        break;
+                    }
+                }
+                if (queue == null) return;
+            }
+
+            ByteBuffer frame = queue.peek();
+            int count = Math.min(frame.remaining(), outBuffer.remaining());
+            int limit = frame.limit();
+            frame.limit(frame.position() + count);
+            outBuffer.put(frame);
+            frame.limit(limit);
+            queue.consumed(count);
+
+            if (frame.hasRemaining()) {
+                partialQueue = queue;
+                return;
+            }
+            partialQueue = null;
+            queue.remove();
+        }
+    }
+
+    // Adds a message to the queue for its priority, applying the queue's drop
+    // policy if it is full. Messages of latest-only types replace the unsent
+    // one of the same type instead. Must be called with writeLock held
+    private void enqueue(String type, ByteBuffer frame) throws IOException {
+        OutboundQueue queue = outboundQueues[getPriority(type).ordinal()];
+        String key = sendLatestOnlyTypes.contains(type) ? type : null;
+        if (queue.isFull() && queue.getDropPolicy() == DropPolicy.BLOCK) {
+            // Write early to make space, even if buffering
+            while (!writeQueued() && queue.isFull()) awaitWritable();
+        }
+        queue.add(frame, key);
+    }
+
+    // Must be called with writeLock held
+    private MessagePriority getPriority(String type) {
+        MessagePriority priority = resolvedPriorities.get(type);
+        if (priority != null) return priority;
+
+        if (type.startsWith("_")) {
+            priority = MessagePriority.CONTROL;
+        } else {
+            priority = typePriorities.get(type);
+        }
+
+        // Use the longest matching wildcard
+        if (priority == null) {
+            int longest = -1;
+            for (Map.Entry<String, MessagePriority> entry : wildcardPriorities.entrySet()) {
+                String prefix = entry.getKey();
+                if (prefix.length() > longest && type.startsWith(prefix)) {
+                    longest = prefix.length();
+                    priority = entry.getValue();
+                }
+            }
+        }
+        if (priority == null) priority = MessagePriority.NORMAL;
+
+        resolvedPriorities.put(type, priority);
+        return priority;
+    }
+
+    // Sends an encoded message, including the type and data size header
+    void sendFrame(String type, ByteBuffer frame) {
+        // Recorded even while disconnected, so the recording shows what the
+        // program was trying to do
+        MessageRecorder rec = recorder;
+        if (rec != null && !type.startsWith("_")) rec.recordSent(frame);
+
+        if (!connected.get()) return;
+
+        synchronized (writeLock) {
+            // Connection may have been lost while waiting for the lock
+            if (!connected.get()) return;
+
+            // Data size excludes the type and data size fields
+            int typeLen = frame.getShort(frame.position()) & 0xFFFF;
+            int dataLen = frame.remaining() - 2 - typeLen - 4;
+            metrics.recordSent(type, dataLen);
+
+            frame = compress(type, frame, dataLen);
+            applyAlias(type, frame);
+            try {
+                if (flushPolicy == FlushPolicy.IMMEDIATE) {
+                    if (partialQueue == null
+                            && getQueuedBytes() == 0
+                            && frame.remaining() <= outBuffer.remaining()) {
+                        // Nothing is waiting, so skip the queue
+                        outBuffer.put(frame);
+                    } else {
+                        enqueue(type, frame);
+                    }
+                    writeQueued();
+                    return;
+                }
+
+                enqueue(type, frame);
+                if (outBuffer.position() + getQueuedBytes() >= outBuffer.capacity())
+                    writeQueued();
+            } catch (IOException e) {
+                handleError(e);
             }
         }
     }
+
+    // A registered handler, whether it only wants the latest message of each
+    // type, and the minimum time between handling messages of each type
+    private static final class HandlerEntry {
+        final MessageHandler handler;
+        final boolean latestOnly;
+        final long minInterval;
+        final Map<String, HeldMessage> held;
+
+        HandlerEntry(MessageHandler handler, boolean latestOnly, long minInterval) {
+            this.handler = handler;
+            this.latestOnly = latestOnly;
+            this.minInterval = minInterval;
+            held = minInterval > 0 ? new HashMap<>() : null;
+        }
+    }
+
+    // Request that is waiting for a response
+    private static final class PendingRequest {
+        final String type;
+        final byte[] data;
+        final String responseType;
+        final Predicate<MessageReader> matcher;
+        final long deadline;
+        final CompletableFuture<MessageReader> response;
+
+        PendingRequest(
+                String type,
+                byte[] data,
+                String responseType,
+                Predicate<MessageReader> matcher,
+                long deadline) {
+            this.type = type;
+            this.data = data;
+            this.responseType = responseType;
+            this.matcher = matcher;
+            this.deadline = deadline;
+            response = new CompletableFuture<>();
+        }
+
+        boolean matches(String type, byte[] data, String responseType) {
+            return this.type.equals(type)
+                    && this.responseType.equals(responseType)
+                    && Arrays.equals(this.data, data);
+        }
+
+        // Checks whether a response message is for this request
+        boolean accepts(MessageReader reader) {
+            if (matcher == null) return true;
+
+            reader.rewind();
+            try {
+                return matcher.test(reader);
+            } catch (RuntimeException e) {
+                // Not in the expected format, so can't be the response
+                return false;
+            }
+        }
+    }
+
+    // Short ID used in place of a message type once acknowledged by the server
+    private static final class TypeAlias {
+        final String type;
+        final int id;
+        boolean acknowledged;
+
+        TypeAlias(String type, int id) {
+            this.type = type;
+            this.id = id;
+            acknowledged = false;
+        }
+    }
+
+    // Ring of another client on the same host that is read directly
+    private static final class SharedMemoryPeer {
+        final int id;
+        final SharedRing ring;
+        final FrameDecoder decoder;
+        final int connectionId;
+        boolean removed;
+
+        SharedMemoryPeer(int id, SharedRing ring, int connectionId) {
+            this.id = id;
+            this.ring = ring;
+            this.connectionId = connectionId;
+            decoder = new FrameDecoder();
+            removed = false;
+        }
+    }
+
+    // Most recent message of a type received for latest-only handlers
+    private static final class LatestMessage {
+        final String type;
+        byte[] data;
+        int length;
+        boolean pending;
+
+        LatestMessage(String type) {
+            this.type = type;
+            data = new byte[256];
+            length = 0;
+            pending = false;
+        }
+    }
+
+    // Most recent message of a type waiting for a rate limited handler
+    private static final class HeldMessage {
+        final HandlerEntry entry;
+        final String type;
+        byte[] data;
+        int length;
+        boolean pending;
+        boolean handled;
+        long lastHandled;
+
+        HeldMessage(HandlerEntry entry, String type) {
+            this.entry = entry;
+            this.type = type;
+            data = new byte[256];
+            length = 0;
+            pending = false;
+            handled = false;
+            lastHandled = 0;
+        }
+    }
 }
@@ -0,0 +1,95 @@
+package com.swrobotics.messenger.client;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Collects the metrics for {@link MessengerStats}. Methods may be called from any thread. Recording
+ * does not allocate once a type has been seen.
+ */
+final class MessengerMetrics {
+    private final Map<String, TypeMetrics> types;
+    private final LatencyHistogram readMessagesTime;
+    private int connectCount;
+    private long startTime;
+
+    public MessengerMetrics() {
+        types = new HashMap<>();
+        readMessagesTime = new LatencyHistogram();
+        connectCount = 0;
+        startTime = System.nanoTime();
+    }
+
+    public synchronized void recordSent(String type, int bytes) {
+        TypeMetrics metrics = types.computeIfAbsent(type, TypeMetrics::new);
+        metrics.sentCount++;
+        metrics.sentBytes += bytes;
+    }
+
+    public synchronized void recordReceived(String type, int bytes) {
+        TypeMetrics metrics = types.computeIfAbsent(type, TypeMetrics::new);
+        metrics.receivedCount++;
+        metrics.receivedBytes += bytes;
+    }
+
+    public synchronized void recordHandlerTime(String type, long nanos) {
+        TypeMetrics metrics = types.computeIfAbsent(type, TypeMetrics::new);
+        if (metrics.handlerTime == null) metrics.handlerTime = new LatencyHistogram();
+        metrics.handlerTime.record(nanos);
+    }
+
+    public synchronized void recordReadMessagesTime(long nanos) {
+        readMessagesTime.record(nanos);
+    }
+
+    public synchronized void recordConnect() {
+        connectCount++;
+    }
+
+    public synchronized MessengerStats snapshot() {
+        Map<String, MessageTypeStats> typeStats = new TreeMap<>();
+        for (TypeMetrics metrics : types.values()) {
+            LatencyStats handlerTime =
+                    metrics.handlerTime != null
+                            ? metrics.handlerTime.snapshot()
+                            : LatencyStats.EMPTY;
+
+            typeStats.put(
+                    metrics.type,
+                    new MessageTypeStats(
+                            metrics.type,
+                            metrics.sentCount,
+                            metrics.sentBytes,
+                            metrics.receivedCount,
+                            metrics.receivedBytes,
+                            handlerTime));
+        }
+
+        return new MessengerStats(
+                System.nanoTime() - startTime,
+                typeStats,
+                readMessagesTime.snapshot(),
+                Math.max(connectCount - 1, 0));
+    }
+
+    public synchronized void reset() {
+        types.clear();
+        readMessagesTime.reset();
+
+        // Keep counting reconnects from the current connection
+        connectCount = Math.min(connectCount, 1);
+        startTime = System.nanoTime();
+    }
+
+    private static final class TypeMetrics {
+        final String type;
+        long sentCount, sentBytes;
+        long receivedCount, receivedBytes;
+        LatencyHistogram handlerTime;
+
+        TypeMetrics(String type) {
+            this.type = type;
+        }
+    }
+}
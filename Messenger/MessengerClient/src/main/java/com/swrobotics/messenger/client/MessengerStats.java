@@ -0,0 +1,62 @@
+package com.swrobotics.messenger.client;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Snapshot of the traffic and timing metrics of a {@link MessengerClient}, from {@link
+ * MessengerClient#getStats()}. Metrics are counted from when the client was created or last reset.
+ */
+public final class MessengerStats {
+    private final long durationNanos;
+    private final Map<String, MessageTypeStats> types;
+    private final LatencyStats readMessagesTime;
+    private final int reconnectCount;
+
+    MessengerStats(
+            long durationNanos,
+            Map<String, MessageTypeStats> types,
+            LatencyStats readMessagesTime,
+            int reconnectCount) {
+        this.durationNanos = durationNanos;
+        this.types = Collections.unmodifiableMap(types);
+        this.readMessagesTime = readMessagesTime;
+        this.reconnectCount = reconnectCount;
+    }
+
+    /**
+     * Gets how long the metrics were collected for.
+     *
+     * @return duration in nanoseconds
+     */
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    /**
+     * Gets the metrics for each message type that has been sent or received, sorted by type.
+     *
+     * @return metrics by type
+     */
+    public Map<String, MessageTypeStats> getTypes() {
+        return types;
+    }
+
+    /**
+     * Gets how long calls to {@link MessengerClient#readMessages()} took, including handlers.
+     *
+     * @return readMessages() execution time
+     */
+    public LatencyStats getReadMessagesTime() {
+        return readMessagesTime;
+    }
+
+    /**
+     * Gets how many times the connection was established again after being lost or changed.
+     *
+     * @return number of reconnects
+     */
+    public int getReconnectCount() {
+        return reconnectCount;
+    }
+}
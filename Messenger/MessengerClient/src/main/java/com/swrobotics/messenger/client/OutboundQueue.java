@@ -0,0 +1,234 @@
+package com.swrobotics.messenger.client;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Bounded queue of encoded messages waiting to be written to the socket. Each message is copied
+ * into a buffer owned by its slot, and slots are reused once written, so the queue does not
+ * allocate in a steady state. This is not thread safe, it is only used while holding the client's
+ * write lock.
+ *
+ * <p>A message can be added with a key, in which case it replaces a queued message with the same
+ * key that hasn't started being written, instead of being added after it.
+ */
+final class OutboundQueue {
+    // Slot buffers larger than this are released after use, since they are
+    // usually from one-off large messages
+    private static final int MAX_RETAINED_FRAME_SIZE = 64 * 1024;
+
+    private ByteBuffer[] frames;
+    private String[] keys;
+    private int head;
+    private int count;
+    private int queuedBytes;
+    private DropPolicy dropPolicy;
+    private long dropped;
+
+    /**
+     * @param capacity maximum number of queued messages
+     * @param dropPolicy what to do when the queue is full
+     */
+    public OutboundQueue(int capacity, DropPolicy dropPolicy) {
+        frames = new ByteBuffer[capacity];
+        keys = new String[capacity];
+        head = 0;
+        count = 0;
+        queuedBytes = 0;
+        this.dropPolicy = dropPolicy;
+        dropped = 0;
+    }
+
+    /**
+     * Changes the capacity and drop policy. If there are more queued messages than the new
+     * capacity, the oldest ones are dropped, except for one that has already been partially
+     * written.
+     *
+     * @param capacity new capacity
+     * @param dropPolicy new drop policy
+     */
+    public void configure(int capacity, DropPolicy dropPolicy) {
+        while (count > capacity && removeOldestUnstarted()) {
+            dropped++;
+        }
+
+        ByteBuffer[] newFrames = new ByteBuffer[Math.max(capacity, count)];
+        String[] newKeys = new String[newFrames.length];
+        for (int i = 0; i < count; i++) {
+            int index = (head + i) % frames.length;
+            newFrames[i] = frames[index];
+            newKeys[i] = keys[index];
+        }
+        frames = newFrames;
+        keys = newKeys;
+        head = 0;
+        this.dropPolicy = dropPolicy;
+    }
+
+    public DropPolicy getDropPolicy() {
+        return dropPolicy;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    public boolean isFull() {
+        return count >= frames.length;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Gets the number of bytes of queued messages that have not been written yet.
+     *
+     * @return queued bytes
+     */
+    public int getQueuedBytes() {
+        return queuedBytes;
+    }
+
+    public long getDroppedCount() {
+        return dropped;
+    }
+
+    /**
+     * Adds a copy of an encoded message to the end of the queue. If the queue is full, a message
+     * is dropped according to the drop policy. For {@link DropPolicy#BLOCK}, the caller must wait
+     * for space before adding.
+     *
+     * @param frame encoded message to copy
+     */
+    public void add(ByteBuffer frame) {
+        add(frame, null);
+    }
+
+    /**
+     * Adds a copy of an encoded message, replacing the queued message with the same key if there
+     * is one that hasn't started being written. Otherwise it is added to the end of the queue in
+     * the same way as {@link #add(ByteBuffer)}. Finding the message to replace checks each queued
+     * message, so keys should only be used where older messages are worth skipping.
+     *
+     * @param frame encoded message to copy
+     * @param key key of the message, or null to always add it to the end
+     */
+    public void add(ByteBuffer frame, String key) {
+        if (key != null) {
+            int index = findUnstarted(key);
+            if (index >= 0) {
+                queuedBytes -= frames[index].remaining();
+                copyInto(index, frame);
+                return;
+            }
+        }
+
+        if (isFull()) {
+            if (dropPolicy == DropPolicy.DROP_NEWEST || !removeOldestUnstarted()) {
+                dropped++;
+                return;
+            }
+            dropped++;
+        }
+
+        int index = (head + count) % frames.length;
+        copyInto(index, frame);
+        keys[index] = key;
+        count++;
+    }
+
+    private void copyInto(int index, ByteBuffer frame) {
+        ByteBuffer slot = frames[index];
+        if (slot == null || slot.capacity() < frame.remaining()) {
+            slot = ByteBuffer.allocateDirect(Math.max(frame.remaining(), 256));
+            frames[index] = slot;
+        }
+
+        slot.clear();
+        queuedBytes += frame.remaining();
+        slot.put(frame);
+        slot.flip();
+    }
+
+    // Finds the newest message with a key that hasn't started being written,
+    // returns its index or -1 if there isn't one
+    private int findUnstarted(String key) {
+        for (int i = count - 1; i >= 0; i--) {
+            int index = (head + i) % frames.length;
+            if (key.equals(keys[index])) return frames[index].position() == 0 ? index : -1;
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the oldest message without removing it. Writing from the returned buffer advances its
+     * position, which marks the message as started so it won't be dropped.
+     *
+     * @return oldest message, or null if empty
+     */
+    public ByteBuffer peek() {
+        return count == 0 ? null : frames[head];
+    }
+
+    /**
+     * Records that bytes of the oldest message have been written.
+     *
+     * @param bytes number of bytes written
+     */
+    public void consumed(int bytes) {
+        queuedBytes -= bytes;
+    }
+
+    /** Removes the oldest message once it has been fully written. */
+    public void remove() {
+        if (frames[head].capacity() > MAX_RETAINED_FRAME_SIZE) frames[head] = null;
+        keys[head] = null;
+        head = (head + 1) % frames.length;
+        count--;
+    }
+
+    /**
+     * Discards all queued messages.
+     *
+     * @param keepStarted whether to keep a message that has already been partially written
+     */
+    public void clear(boolean keepStarted) {
+        boolean keepHead = keepStarted && count > 0 && frames[head].position() > 0;
+        int keep = keepHead ? 1 : 0;
+        while (count > keep) {
+            int last = (head + count - 1) % frames.length;
+            queuedBytes -= frames[last].remaining();
+            keys[last] = null;
+            count--;
+        }
+    }
+
+    // Removes the oldest message that hasn't started being written yet
+    private boolean removeOldestUnstarted() {
+        if (count == 0) return false;
+
+        if (frames[head].position() == 0) {
+            queuedBytes -= frames[head].remaining();
+            remove();
+            return true;
+        }
+
+        // The head is partially written and must be finished, so remove the
+        // one after it instead by shifting the rest back
+        if (count == 1) return false;
+        int second = (head + 1) % frames.length;
+        queuedBytes -= frames[second].remaining();
+        ByteBuffer removed = frames[second];
+        for (int i = 1; i < count - 1; i++) {
+            int index = (head + i) % frames.length;
+            int next = (head + i + 1) % frames.length;
+            frames[index] = frames[next];
+            keys[index] = keys[next];
+        }
+        int last = (head + count - 1) % frames.length;
+        frames[last] = removed;
+        keys[last] = null;
+        count--;
+        return true;
+    }
+}
@@ -0,0 +1,90 @@
+package com.swrobotics.messenger.client;
+
+import java.nio.channels.SeekableByteChannel;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A stream being sent with {@link MessageBuilder#sendStream}. The data is read from the source in
+ * chunks as the receiver acknowledges earlier chunks, so only a limited amount of data is in
+ * flight at a time.
+ */
+public final class OutgoingStream {
+    final StreamManager manager;
+    final String type;
+    final String ackType;
+    final long id;
+    final byte[] header;
+    final SeekableByteChannel source;
+    final long size;
+    final CompletableFuture<Void> future;
+
+    // Offset of the next byte to send
+    long sent;
+    // All data before this offset has been received
+    volatile long acknowledged;
+    // Number of bytes past the acknowledged offset that may be sent
+    int window;
+    // Time the stream last made progress, and time to send again if it doesn't
+    long progressTime;
+    long retransmitTime;
+
+    OutgoingStream(
+            StreamManager manager,
+            String type,
+            long id,
+            byte[] header,
+            SeekableByteChannel source,
+            long size) {
+        this.manager = manager;
+        this.type = type;
+        this.id = id;
+        this.header = header;
+        this.source = source;
+        this.size = size;
+        ackType = type + StreamManager.ACK_SUFFIX;
+        future = new CompletableFuture<>();
+
+        sent = 0;
+        acknowledged = 0;
+        window = StreamManager.WINDOW;
+        progressTime = System.nanoTime();
+        retransmitTime = progressTime;
+    }
+
+    /** @return ID identifying this stream */
+    public long getId() {
+        return id;
+    }
+
+    /** @return total size of the stream data in bytes */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Gets the number of bytes the receiver has confirmed receiving. This can be used to show
+     * progress.
+     *
+     * @return acknowledged size in bytes
+     */
+    public long getAcknowledgedSize() {
+        return acknowledged;
+    }
+
+    /**
+     * Gets a future that completes once the receiver has received all data. It completes
+     * exceptionally if the receiver refuses or fails to receive the stream, the source can't be
+     * read, or the receiver stops responding. The future is completed from {@link
+     * MessengerClient#readMessages()}.
+     *
+     * @return completion future
+     */
+    public CompletableFuture<Void> getFuture() {
+        return future;
+    }
+
+    /** Stops sending the stream. The receiver is told to discard what it received. */
+    public void cancel() {
+        manager.cancel(this);
+    }
+}
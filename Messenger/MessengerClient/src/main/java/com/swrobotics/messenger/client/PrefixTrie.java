@@ -0,0 +1,101 @@
+package com.swrobotics.messenger.client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Maps string prefixes to values. Looking up all the values whose prefix matches a string takes
+ * time proportional to the length of the string, no matter how many prefixes are stored.
+ *
+ * @param <T> type of the stored values
+ */
+final class PrefixTrie<T> {
+    private static final class Node<T> {
+        char[] keys = new char[0];
+        final List<Node<T>> children = new ArrayList<>(0);
+        List<T> values = null;
+
+        Node<T> getChild(char c) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] == c) return children.get(i);
+            }
+            return null;
+        }
+
+        Node<T> getOrCreateChild(char c) {
+            Node<T> child = getChild(c);
+            if (child != null) return child;
+
+            int count = keys.length;
+            keys = Arrays.copyOf(keys, count + 1);
+            child = new Node<>();
+            keys[count] = c;
+            children.add(child);
+            return child;
+        }
+    }
+
+    private final Node<T> root;
+
+    public PrefixTrie() {
+        root = new Node<>();
+    }
+
+    /**
+     * Adds a value for a prefix.
+     *
+     * @param prefix prefix to match
+     * @param value value to add
+     */
+    public void add(String prefix, T value) {
+        Node<T> node = root;
+        for (int i = 0; i < prefix.length(); i++) {
+            node = node.getOrCreateChild(prefix.charAt(i));
+        }
+
+        if (node.values == null) node.values = new ArrayList<>();
+        node.values.add(value);
+    }
+
+    /**
+     * Removes a value for a prefix. Nodes are left in place, since prefixes are typically added
+     * again later.
+     *
+     * @param prefix prefix the value was added with
+     * @param value value to remove
+     * @return whether the value was present
+     */
+    public boolean remove(String prefix, T value) {
+        Node<T> node = root;
+        for (int i = 0; i < prefix.length() && node != null; i++) {
+            node = node.getChild(prefix.charAt(i));
+        }
+
+        if (node == null || node.values == null) return false;
+        return node.values.remove(value);
+    }
+
+    /**
+     * Adds all values whose prefix matches the start of a string to a list.
+     *
+     * @param str string to match against
+     * @param out list to add the matching values to
+     */
+    public void collectMatches(String str, List<T> out) {
+        Node<T> node = root;
+        addValues(node, out);
+
+        for (int i = 0; i < str.length(); i++) {
+            node = node.getChild(str.charAt(i));
+            if (node == null) return;
+            addValues(node, out);
+        }
+    }
+
+    // Not using addAll() since it copies the list into a temporary array
+    private void addValues(Node<T> node, List<T> out) {
+        if (node.values == null) return;
+        for (int i = 0; i < node.values.size(); i++) out.add(node.values.get(i));
+    }
+}
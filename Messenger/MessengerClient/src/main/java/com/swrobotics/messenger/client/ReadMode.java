@@ -0,0 +1,18 @@
+package com.swrobotics.messenger.client;
+
+/** Controls which thread reads incoming messages from the socket. */
+public enum ReadMode {
+    /**
+     * Messages are read from the socket and decoded by the thread that calls {@link
+     * MessengerClient#readMessages()}.
+     */
+    CALLER_THREAD,
+
+    /**
+     * A dedicated thread reads and decodes messages as they arrive, and places them into a bounded
+     * queue. {@link MessengerClient#readMessages()} only handles messages that are already in the
+     * queue. If the queue fills up because messages are not being handled fast enough, new messages
+     * are dropped.
+     */
+    BACKGROUND_THREAD
+}
@@ -0,0 +1,249 @@
+package com.swrobotics.messenger.client;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Byte ring buffer in a memory-mapped file under {@code /dev/shm}, used to send messages to
+ * processes on the same host without going through a socket. The layout is described in {@code
+ * spec.md}.
+ *
+ * <p>There is a single writer. The server is the primary reader, and the writer never overwrites
+ * data the server has not read yet. Other clients can read the ring as secondary readers, but the
+ * writer does not wait for them, so reading throws an exception if a secondary reader has fallen
+ * so far behind that the data it needs was overwritten.
+ */
+final class SharedRing implements ReadableByteChannel {
+    static final Path DIRECTORY = Paths.get("/dev/shm");
+    static final String FILE_PREFIX = "messenger-";
+
+    private static final long MAGIC = 0x4D534752494E4701L;
+    private static final int MAGIC_OFFSET = 0;
+    private static final int CAPACITY_OFFSET = 8;
+    private static final int CLAIM_OFFSET = 64;
+    private static final int WRITE_OFFSET = 128;
+    private static final int READ_OFFSET = 192;
+    private static final int WAITING_OFFSET = 256;
+    private static final int HEADER_SIZE = 320;
+
+    private static final VarHandle LONGS =
+            MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    /**
+     * Creates a new ring in {@code /dev/shm} to write to. Rings left behind by processes that
+     * have exited are deleted first.
+     *
+     * @param capacity size of the data area in bytes, must be a power of two
+     * @return created ring
+     * @throws IOException if the file can't be created
+     */
+    public static SharedRing create(int capacity) throws IOException {
+        deleteStaleRings();
+
+        long pid = ProcessHandle.current().pid();
+        String id = Long.toHexString(ThreadLocalRandom.current().nextLong());
+        Path path = DIRECTORY.resolve(FILE_PREFIX + pid + "-" + id);
+
+        MappedByteBuffer buf;
+        try (FileChannel file =
+                FileChannel.open(
+                        path,
+                        StandardOpenOption.CREATE_NEW,
+                        StandardOpenOption.READ,
+                        StandardOpenOption.WRITE)) {
+            buf = file.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + capacity);
+        }
+        buf.order(ByteOrder.nativeOrder());
+        buf.putLong(CAPACITY_OFFSET, capacity);
+        LONGS.setVolatile(buf, MAGIC_OFFSET, MAGIC);
+
+        return new SharedRing(path, buf, capacity, 0, true);
+    }
+
+    /**
+     * Opens another process's ring to read as a secondary reader.
+     *
+     * @param path path of the ring file
+     * @param position stream position to start reading from
+     * @return opened ring
+     * @throws IOException if the file can't be opened or is not a ring
+     */
+    public static SharedRing open(Path path, long position) throws IOException {
+        MappedByteBuffer buf;
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (file.size() < HEADER_SIZE) throw new IOException("Not a Messenger ring: " + path);
+            buf = file.map(FileChannel.MapMode.READ_ONLY, 0, file.size());
+        }
+        buf.order(ByteOrder.nativeOrder());
+
+        long capacity = buf.getLong(CAPACITY_OFFSET);
+        if ((long) LONGS.getVolatile(buf, MAGIC_OFFSET) != MAGIC
+                || Long.bitCount(capacity) != 1
+                || HEADER_SIZE + capacity != buf.capacity())
+            throw new IOException("Not a Messenger ring: " + path);
+
+        return new SharedRing(path, buf, (int) capacity, position, false);
+    }
+
+    private static void deleteStaleRings() {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(DIRECTORY, FILE_PREFIX + "*")) {
+            for (Path file : files) {
+                String[] parts = file.getFileName().toString().split("-");
+                if (parts.length != 3) continue;
+
+                try {
+                    long pid = Long.parseLong(parts[1]);
+                    if (ProcessHandle.of(pid).isEmpty()) Files.deleteIfExists(file);
+                } catch (NumberFormatException | IOException e) {
+                    // Not ours, or already deleted
+                }
+            }
+        } catch (IOException e) {
+            // Nothing to clean up
+        }
+    }
+
+    private final Path path;
+    private final ByteBuffer header;
+    private final ByteBuffer data;
+    private final int capacity;
+    private final boolean owner;
+
+    // Writer: position of the next byte to write.
+    // Secondary reader: position of the next byte to read
+    private long position;
+    private boolean open;
+
+    private SharedRing(Path path, ByteBuffer buf, int capacity, long position, boolean owner) {
+        this.path = path;
+        this.capacity = capacity;
+        this.position = position;
+        this.owner = owner;
+        header = buf;
+        data = buf.duplicate().position(HEADER_SIZE).slice();
+        open = true;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Copies as much of a buffer into the ring as fits without overwriting data the server has not
+     * read.
+     *
+     * @param src data to write
+     * @return number of bytes written
+     */
+    public int write(ByteBuffer src) {
+        long read = (long) LONGS.getVolatile(header, READ_OFFSET);
+        int count = (int) Math.min(src.remaining(), capacity - (position - read));
+        if (count <= 0) return 0;
+
+        // Secondary readers check the claimed position after copying, so it must
+        // be visible before any of the data is overwritten
+        LONGS.setVolatile(header, CLAIM_OFFSET, position + count);
+        VarHandle.storeStoreFence();
+
+        int index = (int) (position & (capacity - 1));
+        int first = Math.min(count, capacity - index);
+        int limit = src.limit();
+        src.limit(src.position() + first);
+        data.position(index);
+        data.put(src);
+        if (first < count) {
+            src.limit(src.position() + count - first);
+            data.position(0);
+            data.put(src);
+        }
+        src.limit(limit);
+
+        position += count;
+        LONGS.setVolatile(header, WRITE_OFFSET, position);
+        return count;
+    }
+
+    /** @return whether any data can currently be written */
+    public boolean hasSpace() {
+        return position - (long) LONGS.getVolatile(header, READ_OFFSET) < capacity;
+    }
+
+    /**
+     * Checks whether the server is waiting for data, and if so, clears the flag so that the server
+     * is only woken once. This must be called after writing.
+     *
+     * @return whether the server needs to be woken up
+     */
+    public boolean takeWaitingReader() {
+        return (long) LONGS.getVolatile(header, WAITING_OFFSET) != 0
+                && LONGS.compareAndSet(header, WAITING_OFFSET, 1L, 0L);
+    }
+
+    /**
+     * Reads as a secondary reader.
+     *
+     * @param dst buffer to read into
+     * @return number of bytes read
+     * @throws IOException if the writer has overwritten data that had not been read yet
+     */
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        long written = (long) LONGS.getVolatile(header, WRITE_OFFSET);
+        if (written - position > capacity) throw overrun();
+
+        int count = (int) Math.min(written - position, dst.remaining());
+        if (count == 0) return 0;
+
+        int index = (int) (position & (capacity - 1));
+        int first = Math.min(count, capacity - index);
+        ByteBuffer src = data.duplicate();
+        src.limit(index + first).position(index);
+        dst.put(src);
+        if (first < count) {
+            src.limit(count - first).position(0);
+            dst.put(src);
+        }
+
+        // The writer may have started overwriting what was just copied
+        VarHandle.loadLoadFence();
+        if ((long) LONGS.getVolatile(header, CLAIM_OFFSET) - position > capacity) throw overrun();
+
+        position += count;
+        return count;
+    }
+
+    private IOException overrun() {
+        return new IOException("Fell behind shared memory ring " + path.getFileName());
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    /** Closes the ring. If this process created it, the file is deleted. */
+    @Override
+    public void close() {
+        open = false;
+        if (!owner) return;
+
+        // Readers that already mapped the file can keep using it
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
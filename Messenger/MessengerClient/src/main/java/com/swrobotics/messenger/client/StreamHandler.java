@@ -0,0 +1,20 @@
+package com.swrobotics.messenger.client;
+
+import java.io.IOException;
+
+/** Represents a function called when another client opens a stream. */
+@FunctionalInterface
+public interface StreamHandler {
+    /**
+     * Called when a stream of a matching type is opened. The reader contains the data that was
+     * added to the {@link MessageBuilder} the stream was sent with, and is only valid until this
+     * method returns.
+     *
+     * @param type stream type
+     * @param header stream header reader
+     * @param size total size of the stream data in bytes
+     * @return receiver for the stream data, or null to refuse the stream
+     * @throws IOException if the stream can't be received, which also refuses it
+     */
+    StreamReceiver open(String type, MessageReader header, long size) throws IOException;
+}
@@ -0,0 +1,396 @@
+package com.swrobotics.messenger.client;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Sends and receives streams for a {@link MessengerClient}. A stream splits a large payload into
+ * fixed-size chunks, so it does not block other messages for as long as one large message would,
+ * and neither side has to hold all of it in memory. The sender only sends a limited window of
+ * data past what the receiver has acknowledged. If chunks are lost, for example because the
+ * connection was lost, the sender resumes from the last acknowledged offset. The message format is
+ * described in {@code spec.md}.
+ */
+final class StreamManager {
+    static final String ACK_SUFFIX = ":Ack";
+
+    // Kinds of stream messages
+    static final byte OPEN = 0;
+    static final byte DATA = 1;
+    static final byte CANCEL = 2;
+
+    // Kinds of acknowledgement messages
+    static final byte ACK = 0;
+    static final byte RESEND = 1;
+    static final byte ABORT = 2;
+
+    static final int CHUNK_SIZE = 16 * 1024;
+    static final int WINDOW = 256 * 1024;
+
+    private static final long RETRANSMIT_TIMEOUT = TimeUnit.SECONDS.toNanos(2);
+    private static final long STREAM_TIMEOUT = TimeUnit.SECONDS.toNanos(30);
+
+    private final MessengerClient client;
+    private final Map<Long, OutgoingStream> outgoing;
+    private final Map<Long, IncomingStream> incoming;
+    private final Set<String> ackTypes;
+
+    // Recently completed incoming streams, so a sender that missed the final
+    // acknowledgement is acknowledged again instead of starting over
+    private final Map<Long, IncomingStream> completed;
+
+    private boolean wasConnected;
+
+    public StreamManager(MessengerClient client) {
+        this.client = client;
+        outgoing = new HashMap<>();
+        incoming = new HashMap<>();
+        ackTypes = new HashSet<>();
+        completed = new HashMap<>();
+        wasConnected = false;
+    }
+
+    /**
+     * Starts sending a stream.
+     *
+     * @param type stream type
+     * @param header header data given to the receiver's handler
+     * @param source data to send, which is closed once the stream ends
+     * @return stream that was started
+     * @throws IOException if the size of the source can't be read, in which case it is closed
+     */
+    public synchronized OutgoingStream send(String type, byte[] header, SeekableByteChannel source)
+            throws IOException {
+        long id;
+        do {
+            id = ThreadLocalRandom.current().nextLong();
+        } while (id == 0 || outgoing.containsKey(id));
+
+        long size;
+        try {
+            size = source.size();
+        } catch (IOException e) {
+            source.close();
+            throw e;
+        }
+
+        OutgoingStream stream = new OutgoingStream(this, type, id, header, source, size);
+        if (ackTypes.add(stream.ackType)) client.addHandler(stream.ackType, this::onAck);
+
+        outgoing.put(id, stream);
+        resume(stream);
+        return stream;
+    }
+
+    // Sends the header, and continues sending from the last acknowledged
+    // offset. The receiver skips anything it already has
+    private void resume(OutgoingStream stream) {
+        client.prepare(stream.type)
+                .addByte(OPEN)
+                .addLong(stream.id)
+                .addLong(stream.size)
+                .addRaw(stream.header)
+                .send();
+
+        stream.sent = stream.acknowledged;
+        stream.retransmitTime = System.nanoTime() + RETRANSMIT_TIMEOUT;
+        pump(stream);
+    }
+
+    // Sends as many chunks as the window allows
+    private void pump(OutgoingStream stream) {
+        long limit = Math.min(stream.size, stream.acknowledged + stream.window);
+        while (stream.sent < limit) {
+            int length = (int) Math.min(CHUNK_SIZE, limit - stream.sent);
+            MessageBuilder builder =
+                    client.prepare(stream.type)
+                            .addByte(DATA)
+                            .addLong(stream.id)
+                            .addLong(stream.sent);
+
+            int read;
+            try {
+                read = builder.addRaw(stream.source, stream.sent, length);
+                if (read <= 0) throw new EOFException("Stream source ended early");
+            } catch (IOException e) {
+                builder.discard();
+                cancel(stream, e);
+                return;
+            }
+
+            builder.send();
+            stream.sent += read;
+        }
+    }
+
+    private synchronized void onAck(String type, MessageReader reader) {
+        byte kind = reader.readByte();
+        OutgoingStream stream = outgoing.get(reader.readLong());
+        if (stream == null) return;
+
+        if (kind == ABORT) {
+            finish(stream, new IOException("Stream was aborted by the receiver"));
+            return;
+        }
+
+        long offset = reader.readLong();
+        int window = reader.readInt();
+        if (offset < 0 || offset > stream.size) return;
+
+        long now = System.nanoTime();
+        if (kind == ACK && offset > stream.acknowledged) {
+            stream.acknowledged = offset;
+            stream.progressTime = now;
+            stream.retransmitTime = now + RETRANSMIT_TIMEOUT;
+        } else if (kind == RESEND && offset < stream.sent) {
+            // Receiver missed a chunk, or lost what it had received
+            stream.acknowledged = offset;
+            stream.sent = offset;
+            stream.progressTime = now;
+            stream.retransmitTime = now + RETRANSMIT_TIMEOUT;
+        } else {
+            return;
+        }
+        stream.window = Math.max(window, 0);
+
+        if (stream.acknowledged == stream.size) {
+            finish(stream, null);
+        } else {
+            pump(stream);
+        }
+    }
+
+    synchronized void cancel(OutgoingStream stream) {
+        cancel(stream, new CancellationException("Stream was cancelled"));
+    }
+
+    private void cancel(OutgoingStream stream, Exception cause) {
+        if (!outgoing.containsKey(stream.id)) return;
+
+        client.prepare(stream.type).addByte(CANCEL).addLong(stream.id).send();
+        finish(stream, cause);
+    }
+
+    private void finish(OutgoingStream stream, Exception cause) {
+        outgoing.remove(stream.id);
+        try {
+            stream.source.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        if (cause == null) {
+            stream.future.complete(null);
+        } else {
+            stream.future.completeExceptionally(cause);
+        }
+    }
+
+    /**
+     * Starts receiving streams of a type.
+     *
+     * @param type stream type
+     * @param handler handler to open received streams
+     */
+    public void addHandler(String type, StreamHandler handler) {
+        client.addHandler(type, (t, reader) -> onStreamMessage(t, reader, handler));
+    }
+
+    private synchronized void onStreamMessage(
+            String type, MessageReader reader, StreamHandler handler) {
+        byte kind = reader.readByte();
+        long id = reader.readLong();
+        switch (kind) {
+            case OPEN:
+                onOpen(type, id, reader, handler);
+                break;
+            case DATA:
+                onData(id, reader);
+                break;
+            case CANCEL:
+                IncomingStream stream = incoming.remove(id);
+                if (stream != null) stream.receiver.abort();
+                break;
+        }
+    }
+
+    private void onOpen(String type, long id, MessageReader reader, StreamHandler handler) {
+        long size = reader.readLong();
+
+        // Sender is resuming a stream it already started
+        IncomingStream stream = incoming.get(id);
+        if (stream == null) stream = completed.get(id);
+        if (stream != null) {
+            sendAck(stream, ACK);
+            return;
+        }
+
+        StreamReceiver receiver = null;
+        try {
+            receiver = handler.open(type, reader, size);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Failed to open stream of type " + type + ":");
+            e.printStackTrace();
+        }
+        if (receiver == null) {
+            client.prepare(type + ACK_SUFFIX).addByte(ABORT).addLong(id).send();
+            return;
+        }
+
+        stream = new IncomingStream(type, id, size, receiver);
+        incoming.put(id, stream);
+        if (size == 0) complete(stream);
+    }
+
+    private void onData(long id, MessageReader reader) {
+        long offset = reader.readLong();
+        IncomingStream stream = incoming.get(id);
+        if (stream == null) return;
+        stream.activityTime = System.nanoTime();
+
+        // A chunk is missing, so ask for everything after it again, but only
+        // once until the missing data arrives
+        if (offset > stream.offset) {
+            if (stream.resendOffset != stream.offset) {
+                stream.resendOffset = stream.offset;
+                sendAck(stream, RESEND);
+            }
+            return;
+        }
+
+        ByteBuffer data = reader.getRemaining();
+        long end = offset + data.remaining();
+        if (end <= stream.offset) return;
+        if (end > stream.size) {
+            abort(stream, new IOException("Stream data is larger than its size"));
+            return;
+        }
+
+        // Skip what was already received if the sender resumed from earlier
+        data.position(data.position() + (int) (stream.offset - offset));
+        try {
+            stream.receiver.receive(data);
+        } catch (IOException | RuntimeException e) {
+            abort(stream, e);
+            return;
+        }
+        stream.offset = end;
+        stream.resendOffset = -1;
+
+        if (stream.offset == stream.size) {
+            complete(stream);
+        } else if (stream.offset - stream.acknowledged >= WINDOW / 2) {
+            sendAck(stream, ACK);
+        }
+    }
+
+    private void complete(IncomingStream stream) {
+        incoming.remove(stream.id);
+        try {
+            stream.receiver.complete();
+        } catch (IOException | RuntimeException e) {
+            abort(stream, e);
+            return;
+        }
+
+        sendAck(stream, ACK);
+        completed.put(stream.id, stream);
+    }
+
+    private void abort(IncomingStream stream, Exception cause) {
+        System.err.println("Failed to receive stream of type " + stream.type + ":");
+        cause.printStackTrace();
+
+        incoming.remove(stream.id);
+        stream.receiver.abort();
+        client.prepare(stream.ackType).addByte(ABORT).addLong(stream.id).send();
+    }
+
+    private void sendAck(IncomingStream stream, byte kind) {
+        client.prepare(stream.ackType)
+                .addByte(kind)
+                .addLong(stream.id)
+                .addLong(stream.offset)
+                .addInt(WINDOW)
+                .send();
+        stream.acknowledged = stream.offset;
+    }
+
+    /**
+     * Acknowledges received data, resumes outgoing streams after reconnecting, and times out
+     * streams that stopped making progress. Called from {@link MessengerClient#readMessages()}.
+     */
+    public synchronized void update() {
+        boolean connected = client.isConnected();
+        boolean reconnected = connected && !wasConnected;
+        wasConnected = connected;
+        if (outgoing.isEmpty() && incoming.isEmpty() && completed.isEmpty()) return;
+
+        long now = System.nanoTime();
+        for (OutgoingStream stream : new ArrayList<>(outgoing.values())) {
+            if (now - stream.progressTime > STREAM_TIMEOUT) {
+                cancel(stream, new TimeoutException("Stream receiver stopped responding"));
+            } else if (reconnected
+                    || (stream.sent > stream.acknowledged && now - stream.retransmitTime > 0)) {
+                // Anything in flight was lost with the connection, or probably
+                // dropped if it hasn't been acknowledged for a while
+                resume(stream);
+            }
+        }
+
+        for (Iterator<IncomingStream> iter = incoming.values().iterator(); iter.hasNext(); ) {
+            IncomingStream stream = iter.next();
+            if (now - stream.activityTime > STREAM_TIMEOUT) {
+                iter.remove();
+                stream.receiver.abort();
+            } else if (stream.offset > stream.acknowledged) {
+                // Acknowledge at least once per read, so the sender doesn't wait
+                // for the rest of the window
+                sendAck(stream, ACK);
+            }
+        }
+
+        completed.values().removeIf((stream) -> now - stream.activityTime > STREAM_TIMEOUT);
+    }
+
+    // State of a stream being received
+    private static final class IncomingStream {
+        final String type;
+        final String ackType;
+        final long id;
+        final long size;
+        final StreamReceiver receiver;
+
+        // Offset of the next byte to receive
+        long offset;
+        long acknowledged;
+        // Offset a resend was requested from, or -1
+        long resendOffset;
+        long activityTime;
+
+        IncomingStream(String type, long id, long size, StreamReceiver receiver) {
+            this.type = type;
+            this.id = id;
+            this.size = size;
+            this.receiver = receiver;
+            ackType = type + ACK_SUFFIX;
+
+            offset = 0;
+            acknowledged = 0;
+            resendOffset = -1;
+            activityTime = System.nanoTime();
+        }
+    }
+}
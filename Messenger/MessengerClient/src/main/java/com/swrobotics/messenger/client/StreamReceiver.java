@@ -0,0 +1,33 @@
+package com.swrobotics.messenger.client;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Receives the data of one incoming stream, as returned by a {@link StreamHandler}. Methods are
+ * called from {@link MessengerClient#readMessages()}.
+ */
+public interface StreamReceiver {
+    /**
+     * Called with the next chunk of data. Chunks are always given in order, without gaps or
+     * repeated data, even if the stream was resumed after reconnecting. The buffer is only valid
+     * until this method returns.
+     *
+     * @param data chunk data, all remaining bytes must be consumed
+     * @throws IOException if the data can't be stored, which aborts the stream
+     */
+    void receive(ByteBuffer data) throws IOException;
+
+    /**
+     * Called once all data has been received.
+     *
+     * @throws IOException if finishing fails, which aborts the stream
+     */
+    void complete() throws IOException;
+
+    /**
+     * Called if the stream ends without completing, because it was cancelled by the sender, timed
+     * out, or one of the other methods threw an exception.
+     */
+    void abort();
+}
@@ -0,0 +1,47 @@
+package com.swrobotics.messenger.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public final class ClockEstimatorTest {
+    @Test
+    public void test_offsetFromSymmetricRoundTrip() {
+        ClockEstimator clock = new ClockEstimator(8);
+        assertFalse(clock.hasSamples());
+        assertEquals(0, clock.getOffset());
+
+        // Server is 1000 ahead, 100 each way
+        clock.addSample(5000, 6100, 5200);
+        assertTrue(clock.hasSamples());
+        assertEquals(1000, clock.getOffset());
+        assertEquals(200, clock.getRoundTripTime().getP50());
+    }
+
+    @Test
+    public void test_offsetUsesFastestRoundTrip() {
+        ClockEstimator clock = new ClockEstimator(8);
+        clock.addSample(0, 1100, 200);
+        clock.addSample(1000, 2700, 1900); // Delayed on the way there
+        clock.addSample(2000, 3050, 2100);
+
+        assertEquals(1000, clock.getOffset());
+    }
+
+    @Test
+    public void test_keepsRecentSamples() {
+        ClockEstimator clock = new ClockEstimator(4);
+        for (int i = 1; i <= 10; i++) clock.addSample(0, 0, i * 100);
+
+        LatencyStats rtt = clock.getRoundTripTime();
+        assertEquals(4, rtt.getCount());
+        assertEquals(700, rtt.getMin());
+        assertEquals(1000, rtt.getMax());
+
+        clock.reset();
+        assertFalse(clock.hasSamples());
+        assertEquals(0, clock.getRoundTripTime().getCount());
+    }
+}
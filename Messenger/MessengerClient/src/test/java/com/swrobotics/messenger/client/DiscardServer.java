@@ -0,0 +1,69 @@
+package com.swrobotics.messenger.client;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/** Minimal stand-in for the Messenger server that accepts clients and ignores what they send. */
+public final class DiscardServer implements AutoCloseable {
+    private final ServerSocketChannel server;
+    private final Thread thread;
+
+    public DiscardServer() throws IOException {
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress("localhost", 0));
+
+        thread = new Thread(this::run, "Discard Server");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                SocketChannel client = server.accept();
+                Thread reader =
+                        new Thread(
+                                () -> {
+                                    ByteBuffer buf = ByteBuffer.allocateDirect(64 * 1024);
+                                    try (client) {
+                                        while (client.read(buf.clear()) >= 0) {}
+                                    } catch (IOException e) {
+                                        // Client disconnected
+                                    }
+                                });
+                reader.setDaemon(true);
+                reader.start();
+            }
+        } catch (IOException e) {
+            // Server closed
+        }
+    }
+
+    public int getPort() {
+        return ((InetSocketAddress) server.socket().getLocalSocketAddress()).getPort();
+    }
+
+    /**
+     * Creates a client connected to this server, waiting until the connection is established.
+     *
+     * @return connected client
+     */
+    public MessengerClient connectClient() throws InterruptedException {
+        MessengerClient client = new MessengerClient("localhost", getPort(), "Test");
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!client.isConnected()) {
+            if (System.currentTimeMillis() > deadline)
+                throw new AssertionError("Client did not connect");
+            Thread.sleep(10);
+        }
+        return client;
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+    }
+}
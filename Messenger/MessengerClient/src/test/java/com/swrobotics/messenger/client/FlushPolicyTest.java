@@ -0,0 +1,85 @@
+package com.swrobotics.messenger.client;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public final class FlushPolicyTest {
+    private static final int THRESHOLD = 4096;
+    // Type length, type, data size, then the data
+    private static final int FRAME_SIZE = 2 + "Test:Big".length() + 4 + 500;
+
+    private static void sendBig(MessengerClient client, int value) {
+        client.prepare("Test:Big").addInt(value).addRaw(new byte[496]).send();
+    }
+
+    private static void expectValues(ScriptedServer server, String type, int from, int to)
+            throws InterruptedException {
+        for (int i = from; i < to; i++) {
+            ScriptedServer.Frame frame = server.poll(type, 5000);
+            assertNotNull("Message " + i + " was not written", frame);
+            assertEquals(i, frame.reader().readInt());
+        }
+    }
+
+    @Test
+    public void test_bufferedHoldsUntilFlush() throws Exception {
+        try (ScriptedServer server = new ScriptedServer()) {
+            MessengerClient client = server.connectClient();
+            client.setFlushPolicy(FlushPolicy.BUFFERED);
+
+            for (int i = 0; i < 3; i++) client.prepare("Test:Value").addInt(i).send();
+            assertNull(server.poll("Test:Value", 200));
+
+            client.flush();
+            expectValues(server, "Test:Value", 0, 3);
+
+            client.disconnect();
+        }
+    }
+
+    @Test
+    public void test_bufferedWritesAtThreshold() throws Exception {
+        try (ScriptedServer server = new ScriptedServer()) {
+            MessengerClient client = server.connectClient();
+            client.setFlushPolicy(FlushPolicy.BUFFERED);
+            client.setFlushThreshold(THRESHOLD);
+
+            // Just under the threshold, even with the messages that define the
+            // type's alias
+            int count = THRESHOLD / FRAME_SIZE;
+            for (int i = 0; i < count; i++) sendBig(client, i);
+            assertNull(server.poll("Test:Big", 200));
+
+            // Reaching it writes everything without a flush
+            sendBig(client, count);
+            expectValues(server, "Test:Big", 0, count + 1);
+
+            client.disconnect();
+        }
+    }
+
+    @Test
+    public void test_immediateWritesEachMessage() throws Exception {
+        try (ScriptedServer server = new ScriptedServer()) {
+            MessengerClient client = server.connectClient();
+
+            for (int i = 0; i < 3; i++) {
+                client.prepare("Test:Value").addInt(i).send();
+                expectValues(server, "Test:Value", i, i + 1);
+            }
+
+            // Switching back writes what was buffered
+            client.setFlushPolicy(FlushPolicy.BUFFERED);
+            client.prepare("Test:Value").addInt(3).send();
+            assertNull(server.poll("Test:Value", 200));
+            client.setFlushPolicy(FlushPolicy.IMMEDIATE);
+            expectValues(server, "Test:Value", 3, 4);
+
+            client.prepare("Test:Value").addInt(4).send();
+            expectValues(server, "Test:Value", 4, 5);
+
+            client.disconnect();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.swrobotics.messenger.client;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+public final class FrameCompressorTest {
+    private static ByteBuffer encode(String type, byte[] data) {
+        byte[] typeBytes = type.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer frame = ByteBuffer.allocate(2 + typeBytes.length + 4 + data.length);
+        frame.putShort((short) typeBytes.length).put(typeBytes).putInt(data.length).put(data);
+        return frame.flip();
+    }
+
+    private static FrameDecoder decode(ByteBuffer frame) throws IOException {
+        byte[] bytes = new byte[frame.remaining()];
+        frame.duplicate().get(bytes);
+
+        FrameDecoder decoder = new FrameDecoder();
+        decoder.read(Channels.newChannel(new ByteArrayInputStream(bytes)));
+        assertTrue(decoder.nextFrame());
+        return decoder;
+    }
+
+    private static byte[] logLines() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 100; i++)
+            builder.append("[INFO] Vision: Processed frame ").append(i).append(" in 12 ms\n");
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void test_compressedFrameIsDecodedTransparently() throws IOException {
+        byte[] data = logLines();
+        ByteBuffer frame = encode("Test:Log", data);
+        ByteBuffer compressed = new FrameCompressor(Deflater.BEST_SPEED).compress(frame);
+        assertNotNull(compressed);
+        assertEquals(0, frame.position());
+        assertTrue(compressed.remaining() < frame.remaining() / 4);
+
+        FrameDecoder decoder = decode(compressed);
+        assertEquals("Test:Log", decoder.getType());
+        assertEquals(data.length, decoder.getDataLength());
+
+        byte[] copied = new byte[data.length];
+        decoder.getData(copied);
+        assertArrayEquals(data, copied);
+
+        MessageReader reader = new MessageReader();
+        decoder.wrapData(reader);
+        assertArrayEquals(data, reader.readAllData());
+    }
+
+    @Test
+    public void test_incompressibleFrameIsNotCompressed() {
+        byte[] data = new byte[4096];
+        new Random(2129).nextBytes(data);
+
+        assertNull(new FrameCompressor(Deflater.BEST_SPEED).compress(encode("Test:Random", data)));
+    }
+
+    @Test
+    public void test_wrongUncompressedSizeFails() throws IOException {
+        ByteBuffer compressed =
+                new FrameCompressor(Deflater.BEST_SPEED).compress(encode("Test:Log", logLines()));
+        int sizeOffset = 2 + "Test:Log".length() + 4;
+        compressed.putInt(sizeOffset, compressed.getInt(sizeOffset) + 1);
+
+        try {
+            decode(compressed);
+            fail("Decoding should have failed");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+}
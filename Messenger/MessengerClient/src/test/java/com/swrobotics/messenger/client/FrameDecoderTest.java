@@ -0,0 +1,300 @@
+package com.swrobotics.messenger.client;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+
+public final class FrameDecoderTest {
+    // Gives the data in the chunks it was added in, like a non-blocking socket
+    // that only has some of the data so far
+    private static final class ChunkedChannel implements ReadableByteChannel {
+        private final Queue<ByteBuffer> chunks = new ArrayDeque<>();
+        private boolean ended = false;
+
+        void add(byte[] bytes, int from, int to) {
+            chunks.add(ByteBuffer.wrap(Arrays.copyOfRange(bytes, from, to)));
+        }
+
+        void add(byte[] bytes) {
+            add(bytes, 0, bytes.length);
+        }
+
+        void end() {
+            ended = true;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) {
+            ByteBuffer chunk = chunks.peek();
+            if (chunk == null) return ended ? -1 : 0;
+
+            int count = Math.min(dst.remaining(), chunk.remaining());
+            ByteBuffer part = chunk.duplicate();
+            part.limit(part.position() + count);
+            dst.put(part);
+            chunk.position(chunk.position() + count);
+            if (!chunk.hasRemaining()) chunks.remove();
+            return count;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {}
+    }
+
+    private static byte[] encode(String type, byte[] data) {
+        byte[] typeBytes = type.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer frame = ByteBuffer.allocate(2 + typeBytes.length + 4 + data.length);
+        frame.putShort((short) typeBytes.length).put(typeBytes).putInt(data.length).put(data);
+        return frame.array();
+    }
+
+    private static byte[] encodeAliased(int aliasId, byte[] data) {
+        ByteBuffer frame = ByteBuffer.allocate(2 + 2 + 4 + data.length);
+        frame.putShort((short) 0).putShort((short) aliasId).putInt(data.length).put(data);
+        return frame.array();
+    }
+
+    private static byte[] concat(byte[]... arrays) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] array : arrays) out.write(array, 0, array.length);
+        return out.toByteArray();
+    }
+
+    private static byte[] data(int size, int seed) {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) data[i] = (byte) (i * 31 + seed);
+        return data;
+    }
+
+    private static void assertFrame(FrameDecoder decoder, String type, byte[] data)
+            throws IOException {
+        assertTrue(decoder.nextFrame());
+        assertEquals(type, decoder.getType());
+        assertEquals(data.length, decoder.getDataLength());
+
+        byte[] copied = new byte[data.length];
+        decoder.getData(copied);
+        assertArrayEquals(data, copied);
+    }
+
+    // Reads until a frame is complete, the same way MessengerClient does
+    // across calls to readMessages()
+    private static void readUntilFrame(FrameDecoder decoder, ReadableByteChannel channel)
+            throws IOException {
+        for (int i = 0; i < 1000; i++) {
+            int read = decoder.read(channel);
+            assertTrue("Channel ended before the frame was complete", read >= 0);
+            if (decoder.nextFrame()) return;
+        }
+        fail("Frame was never completed");
+    }
+
+    @Test
+    public void test_frameSplitAcrossReads() throws IOException {
+        byte[] data = data(100, 1);
+        byte[] frame = encode("Test:Split", data);
+
+        ChunkedChannel channel = new ChunkedChannel();
+        FrameDecoder decoder = new FrameDecoder();
+        channel.add(frame, 0, 20);
+        decoder.read(channel);
+        assertFalse(decoder.nextFrame());
+
+        // Nothing new has arrived, so it must still be incomplete
+        assertEquals(0, decoder.read(channel));
+        assertFalse(decoder.nextFrame());
+
+        channel.add(frame, 20, frame.length);
+        decoder.read(channel);
+        assertFrame(decoder, "Test:Split", data);
+        assertFalse(decoder.nextFrame());
+    }
+
+    @Test
+    public void test_headerSplitInType() throws IOException {
+        byte[] data = data(10, 2);
+        byte[] frame = encode("Test:HeaderSplit", data);
+
+        ChunkedChannel channel = new ChunkedChannel();
+        FrameDecoder decoder = new FrameDecoder();
+
+        // Only one byte of the type length
+        channel.add(frame, 0, 1);
+        decoder.read(channel);
+        assertFalse(decoder.nextFrame());
+
+        // Part of the type
+        channel.add(frame, 1, 7);
+        decoder.read(channel);
+        assertFalse(decoder.nextFrame());
+
+        // The rest of the type, and part of the data length
+        channel.add(frame, 7, 2 + 16 + 2);
+        decoder.read(channel);
+        assertFalse(decoder.nextFrame());
+
+        channel.add(frame, 2 + 16 + 2, frame.length);
+        decoder.read(channel);
+        assertFrame(decoder, "Test:HeaderSplit", data);
+    }
+
+    @Test
+    public void test_severalFramesInOneRead() throws IOException {
+        byte[] a = data(5, 3);
+        byte[] b = new byte[0];
+        byte[] c = data(300, 4);
+
+        ChunkedChannel channel = new ChunkedChannel();
+        channel.add(concat(encode("Test:A", a), encode("Test:B", b), encode("Test:C", c)));
+
+        FrameDecoder decoder = new FrameDecoder();
+        decoder.read(channel);
+        assertFrame(decoder, "Test:A", a);
+        assertFrame(decoder, "Test:B", b);
+        assertFrame(decoder, "Test:C", c);
+        assertFalse(decoder.nextFrame());
+    }
+
+    @Test
+    public void test_partialFrameAfterCompleteFrame() throws IOException {
+        byte[] a = data(50, 5);
+        byte[] b = data(50, 6);
+        byte[] both = concat(encode("Test:A", a), encode("Test:B", b));
+        int split = both.length - 10;
+
+        ChunkedChannel channel = new ChunkedChannel();
+        channel.add(both, 0, split);
+        FrameDecoder decoder = new FrameDecoder();
+        decoder.read(channel);
+        assertFrame(decoder, "Test:A", a);
+        assertFalse(decoder.nextFrame());
+
+        channel.add(both, split, both.length);
+        decoder.read(channel);
+        assertFrame(decoder, "Test:B", b);
+    }
+
+    @Test
+    public void test_frameLargerThanBuffer() throws IOException {
+        // Larger than the initial buffer, so the buffer has to grow
+        byte[] data = data(300 * 1024, 7);
+        byte[] frame = encode("Test:Large", data);
+
+        ChunkedChannel channel = new ChunkedChannel();
+        for (int i = 0; i < frame.length; i += 10000)
+            channel.add(frame, i, Math.min(frame.length, i + 10000));
+
+        FrameDecoder decoder = new FrameDecoder();
+        readUntilFrame(decoder, channel);
+        assertEquals("Test:Large", decoder.getType());
+        byte[] copied = new byte[data.length];
+        decoder.getData(copied);
+        assertArrayEquals(data, copied);
+    }
+
+    @Test
+    public void test_frameWrappingAroundBufferIsCompacted() throws IOException {
+        // Three of these don't fit in the initial buffer at once, so the third
+        // can only be completed by moving it to the start of the buffer
+        byte[] a = data(30 * 1024, 8);
+        byte[] b = data(30 * 1024, 9);
+        byte[] c = data(30 * 1024, 10);
+        byte[] all = concat(encode("Test:A", a), encode("Test:B", b), encode("Test:C", c));
+
+        ChunkedChannel channel = new ChunkedChannel();
+        channel.add(all);
+        FrameDecoder decoder = new FrameDecoder();
+
+        decoder.read(channel);
+        assertFrame(decoder, "Test:A", a);
+        assertFrame(decoder, "Test:B", b);
+        assertFalse(decoder.nextFrame());
+
+        readUntilFrame(decoder, channel);
+        assertEquals("Test:C", decoder.getType());
+        byte[] copied = new byte[c.length];
+        decoder.getData(copied);
+        assertArrayEquals(c, copied);
+    }
+
+    @Test
+    public void test_oversizedDataLengthFails() throws IOException {
+        byte[] typeBytes = "Test:Huge".getBytes(StandardCharsets.UTF_8);
+        ByteBuffer header = ByteBuffer.allocate(2 + typeBytes.length + 4);
+        header.putShort((short) typeBytes.length).put(typeBytes).putInt(Integer.MAX_VALUE);
+
+        ChunkedChannel channel = new ChunkedChannel();
+        channel.add(header.array());
+        FrameDecoder decoder = new FrameDecoder();
+        decoder.read(channel);
+
+        try {
+            decoder.nextFrame();
+            fail("Decoding should have failed");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void test_endOfStream() throws IOException {
+        ChunkedChannel channel = new ChunkedChannel();
+        channel.end();
+        assertEquals(-1, new FrameDecoder().read(channel));
+    }
+
+    @Test
+    public void test_aliasedFrames() throws IOException {
+        byte[] a = data(20, 1);
+        byte[] b = data(5, 2);
+        byte[] bytes = concat(encodeAliased(3, a), encodeAliased(300, b), encode("Test:Full", a));
+
+        FrameDecoder decoder = new FrameDecoder();
+        decoder.setAlias(3, "Test:Pos");
+        decoder.setAlias(300, "Test:Far"); // Past the initial alias table size
+
+        // Split inside the alias ID
+        ChunkedChannel channel = new ChunkedChannel();
+        channel.add(bytes, 0, 3);
+        channel.add(bytes, 3, bytes.length);
+        readUntilFrame(decoder, channel);
+        assertEquals("Test:Pos", decoder.getType());
+        assertEquals(a.length, decoder.getDataLength());
+
+        assertFrame(decoder, "Test:Far", b);
+        assertFrame(decoder, "Test:Full", a);
+        assertFalse(decoder.nextFrame());
+    }
+
+    @Test
+    public void test_unknownAliasFails() throws IOException {
+        FrameDecoder decoder = new FrameDecoder();
+        decoder.setAlias(1, "Test:Pos");
+        decoder.reset(); // New connection, so the alias is no longer known
+
+        ChunkedChannel channel = new ChunkedChannel();
+        channel.add(encodeAliased(1, data(4, 0)));
+        decoder.read(channel);
+
+        try {
+            decoder.nextFrame();
+            fail("Decoding should have failed");
+        } catch (IOException e) {
+            assertEquals("Unknown type alias: 1", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.swrobotics.messenger.client;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+public final class HandlerDispatchTest {
+    private static void receive(MessengerClient client, String type) {
+        client.replayMessage(type, ByteBuffer.allocate(0), 0, 0);
+    }
+
+    // Which handlers match a type, the same way the client matched them
+    // before handlers were indexed by type
+    private static List<String> linearScan(List<String> patterns, String type) {
+        List<String> matched = new ArrayList<>();
+        for (String pattern : patterns) {
+            boolean matches;
+            if (pattern.endsWith("*"))
+                matches = type.startsWith(pattern.substring(0, pattern.length() - 1));
+            else matches = type.equals(pattern);
+
+            if (matches) matched.add(pattern);
+        }
+        return matched;
+    }
+
+    private static Map<String, Integer> count(List<String> list) {
+        Map<String, Integer> counts = new TreeMap<>();
+        for (String str : list) counts.merge(str, 1, Integer::sum);
+        return counts;
+    }
+
+    @Test
+    public void test_exactHandlersRunBeforeWildcards() throws Exception {
+        try (DiscardServer server = new DiscardServer()) {
+            MessengerClient client = server.connectClient();
+            List<String> calls = new ArrayList<>();
+            client.addHandler("Test:*", (type, reader) -> calls.add("Test:*"));
+            client.addHandler("Test:Pos", (type, reader) -> calls.add("Test:Pos 1"));
+            client.addHandler("*", (type, reader) -> calls.add("*"));
+            client.addHandler("Test:Pos", (type, reader) -> calls.add("Test:Pos 2"));
+            client.addHandler("Test:P*", (type, reader) -> calls.add("Test:P*"));
+
+            receive(client, "Test:Pos");
+            assertEquals(List.of("Test:Pos 1", "Test:Pos 2", "*", "Test:*", "Test:P*"), calls);
+
+            calls.clear();
+            receive(client, "Test:Other");
+            assertEquals(List.of("*", "Test:*"), calls);
+
+            calls.clear();
+            receive(client, "Other");
+            assertEquals(List.of("*"), calls);
+
+            client.disconnect();
+        }
+    }
+
+    @Test
+    public void test_matchesSameHandlersAsLinearScan() throws Exception {
+        List<String> patterns =
+                List.of(
+                        "*",
+                        "Robot:*",
+                        "Robot:Drive:*",
+                        "Robot:Drive:Pose",
+                        "Robot:Drive:Pose",
+                        "Robot:Drive:Pose*",
+                        "Robot:Arm",
+                        "Robot:Arm*",
+                        "Robo*",
+                        "Vision:*",
+                        "Vision:Tags");
+        List<String> types =
+                List.of(
+                        "Robot:Drive:Pose",
+                        "Robot:Drive:PoseEstimate",
+                        "Robot:Drive:",
+                        "Robot:Arm",
+                        "Robot:ArmAngle",
+                        "Robot",
+                        "Vision:Tags",
+                        "Vision:TagsRaw",
+                        "Unrelated",
+                        "");
+
+        try (DiscardServer server = new DiscardServer()) {
+            MessengerClient client = server.connectClient();
+            List<String> calls = new ArrayList<>();
+            for (String pattern : patterns)
+                client.addHandler(pattern, (type, reader) -> calls.add(pattern));
+
+            for (String type : types) {
+                calls.clear();
+                receive(client, type);
+                assertEquals(type, count(linearScan(patterns, type)), count(calls));
+            }
+
+            client.disconnect();
+        }
+    }
+}
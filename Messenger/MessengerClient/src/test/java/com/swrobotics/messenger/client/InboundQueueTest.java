@@ -0,0 +1,90 @@
+package com.swrobotics.messenger.client;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+public final class InboundQueueTest {
+    private static final int MESSAGE_COUNT = 1_000_000;
+
+    @Test
+    public void test_capacityIsRoundedUp() {
+        InboundQueue queue = new InboundQueue(5);
+        for (int i = 0; i < 8; i++) {
+            assertNotNull(queue.claim());
+            queue.publish();
+        }
+        assertNull(queue.claim());
+        assertEquals(8, queue.size());
+        assertEquals(8, queue.getPeakSize());
+        assertEquals(1, queue.getDroppedCount());
+    }
+
+    @Test
+    public void test_slotsAreReused() {
+        InboundQueue queue = new InboundQueue(2);
+        for (int i = 0; i < 10; i++) {
+            InboundQueue.Slot slot = queue.claim();
+            slot.length = i;
+            queue.publish();
+
+            assertSame(slot, queue.peek());
+            assertEquals(i, queue.peek().length);
+            queue.release();
+            assertNull(queue.peek());
+        }
+        assertEquals(1, queue.getPeakSize());
+        assertEquals(0, queue.getDroppedCount());
+    }
+
+    @Test
+    public void test_twoThreads() throws Exception {
+        InboundQueue queue = new InboundQueue(16);
+        AtomicLong failedClaims = new AtomicLong();
+
+        // Like the reader thread, but retries when the queue is full so every
+        // message is received
+        Thread producer =
+                new Thread(
+                        () -> {
+                            for (int i = 0; i < MESSAGE_COUNT; i++) {
+                                InboundQueue.Slot slot;
+                                while ((slot = queue.claim()) == null) {
+                                    failedClaims.incrementAndGet();
+                                    Thread.yield();
+                                }
+                                slot.type = (i % 2 == 0) ? "Even" : "Odd";
+                                slot.data[0] = (byte) i;
+                                slot.length = i;
+                                queue.publish();
+                            }
+                        });
+        producer.start();
+
+        long deadline = System.currentTimeMillis() + 30000;
+        int expected = 0;
+        while (expected < MESSAGE_COUNT) {
+            InboundQueue.Slot slot = queue.peek();
+            if (slot == null) {
+                assertTrue("Timed out", System.currentTimeMillis() < deadline);
+                Thread.yield();
+                continue;
+            }
+
+            // Everything the producer wrote before publishing must be visible
+            assertEquals(expected, slot.length);
+            assertEquals((expected % 2 == 0) ? "Even" : "Odd", slot.type);
+            assertEquals((byte) expected, slot.data[0]);
+            queue.release();
+            expected++;
+        }
+        producer.join();
+
+        assertNull(queue.peek());
+        assertEquals(0, queue.size());
+        assertTrue(queue.getPeakSize() <= 16);
+        assertEquals(failedClaims.get(), queue.getDroppedCount());
+    }
+}
@@ -0,0 +1,62 @@
+package com.swrobotics.messenger.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public final class LatencyHistogramTest {
+    @Test
+    public void test_smallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 16; i++) histogram.record(i);
+
+        assertEquals(16, histogram.getTotalCount());
+        assertEquals(7, histogram.getValueAtPercentile(50));
+        assertEquals(15, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void test_bucketsCoverAllValues() {
+        for (long value = 0; value < 100_000; value++) {
+            int index = LatencyHistogram.bucketIndex(value);
+            assertTrue(value <= LatencyHistogram.bucketUpperBound(index));
+            if (index > 0) assertTrue(value > LatencyHistogram.bucketUpperBound(index - 1));
+        }
+
+        int last = LatencyHistogram.bucketIndex(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.bucketUpperBound(last));
+    }
+
+    @Test
+    public void test_percentilesWithinPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 1_000_000; i++) histogram.record(i * 1000);
+
+        assertWithinPrecision(500_000_000L, histogram.getValueAtPercentile(50));
+        assertWithinPrecision(990_000_000L, histogram.getValueAtPercentile(99));
+        assertEquals(1_000_000_000L, histogram.getValueAtPercentile(100));
+
+        LatencyStats stats = histogram.snapshot();
+        assertEquals(1000, stats.getMin());
+        assertEquals(1_000_000_000L, stats.getMax());
+        assertEquals(500_000_500.0, stats.getMean(), 1e-3);
+    }
+
+    @Test
+    public void test_reset() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(12345);
+        histogram.reset();
+
+        assertEquals(0, histogram.getTotalCount());
+        assertEquals(0, histogram.snapshot().getMax());
+        assertEquals(0, histogram.getValueAtPercentile(50));
+    }
+
+    private static void assertWithinPrecision(long expected, long actual) {
+        assertTrue(
+                "Expected about " + expected + " but was " + actual,
+                Math.abs(actual - expected) <= expected / 16);
+    }
+}
@@ -0,0 +1,124 @@
+package com.swrobotics.messenger.client;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+public final class LatestOnlyTest {
+    private static void receive(MessengerClient client, String type, int value) {
+        ByteBuffer data = ByteBuffer.allocate(4).putInt(0, value);
+        client.replayMessage(type, data, 0, 4);
+    }
+
+    // Collects the messages the server receives until one of the given type
+    private static List<String> receiveUntil(ScriptedServer server, String endType)
+            throws InterruptedException {
+        List<String> messages = new ArrayList<>();
+        while (true) {
+            ScriptedServer.Frame frame = server.next(5000);
+            assertNotNull("Server did not receive " + endType, frame);
+            if (frame.type.equals(endType)) return messages;
+            if (frame.data.length == 4) messages.add(frame.type + " " + frame.reader().readInt());
+        }
+    }
+
+    @Test
+    public void test_latestHandlerGetsNewestPerRead() throws Exception {
+        try (DiscardServer server = new DiscardServer()) {
+            MessengerClient client = server.connectClient();
+            List<String> latest = new ArrayList<>();
+            List<Integer> all = new ArrayList<>();
+            client.addLatestHandler(
+                    "Test:*", (type, reader) -> latest.add(type + " " + reader.readInt()));
+            client.addHandler("Test:Pos", (type, reader) -> all.add(reader.readInt()));
+
+            receive(client, "Test:Pos", 1);
+            receive(client, "Test:Other", 10);
+            receive(client, "Test:Pos", 2);
+            receive(client, "Test:Pos", 3);
+
+            // Not handled until all new messages have been seen
+            assertTrue(latest.isEmpty());
+            assertEquals(List.of(1, 2, 3), all);
+
+            client.readMessages();
+            assertEquals(List.of("Test:Pos 3", "Test:Other 10"), latest);
+
+            // Nothing new has been received
+            client.readMessages();
+            assertEquals(2, latest.size());
+
+            receive(client, "Test:Pos", 4);
+            client.readMessages();
+            assertEquals("Test:Pos 4", latest.get(2));
+
+            client.disconnect();
+        }
+    }
+
+    @Test
+    public void test_bufferedFlushWritesOnlyNewest() throws Exception {
+        try (ScriptedServer server = new ScriptedServer()) {
+            MessengerClient client = server.connectClient();
+            client.setFlushPolicy(FlushPolicy.BUFFERED);
+            client.setSendLatestOnly("Test:Pos", true);
+
+            client.prepare("Test:Pos").addInt(1).send();
+            client.prepare("Test:Other").addInt(10).send();
+            client.prepare("Test:Pos").addInt(2).send();
+            client.prepare("Test:Other").addInt(11).send();
+            client.prepare("Test:Pos").addInt(3).send();
+            client.send("Test:End");
+            client.flush();
+
+            // The newest takes the place of the first one that was replaced
+            assertEquals(
+                    List.of("Test:Pos 3", "Test:Other 10", "Test:Other 11"),
+                    receiveUntil(server, "Test:End"));
+
+            // Sent again after the flush, so not replaced
+            client.prepare("Test:Pos").addInt(4).send();
+            client.send("Test:End");
+            client.flush();
+            assertEquals(List.of("Test:Pos 4"), receiveUntil(server, "Test:End"));
+
+            client.disconnect();
+        }
+    }
+
+    @Test
+    public void test_immediateReplacesQueuedMessage() throws Exception {
+        try (ScriptedServer server = new ScriptedServer()) {
+            MessengerClient client = server.connectClient();
+            client.setSendLatestOnly("Test:Pos", true);
+
+            // Fill up the socket until messages have to be queued
+            server.setReading(false);
+            byte[] filler = new byte[16 * 1024];
+            for (int i = 0; client.getOutboundQueueDepth(MessagePriority.NORMAL) == 0; i++) {
+                assertTrue("Socket never filled up", i < 10000);
+                client.prepare("Test:Filler").addRaw(filler).send();
+            }
+
+            int depth = client.getOutboundQueueDepth(MessagePriority.NORMAL);
+            for (int i = 1; i <= 100; i++) client.prepare("Test:Pos").addInt(i).send();
+            assertEquals(depth + 1, client.getOutboundQueueDepth(MessagePriority.NORMAL));
+
+            client.send("Test:End");
+            server.setReading(true);
+            long deadline = System.currentTimeMillis() + 5000;
+            while (client.getOutboundQueueDepth(MessagePriority.NORMAL) > 0) {
+                assertTrue("Queue was never written", System.currentTimeMillis() < deadline);
+                client.flush();
+                Thread.sleep(1);
+            }
+
+            assertEquals(List.of("Test:Pos 100"), receiveUntil(server, "Test:End"));
+            client.disconnect();
+        }
+    }
+}
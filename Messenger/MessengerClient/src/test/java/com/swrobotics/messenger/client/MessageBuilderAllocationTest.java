@@ -0,0 +1,74 @@
+package com.swrobotics.messenger.client;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+public final class MessageBuilderAllocationTest {
+    private static final int WARMUP_ITERATIONS = 50_000;
+    private static final int MEASURED_ITERATIONS = 10_000;
+
+    // Same shape as the messages the robot sends every periodic
+    private static void sendTypicalMessages(MessengerClient client, int i) {
+        client.prepare("Pathfinding:Calc")
+                .addDouble(i)
+                .addDouble(0.5)
+                .addDouble(1.5)
+                .addDouble(-2.0)
+                .send();
+        client.prepare("Pathfinder:SetPos").addDouble(i * 0.01).addDouble(3.2).send();
+        client.prepare("Robot:GamePiece").addBoolean((i & 1) == 0).send();
+        client.send("_Heartbeat");
+    }
+
+    private static final com.sun.management.ThreadMXBean THREAD_BEAN =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static long getAllocatedBytes() {
+        return THREAD_BEAN.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static long measureSendAllocations(MessengerClient client) {
+        // Let the builder pool fill and the JIT compile the send path
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            sendTypicalMessages(client, i);
+            client.flush();
+        }
+
+        // Querying the allocated bytes allocates a little itself
+        long before = getAllocatedBytes();
+        long overhead = getAllocatedBytes() - before;
+
+        before = getAllocatedBytes();
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            sendTypicalMessages(client, i);
+            client.flush();
+        }
+        return getAllocatedBytes() - before - overhead;
+    }
+
+    @Test
+    public void test_steadyStateSendDoesNotAllocate() throws Exception {
+        try (DiscardServer server = new DiscardServer()) {
+            MessengerClient client = server.connectClient();
+            long allocated = measureSendAllocations(client);
+            client.disconnect();
+
+            assertEquals("Bytes allocated while sending", 0, allocated);
+        }
+    }
+
+    @Test
+    public void test_steadyStateBufferedSendDoesNotAllocate() throws Exception {
+        try (DiscardServer server = new DiscardServer()) {
+            MessengerClient client = server.connectClient();
+            client.setFlushPolicy(FlushPolicy.BUFFERED);
+            long allocated = measureSendAllocations(client);
+            client.disconnect();
+
+            assertEquals("Bytes allocated while sending", 0, allocated);
+        }
+    }
+}
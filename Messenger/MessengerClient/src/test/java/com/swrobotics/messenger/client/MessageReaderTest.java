@@ -0,0 +1,152 @@
+package com.swrobotics.messenger.client;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.junit.function.ThrowingRunnable;
+
+import java.nio.ByteBuffer;
+
+public final class MessageReaderTest {
+    private static MessageReader encode(MessageBuilder builder) {
+        return new MessageReader(builder.getData());
+    }
+
+    private static Class<?> readFailure(ThrowingRunnable read) {
+        return assertThrows(RuntimeException.class, read).getClass();
+    }
+
+    @Test
+    public void test_primitives() {
+        MessageReader reader =
+                encode(
+                        new MessageBuilder(null, "Test")
+                                .addBoolean(true)
+                                .addString("H\u00e9llo")
+                                .addInt(-12)
+                                .addLong(1L << 40)
+                                .addFloat(1.5f)
+                                .addDouble(-2.25));
+
+        assertTrue(reader.readBoolean());
+        assertEquals("H\u00e9llo", reader.readString());
+        assertEquals(-12, reader.readInt());
+        assertEquals(1L << 40, reader.readLong());
+        assertEquals(1.5f, reader.readFloat(), 0);
+        assertEquals(-2.25, reader.readDouble(), 0);
+        assertEquals(0, reader.readAllData().length);
+    }
+
+    @Test
+    public void test_arrays() {
+        double[] doubles = {1.0, -2.5, Math.PI, Double.MAX_VALUE};
+        float[] floats = {0.25f, -7f, Float.MIN_VALUE};
+        long[] longs = {0, -1, Long.MAX_VALUE, 1234567890123L};
+
+        MessageReader reader =
+                encode(
+                        new MessageBuilder(null, "Test")
+                                .addDoubleArray(doubles)
+                                .addFloatArray(floats)
+                                .addLongArray(longs, 1, 2)
+                                .addInt(42));
+
+        assertArrayEquals(doubles, reader.readDoubleArray(doubles.length), 0);
+        assertArrayEquals(floats, reader.readFloatArray(floats.length), 0);
+
+        long[] dst = new long[4];
+        reader.readLongArray(dst, 2, 2);
+        assertArrayEquals(new long[] {0, 0, -1, Long.MAX_VALUE}, dst);
+        assertEquals(42, reader.readInt());
+    }
+
+    @Test
+    public void test_arrayMatchesSingleValues() {
+        MessageReader reader =
+                encode(new MessageBuilder(null, "Test").addDouble(1.0).addDouble(2.0));
+        assertArrayEquals(new double[] {1.0, 2.0}, reader.readDoubleArray(2), 0);
+
+        reader = encode(new MessageBuilder(null, "Test").addDoubleArray(new double[] {3.0, 4.0}));
+        assertEquals(3.0, reader.readDouble(), 0);
+        assertEquals(4.0, reader.readDouble(), 0);
+    }
+
+    @Test
+    public void test_readPastEndFails() {
+        MessageReader reader = encode(new MessageBuilder(null, "Test").addDouble(1.0));
+
+        double[] dst = new double[2];
+        assertThrows(RuntimeException.class, () -> reader.readDoubleArray(dst));
+
+        // Nothing should have been consumed by the failed read
+        assertTrue(reader.hasRemaining());
+        assertEquals(1.0, reader.readDouble(), 0);
+        assertFalse(reader.hasRemaining());
+        assertThrows(RuntimeException.class, reader::readInt);
+    }
+
+    @Test
+    public void test_negativeLengthFails() {
+        // Length read from a corrupt message
+        int length = encode(new MessageBuilder(null, "Test").addInt(-1)).readInt();
+        MessageReader reader = encode(new MessageBuilder(null, "Test").addInt(7));
+
+        // Same error as reading past the end, not NegativeArraySizeException
+        assertEquals(RuntimeException.class, readFailure(() -> reader.readRaw(length)));
+        assertEquals(RuntimeException.class, readFailure(() -> reader.readDoubleArray(length)));
+        assertEquals(RuntimeException.class, readFailure(() -> reader.readFloatArray(length)));
+        assertEquals(RuntimeException.class, readFailure(() -> reader.readLongArray(length)));
+
+        // Nothing should have been consumed by the failed reads
+        assertEquals(7, reader.readInt());
+    }
+
+    @Test
+    public void test_tooLongStringFails() {
+        String longest = "a".repeat(MessageBuilder.MAX_STRING_SIZE);
+        // Two bytes in UTF-8, so this is one byte too long
+        String tooLong = "\u00e9" + "a".repeat(MessageBuilder.MAX_STRING_SIZE - 1);
+
+        MessageBuilder builder = new MessageBuilder(null, "Test").addInt(1);
+        assertThrows(IllegalArgumentException.class, () -> builder.addString(tooLong));
+        builder.addString(longest);
+
+        // The failed string should not have added anything
+        MessageReader reader = encode(builder);
+        assertEquals(1, reader.readInt());
+        assertEquals(longest, reader.readString());
+        assertEquals(0, reader.readAllData().length);
+
+        assertThrows(IllegalArgumentException.class, () -> new MessageBuilder(null, tooLong));
+    }
+
+    @Test
+    public void test_readsFromBufferRegion() {
+        byte[] data = new MessageBuilder(null, "Test").addInt(7).addString("abc").getData();
+        ByteBuffer buf = ByteBuffer.allocateDirect(data.length + 10);
+        buf.position(4);
+        buf.put(data);
+
+        MessageReader reader = new MessageReader();
+        reader.reset(buf, 4, data.length);
+        assertEquals(7, reader.readInt());
+        assertEquals("abc", reader.readString());
+        assertThrows(RuntimeException.class, reader::readByte);
+
+        // Source buffer is left untouched
+        assertEquals(4 + data.length, buf.position());
+    }
+
+    @Test
+    public void test_detach() {
+        byte[] data = new MessageBuilder(null, "Test").addInt(1).addInt(2).getData();
+        MessageReader reader = new MessageReader(data);
+        assertEquals(1, reader.readInt());
+
+        MessageReader detached = reader.detach();
+        data[4] = 99; // Original data is reused for another message
+
+        assertEquals(2, detached.readInt());
+        assertThrows(RuntimeException.class, detached::readInt);
+    }
+}
@@ -0,0 +1,153 @@
+package com.swrobotics.messenger.client;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+public final class MessageReplayerTest {
+    private static void recordReceived(MessageRecorder recorder, String type, int value) {
+        byte[] data = {0, 0, 0, (byte) value};
+        recorder.recordReceived(type, new MessageReader(data));
+    }
+
+    private static void delete(Path file) throws Exception {
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(MessageRecorder.getIndexPath(file));
+    }
+
+    @Test
+    public void test_messagesAreReplayedInOrder() throws Exception {
+        Path file = Files.createTempFile("messenger", ".rec");
+        try (DiscardServer server = new DiscardServer()) {
+            MessengerClient client = server.connectClient();
+            try (MessageRecorder recorder = new MessageRecorder(file)) {
+                client.setRecorder(recorder);
+                recordReceived(recorder, "Test:In", 1);
+                client.prepare("Test:Out").addInt(2).send();
+                recordReceived(recorder, "Test:In", 3);
+                assertEquals(3, recorder.getMessageCount());
+            }
+
+            List<String> replayed = new ArrayList<>();
+            client.addHandler("Test:*", (type, reader) -> replayed.add(type + reader.readInt()));
+
+            MessageReplayer replayer = new MessageReplayer(file, client);
+            replayer.setSpeed(MessageReplayer.MAX_SPEED);
+            assertFalse(replayer.update());
+            assertEquals(List.of("Test:In1", "Test:In3"), replayed);
+
+            replayed.clear();
+            replayer.seek(replayer.getStartTime());
+            replayer.setReplaySent(true);
+            replayer.run();
+            assertEquals(List.of("Test:In1", "Test:Out2", "Test:In3"), replayed);
+
+            client.disconnect();
+        } finally {
+            delete(file);
+        }
+    }
+
+    @Test
+    public void test_seekUsesIndex() throws Exception {
+        Path file = Files.createTempFile("messenger", ".rec");
+        try (DiscardServer server = new DiscardServer()) {
+            MessengerClient client = server.connectClient();
+            try (MessageRecorder recorder = new MessageRecorder(file)) {
+                for (int i = 0; i < 5; i++) {
+                    recordReceived(recorder, "Test:In", i);
+                    Thread.sleep(120);
+                }
+            }
+
+            List<Integer> replayed = new ArrayList<>();
+            client.addHandler("Test:In", (type, reader) -> replayed.add(reader.readInt()));
+            MessageReplayer replayer = new MessageReplayer(file, client);
+            replayer.setSpeed(MessageReplayer.MAX_SPEED);
+
+            // Each message should be indexed, since they are far enough apart
+            long start = replayer.getStartTime();
+            assertTrue(replayer.getEndTime() - start >= 4 * 120_000_000L);
+            replayer.seek(start + 250_000_000L);
+            replayer.update();
+            assertEquals(List.of(3, 4), replayed);
+
+            // Also works by reading through the recording without an index
+            Files.delete(MessageRecorder.getIndexPath(file));
+            replayed.clear();
+            replayer = new MessageReplayer(file, client);
+            replayer.setSpeed(MessageReplayer.MAX_SPEED);
+            replayer.seek(start + 250_000_000L);
+            replayer.update();
+            assertEquals(List.of(3, 4), replayed);
+
+            client.disconnect();
+        } finally {
+            delete(file);
+        }
+    }
+
+    @Test
+    public void test_updateWaitsForRecordedTime() throws Exception {
+        Path file = Files.createTempFile("messenger", ".rec");
+        try (DiscardServer server = new DiscardServer()) {
+            MessengerClient client = server.connectClient();
+            MessageRecorder recorder = new MessageRecorder(file);
+            recordReceived(recorder, "Test:In", 1);
+            Thread.sleep(1000);
+            recordReceived(recorder, "Test:In", 2);
+            // Not closed, so the recording ends with unused space like after a crash
+
+            List<Integer> replayed = new ArrayList<>();
+            client.addHandler("Test:In", (type, reader) -> replayed.add(reader.readInt()));
+            MessageReplayer replayer = new MessageReplayer(file, client);
+            assertTrue(replayer.update());
+            assertEquals(List.of(1), replayed);
+
+            // 10x speed takes about 100 ms for the rest of the recording
+            replayer.setSpeed(10);
+            long start = System.nanoTime();
+            replayer.run();
+            assertEquals(List.of(1, 2), replayed);
+            assertTrue(System.nanoTime() - start < 800_000_000L);
+            assertTrue(replayer.isFinished());
+
+            recorder.close();
+            client.disconnect();
+        } finally {
+            delete(file);
+        }
+    }
+
+    @Test
+    public void test_recordingStopsAtMaxSize() throws Exception {
+        Path file = Files.createTempFile("messenger", ".rec");
+        try (DiscardServer server = new DiscardServer()) {
+            MessengerClient client = server.connectClient();
+
+            // Magic number, three 30 byte entries, and the end marker
+            try (MessageRecorder recorder = new MessageRecorder(file, 8 + 3 * 30 + 4)) {
+                for (int i = 0; i < 5; i++) recordReceived(recorder, "Test:In", i);
+                assertEquals(3, recorder.getMessageCount());
+                assertFalse(recorder.isRecording());
+            }
+            assertTrue(Files.size(file) <= 8 + 3 * 30 + 4);
+
+            List<Integer> replayed = new ArrayList<>();
+            client.addHandler("Test:In", (type, reader) -> replayed.add(reader.readInt()));
+            MessageReplayer replayer = new MessageReplayer(file, client);
+            replayer.setSpeed(MessageReplayer.MAX_SPEED);
+            replayer.run();
+            assertEquals(List.of(0, 1, 2), replayed);
+
+            client.disconnect();
+        } finally {
+            delete(file);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.swrobotics.messenger.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public final class MessengerStatsTest {
+    @Test
+    public void test_countsSentMessages() throws Exception {
+        try (DiscardServer server = new DiscardServer()) {
+            MessengerClient client = server.connectClient();
+            client.resetStats();
+
+            for (int i = 0; i < 10; i++) client.prepare("Test:A").addInt(i).addDouble(i).send();
+            client.send("Test:B");
+            for (int i = 0; i < 5; i++) client.readMessages();
+
+            MessengerStats stats = client.getStats();
+            MessageTypeStats a = stats.getTypes().get("Test:A");
+            assertEquals(10, a.getSentCount());
+            assertEquals(10 * 12, a.getSentBytes());
+            assertEquals(0, a.getReceivedCount());
+
+            MessageTypeStats b = stats.getTypes().get("Test:B");
+            assertEquals(1, b.getSentCount());
+            assertEquals(0, b.getSentBytes());
+
+            assertEquals(5, stats.getReadMessagesTime().getCount());
+            assertEquals(0, stats.getReconnectCount());
+            assertTrue(stats.getDurationNanos() > 0);
+
+            client.resetStats();
+            assertTrue(client.getStats().getTypes().isEmpty());
+
+            client.disconnect();
+        }
+    }
+}
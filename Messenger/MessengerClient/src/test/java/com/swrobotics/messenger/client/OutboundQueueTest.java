@@ -0,0 +1,141 @@
+package com.swrobotics.messenger.client;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+public final class OutboundQueueTest {
+    private static ByteBuffer frame(int id) {
+        ByteBuffer buf = ByteBuffer.allocate(4);
+        buf.putInt(id).flip();
+        return buf;
+    }
+
+    private static int pollId(OutboundQueue queue) {
+        ByteBuffer frame = queue.peek();
+        int id = frame.getInt(frame.position());
+        queue.consumed(frame.remaining());
+        queue.remove();
+        return id;
+    }
+
+    @Test
+    public void test_dropOldest() {
+        OutboundQueue queue = new OutboundQueue(2, DropPolicy.DROP_OLDEST);
+        queue.add(frame(1));
+        queue.add(frame(2));
+        queue.add(frame(3));
+
+        assertEquals(1, queue.getDroppedCount());
+        assertEquals(8, queue.getQueuedBytes());
+        assertEquals(2, pollId(queue));
+        assertEquals(3, pollId(queue));
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void test_dropNewest() {
+        OutboundQueue queue = new OutboundQueue(2, DropPolicy.DROP_NEWEST);
+        queue.add(frame(1));
+        queue.add(frame(2));
+        queue.add(frame(3));
+
+        assertEquals(1, queue.getDroppedCount());
+        assertEquals(1, pollId(queue));
+        assertEquals(2, pollId(queue));
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void test_dropOldestKeepsStartedMessage() {
+        OutboundQueue queue = new OutboundQueue(2, DropPolicy.DROP_OLDEST);
+        queue.add(frame(1));
+        queue.add(frame(2));
+
+        // Partially write the first message
+        queue.peek().get();
+        queue.consumed(1);
+
+        queue.add(frame(3));
+        assertEquals(1, queue.getDroppedCount());
+        assertEquals(7, queue.getQueuedBytes());
+
+        ByteBuffer started = queue.peek();
+        assertEquals(3, started.remaining());
+        queue.consumed(3);
+        queue.remove();
+        assertEquals(3, pollId(queue));
+        assertEquals(0, queue.getQueuedBytes());
+    }
+
+    @Test
+    public void test_shrinkDropsOldest() {
+        OutboundQueue queue = new OutboundQueue(4, DropPolicy.BLOCK);
+        for (int i = 1; i <= 4; i++) queue.add(frame(i));
+
+        queue.configure(2, DropPolicy.BLOCK);
+        assertEquals(2, queue.getDroppedCount());
+        assertTrue(queue.isFull());
+        assertEquals(3, pollId(queue));
+        assertEquals(4, pollId(queue));
+    }
+
+    @Test
+    public void test_keyedMessageReplacesUnsent() {
+        OutboundQueue queue = new OutboundQueue(4, DropPolicy.BLOCK);
+        queue.add(frame(1), "Pos");
+        queue.add(frame(2));
+        queue.add(frame(3), "Pos");
+        queue.add(frame(4), "Other");
+        queue.add(frame(5), "Pos");
+
+        // Replaced in place, so the newest is written where the first was
+        assertEquals(3, queue.size());
+        assertEquals(12, queue.getQueuedBytes());
+        assertEquals(5, pollId(queue));
+        assertEquals(2, pollId(queue));
+        assertEquals(4, pollId(queue));
+        assertTrue(queue.isEmpty());
+        assertEquals(0, queue.getDroppedCount());
+    }
+
+    @Test
+    public void test_keyedMessageDoesNotReplaceStarted() {
+        OutboundQueue queue = new OutboundQueue(4, DropPolicy.BLOCK);
+        queue.add(frame(1), "Pos");
+
+        // Partially write the first message
+        queue.peek().get();
+        queue.consumed(1);
+
+        queue.add(frame(2), "Pos");
+        queue.add(frame(3), "Pos");
+        assertEquals(2, queue.size());
+
+        ByteBuffer started = queue.peek();
+        queue.consumed(started.remaining());
+        queue.remove();
+        assertEquals(3, pollId(queue));
+        assertEquals(0, queue.getQueuedBytes());
+
+        // Nothing is left to replace once written
+        queue.add(frame(4), "Pos");
+        assertEquals(4, pollId(queue));
+    }
+
+    @Test
+    public void test_keyIsKeptWhenShrinking() {
+        OutboundQueue queue = new OutboundQueue(4, DropPolicy.BLOCK);
+        queue.add(frame(1));
+        queue.add(frame(2));
+        queue.add(frame(3), "Pos");
+
+        queue.configure(2, DropPolicy.BLOCK);
+        queue.add(frame(4), "Pos");
+        assertEquals(2, queue.size());
+        assertEquals(2, pollId(queue));
+        assertEquals(4, pollId(queue));
+    }
+}
@@ -0,0 +1,76 @@
+package com.swrobotics.messenger.client;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public final class PrefixTrieTest {
+    private static List<String> matches(PrefixTrie<String> trie, String str) {
+        List<String> out = new ArrayList<>();
+        trie.collectMatches(str, out);
+        return out;
+    }
+
+    @Test
+    public void test_nestedPrefixesMatchShortestFirst() {
+        PrefixTrie<String> trie = new PrefixTrie<>();
+        trie.add("Robot:Drive:", "drive");
+        trie.add("", "all");
+        trie.add("Robot:", "robot");
+        trie.add("Robot:Arm", "arm");
+
+        assertEquals(List.of("all", "robot", "drive"), matches(trie, "Robot:Drive:Pose"));
+        assertEquals(List.of("all", "robot", "arm"), matches(trie, "Robot:Arm"));
+        assertEquals(List.of("all", "robot"), matches(trie, "Robot:"));
+        assertEquals(List.of("all"), matches(trie, "Robo"));
+        assertEquals(List.of("all"), matches(trie, ""));
+    }
+
+    @Test
+    public void test_valuesForSamePrefixKeepOrder() {
+        PrefixTrie<String> trie = new PrefixTrie<>();
+        trie.add("A", "first");
+        trie.add("A", "second");
+        trie.add("A", "first");
+
+        assertEquals(List.of("first", "second", "first"), matches(trie, "AB"));
+    }
+
+    @Test
+    public void test_remove() {
+        PrefixTrie<String> trie = new PrefixTrie<>();
+        trie.add("Test:", "a");
+        trie.add("Test:", "b");
+        trie.add("Test:Sub", "c");
+
+        assertTrue(trie.remove("Test:", "a"));
+        assertEquals(List.of("b", "c"), matches(trie, "Test:Sub"));
+
+        // Not present, or added with a different prefix
+        assertFalse(trie.remove("Test:", "a"));
+        assertFalse(trie.remove("Test:", "c"));
+        assertFalse(trie.remove("Missing", "b"));
+
+        assertTrue(trie.remove("Test:Sub", "c"));
+        assertEquals(List.of("b"), matches(trie, "Test:Sub"));
+
+        // Can be added again after its node has no values
+        trie.add("Test:Sub", "c");
+        assertEquals(List.of("b", "c"), matches(trie, "Test:Sub"));
+    }
+
+    @Test
+    public void test_manyChildren() {
+        PrefixTrie<Integer> trie = new PrefixTrie<>();
+        for (char c = 'A'; c <= 'Z'; c++) trie.add("T:" + c, (int) c);
+
+        for (char c = 'A'; c <= 'Z'; c++) {
+            List<Integer> out = new ArrayList<>();
+            trie.collectMatches("T:" + c + "x", out);
+            assertEquals(List.of((int) c), out);
+        }
+    }
+}
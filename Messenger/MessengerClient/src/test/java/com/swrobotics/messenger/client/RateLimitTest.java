@@ -0,0 +1,59 @@
+package com.swrobotics.messenger.client;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+public final class RateLimitTest {
+    private static void receive(MessengerClient client, String type, int value) {
+        ByteBuffer data = ByteBuffer.allocate(4).putInt(0, value);
+        client.replayMessage(type, data, 0, 4);
+    }
+
+    @Test
+    public void test_handlerIsLimitedWithoutServerSupport() throws Exception {
+        // The discard server never acknowledges the rate, so the client limits it
+        try (DiscardServer server = new DiscardServer()) {
+            MessengerClient client = server.connectClient();
+            List<Integer> limited = new ArrayList<>();
+            List<Integer> all = new ArrayList<>();
+            client.addHandler("Test:Pos", (type, reader) -> limited.add(reader.readInt()), 10);
+            client.addHandler("Test:*", (type, reader) -> all.add(reader.readInt()));
+
+            for (int i = 0; i < 100; i++) receive(client, "Test:Pos", i);
+            client.readMessages();
+            assertEquals(100, all.size());
+            assertEquals(List.of(0), limited);
+
+            // Only the most recent message is handled once the interval has passed
+            Thread.sleep(150);
+            client.readMessages();
+            assertEquals(List.of(0, 99), limited);
+
+            client.readMessages();
+            assertEquals(List.of(0, 99), limited);
+            client.disconnect();
+        }
+    }
+
+    @Test
+    public void test_typesAreLimitedSeparately() throws Exception {
+        try (DiscardServer server = new DiscardServer()) {
+            MessengerClient client = server.connectClient();
+            List<String> limited = new ArrayList<>();
+            client.addHandler("Test:*", (type, reader) -> limited.add(type + reader.readInt()), 10);
+
+            receive(client, "Test:A", 1);
+            receive(client, "Test:B", 2);
+            receive(client, "Test:A", 3);
+            client.readMessages();
+            assertEquals(List.of("Test:A1", "Test:B2"), limited);
+
+            client.disconnect();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.swrobotics.messenger.client;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+public final class ReadModeTest {
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) throw new AssertionError("Timed out");
+            Thread.sleep(1);
+        }
+    }
+
+    private static void sendValues(ScriptedServer server, int from, int to) throws Exception {
+        for (int i = from; i < to; i++)
+            server.send("Test:Value", new MessageBuilder(null, "Test:Value").addInt(i).getData());
+    }
+
+    @Test
+    public void test_backgroundThreadDeliversInOrder() throws Exception {
+        try (ScriptedServer server = new ScriptedServer()) {
+            MessengerClient client = server.connectClient();
+            List<Integer> received = new ArrayList<>();
+            client.addHandler("Test:Value", (type, reader) -> received.add(reader.readInt()));
+            client.setReadMode(ReadMode.BACKGROUND_THREAD, 256);
+
+            sendValues(server, 0, 200);
+            await(
+                    () -> {
+                        client.readMessages();
+                        return received.size() >= 200;
+                    });
+
+            assertEquals(200, received.size());
+            for (int i = 0; i < 200; i++) assertEquals(i, (int) received.get(i));
+            assertEquals(0, client.getDroppedMessageCount());
+            assertEquals(0, client.getInboundQueueDepth());
+
+            client.disconnect();
+        }
+    }
+
+    @Test
+    public void test_backgroundThreadDropsWhenQueueIsFull() throws Exception {
+        try (ScriptedServer server = new ScriptedServer()) {
+            MessengerClient client = server.connectClient();
+            List<Integer> received = new ArrayList<>();
+            client.addHandler("Test:Value", (type, reader) -> received.add(reader.readInt()));
+            client.setReadMode(ReadMode.BACKGROUND_THREAD, 8);
+
+            // Nothing is handled, so only the first 8 fit in the queue
+            sendValues(server, 0, 20);
+            await(() -> client.getDroppedMessageCount() == 12);
+            assertEquals(8, client.getInboundQueueDepth());
+            assertEquals(8, client.getPeakInboundQueueDepth());
+
+            client.readMessages();
+            assertEquals(List.of(0, 1, 2, 3, 4, 5, 6, 7), received);
+            assertEquals(0, client.getInboundQueueDepth());
+
+            // Handling them makes room again
+            sendValues(server, 20, 25);
+            await(
+                    () -> {
+                        client.readMessages();
+                        return received.size() >= 13;
+                    });
+            assertEquals(List.of(0, 1, 2, 3, 4, 5, 6, 7, 20, 21, 22, 23, 24), received);
+            assertEquals(12, client.getDroppedMessageCount());
+
+            client.disconnect();
+        }
+    }
+}
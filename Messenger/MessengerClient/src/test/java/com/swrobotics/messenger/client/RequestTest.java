@@ -0,0 +1,92 @@
+package com.swrobotics.messenger.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+
+public final class RequestTest {
+    // Reads messages until the handler has received the expected number
+    private static void awaitReceived(MessengerClient client, List<Integer> received, int count)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (received.size() < count) {
+            assertTrue("Timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+            client.readMessages();
+        }
+    }
+
+    @Test
+    public void test_identicalRequestsAreDeduplicated() throws Exception {
+        try (DiscardServer server = new DiscardServer()) {
+            MessengerClient client = server.connectClient();
+
+            client.prepare("Test:Get").addString("a").request("Test:Value");
+            client.prepare("Test:Get").addString("a").request("Test:Value");
+            assertEquals(1, client.getPendingRequestCount());
+
+            client.prepare("Test:Get").addString("b").request("Test:Value");
+            client.request("Test:Get", "Test:Value");
+            assertEquals(3, client.getPendingRequestCount());
+
+            client.disconnect();
+        }
+    }
+
+    @Test
+    public void test_requestTimesOut() throws Exception {
+        try (DiscardServer server = new DiscardServer()) {
+            MessengerClient client = server.connectClient();
+            client.setRequestTimeout(50);
+
+            CompletableFuture<MessageReader> first = client.request("Test:Get", "Test:Value");
+            CompletableFuture<MessageReader> second = client.request("Test:Get", "Test:Value");
+
+            Thread.sleep(100);
+            client.readMessages();
+            assertEquals(0, client.getPendingRequestCount());
+
+            for (CompletableFuture<MessageReader> future : List.of(first, second)) {
+                assertTrue(future.isCompletedExceptionally());
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    assertTrue(e.getCause() instanceof TimeoutException);
+                }
+            }
+
+            client.disconnect();
+        }
+    }
+
+    @Test
+    public void test_handlersReceiveAllResponses() throws Exception {
+        try (ScriptedServer server = new ScriptedServer()) {
+            MessengerClient client = server.connectClient();
+            List<Integer> received = new ArrayList<>();
+            client.addHandler("Test:Value", (type, reader) -> received.add(reader.readInt()));
+
+            // Response to a request completes it, and still goes to the handler
+            CompletableFuture<MessageReader> future = client.request("Test:Get", "Test:Value");
+            assertTrue(server.poll("Test:Get", 5000) != null);
+            server.send("Test:Value", new MessageBuilder(null, "Test:Value").addInt(1).getData());
+            awaitReceived(client, received, 1);
+            assertEquals(1, future.get().readInt());
+            assertEquals(0, client.getPendingRequestCount());
+
+            // Response with nothing waiting for it
+            server.send("Test:Value", new MessageBuilder(null, "Test:Value").addInt(2).getData());
+            awaitReceived(client, received, 2);
+            assertEquals(List.of(1, 2), received);
+
+            client.disconnect();
+        }
+    }
+}
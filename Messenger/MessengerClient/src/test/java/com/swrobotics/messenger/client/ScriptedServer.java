@@ -0,0 +1,258 @@
+package com.swrobotics.messenger.client;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stand-in for the Messenger server that records the messages one client sends, and lets a test
+ * send messages back. Reading from the client can be paused to make its socket fill up.
+ */
+public final class ScriptedServer implements AutoCloseable {
+    /** Message received from the client. */
+    public static final class Frame {
+        public final String type;
+        public final boolean aliased;
+        public final byte[] data;
+
+        Frame(String type, boolean aliased, byte[] data) {
+            this.type = type;
+            this.aliased = aliased;
+            this.data = data;
+        }
+
+        public MessageReader reader() {
+            return new MessageReader(data);
+        }
+    }
+
+    private static final String ALIAS = "_Alias";
+    private static final byte ALIAS_DEFINE = 0;
+    private static final byte ALIAS_ACKNOWLEDGE = 1;
+
+    private final ServerSocketChannel server;
+    private final Thread thread;
+    private final BlockingQueue<Frame> received;
+    private final Map<Integer, String> aliases;
+    private volatile SocketChannel client;
+    private volatile boolean reading;
+    private volatile boolean acknowledgeAliases;
+
+    public ScriptedServer() throws IOException {
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress("localhost", 0));
+        received = new LinkedBlockingQueue<>();
+        aliases = new HashMap<>();
+        reading = true;
+        acknowledgeAliases = false;
+
+        thread = new Thread(this::run, "Scripted Server");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void run() {
+        try (SocketChannel ch = server.accept()) {
+            client = ch;
+            ByteBuffer lengthBuf = ByteBuffer.allocate(2);
+            readFully(ch, lengthBuf);
+            readFully(ch, ByteBuffer.allocate(lengthBuf.getShort(0) & 0xFFFF)); // Name
+
+            while (true) {
+                ByteBuffer typeLenBuf = ByteBuffer.allocate(2);
+                readFully(ch, typeLenBuf);
+                int typeLen = typeLenBuf.getShort(0) & 0xFFFF;
+
+                String type;
+                boolean aliased = typeLen == 0;
+                if (aliased) {
+                    ByteBuffer idBuf = ByteBuffer.allocate(2);
+                    readFully(ch, idBuf);
+                    int id = idBuf.getShort(0) & 0xFFFF;
+                    synchronized (aliases) {
+                        type = aliases.get(id);
+                    }
+                    if (type == null) throw new IOException("Unknown alias " + id);
+                } else {
+                    ByteBuffer typeBuf = ByteBuffer.allocate(typeLen);
+                    readFully(ch, typeBuf);
+                    type = new String(typeBuf.array(), StandardCharsets.UTF_8);
+                }
+
+                ByteBuffer dataLenBuf = ByteBuffer.allocate(4);
+                readFully(ch, dataLenBuf);
+                ByteBuffer dataBuf = ByteBuffer.allocate(dataLenBuf.getInt(0));
+                readFully(ch, dataBuf);
+
+                byte[] data = dataBuf.array();
+                if (type.equals(ALIAS)) handleAlias(data);
+                received.add(new Frame(type, aliased, data));
+            }
+        } catch (IOException e) {
+            // Client disconnected or server closed
+        }
+    }
+
+    private void readFully(SocketChannel ch, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            while (!reading) {
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            if (ch.read(buf) < 0) throw new EOFException();
+        }
+    }
+
+    private void handleAlias(byte[] data) throws IOException {
+        MessageReader reader = new MessageReader(data);
+        if (reader.readByte() != ALIAS_DEFINE) return;
+        int id = reader.readShort() & 0xFFFF;
+        String type = reader.readString();
+        synchronized (aliases) {
+            aliases.put(id, type);
+        }
+
+        if (acknowledgeAliases) {
+            send(
+                    ALIAS,
+                    new MessageBuilder(null, ALIAS)
+                            .addByte(ALIAS_ACKNOWLEDGE)
+                            .addShort((short) id)
+                            .addString(type)
+                            .getData());
+        }
+    }
+
+    public int getPort() {
+        return ((InetSocketAddress) server.socket().getLocalSocketAddress()).getPort();
+    }
+
+    /**
+     * Creates a client connected to this server, waiting until the connection is established.
+     * Only one client can connect.
+     *
+     * @return connected client
+     */
+    public MessengerClient connectClient() throws InterruptedException {
+        MessengerClient client = new MessengerClient("localhost", getPort(), "Test");
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!client.isConnected()) {
+            if (System.currentTimeMillis() > deadline)
+                throw new AssertionError("Client did not connect");
+            Thread.sleep(10);
+        }
+        return client;
+    }
+
+    /**
+     * Sets whether to acknowledge type aliases the client defines. By default they are not
+     * acknowledged, like a server that doesn't support aliases.
+     */
+    public void setAcknowledgeAliases(boolean acknowledgeAliases) {
+        this.acknowledgeAliases = acknowledgeAliases;
+    }
+
+    /** Sets whether to read from the client. While not reading, the client's socket fills up. */
+    public void setReading(boolean reading) {
+        this.reading = reading;
+    }
+
+    /**
+     * Sends a message to the client.
+     *
+     * @param type type of the message, or null to send an alias ID instead
+     * @param aliasId alias ID to send if the type is null
+     * @param data message data
+     */
+    public synchronized void send(String type, int aliasId, byte[] data) throws IOException {
+        byte[] typeBytes = type == null ? new byte[0] : type.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer frame = ByteBuffer.allocate(2 + typeBytes.length + 2 + 4 + data.length);
+        frame.putShort((short) typeBytes.length).put(typeBytes);
+        if (type == null) frame.putShort((short) aliasId);
+        frame.putInt(data.length).put(data).flip();
+
+        SocketChannel ch = client;
+        while (frame.hasRemaining()) ch.write(frame);
+    }
+
+    public void send(String type, byte[] data) throws IOException {
+        send(type, 0, data);
+    }
+
+    /**
+     * Waits for the next received message of any type, including control messages.
+     *
+     * @param timeoutMillis maximum time to wait
+     * @return received message, or null if none arrived in time
+     */
+    public Frame poll(long timeoutMillis) throws InterruptedException {
+        return received.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Waits for the next received message of a type, skipping messages of other types.
+     *
+     * @param type type to wait for
+     * @param timeoutMillis maximum time to wait
+     * @return received message, or null if none arrived in time
+     */
+    public Frame poll(String type, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (true) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) return null;
+            Frame frame = received.poll(remaining, TimeUnit.MILLISECONDS);
+            if (frame == null) return null;
+            if (frame.type.equals(type)) return frame;
+        }
+    }
+
+    /**
+     * Waits for the next received message that is not a control message, which have types
+     * starting with an underscore.
+     *
+     * @param timeoutMillis maximum time to wait
+     * @return received message, or null if none arrived in time
+     */
+    public Frame next(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (true) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) return null;
+            Frame frame = received.poll(remaining, TimeUnit.MILLISECONDS);
+            if (frame == null) return null;
+            if (!frame.type.startsWith("_")) return frame;
+        }
+    }
+
+    /**
+     * Waits for the client's connection to end. Only the first connection is accepted, so this
+     * does not wait for reconnects.
+     *
+     * @param timeoutMillis maximum time to wait
+     * @return whether the connection ended in time
+     */
+    public boolean awaitDisconnect(long timeoutMillis) throws InterruptedException {
+        thread.join(timeoutMillis);
+        return !thread.isAlive();
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+        SocketChannel ch = client;
+        if (ch != null) ch.close();
+    }
+}
@@ -0,0 +1,102 @@
+package com.swrobotics.messenger.client;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+public final class SharedRingTest {
+    private static final int CAPACITY = 64;
+    private static final int READ_OFFSET = 192;
+
+    // Shared memory is only available on Linux
+    private static boolean isSupported() {
+        return Files.isDirectory(SharedRing.DIRECTORY);
+    }
+
+    // Stands in for the server reading everything up to a position
+    private static void setServerPosition(SharedRing ring, long position) throws IOException {
+        try (FileChannel file =
+                FileChannel.open(
+                        ring.getPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buf = file.map(FileChannel.MapMode.READ_WRITE, 0, READ_OFFSET + 8);
+            buf.order(ByteOrder.nativeOrder()).putLong(READ_OFFSET, position);
+        }
+    }
+
+    private static ByteBuffer bytes(int start, int count) {
+        ByteBuffer buf = ByteBuffer.allocate(count);
+        for (int i = 0; i < count; i++) buf.put((byte) (start + i));
+        return buf.flip();
+    }
+
+    @Test
+    public void test_writerWaitsForServer() throws IOException {
+        if (!isSupported()) return;
+
+        try (SharedRing ring = SharedRing.create(CAPACITY)) {
+            assertEquals(48, ring.write(bytes(0, 48)));
+            assertEquals(16, ring.write(bytes(48, 48)));
+            assertFalse(ring.hasSpace());
+            assertEquals(0, ring.write(bytes(0, 1)));
+
+            setServerPosition(ring, 32);
+            assertTrue(ring.hasSpace());
+            assertEquals(32, ring.write(bytes(64, 48)));
+        }
+    }
+
+    @Test
+    public void test_readerFollowsAcrossWrap() throws IOException {
+        if (!isSupported()) return;
+
+        try (SharedRing ring = SharedRing.create(CAPACITY);
+                SharedRing reader = SharedRing.open(ring.getPath(), 0)) {
+            ByteBuffer dst = ByteBuffer.allocate(512);
+            int written = 0;
+            for (int i = 0; i < 10; i++) {
+                written += ring.write(bytes(written, 40));
+                setServerPosition(ring, written);
+                while (reader.read(dst) > 0) {}
+            }
+
+            dst.flip();
+            assertEquals(400, dst.remaining());
+            for (int i = 0; i < 400; i++) assertEquals((byte) i, dst.get());
+        }
+    }
+
+    @Test
+    public void test_readerThatFellBehindFails() throws IOException {
+        if (!isSupported()) return;
+
+        try (SharedRing ring = SharedRing.create(CAPACITY);
+                SharedRing reader = SharedRing.open(ring.getPath(), 0)) {
+            ring.write(bytes(0, 48));
+            setServerPosition(ring, 48);
+            ring.write(bytes(48, 48));
+
+            try {
+                reader.read(ByteBuffer.allocate(16));
+                fail("Overwritten data was read");
+            } catch (IOException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void test_fileIsDeletedOnClose() throws IOException {
+        if (!isSupported()) return;
+
+        SharedRing ring = SharedRing.create(CAPACITY);
+        ring.close();
+        assertFalse(Files.exists(ring.getPath()));
+    }
+}
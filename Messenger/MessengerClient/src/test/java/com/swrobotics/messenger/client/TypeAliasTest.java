@@ -0,0 +1,174 @@
+package com.swrobotics.messenger.client;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+
+public final class TypeAliasTest {
+    private static final String ALIAS = "_Alias";
+    private static final byte ALIAS_DEFINE = 0;
+
+    // Must match MessengerClient
+    private static final int MAX_TYPE_ALIASES = 4096;
+
+    private static void readUntil(MessengerClient client, BooleanSupplier condition)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) throw new AssertionError("Timed out");
+            client.readMessages();
+            Thread.sleep(1);
+        }
+    }
+
+    // Waits for the client to define an alias for a type, returns its ID
+    private static int awaitDefine(ScriptedServer server, String type)
+            throws InterruptedException {
+        while (true) {
+            ScriptedServer.Frame frame = server.poll(ALIAS, 5000);
+            assertNotNull("Alias was not defined for " + type, frame);
+
+            MessageReader reader = frame.reader();
+            assertEquals(ALIAS_DEFINE, reader.readByte());
+            int id = reader.readShort() & 0xFFFF;
+            if (reader.readString().equals(type)) return id;
+        }
+    }
+
+    @Test
+    public void test_aliasIsUsedOnceAcknowledged() throws Exception {
+        try (ScriptedServer server = new ScriptedServer()) {
+            server.setAcknowledgeAliases(true);
+            MessengerClient client = server.connectClient();
+
+            client.prepare("Test:Pos").addInt(0).send();
+            awaitDefine(server, "Test:Pos");
+            ScriptedServer.Frame first = server.poll("Test:Pos", 5000);
+            assertFalse("Alias was used before it was acknowledged", first.aliased);
+
+            // Keep sending until the client has handled the acknowledgement
+            ScriptedServer.Frame frame;
+            int value = 0;
+            do {
+                client.readMessages();
+                client.prepare("Test:Pos").addInt(++value).send();
+                frame = server.poll("Test:Pos", 5000);
+                assertNotNull(frame);
+            } while (!frame.aliased);
+            assertEquals(value, frame.reader().readInt());
+
+            client.disconnect();
+        }
+    }
+
+    @Test
+    public void test_serverCanSendAliasedTypes() throws Exception {
+        try (ScriptedServer server = new ScriptedServer()) {
+            server.setAcknowledgeAliases(true);
+            MessengerClient client = server.connectClient();
+            List<String> received = new ArrayList<>();
+            client.addHandler("Test:In", (type, reader) -> received.add(type + reader.readInt()));
+            int id = awaitDefine(server, "Test:In");
+
+            // The acknowledgement was sent first, so the client knows the alias
+            server.send(null, id, new MessageBuilder(null, "Test:In").addInt(5).getData());
+            readUntil(client, () -> !received.isEmpty());
+            assertEquals(List.of("Test:In5"), received);
+
+            client.disconnect();
+        }
+    }
+
+    @Test
+    public void test_fullTypesWithoutAcknowledgement() throws Exception {
+        // Like the Rust server, which doesn't know about aliases
+        try (ScriptedServer server = new ScriptedServer()) {
+            MessengerClient client = server.connectClient();
+
+            for (int i = 0; i < 20; i++) {
+                client.prepare("Test:Pos").addInt(i).send();
+                client.readMessages();
+            }
+            client.send("Test:End");
+
+            int defines = 0;
+            List<Integer> values = new ArrayList<>();
+            while (true) {
+                ScriptedServer.Frame frame = server.poll(5000);
+                assertNotNull(frame);
+                if (frame.type.equals("Test:End")) break;
+                if (frame.type.equals(ALIAS)) {
+                    MessageReader reader = frame.reader();
+                    reader.readByte();
+                    reader.readShort();
+                    if (reader.readString().equals("Test:Pos")) defines++;
+                    continue;
+                }
+                assertEquals("Test:Pos", frame.type);
+                assertFalse(frame.aliased);
+                values.add(frame.reader().readInt());
+            }
+
+            // Only defined once, not again for every message
+            assertEquals(1, defines);
+            assertEquals(20, values.size());
+            for (int i = 0; i < 20; i++) assertEquals(i, (int) values.get(i));
+
+            client.disconnect();
+        }
+    }
+
+    @Test
+    public void test_aliasLimit() throws Exception {
+        try (ScriptedServer server = new ScriptedServer()) {
+            server.setAcknowledgeAliases(true);
+            MessengerClient client = server.connectClient();
+
+            int typeCount = MAX_TYPE_ALIASES + 10;
+            for (int i = 0; i < typeCount; i++) {
+                client.send("T:" + i);
+                if (i % 100 == 0) client.readMessages();
+            }
+
+            Set<Integer> ids = new HashSet<>();
+            ScriptedServer.Frame frame;
+            while ((frame = server.poll(ALIAS, 1000)) != null) {
+                MessageReader reader = frame.reader();
+                reader.readByte();
+                ids.add(reader.readShort() & 0xFFFF);
+            }
+            assertEquals(MAX_TYPE_ALIASES, ids.size());
+            for (int i = 0; i < MAX_TYPE_ALIASES; i++) assertTrue(ids.contains(i));
+
+            // Types past the limit are always sent in full
+            client.readMessages();
+            client.send("T:" + (typeCount - 1));
+            frame = server.poll("T:" + (typeCount - 1), 5000);
+            assertNotNull(frame);
+            assertFalse(frame.aliased);
+
+            client.disconnect();
+        }
+    }
+
+    @Test
+    public void test_unknownAliasFromServerDisconnects() throws Exception {
+        try (ScriptedServer server = new ScriptedServer()) {
+            MessengerClient client = server.connectClient();
+            server.send(null, 7, new byte[0]);
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!server.awaitDisconnect(1)) {
+                assertTrue("Client did not disconnect", System.currentTimeMillis() < deadline);
+                client.readMessages();
+            }
+            client.disconnect();
+        }
+    }
+}
@@ -0,0 +1,707 @@
+package com.swrobotics.messenger.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Connection to one client. Incoming bytes are read into a reusable buffer and split into
+ * messages, and outgoing messages are written directly to the socket if possible, and otherwise
+ * queued until the socket is writable again.
+ *
+ * <p>A client on the same host can switch to sending its messages through a shared memory ring
+ * instead of the socket. After that, the socket is only used to wake up the server.
+ *
+ * <p>Compressed messages are only sent to the client if it has said it supports compression.
+ *
+ * <p>If the client has asked for a pattern to be rate limited, forwarded messages of each matching
+ * type are sent at most once per interval. Messages that arrive sooner are held, and only the most
+ * recent one is sent once the interval has passed.
+ */
+final class ClientConnection extends SubscriptionIndex.Subscriber {
+    private static final int INITIAL_CAPACITY = 64 * 1024;
+    private static final int MAX_FRAME_SIZE = 1 << 30;
+
+    // Messages to a client that has this much waiting to be written are
+    // dropped, so one slow client can't use up all the server's memory
+    private static final long MAX_QUEUED_BYTES = 16 * 1024 * 1024;
+    private static final int WRITE_BATCH_SIZE = 16;
+
+    private static final int TYPE_LEN_SIZE = 2;
+    private static final int ALIAS_ID_SIZE = 2;
+    private static final int DATA_LEN_SIZE = 4;
+
+    // Must be a power of two
+    private static final int INTERN_TABLE_SIZE = 256;
+
+    private final MessengerServer server;
+    private final int id;
+    private final SocketChannel channel;
+    private final SelectionKey key;
+
+    private SharedRingReader offeredRing;
+    private SharedRingReader ring;
+    private final ByteBuffer doorbells;
+    private final Set<ClientConnection> localReaders;
+
+    private ByteBuffer readBuffer;
+    private ByteBuffer dataView;
+    private int readPos;
+    private String name;
+
+    private final byte[][] internedBytes;
+    private final String[] internedTypes;
+    private byte[] typeBytes;
+
+    private final Set<String> listening;
+    private final Map<String, Integer> aliasIds;
+    private String[] aliasTypes;
+    private byte[][] aliasTypeBytes;
+    private boolean compression;
+
+    private final Map<String, Long> listenIntervals;
+    private final Map<String, SampledType> sampledTypes;
+    private final Frame heldFrame;
+    private int heldCount;
+
+    private final ArrayDeque<ByteBuffer> writeQueue;
+    private final ByteBuffer[] writeBatch;
+    private final ByteBuffer[] directWrite;
+    private final ByteBuffer aliasHeader;
+    private long queuedBytes;
+    private long droppedCount;
+    private boolean dropping;
+
+    private long lastHeartbeat;
+    private boolean closed;
+
+    public ClientConnection(
+            MessengerServer server, int id, SocketChannel channel, SelectionKey key) {
+        this.server = server;
+        this.id = id;
+        this.channel = channel;
+        this.key = key;
+
+        offeredRing = null;
+        ring = null;
+        doorbells = ByteBuffer.allocate(64);
+        localReaders = new HashSet<>();
+
+        readBuffer = ByteBuffer.allocateDirect(INITIAL_CAPACITY);
+        dataView = readBuffer.duplicate();
+        readPos = 0;
+        name = null;
+
+        internedBytes = new byte[INTERN_TABLE_SIZE][];
+        internedTypes = new String[INTERN_TABLE_SIZE];
+
+        listening = new HashSet<>();
+        aliasIds = new HashMap<>();
+        aliasTypes = new String[16];
+        aliasTypeBytes = new byte[16][];
+        compression = false;
+
+        listenIntervals = new HashMap<>();
+        sampledTypes = new HashMap<>();
+        heldFrame = new Frame();
+        heldCount = 0;
+
+        writeQueue = new ArrayDeque<>();
+        writeBatch = new ByteBuffer[WRITE_BATCH_SIZE];
+        directWrite = new ByteBuffer[2];
+        aliasHeader = ByteBuffer.allocate(TYPE_LEN_SIZE + ALIAS_ID_SIZE + DATA_LEN_SIZE);
+        queuedBytes = 0;
+        droppedCount = 0;
+        dropping = false;
+
+        lastHeartbeat = System.nanoTime();
+        closed = false;
+    }
+
+    /**
+     * Gets the ID the server uses to refer to this client in shared memory messages.
+     *
+     * @return ID
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Gets the name the client sent during the handshake.
+     *
+     * @return name, or null if the handshake has not completed
+     */
+    public String getName() {
+        return name;
+    }
+
+    public Set<String> getListening() {
+        return listening;
+    }
+
+    public long getLastHeartbeat() {
+        return lastHeartbeat;
+    }
+
+    public void setLastHeartbeat(long time) {
+        lastHeartbeat = time;
+    }
+
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Sets the ring the client has offered to send its messages through. It is used once the
+     * client sends the message to switch to it.
+     *
+     * @param ring offered ring
+     */
+    public void setOfferedRing(SharedRingReader ring) {
+        offeredRing = ring;
+    }
+
+    /**
+     * Switches to reading from the offered ring. This must be called while handling the message
+     * telling the server to switch, since everything after it in the socket is only for waking up
+     * the server.
+     *
+     * @return whether there was an offered ring
+     */
+    public boolean switchToRing() {
+        if (offeredRing == null) return false;
+
+        ring = offeredRing;
+        offeredRing = null;
+        readPos = readBuffer.position();
+        return true;
+    }
+
+    /** @return the ring the client sends through, or null if it uses the socket */
+    public SharedRingReader getRing() {
+        return ring;
+    }
+
+    /**
+     * Gets the position in the client's ring of the first message that has not been handled yet.
+     * Clients that start reading the ring from here get every message not yet forwarded.
+     *
+     * @return ring position
+     */
+    public long getRingMessagePosition() {
+        return ring.getPosition() - (readBuffer.position() - readPos);
+    }
+
+    /**
+     * Gets the clients on the same host that read this client's ring directly, so messages from
+     * this client are not forwarded to them.
+     *
+     * @return local readers
+     */
+    public Set<ClientConnection> getLocalReaders() {
+        return localReaders;
+    }
+
+    /**
+     * Checks whether the client listens to a message type.
+     *
+     * @param type message type
+     * @return whether any of the client's patterns match
+     */
+    public boolean isListening(String type) {
+        if (listening.contains(type)) return true;
+        for (String pattern : listening) {
+            if (matches(pattern, type)) return true;
+        }
+        return false;
+    }
+
+    private static boolean matches(String pattern, String type) {
+        if (pattern.endsWith("*"))
+            return type.startsWith(pattern.substring(0, pattern.length() - 1));
+        return pattern.equals(type);
+    }
+
+    /**
+     * Sets the minimum time between forwarded messages of each type matching a pattern. If a type
+     * matches several patterns, the shortest interval is used, and there is no limit if any of
+     * them has no limit.
+     *
+     * @param pattern pattern the client listens to
+     * @param interval minimum interval in nanoseconds, or 0 for no limit
+     */
+    public void setListenInterval(String pattern, long interval) {
+        if (interval > 0) listenIntervals.put(pattern, interval);
+        else listenIntervals.remove(pattern);
+
+        // Patterns have changed, so each type's interval is found again when
+        // it is next needed
+        for (SampledType sampled : sampledTypes.values()) sampled.interval = -1;
+    }
+
+    // Finds the interval for a type from the patterns it matches
+    private long getInterval(SampledType sampled) {
+        if (sampled.interval >= 0) return sampled.interval;
+
+        long interval = Long.MAX_VALUE;
+        for (String pattern : listening) {
+            if (!matches(pattern, sampled.type)) continue;
+
+            Long patternInterval = listenIntervals.get(pattern);
+            if (patternInterval == null) {
+                interval = 0;
+                break;
+            }
+            interval = Math.min(interval, patternInterval);
+        }
+        if (interval == Long.MAX_VALUE) interval = 0;
+
+        sampled.interval = interval;
+        return interval;
+    }
+
+    /**
+     * Sets the type an alias ID refers to, for messages in both directions.
+     *
+     * @param id alias ID
+     * @param type full message type
+     */
+    public void defineAlias(int id, String type) {
+        if (id >= aliasTypes.length) {
+            int newLength = Math.max(id + 1, aliasTypes.length * 2);
+            aliasTypes = Arrays.copyOf(aliasTypes, newLength);
+            aliasTypeBytes = Arrays.copyOf(aliasTypeBytes, newLength);
+        }
+        aliasTypes[id] = type;
+        aliasTypeBytes[id] = type.getBytes(StandardCharsets.UTF_8);
+        aliasIds.put(type, id);
+    }
+
+    /**
+     * Sets whether the client can receive compressed messages. Otherwise, compressed messages are
+     * decompressed before being sent to it.
+     *
+     * @param compression whether the client supports compression
+     */
+    public void setCompression(boolean compression) {
+        this.compression = compression;
+    }
+
+    public boolean isUsingCompression() {
+        return compression;
+    }
+
+    /**
+     * Reads as much as is available from the socket, and passes each complete message to the
+     * server.
+     *
+     * @param frame frame to store incoming messages in
+     * @return false if the client has closed the connection
+     * @throws IOException if reading fails or the client sent invalid data
+     */
+    public boolean read(Frame frame) throws IOException {
+        if (ring != null) {
+            // The socket only wakes up the server now
+            int read;
+            do {
+                read = channel.read(doorbells.clear());
+            } while (read > 0);
+
+            // Handle anything written before disconnecting
+            readRing(frame);
+            return read >= 0 || closed;
+        }
+
+        if (fill(channel) < 0) return false;
+        handleFrames(frame);
+        return true;
+    }
+
+    /**
+     * Handles all messages that are available in the client's ring.
+     *
+     * @param frame frame to store incoming messages in
+     * @throws IOException if the client sent invalid data
+     */
+    public void readRing(Frame frame) throws IOException {
+        while (!closed && fill(ring) > 0) handleFrames(frame);
+    }
+
+    private int fill(ReadableByteChannel input) throws IOException {
+        if (readPos == readBuffer.position()) {
+            readBuffer.clear();
+            readPos = 0;
+        } else if (!readBuffer.hasRemaining()) {
+            compact();
+        }
+        return input.read(readBuffer);
+    }
+
+    private void handleFrames(Frame frame) throws IOException {
+        if (name == null && !readName()) return;
+        while (!closed && nextFrame(frame)) {
+            server.handleFrame(this, frame);
+        }
+    }
+
+    private boolean readName() throws IOException {
+        int available = readBuffer.position() - readPos;
+        if (available < TYPE_LEN_SIZE) return false;
+
+        int len = readBuffer.getShort(readPos) & 0xFFFF;
+        if (available < TYPE_LEN_SIZE + len) {
+            ensureFrameFits(TYPE_LEN_SIZE + len);
+            return false;
+        }
+
+        byte[] bytes = new byte[len];
+        for (int i = 0; i < len; i++) bytes[i] = readBuffer.get(readPos + TYPE_LEN_SIZE + i);
+        name = new String(bytes, StandardCharsets.UTF_8);
+        readPos += TYPE_LEN_SIZE + len;
+
+        server.onHandshake(this);
+        return true;
+    }
+
+    private boolean nextFrame(Frame frame) throws IOException {
+        int available = readBuffer.position() - readPos;
+        if (available < TYPE_LEN_SIZE) return false;
+
+        // An empty type means the type is given as an alias ID instead
+        int typeLen = readBuffer.getShort(readPos) & 0xFFFF;
+        int typeFieldLen = typeLen == 0 ? ALIAS_ID_SIZE : typeLen;
+        int headerLen = TYPE_LEN_SIZE + typeFieldLen + DATA_LEN_SIZE;
+        if (available < headerLen) {
+            ensureFrameFits(headerLen);
+            return false;
+        }
+
+        int dataLen = readBuffer.getInt(readPos + TYPE_LEN_SIZE + typeFieldLen);
+        boolean compressed = (dataLen & Frame.COMPRESSED_FLAG) != 0;
+        dataLen &= ~Frame.COMPRESSED_FLAG;
+        if (dataLen > MAX_FRAME_SIZE - headerLen)
+            throw new IOException("Invalid message data size: " + dataLen);
+        if (available < headerLen + dataLen) {
+            ensureFrameFits(headerLen + dataLen);
+            return false;
+        }
+
+        String type;
+        if (typeLen == 0) {
+            int id = readBuffer.getShort(readPos + TYPE_LEN_SIZE) & 0xFFFF;
+            type = id < aliasTypes.length ? aliasTypes[id] : null;
+            if (type == null) throw new IOException("Unknown type alias: " + id);
+            typeBytes = aliasTypeBytes[id];
+        } else {
+            type = decodeType(readPos + TYPE_LEN_SIZE, typeLen);
+        }
+
+        int dataStart = readPos + headerLen;
+        dataView.limit(dataStart + dataLen).position(dataStart);
+        readPos += headerLen + dataLen;
+
+        frame.set(type, typeBytes, dataView, compressed);
+        return true;
+    }
+
+    // Decodes a type, reusing the previous string if the same type was seen
+    // recently. Also sets typeBytes to the encoded type
+    private String decodeType(int start, int len) {
+        int hash = 1;
+        for (int i = 0; i < len; i++) hash = 31 * hash + readBuffer.get(start + i);
+        int index = (hash ^ (hash >>> 16)) & (INTERN_TABLE_SIZE - 1);
+
+        byte[] cached = internedBytes[index];
+        if (cached != null && matches(cached, start, len)) {
+            typeBytes = cached;
+            return internedTypes[index];
+        }
+
+        byte[] bytes = new byte[len];
+        for (int i = 0; i < len; i++) bytes[i] = readBuffer.get(start + i);
+        String decoded = new String(bytes, StandardCharsets.UTF_8);
+
+        internedBytes[index] = bytes;
+        internedTypes[index] = decoded;
+        typeBytes = bytes;
+        return decoded;
+    }
+
+    private boolean matches(byte[] bytes, int start, int len) {
+        if (bytes.length != len) return false;
+        for (int i = 0; i < len; i++) {
+            if (bytes[i] != readBuffer.get(start + i)) return false;
+        }
+        return true;
+    }
+
+    // Moves unprocessed data to the start of the buffer to make space for more
+    private void compact() {
+        readBuffer.limit(readBuffer.position()).position(readPos);
+        readBuffer.compact();
+        readPos = 0;
+    }
+
+    // Makes sure the buffer is large enough to hold a frame of the given size
+    // starting from the current read position
+    private void ensureFrameFits(int frameSize) {
+        if (readPos + frameSize <= readBuffer.capacity()) return;
+
+        compact();
+        if (frameSize <= readBuffer.capacity()) return;
+
+        int newCapacity = readBuffer.capacity();
+        while (newCapacity < frameSize) newCapacity *= 2;
+
+        ByteBuffer newBuffer = ByteBuffer.allocateDirect(newCapacity);
+        readBuffer.flip();
+        newBuffer.put(readBuffer);
+        readBuffer = newBuffer;
+        dataView = readBuffer.duplicate();
+    }
+
+    /**
+     * Sends a message to the client, using the client's alias for the type if it has defined one.
+     * If the socket can't take the whole message right now, the rest of it is queued. The frame
+     * must only be compressed if the client supports compression.
+     *
+     * @param frame message to send
+     * @throws IOException if writing to the socket fails
+     */
+    public void send(Frame frame) throws IOException {
+        if (closed) return;
+
+        ByteBuffer header;
+        Integer alias = aliasIds.isEmpty() ? null : aliasIds.get(frame.getType());
+        if (alias != null) {
+            aliasHeader.clear();
+            aliasHeader.putShort((short) 0);
+            aliasHeader.putShort((short) (int) alias);
+            aliasHeader.putInt(frame.getDataSizeField());
+            aliasHeader.flip();
+            header = aliasHeader;
+        } else {
+            header = frame.getHeader();
+        }
+
+        if (!writeQueue.isEmpty()) {
+            if (queuedBytes + header.remaining() + frame.getDataLength() > MAX_QUEUED_BYTES) {
+                droppedCount++;
+                if (!dropping) {
+                    System.err.println("Messages dropped for " + name + ", it is not keeping up");
+                    dropping = true;
+                }
+                return;
+            }
+
+            queueHeader(frame, header);
+            queue(frame.copyData(0));
+            return;
+        }
+
+        ByteBuffer data = frame.getData();
+        directWrite[0] = header;
+        directWrite[1] = data;
+        channel.write(directWrite);
+        if (!data.hasRemaining() && !header.hasRemaining()) return;
+
+        int dataWritten = frame.getDataLength() - data.remaining();
+        if (header.hasRemaining()) queueHeader(frame, header);
+        queue(frame.copyData(dataWritten));
+        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+
+    /**
+     * Sends a forwarded message, limited to the rate the client asked for when listening to it. If
+     * a message of the same type was sent less than the interval ago, this one is held instead,
+     * replacing any older held message of that type, and {@link #sendHeld} sends it later.
+     *
+     * @param frame message to send
+     * @param now current time from {@link System#nanoTime()}
+     * @return whether the message was sent now
+     * @throws IOException if writing to the socket fails
+     */
+    public boolean sendLimited(Frame frame, long now) throws IOException {
+        if (listenIntervals.isEmpty() && heldCount == 0) {
+            send(frame);
+            return true;
+        }
+
+        SampledType sampled = sampledTypes.get(frame.getType());
+        if (sampled == null) {
+            sampled = new SampledType(frame.getType());
+            sampledTypes.put(sampled.type, sampled);
+        }
+
+        long interval = getInterval(sampled);
+        if (interval == 0 || !sampled.sent || now - sampled.lastSent >= interval) {
+            // Anything held is older than this
+            if (sampled.held) {
+                sampled.held = false;
+                sampled.data = null;
+                heldCount--;
+            }
+
+            sampled.sent = true;
+            sampled.lastSent = now;
+            send(frame);
+            return true;
+        }
+
+        // Shared with any other clients holding this message
+        sampled.data = frame.copyData(0);
+        sampled.compressed = frame.isCompressed();
+        if (!sampled.held) {
+            sampled.held = true;
+            heldCount++;
+        }
+        return false;
+    }
+
+    /**
+     * Sends held messages whose interval has passed.
+     *
+     * @param now current time from {@link System#nanoTime()}
+     * @return number of messages sent
+     * @throws IOException if writing to the socket fails
+     */
+    public int sendHeld(long now) throws IOException {
+        if (heldCount == 0) return 0;
+
+        int sent = 0;
+        for (SampledType sampled : sampledTypes.values()) {
+            if (!sampled.held || now - sampled.lastSent < getInterval(sampled)) continue;
+
+            heldFrame.set(sampled.type, sampled.typeBytes, sampled.data, sampled.compressed);
+            sampled.held = false;
+            sampled.data = null;
+            sampled.lastSent = now;
+            heldCount--;
+
+            send(heldFrame);
+            sent++;
+        }
+        return sent;
+    }
+
+    public boolean hasHeldMessages() {
+        return heldCount > 0;
+    }
+
+    /**
+     * Gets when the next held message should be sent.
+     *
+     * @return time from {@link System#nanoTime()}, only valid if there are held messages
+     */
+    public long getNextHeldTime() {
+        long next = 0;
+        boolean found = false;
+        for (SampledType sampled : sampledTypes.values()) {
+            if (!sampled.held) continue;
+
+            long time = sampled.lastSent + getInterval(sampled);
+            if (!found || time - next < 0) next = time;
+            found = true;
+        }
+        return next;
+    }
+
+    private void queueHeader(Frame frame, ByteBuffer header) {
+        if (header == aliasHeader) {
+            ByteBuffer copy = ByteBuffer.allocate(header.remaining());
+            copy.put(header).flip();
+            queue(copy);
+        } else {
+            queue(frame.copyHeader(header.position()));
+        }
+    }
+
+    private void queue(ByteBuffer buf) {
+        if (!buf.hasRemaining()) return;
+        writeQueue.add(buf);
+        queuedBytes += buf.remaining();
+    }
+
+    /**
+     * Writes as much of the queued data as the socket will take.
+     *
+     * @throws IOException if writing to the socket fails
+     */
+    public void flush() throws IOException {
+        while (!writeQueue.isEmpty()) {
+            int count = 0;
+            for (ByteBuffer buf : writeQueue) {
+                writeBatch[count++] = buf;
+                if (count == writeBatch.length) break;
+            }
+
+            queuedBytes -= channel.write(writeBatch, 0, count);
+            boolean socketFull = writeBatch[count - 1].hasRemaining();
+            Arrays.fill(writeBatch, null);
+
+            while (!writeQueue.isEmpty() && !writeQueue.peekFirst().hasRemaining())
+                writeQueue.pollFirst();
+            if (socketFull) break;
+        }
+
+        if (writeQueue.isEmpty()) {
+            key.interestOps(SelectionKey.OP_READ);
+            dropping = false;
+        }
+    }
+
+    /** Closes the connection and discards anything not yet written. */
+    public void close() {
+        closed = true;
+        if (ring != null) ring.close();
+        writeQueue.clear();
+        queuedBytes = 0;
+        sampledTypes.clear();
+        heldCount = 0;
+        key.cancel();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Already closed
+        }
+    }
+
+    // Rate limiting state for one type of message forwarded to the client
+    private static final class SampledType {
+        final String type;
+        final byte[] typeBytes;
+        long interval;
+        boolean sent;
+        long lastSent;
+
+        // Most recent message that has not been sent yet
+        boolean held;
+        ByteBuffer data;
+        boolean compressed;
+
+        SampledType(String type) {
+            this.type = type;
+            typeBytes = type.getBytes(StandardCharsets.UTF_8);
+            interval = -1;
+            sent = false;
+            lastSent = 0;
+            held = false;
+            data = null;
+            compressed = false;
+        }
+    }
+}
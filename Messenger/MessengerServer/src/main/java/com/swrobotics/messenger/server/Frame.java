@@ -0,0 +1,205 @@
+package com.swrobotics.messenger.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * A message being sent to one or more clients. The data is not copied when the frame is set, so
+ * when every recipient can write the frame immediately, it goes straight from the sender's receive
+ * buffer to the recipients' sockets. If a recipient can't write all of it, the data is copied once
+ * into a buffer that is shared by every recipient that needs to queue it.
+ *
+ * <p>Compressed messages are forwarded as they are to clients that support compression, and are
+ * decompressed at most once for the clients that don't.
+ */
+final class Frame {
+    /** Set in the data size field of messages that are compressed. */
+    public static final int COMPRESSED_FLAG = 0x80000000;
+
+    private static final int MAX_HEADER_SIZE = 2 + 0xFFFF + 4;
+    private static final int MAX_UNCOMPRESSED_SIZE = 1 << 30;
+
+    // Reused for every frame, so its contents are only valid until the next set()
+    private final ByteBuffer header;
+    private String type;
+    private byte[] typeBytes;
+    private ByteBuffer data;
+    private int dataStart;
+    private int dataLength;
+    private boolean compressed;
+
+    private ByteBuffer sharedHeader;
+    private ByteBuffer sharedData;
+
+    // Only created once a compressed message needs to be decompressed
+    private Inflater inflater;
+    private ByteBuffer inflated;
+    private Frame decompressed;
+    private boolean decompressedValid;
+
+    public Frame() {
+        header = ByteBuffer.allocate(MAX_HEADER_SIZE);
+        inflater = null;
+        inflated = null;
+        decompressed = null;
+        decompressedValid = false;
+    }
+
+    /**
+     * Sets the message this frame contains. The data buffer must not be modified until the frame
+     * is set again.
+     *
+     * @param type message type
+     * @param typeBytes message type encoded as UTF-8
+     * @param data buffer containing the data between its position and limit
+     */
+    public void set(String type, byte[] typeBytes, ByteBuffer data) {
+        set(type, typeBytes, data, false);
+    }
+
+    /**
+     * Sets the message this frame contains, which may be compressed. The data buffer must not be
+     * modified until the frame is set again.
+     *
+     * @param type message type
+     * @param typeBytes message type encoded as UTF-8
+     * @param data buffer containing the data between its position and limit
+     * @param compressed whether the data is compressed
+     */
+    public void set(String type, byte[] typeBytes, ByteBuffer data, boolean compressed) {
+        this.type = type;
+        this.typeBytes = typeBytes;
+        this.data = data;
+        this.compressed = compressed;
+        dataStart = data.position();
+        dataLength = data.remaining();
+
+        header.clear();
+        header.putShort((short) typeBytes.length);
+        header.put(typeBytes);
+        header.putInt(getDataSizeField());
+        header.flip();
+
+        sharedHeader = null;
+        sharedData = null;
+        decompressedValid = false;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public int getDataLength() {
+        return dataLength;
+    }
+
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    /** @return value of the data size field when sending this frame, including the flags */
+    public int getDataSizeField() {
+        return compressed ? dataLength | COMPRESSED_FLAG : dataLength;
+    }
+
+    /**
+     * Gets a frame with the decompressed message, for clients that don't support compression. The
+     * message is only decompressed the first time this is called for each frame, and the returned
+     * frame is valid until this frame is set again.
+     *
+     * @return decompressed frame, or this frame if it is not compressed
+     * @throws IOException if the compressed data is invalid
+     */
+    public Frame decompress() throws IOException {
+        if (!compressed) return this;
+        if (decompressedValid) return decompressed;
+
+        ByteBuffer input = getData();
+        if (input.remaining() < Integer.BYTES)
+            throw new IOException("Compressed message data is too short");
+        int size = input.getInt();
+        if (size < 0 || size > MAX_UNCOMPRESSED_SIZE)
+            throw new IOException("Invalid uncompressed message data size: " + size);
+
+        if (inflater == null) {
+            inflater = new Inflater(true);
+            decompressed = new Frame();
+        }
+        if (inflated == null || inflated.capacity() < size + 1)
+            inflated = ByteBuffer.allocate(size + 1);
+
+        // One byte of extra space, so data longer than the given size is noticed
+        inflated.clear().limit(size + 1);
+        inflater.reset();
+        inflater.setInput(input);
+        try {
+            while (!inflater.finished() && inflated.hasRemaining()) {
+                int inflatedBytes = inflater.inflate(inflated);
+                if (inflatedBytes == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    break;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Invalid compressed message data", e);
+        }
+        if (!inflater.finished() || inflated.position() != size)
+            throw new IOException("Compressed message data does not match its size");
+
+        inflated.flip();
+        decompressed.set(type, typeBytes, inflated);
+        decompressedValid = true;
+        return decompressed;
+    }
+
+    /**
+     * Gets the header of the message, with the full type, positioned at the start. The returned
+     * buffer is shared, so it must be fully used before this is called again.
+     *
+     * @return header buffer
+     */
+    public ByteBuffer getHeader() {
+        header.position(0);
+        return header;
+    }
+
+    /**
+     * Gets the data of the message, positioned at the start. The returned buffer is shared, so it
+     * must be fully used before this is called again.
+     *
+     * @return data buffer
+     */
+    public ByteBuffer getData() {
+        data.limit(dataStart + dataLength).position(dataStart);
+        return data;
+    }
+
+    /**
+     * Gets a copy of the header that stays valid after the frame is set again.
+     *
+     * @param offset number of bytes of the header to skip
+     * @return header copy
+     */
+    public ByteBuffer copyHeader(int offset) {
+        if (sharedHeader == null) {
+            sharedHeader = ByteBuffer.allocate(header.limit());
+            sharedHeader.put(getHeader()).flip();
+        }
+        return sharedHeader.duplicate().position(offset);
+    }
+
+    /**
+     * Gets a copy of the data that stays valid after the frame is set again. The data is only
+     * copied the first time this is called for each frame.
+     *
+     * @param offset number of bytes of the data to skip
+     * @return data copy
+     */
+    public ByteBuffer copyData(int offset) {
+        if (sharedData == null) {
+            sharedData = ByteBuffer.allocate(dataLength);
+            sharedData.put(getData()).flip();
+        }
+        return sharedData.duplicate().position(offset);
+    }
+}
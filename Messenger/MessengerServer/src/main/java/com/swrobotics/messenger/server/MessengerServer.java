@@ -0,0 +1,686 @@
+package com.swrobotics.messenger.server;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Messenger server that can be embedded in another program, such as a simulation or a test. It
+ * implements the protocol described in {@code Messenger/spec.md}, including the optional type
+ * alias, timestamped heartbeat, shared memory, compression, and rate limited listening extensions.
+ *
+ * <p>All clients are handled on a single thread. Each forwarded message is decoded once, and its
+ * data is written to every listening client straight from the sender's receive buffer, so
+ * forwarding a message does not copy it unless a client's socket is full. Clients on the same host
+ * that send through shared memory read each other's messages directly, without the server
+ * forwarding them.
+ */
+public final class MessengerServer implements AutoCloseable {
+    public static final int DEFAULT_PORT = 5805;
+
+    private static final long HEARTBEAT_TIMEOUT = TimeUnit.SECONDS.toNanos(5);
+    private static final long SELECT_TIMEOUT = 1000;
+
+    private static final String HEARTBEAT = "_Heartbeat";
+    private static final String LISTEN = "_Listen";
+    private static final String UNLISTEN = "_Unlisten";
+    private static final String DISCONNECT = "_Disconnect";
+    private static final String ALIAS = "_Alias";
+    private static final String SHARED_MEMORY = "_SharedMemory";
+    private static final String COMPRESSION = "_Compression";
+    private static final String LISTEN_RATE = "_ListenRate";
+
+    private static final String EVENT = "Messenger:Event";
+    private static final String GET_CLIENTS = "Messenger:GetClients";
+    private static final String CLIENTS = "Messenger:Clients";
+
+    private static final byte ALIAS_DEFINE = 0;
+    private static final byte ALIAS_ACKNOWLEDGE = 1;
+
+    private static final byte SHARED_MEMORY_OFFER = 0;
+    private static final byte SHARED_MEMORY_ACCEPT = 1;
+    private static final byte SHARED_MEMORY_SWITCH = 2;
+    private static final byte SHARED_MEMORY_PEER = 3;
+    private static final byte SHARED_MEMORY_REMOVE = 4;
+    private static final byte SHARED_MEMORY_DETACH = 5;
+
+    private static final byte COMPRESSION_OFFER = 0;
+    private static final byte COMPRESSION_ACCEPT = 1;
+    private static final String COMPRESSION_CODEC = "deflate";
+
+    private static final byte LISTEN_RATE_SET = 0;
+    private static final byte LISTEN_RATE_ACKNOWLEDGE = 1;
+
+    private final ServerSocketChannel serverChannel;
+    private final Selector selector;
+    private final List<ClientConnection> clients;
+    private final List<ClientConnection> ringClients;
+    private final SubscriptionIndex subscriptions;
+    private int nextClientId;
+
+    // Separate from the frame being read, since sending an event can happen
+    // while handling an incoming message
+    private final Frame readFrame;
+    private final Frame serverFrame;
+    private final List<SubscriptionIndex.Subscriber> recipients;
+    private final List<ClientConnection> failed;
+    private final List<IOException> failures;
+
+    private final long clockBase;
+
+    private volatile boolean running;
+    private volatile Thread thread;
+    private volatile boolean logEvents;
+    private volatile int clientCount;
+    private volatile long forwardedCount;
+
+    /**
+     * Opens a server listening on all network interfaces.
+     *
+     * @param port port to listen on, or 0 to pick any free port
+     * @throws IOException if the port can't be opened
+     */
+    public MessengerServer(int port) throws IOException {
+        this(new InetSocketAddress(port));
+    }
+
+    /**
+     * Opens a server listening on one network interface. Use {@code "localhost"} to only accept
+     * connections from the same machine.
+     *
+     * @param host host name of the interface to listen on
+     * @param port port to listen on, or 0 to pick any free port
+     * @throws IOException if the port can't be opened
+     */
+    public MessengerServer(String host, int port) throws IOException {
+        this(new InetSocketAddress(host, port));
+    }
+
+    private MessengerServer(InetSocketAddress address) throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(address);
+        serverChannel.configureBlocking(false);
+
+        selector = Selector.open();
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+        clients = new ArrayList<>();
+        ringClients = new ArrayList<>();
+        subscriptions = new SubscriptionIndex();
+        nextClientId = 0;
+        readFrame = new Frame();
+        serverFrame = new Frame();
+        recipients = new ArrayList<>();
+        failed = new ArrayList<>();
+        failures = new ArrayList<>();
+
+        clockBase = System.currentTimeMillis() * 1_000_000 - System.nanoTime();
+
+        running = true;
+        logEvents = true;
+        clientCount = 0;
+        forwardedCount = 0;
+    }
+
+    /**
+     * Gets the port the server is listening on. This is useful if the server was opened with port
+     * 0.
+     *
+     * @return port
+     */
+    public int getPort() {
+        return ((InetSocketAddress) serverChannel.socket().getLocalSocketAddress()).getPort();
+    }
+
+    /**
+     * Starts handling clients on a background thread. The thread is a daemon thread, so it does not
+     * keep the program running by itself.
+     */
+    public void start() {
+        Thread t = new Thread(this::run, "Messenger Server");
+        t.setDaemon(true);
+        thread = t;
+        t.start();
+    }
+
+    /** Handles clients on the current thread until the server is closed. */
+    public void run() {
+        if (thread == null) thread = Thread.currentThread();
+        try {
+            while (running) {
+                // Clients writing to rings wake the server up if it's waiting
+                boolean ringsReady = false;
+                for (ClientConnection client : ringClients) {
+                    client.getRing().setWaiting(true);
+                    if (client.getRing().hasData()) ringsReady = true;
+                }
+                // Also wake up when the next rate limited message is due
+                long timeout = SELECT_TIMEOUT;
+                for (ClientConnection client : clients) {
+                    if (!client.hasHeldMessages()) continue;
+                    long wait = client.getNextHeldTime() - System.nanoTime();
+                    timeout = Math.min(timeout, wait <= 0 ? 0 : wait / 1_000_000 + 1);
+                }
+
+                if (ringsReady || timeout <= 0) selector.selectNow();
+                else selector.select(timeout);
+                for (ClientConnection client : ringClients) client.getRing().setWaiting(false);
+
+                Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
+                while (iter.hasNext()) {
+                    SelectionKey key = iter.next();
+                    iter.remove();
+                    handleKey(key);
+                    closeFailed();
+                }
+
+                readRings();
+                sendHeld();
+                checkTimeouts();
+            }
+        } catch (IOException e) {
+            System.err.println("Messenger server failed:");
+            e.printStackTrace();
+        } finally {
+            closeAll();
+        }
+    }
+
+    /**
+     * Sets whether client events are printed to the console. This is enabled by default.
+     *
+     * @param logEvents whether to print events
+     */
+    public void setLogEvents(boolean logEvents) {
+        this.logEvents = logEvents;
+    }
+
+    /**
+     * Gets the number of clients that have completed their handshake and are still connected.
+     *
+     * @return number of clients
+     */
+    public int getClientCount() {
+        return clientCount;
+    }
+
+    /**
+     * Gets the total number of messages that have been forwarded to clients. A message sent to
+     * several clients is counted once for each of them.
+     *
+     * @return number of messages forwarded
+     */
+    public long getForwardedCount() {
+        return forwardedCount;
+    }
+
+    /** Disconnects all clients and stops the server. */
+    @Override
+    public void close() {
+        running = false;
+        selector.wakeup();
+
+        Thread t = thread;
+        if (t == null) {
+            closeAll();
+        } else if (t != Thread.currentThread()) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void handleKey(SelectionKey key) {
+        if (!key.isValid()) return;
+
+        if (key.isAcceptable()) {
+            accept();
+            return;
+        }
+
+        ClientConnection client = (ClientConnection) key.attachment();
+        try {
+            if (key.isWritable()) client.flush();
+            if (key.isValid() && key.isReadable() && !client.read(readFrame)) {
+                fail(client, new IOException("Connection closed without disconnecting"));
+            }
+        } catch (IOException e) {
+            fail(client, e);
+        }
+    }
+
+    private void accept() {
+        try {
+            SocketChannel channel = serverChannel.accept();
+            if (channel == null) return;
+
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            ClientConnection client = new ClientConnection(this, nextClientId++, channel, key);
+            key.attach(client);
+            clients.add(client);
+        } catch (IOException e) {
+            System.err.println("Error accepting incoming connection:");
+            e.printStackTrace();
+        }
+    }
+
+    void onHandshake(ClientConnection client) {
+        clientCount++;
+        event("Connect", client.getName(), "");
+    }
+
+    void handleFrame(ClientConnection client, Frame frame) throws IOException {
+        String type = frame.getType();
+
+        // Messages the server reads itself should never be compressed, but
+        // don't rely on it
+        if (frame.isCompressed() && (type.startsWith("_") || type.equals(GET_CLIENTS)))
+            frame = frame.decompress();
+
+        switch (type) {
+            case HEARTBEAT:
+                onHeartbeat(client, frame);
+                break;
+            case LISTEN:
+                String listenType = readString(frame.getData());
+                if (listenType != null && client.getListening().add(listenType)) {
+                    subscriptions.add(listenType, client);
+                    event("Listen", client.getName(), listenType);
+                }
+                break;
+            case UNLISTEN:
+                String unlistenType = readString(frame.getData());
+                if (unlistenType != null && client.getListening().remove(unlistenType)) {
+                    subscriptions.remove(unlistenType, client);
+                    client.setListenInterval(unlistenType, 0);
+                    event("Unlisten", client.getName(), unlistenType);
+                }
+                break;
+            case DISCONNECT:
+                disconnect(client, "Disconnect");
+                break;
+            case ALIAS:
+                onAlias(client, frame);
+                break;
+            case SHARED_MEMORY:
+                onSharedMemory(client, frame);
+                break;
+            case COMPRESSION:
+                onCompression(client, frame);
+                break;
+            case LISTEN_RATE:
+                onListenRate(client, frame);
+                break;
+            case GET_CLIENTS:
+                if (client.isListening(CLIENTS)) sendClients(client);
+                break;
+            default:
+                dispatch(frame, client);
+                break;
+        }
+    }
+
+    private void onHeartbeat(ClientConnection client, Frame frame) throws IOException {
+        client.setLastHeartbeat(System.nanoTime());
+
+        // Echo the client's timestamp with the server time, if it sent one
+        ByteBuffer data;
+        if (frame.getDataLength() >= Long.BYTES) {
+            long clientTime = frame.getData().getLong();
+            data = ByteBuffer.allocate(2 * Long.BYTES);
+            data.putLong(clientTime).putLong(clockBase + System.nanoTime()).flip();
+        } else {
+            data = ByteBuffer.allocate(0);
+        }
+
+        serverFrame.set(HEARTBEAT, HEARTBEAT.getBytes(StandardCharsets.UTF_8), data);
+        client.send(serverFrame);
+    }
+
+    private void onAlias(ClientConnection client, Frame frame) throws IOException {
+        ByteBuffer data = frame.getData();
+        if (data.remaining() < 1 + Short.BYTES || data.get() != ALIAS_DEFINE) return;
+        int id = data.getShort() & 0xFFFF;
+        String aliasType = readString(data);
+        if (aliasType == null) return;
+
+        // Acknowledge before defining, since the acknowledgement itself must not
+        // use the new alias
+        ByteBuffer ack = ByteBuffer.allocate(frame.getDataLength());
+        ack.put(frame.getData()).put(0, ALIAS_ACKNOWLEDGE).flip();
+        serverFrame.set(ALIAS, ALIAS.getBytes(StandardCharsets.UTF_8), ack);
+        client.send(serverFrame);
+
+        client.defineAlias(id, aliasType);
+    }
+
+    private void onCompression(ClientConnection client, Frame frame) throws IOException {
+        ByteBuffer data = frame.getData();
+        if (!data.hasRemaining() || data.get() != COMPRESSION_OFFER) return;
+        if (!COMPRESSION_CODEC.equals(readString(data))) return;
+
+        byte[] codec = COMPRESSION_CODEC.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer accept = ByteBuffer.allocate(1 + Short.BYTES + codec.length);
+        accept.put(COMPRESSION_ACCEPT).putShort((short) codec.length).put(codec).flip();
+        serverFrame.set(COMPRESSION, COMPRESSION.getBytes(StandardCharsets.UTF_8), accept);
+        client.send(serverFrame);
+
+        client.setCompression(true);
+    }
+
+    private void onListenRate(ClientConnection client, Frame frame) throws IOException {
+        ByteBuffer data = frame.getData();
+        if (!data.hasRemaining() || data.get() != LISTEN_RATE_SET) return;
+        String pattern = readString(data);
+        if (pattern == null || data.remaining() < Double.BYTES) return;
+        double rate = data.getDouble();
+
+        long interval = rate > 0 ? (long) (1_000_000_000L / rate) : 0;
+        client.setListenInterval(pattern, interval);
+
+        ByteBuffer ack = ByteBuffer.allocate(frame.getDataLength());
+        ack.put(frame.getData()).put(0, LISTEN_RATE_ACKNOWLEDGE).flip();
+        serverFrame.set(LISTEN_RATE, LISTEN_RATE.getBytes(StandardCharsets.UTF_8), ack);
+        client.send(serverFrame);
+    }
+
+    private void onSharedMemory(ClientConnection client, Frame frame) {
+        ByteBuffer data = frame.getData();
+        if (!data.hasRemaining()) return;
+
+        switch (data.get()) {
+            case SHARED_MEMORY_OFFER:
+                String path = readString(data);
+                if (path == null || client.getRing() != null) return;
+
+                // If the ring can't be opened, the client is probably on a different
+                // host, so it keeps using the socket
+                try {
+                    client.setOfferedRing(SharedRingReader.open(path));
+                } catch (IOException e) {
+                    return;
+                }
+                sendSharedMemory(client, SHARED_MEMORY_ACCEPT, null);
+                break;
+            case SHARED_MEMORY_SWITCH:
+                if (!client.switchToRing()) return;
+
+                // Let the new client and the existing ones read each other's rings.
+                // Everything before the given positions was already forwarded
+                for (ClientConnection other : ringClients) {
+                    sendSharedMemory(client, SHARED_MEMORY_PEER, other);
+                    other.getLocalReaders().add(client);
+                    sendSharedMemory(other, SHARED_MEMORY_PEER, client);
+                    client.getLocalReaders().add(other);
+                }
+                ringClients.add(client);
+                break;
+            case SHARED_MEMORY_DETACH:
+                if (data.remaining() < Integer.BYTES) return;
+                int id = data.getInt();
+                for (ClientConnection other : ringClients) {
+                    if (other.getId() == id) other.getLocalReaders().remove(client);
+                }
+                break;
+        }
+    }
+
+    private void sendSharedMemory(ClientConnection client, byte kind, ClientConnection peer) {
+        ByteBuffer data;
+        if (peer == null) {
+            data = ByteBuffer.allocate(1);
+            data.put(kind);
+        } else if (kind == SHARED_MEMORY_REMOVE) {
+            data = ByteBuffer.allocate(1 + Integer.BYTES);
+            data.put(kind).putInt(peer.getId());
+        } else {
+            byte[] path = peer.getRing().getPath().getBytes(StandardCharsets.UTF_8);
+            data = ByteBuffer.allocate(1 + Integer.BYTES + Short.BYTES + path.length + Long.BYTES);
+            data.put(kind).putInt(peer.getId());
+            data.putShort((short) path.length).put(path);
+            data.putLong(peer.getRingMessagePosition());
+        }
+        data.flip();
+
+        serverFrame.set(SHARED_MEMORY, SHARED_MEMORY.getBytes(StandardCharsets.UTF_8), data);
+        try {
+            client.send(serverFrame);
+        } catch (IOException e) {
+            fail(client, e);
+        }
+    }
+
+    private void readRings() {
+        for (int i = 0; i < ringClients.size(); i++) {
+            ClientConnection client = ringClients.get(i);
+            try {
+                client.readRing(readFrame);
+            } catch (IOException e) {
+                fail(client, e);
+            }
+            closeFailed();
+        }
+    }
+
+    private void sendClients(ClientConnection client) throws IOException {
+        List<byte[]> names = new ArrayList<>();
+        int size = Integer.BYTES;
+        for (ClientConnection c : clients) {
+            if (c.getName() == null) continue;
+            byte[] name = c.getName().getBytes(StandardCharsets.UTF_8);
+            names.add(name);
+            size += Short.BYTES + name.length;
+        }
+
+        ByteBuffer data = ByteBuffer.allocate(size);
+        data.putInt(names.size());
+        for (byte[] name : names) {
+            data.putShort((short) name.length);
+            data.put(name);
+        }
+        data.flip();
+
+        serverFrame.set(CLIENTS, CLIENTS.getBytes(StandardCharsets.UTF_8), data);
+        client.send(serverFrame);
+    }
+
+    // Sender is null for messages from the server itself
+    private void dispatch(Frame frame, ClientConnection sender) {
+        Set<ClientConnection> localReaders = sender == null ? null : sender.getLocalReaders();
+        if (localReaders != null && localReaders.isEmpty()) localReaders = null;
+
+        subscriptions.collect(frame.getType(), recipients);
+        long now = System.nanoTime();
+        int forwarded = 0;
+        for (int i = 0; i < recipients.size(); i++) {
+            ClientConnection recipient = (ClientConnection) recipients.get(i);
+
+            // Already read it from the sender's ring
+            if (localReaders != null && localReaders.contains(recipient)) continue;
+
+            Frame toSend = frame;
+            if (frame.isCompressed() && !recipient.isUsingCompression()) {
+                try {
+                    toSend = frame.decompress();
+                } catch (IOException e) {
+                    // Sender's fault, so none of the recipients get it
+                    fail(sender, e);
+                    break;
+                }
+            }
+
+            try {
+                // Held to be sent later
+                if (!recipient.sendLimited(toSend, now)) continue;
+            } catch (IOException e) {
+                fail(recipient, e);
+            }
+            forwarded++;
+        }
+        forwardedCount += forwarded;
+        recipients.clear();
+    }
+
+    // Sends rate limited messages that were held until their interval passed
+    private void sendHeld() {
+        long now = System.nanoTime();
+        for (int i = 0; i < clients.size(); i++) {
+            ClientConnection client = clients.get(i);
+            try {
+                forwardedCount += client.sendHeld(now);
+            } catch (IOException e) {
+                fail(client, e);
+            }
+        }
+        closeFailed();
+    }
+
+    private void event(String type, String name, String descriptor) {
+        if (logEvents) {
+            String message = "Messenger: " + type + " from " + name;
+            if (!descriptor.isEmpty()) message += ": " + descriptor;
+            System.out.println(message);
+        }
+
+        byte[] typeBytes = type.getBytes(StandardCharsets.UTF_8);
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        byte[] descriptorBytes = descriptor.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer data =
+                ByteBuffer.allocate(
+                        3 * Short.BYTES
+                                + typeBytes.length
+                                + nameBytes.length
+                                + descriptorBytes.length);
+        data.putShort((short) typeBytes.length).put(typeBytes);
+        data.putShort((short) nameBytes.length).put(nameBytes);
+        data.putShort((short) descriptorBytes.length).put(descriptorBytes);
+        data.flip();
+
+        serverFrame.set(EVENT, EVENT.getBytes(StandardCharsets.UTF_8), data);
+        dispatch(serverFrame, null);
+    }
+
+    // Reads a string, or returns null if the data is too short
+    private static String readString(ByteBuffer data) {
+        if (data.remaining() < Short.BYTES) return null;
+        int len = data.getShort() & 0xFFFF;
+        if (data.remaining() < len) return null;
+
+        byte[] bytes = new byte[len];
+        data.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Failed clients are closed after the current message has been handled, so
+    // the client list is not modified while a message is being forwarded
+    private void fail(ClientConnection client, IOException e) {
+        if (failed.contains(client)) return;
+        failed.add(client);
+        failures.add(e);
+    }
+
+    private void closeFailed() {
+        // Closing a client sends an event, which can make more clients fail
+        while (!failed.isEmpty()) {
+            ClientConnection client = failed.remove(0);
+            IOException e = failures.remove(0);
+            if (client.isClosed()) continue;
+
+            if (logEvents && client.getName() != null)
+                System.err.println("Messenger: Error from " + client.getName() + ": " + e);
+            disconnect(client, "Error");
+        }
+    }
+
+    private void checkTimeouts() {
+        long now = System.nanoTime();
+        for (int i = clients.size() - 1; i >= 0; i--) {
+            ClientConnection client = clients.get(i);
+            if (now - client.getLastHeartbeat() > HEARTBEAT_TIMEOUT) disconnect(client, "Timeout");
+        }
+        closeFailed();
+    }
+
+    private void disconnect(ClientConnection client, String eventType) {
+        if (client.isClosed()) return;
+        client.close();
+        clients.remove(client);
+
+        for (String pattern : client.getListening()) {
+            subscriptions.remove(pattern, client);
+        }
+
+        if (ringClients.remove(client)) {
+            for (ClientConnection other : ringClients) other.getLocalReaders().remove(client);
+            for (ClientConnection reader : client.getLocalReaders()) {
+                sendSharedMemory(reader, SHARED_MEMORY_REMOVE, client);
+            }
+        }
+
+        if (client.getName() != null) {
+            clientCount--;
+            event(eventType, client.getName(), "");
+        }
+    }
+
+    private void closeAll() {
+        for (ClientConnection client : clients) {
+            client.close();
+        }
+        clients.clear();
+        clientCount = 0;
+
+        try {
+            selector.close();
+            serverChannel.close();
+        } catch (IOException e) {
+            System.err.println("Error closing Messenger server:");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Runs a standalone server. The port can be given as the first argument, or as the {@code port}
+     * property in {@code config.properties} in the working directory.
+     *
+     * @param args command line arguments
+     * @throws IOException if the server can't be opened
+     */
+    public static void main(String[] args) throws IOException {
+        int port = DEFAULT_PORT;
+
+        Path configFile = Paths.get("config.properties");
+        if (Files.exists(configFile)) {
+            Properties config = new Properties();
+            try (InputStream in = new FileInputStream(configFile.toFile())) {
+                config.load(in);
+            }
+            port = Integer.parseInt(config.getProperty("port", String.valueOf(port)));
+        }
+        if (args.length > 0) port = Integer.parseInt(args[0]);
+
+        MessengerServer server = new MessengerServer(port);
+        System.out.println("Messenger server listening on port " + server.getPort());
+        server.run();
+    }
+}
@@ -0,0 +1,145 @@
+package com.swrobotics.messenger.server;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the shared memory ring a client on the same host writes its messages to. The server is the
+ * ring's primary reader, so the client never overwrites data until it has been read here. The
+ * layout is described in {@code spec.md}.
+ */
+final class SharedRingReader implements ReadableByteChannel {
+    private static final Path DIRECTORY = Paths.get("/dev/shm");
+    private static final String FILE_PREFIX = "messenger-";
+
+    private static final long MAGIC = 0x4D534752494E4701L;
+    private static final int MAGIC_OFFSET = 0;
+    private static final int CAPACITY_OFFSET = 8;
+    private static final int WRITE_OFFSET = 128;
+    private static final int READ_OFFSET = 192;
+    private static final int WAITING_OFFSET = 256;
+    private static final int HEADER_SIZE = 320;
+
+    private static final VarHandle LONGS =
+            MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    /**
+     * Opens a client's ring. Only ring files directly in {@code /dev/shm} can be opened, so a
+     * client can't make the server read arbitrary files.
+     *
+     * @param pathName path the client sent
+     * @return opened ring
+     * @throws IOException if the path is not a valid ring
+     */
+    public static SharedRingReader open(String pathName) throws IOException {
+        Path path = Paths.get(pathName).normalize();
+        if (!DIRECTORY.equals(path.getParent())
+                || !path.getFileName().toString().startsWith(FILE_PREFIX)
+                || !Files.isRegularFile(path, LinkOption.NOFOLLOW_LINKS))
+            throw new IOException("Not a Messenger ring: " + pathName);
+
+        MappedByteBuffer buf;
+        try (FileChannel file =
+                FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if (file.size() < HEADER_SIZE) throw new IOException("Not a Messenger ring: " + path);
+            buf = file.map(FileChannel.MapMode.READ_WRITE, 0, file.size());
+        }
+        buf.order(ByteOrder.nativeOrder());
+
+        long capacity = buf.getLong(CAPACITY_OFFSET);
+        if ((long) LONGS.getVolatile(buf, MAGIC_OFFSET) != MAGIC
+                || Long.bitCount(capacity) != 1
+                || HEADER_SIZE + capacity != buf.capacity())
+            throw new IOException("Not a Messenger ring: " + path);
+
+        return new SharedRingReader(path.toString(), buf, (int) capacity);
+    }
+
+    private final String path;
+    private final ByteBuffer header;
+    private final ByteBuffer data;
+    private final int capacity;
+    private long position;
+    private boolean open;
+
+    private SharedRingReader(String path, ByteBuffer buf, int capacity) {
+        this.path = path;
+        this.capacity = capacity;
+        header = buf;
+        data = buf.duplicate().position(HEADER_SIZE).slice();
+        position = (long) LONGS.getVolatile(header, READ_OFFSET);
+        open = true;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Gets the position in the stream of bytes written to the ring of the next byte to read.
+     *
+     * @return read position
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /** @return whether there is data that has not been read yet */
+    public boolean hasData() {
+        return (long) LONGS.getVolatile(header, WRITE_OFFSET) != position;
+    }
+
+    /**
+     * Sets whether the server is about to wait for data. While set, the client wakes the server up
+     * after writing. Since both sides use volatile accesses, either the client sees the flag, or
+     * {@link #hasData()} called after setting it sees the client's data.
+     *
+     * @param waiting whether the server is waiting
+     */
+    public void setWaiting(boolean waiting) {
+        LONGS.setVolatile(header, WAITING_OFFSET, waiting ? 1L : 0L);
+    }
+
+    @Override
+    public int read(ByteBuffer dst) {
+        long written = (long) LONGS.getVolatile(header, WRITE_OFFSET);
+        int count = (int) Math.min(written - position, dst.remaining());
+        if (count <= 0) return 0;
+
+        int index = (int) (position & (capacity - 1));
+        int first = Math.min(count, capacity - index);
+        ByteBuffer src = data.duplicate();
+        src.limit(index + first).position(index);
+        dst.put(src);
+        if (first < count) {
+            src.limit(count - first).position(0);
+            dst.put(src);
+        }
+
+        // Lets the client reuse the space
+        position += count;
+        LONGS.setVolatile(header, READ_OFFSET, position);
+        return count;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() {
+        open = false;
+    }
+}
@@ -0,0 +1,135 @@
+package com.swrobotics.messenger.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds the subscribers listening to a message type. Exact types are looked up in a hash map, and
+ * wildcards are stored in a prefix trie, so finding the subscribers takes time proportional to the
+ * length of the type no matter how many wildcards are registered.
+ */
+final class SubscriptionIndex {
+    /** Something that can listen to message types. */
+    static class Subscriber {
+        // Last lookup this subscriber was found in, so it is only collected once
+        // even if several of its patterns match
+        private int mark = -1;
+    }
+
+    private static final class Node {
+        char[] keys = new char[0];
+        Node[] children = new Node[0];
+        List<Subscriber> subscribers = null;
+
+        Node getChild(char c) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] == c) return children[i];
+            }
+            return null;
+        }
+
+        Node getOrCreateChild(char c) {
+            Node child = getChild(c);
+            if (child != null) return child;
+
+            int count = keys.length;
+            keys = Arrays.copyOf(keys, count + 1);
+            children = Arrays.copyOf(children, count + 1);
+            child = new Node();
+            keys[count] = c;
+            children[count] = child;
+            return child;
+        }
+    }
+
+    private final Map<String, List<Subscriber>> exact;
+    private final Node root;
+    private int lookup;
+
+    public SubscriptionIndex() {
+        exact = new HashMap<>();
+        root = new Node();
+        lookup = 0;
+    }
+
+    /**
+     * Adds a subscriber for a pattern. Patterns ending with {@code *} match all types starting with
+     * the preceding characters, and other patterns match only the exact type.
+     *
+     * @param pattern pattern to listen to
+     * @param subscriber subscriber to add
+     */
+    public void add(String pattern, Subscriber subscriber) {
+        List<Subscriber> list;
+        if (pattern.endsWith("*")) {
+            Node node = root;
+            for (int i = 0; i < pattern.length() - 1; i++) {
+                node = node.getOrCreateChild(pattern.charAt(i));
+            }
+            if (node.subscribers == null) node.subscribers = new ArrayList<>();
+            list = node.subscribers;
+        } else {
+            list = exact.computeIfAbsent(pattern, (p) -> new ArrayList<>());
+        }
+        list.add(subscriber);
+    }
+
+    /**
+     * Removes a subscriber from a pattern. Trie nodes are left in place, since patterns are
+     * typically added again later.
+     *
+     * @param pattern pattern the subscriber was added with
+     * @param subscriber subscriber to remove
+     * @return whether the subscriber was present
+     */
+    public boolean remove(String pattern, Subscriber subscriber) {
+        if (!pattern.endsWith("*")) {
+            List<Subscriber> list = exact.get(pattern);
+            if (list == null || !list.remove(subscriber)) return false;
+            if (list.isEmpty()) exact.remove(pattern);
+            return true;
+        }
+
+        Node node = root;
+        for (int i = 0; i < pattern.length() - 1 && node != null; i++) {
+            node = node.getChild(pattern.charAt(i));
+        }
+
+        if (node == null || node.subscribers == null) return false;
+        return node.subscribers.remove(subscriber);
+    }
+
+    /**
+     * Adds all subscribers listening to a type to a list. Each subscriber is only added once, even
+     * if it has several matching patterns.
+     *
+     * @param type message type
+     * @param out list to add the subscribers to
+     */
+    public void collect(String type, List<Subscriber> out) {
+        int mark = ++lookup;
+
+        addAll(exact.get(type), mark, out);
+
+        Node node = root;
+        addAll(node.subscribers, mark, out);
+        for (int i = 0; i < type.length(); i++) {
+            node = node.getChild(type.charAt(i));
+            if (node == null) return;
+            addAll(node.subscribers, mark, out);
+        }
+    }
+
+    private void addAll(List<Subscriber> subscribers, int mark, List<Subscriber> out) {
+        if (subscribers == null) return;
+        for (int i = 0; i < subscribers.size(); i++) {
+            Subscriber subscriber = subscribers.get(i);
+            if (subscriber.mark == mark) continue;
+            subscriber.mark = mark;
+            out.add(subscriber);
+        }
+    }
+}
@@ -0,0 +1,817 @@
+package com.swrobotics.messenger.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.swrobotics.messenger.client.DropPolicy;
+import com.swrobotics.messenger.client.MessagePriority;
+import com.swrobotics.messenger.client.MessageReader;
+import com.swrobotics.messenger.client.MessengerClient;
+import com.swrobotics.messenger.client.OutgoingStream;
+import com.swrobotics.messenger.client.ReadMode;
+import com.swrobotics.messenger.client.StreamReceiver;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+public final class MessengerServerTest {
+    private static int syncCount = 0;
+
+    private static MessengerServer startServer() throws Exception {
+        MessengerServer server = new MessengerServer("localhost", 0);
+        server.setLogEvents(false);
+        server.start();
+        return server;
+    }
+
+    private static MessengerClient connect(MessengerServer server, String name) throws Exception {
+        MessengerClient client = new MessengerClient("localhost", server.getPort(), name);
+        readUntil(client, client::isConnected);
+        sync(client);
+        return client;
+    }
+
+    // Waits until the server has handled everything the client sent so far
+    private static void sync(MessengerClient client) throws InterruptedException {
+        String syncType = "Test:Sync:" + syncCount++;
+        boolean[] synced = {false};
+        client.addHandler(syncType, (type, reader) -> synced[0] = true);
+        client.send(syncType);
+        readUntil(client, () -> synced[0]);
+    }
+
+    private static void readUntil(MessengerClient client, BooleanSupplier condition)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) throw new AssertionError("Timed out");
+            client.readMessages();
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    public void test_messagesAreForwardedToListeners() throws Exception {
+        try (MessengerServer server = startServer()) {
+            MessengerClient receiver = new MessengerClient("localhost", server.getPort(), "Rx");
+            Map<String, Integer> received = new HashMap<>();
+            receiver.addHandler("Test:Exact", (type, reader) -> {});
+            receiver.addHandler("Test:*", (type, reader) -> received.merge(type, 1, Integer::sum));
+            readUntil(receiver, receiver::isConnected);
+
+            // Listens are sent just after the client reports being connected,
+            // so keep sending until the server has them
+            readUntil(
+                    receiver,
+                    () -> {
+                        if (received.containsKey("Test:First")) return true;
+                        receiver.send("Test:First");
+                        return false;
+                    });
+
+            MessengerClient sender = connect(server, "Tx");
+            sender.prepare("Test:Exact").addInt(42).send();
+            sender.send("Test:Other");
+            sender.send("Other:Type");
+            sender.send("Test:Last");
+            readUntil(receiver, () -> received.containsKey("Test:Last"));
+
+            // Matches two of the receiver's patterns, but is only forwarded once
+            assertEquals(Integer.valueOf(1), received.get("Test:Exact"));
+            assertEquals(Integer.valueOf(1), received.get("Test:Other"));
+            assertTrue(!received.containsKey("Other:Type"));
+
+            sender.disconnect();
+            receiver.disconnect();
+        }
+    }
+
+    @Test
+    public void test_clientsAreListed() throws Exception {
+        try (MessengerServer server = startServer()) {
+            MessengerClient a = connect(server, "A");
+            MessengerClient b = connect(server, "B");
+            assertEquals(2, server.getClientCount());
+
+            CompletableFuture<MessageReader> response =
+                    a.request("Messenger:GetClients", "Messenger:Clients");
+            readUntil(a, response::isDone);
+
+            MessageReader reader = response.get();
+            Set<String> names = new HashSet<>();
+            int count = reader.readInt();
+            for (int i = 0; i < count; i++) names.add(reader.readString());
+            assertEquals(Set.of("A", "B"), names);
+
+            a.disconnect();
+            b.disconnect();
+        }
+    }
+
+    @Test
+    public void test_heartbeatsAreTimestamped() throws Exception {
+        try (MessengerServer server = startServer()) {
+            MessengerClient client = connect(server, "Clock");
+            readUntil(client, client::isClockSynchronized);
+
+            // Server uses the same clock as the client, so they should agree
+            assertTrue(Math.abs(client.getClockOffset()) < 50_000_000L);
+            client.disconnect();
+        }
+    }
+
+    @Test
+    public void test_sharedMemoryMessagesAreReceivedOnce() throws Exception {
+        // Shared memory is only available on Linux
+        if (!Files.isDirectory(Paths.get("/dev/shm"))) return;
+
+        try (MessengerServer server = startServer()) {
+            List<Integer> sharedReceived = new ArrayList<>();
+            List<Integer> socketReceived = new ArrayList<>();
+            MessengerClient sharedReceiver = connect(server, "SharedRx");
+            sharedReceiver.addHandler(
+                    "Test:Count", (type, reader) -> sharedReceived.add(reader.readInt()));
+            MessengerClient socketReceiver = connect(server, "SocketRx");
+            socketReceiver.addHandler(
+                    "Test:Count", (type, reader) -> socketReceived.add(reader.readInt()));
+            MessengerClient sender = connect(server, "Tx");
+
+            sharedReceiver.setSharedMemory(true);
+            sender.setSharedMemory(true);
+            readUntil(sharedReceiver, sharedReceiver::isUsingSharedMemory);
+            readUntil(sender, sender::isUsingSharedMemory);
+
+            int count = 1000;
+            for (int i = 0; i < count; i++) sender.prepare("Test:Count").addInt(i).send();
+            readUntil(sharedReceiver, () -> sharedReceived.size() >= count);
+            readUntil(socketReceiver, () -> socketReceived.size() >= count);
+
+            // Whether each message came through the ring or the socket, it should
+            // only be received once, in order
+            for (int i = 0; i < count; i++) {
+                assertEquals(Integer.valueOf(i), sharedReceived.get(i));
+                assertEquals(Integer.valueOf(i), socketReceived.get(i));
+            }
+            sharedReceiver.readMessages();
+            assertEquals(count, sharedReceived.size());
+
+            sender.disconnect();
+            sharedReceiver.disconnect();
+            socketReceiver.disconnect();
+        }
+    }
+
+    @Test
+    public void test_compressedMessagesReachAllListeners() throws Exception {
+        try (MessengerServer server = startServer()) {
+            List<String> compressedReceived = new ArrayList<>();
+            List<String> plainReceived = new ArrayList<>();
+            MessengerClient compressedRx = connect(server, "CompressedRx");
+            compressedRx.setCompression(true);
+            compressedRx.addHandler(
+                    "Test:Log", (type, reader) -> compressedReceived.add(reader.readString()));
+            MessengerClient plainRx = connect(server, "PlainRx");
+            plainRx.addHandler(
+                    "Test:Log", (type, reader) -> plainReceived.add(reader.readString()));
+            readUntil(compressedRx, compressedRx::isUsingCompression);
+            sync(plainRx);
+
+            MessengerClient tx = connect(server, "Tx");
+            tx.setCompression(true);
+            readUntil(tx, tx::isUsingCompression);
+
+            StringBuilder log = new StringBuilder();
+            for (int i = 0; i < 200; i++) log.append("Processed frame ").append(i).append('\n');
+            tx.prepare("Test:Log").addString("short").send();
+            tx.prepare("Test:Log").addString(log.toString()).send();
+
+            // One receiver gets it as it was sent, the other decompressed by the server
+            readUntil(compressedRx, () -> compressedReceived.size() == 2);
+            readUntil(plainRx, () -> plainReceived.size() == 2);
+            assertEquals(List.of("short", log.toString()), compressedReceived);
+            assertEquals(List.of("short", log.toString()), plainReceived);
+
+            tx.disconnect();
+            compressedRx.disconnect();
+            plainRx.disconnect();
+        }
+    }
+
+    @Test
+    public void test_rateLimitedListenerReceivesLatest() throws Exception {
+        try (MessengerServer server = startServer()) {
+            List<Integer> limited = new ArrayList<>();
+            List<Integer> all = new ArrayList<>();
+            MessengerClient limitedRx = connect(server, "LimitedRx");
+            limitedRx.addHandler("Test:Pos", (type, reader) -> limited.add(reader.readInt()), 10);
+            MessengerClient plainRx = connect(server, "PlainRx");
+            plainRx.addHandler("Test:Pos", (type, reader) -> all.add(reader.readInt()));
+            sync(limitedRx);
+            sync(plainRx);
+            MessengerClient tx = connect(server, "Tx");
+
+            // About 200 Hz for half a second
+            int count = 100;
+            for (int i = 0; i < count; i++) {
+                tx.prepare("Test:Pos").addInt(i).send();
+                limitedRx.readMessages();
+                plainRx.readMessages();
+                Thread.sleep(5);
+            }
+            readUntil(plainRx, () -> all.size() == count);
+            readUntil(limitedRx, () -> limited.contains(count - 1));
+
+            // The server limited the rate, so the client never received the rest
+            long received = limitedRx.getStats().getTypes().get("Test:Pos").getReceivedCount();
+            assertTrue("Received " + received, received <= 10);
+            assertTrue("Handled " + limited.size(), limited.size() <= 10);
+            assertEquals(Integer.valueOf(0), limited.get(0));
+
+            tx.disconnect();
+            limitedRx.disconnect();
+            plainRx.disconnect();
+        }
+    }
+
+    @Test
+    public void test_waitForMessagesReturnsWhenMessageArrives() throws Exception {
+        try (MessengerServer server = startServer()) {
+            for (ReadMode mode : ReadMode.values()) {
+                List<Integer> received = new ArrayList<>();
+                MessengerClient rx = connect(server, "Rx");
+                rx.setReadMode(mode);
+                rx.addHandler("Test:Wake", (type, reader) -> received.add(reader.readInt()));
+                sync(rx);
+                MessengerClient tx = connect(server, "Tx");
+
+                Thread sender =
+                        new Thread(
+                                () -> {
+                                    try {
+                                        Thread.sleep(100);
+                                    } catch (InterruptedException e) {
+                                        return;
+                                    }
+                                    tx.prepare("Test:Wake").addInt(1).send();
+                                });
+                long start = System.nanoTime();
+                sender.start();
+
+                // Heartbeats can also end the wait, so keep waiting until handled
+                while (received.isEmpty()) {
+                    rx.waitForMessages(5, TimeUnit.SECONDS);
+                    rx.readMessages();
+                }
+                assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+                sender.join();
+
+                // Woken up before waiting, so it doesn't wait at all
+                rx.wakeup();
+                start = System.nanoTime();
+                assertTrue(!rx.waitForMessages(5, TimeUnit.SECONDS));
+                assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+
+                tx.disconnect();
+                rx.disconnect();
+            }
+        }
+    }
+
+    // Collects a stream's data into memory
+    private static class CollectingReceiver implements StreamReceiver {
+        final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        boolean completed = false;
+        boolean aborted = false;
+
+        @Override
+        public void receive(ByteBuffer chunk) {
+            byte[] bytes = new byte[chunk.remaining()];
+            chunk.get(bytes);
+            data.write(bytes, 0, bytes.length);
+        }
+
+        @Override
+        public void complete() {
+            completed = true;
+        }
+
+        @Override
+        public void abort() {
+            aborted = true;
+        }
+    }
+
+    private static void readUntil(
+            MessengerClient a, MessengerClient b, BooleanSupplier condition)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) throw new AssertionError("Timed out");
+            a.readMessages();
+            b.readMessages();
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    public void test_streamIsReceivedInOrder() throws Exception {
+        try (MessengerServer server = startServer()) {
+            List<String> headers = new ArrayList<>();
+            CollectingReceiver receiver = new CollectingReceiver();
+            MessengerClient rx = connect(server, "Rx");
+            rx.addStreamHandler(
+                    "Test:Stream",
+                    (type, header, size) -> {
+                        headers.add(header.readString() + size);
+                        return receiver;
+                    });
+            sync(rx);
+            MessengerClient tx = connect(server, "Tx");
+
+            byte[] data = new byte[1_000_000];
+            ThreadLocalRandom.current().nextBytes(data);
+            OutgoingStream stream = tx.prepare("Test:Stream").addString("file").sendStream(data);
+            readUntil(tx, rx, () -> stream.getFuture().isDone());
+
+            stream.getFuture().get();
+            assertEquals(List.of("file" + data.length), headers);
+            assertTrue(receiver.completed);
+            assertTrue(Arrays.equals(data, receiver.data.toByteArray()));
+
+            tx.disconnect();
+            rx.disconnect();
+        }
+    }
+
+    @Test
+    public void test_streamResendsDroppedChunks() throws Exception {
+        try (MessengerServer server = startServer()) {
+            CollectingReceiver receiver = new CollectingReceiver();
+            MessengerClient rx = connect(server, "Rx");
+            rx.addStreamHandler("Test:Stream", (type, header, size) -> receiver);
+            sync(rx);
+            MessengerClient tx = connect(server, "Tx");
+
+            // Only a few chunks fit in the queue, so most of each window is dropped
+            tx.setPriority("Test:Stream", MessagePriority.LOW);
+            tx.setQueuePolicy(MessagePriority.LOW, 4, DropPolicy.DROP_NEWEST);
+
+            byte[] data = new byte[2_000_000];
+            ThreadLocalRandom.current().nextBytes(data);
+            OutgoingStream stream = tx.prepare("Test:Stream").sendStream(data);
+            readUntil(tx, rx, () -> stream.getFuture().isDone());
+
+            stream.getFuture().get();
+            assertTrue(Arrays.equals(data, receiver.data.toByteArray()));
+
+            tx.disconnect();
+            rx.disconnect();
+        }
+    }
+
+    @Test
+    public void test_refusedStreamFails() throws Exception {
+        try (MessengerServer server = startServer()) {
+            MessengerClient rx = connect(server, "Rx");
+            rx.addStreamHandler("Test:Stream", (type, header, size) -> null);
+            sync(rx);
+            MessengerClient tx = connect(server, "Tx");
+
+            OutgoingStream stream = tx.prepare("Test:Stream").sendStream(new byte[100_000]);
+            readUntil(tx, rx, () -> stream.getFuture().isDone());
+
+            try {
+                stream.getFuture().get();
+                fail("Refused stream completed");
+            } catch (ExecutionException expected) {
+            }
+
+            tx.disconnect();
+            rx.disconnect();
+        }
+    }
+
+    // Client that speaks the protocol directly, to control exactly what is sent
+    private static final class RawClient implements AutoCloseable {
+        final Socket socket;
+        final DataInputStream in;
+        final DataOutputStream out;
+
+        RawClient(MessengerServer server, String name) throws IOException {
+            socket = new Socket("localhost", server.getPort());
+            socket.setSoTimeout(5000);
+            in = new DataInputStream(socket.getInputStream());
+            out = new DataOutputStream(socket.getOutputStream());
+            writeString(out, name);
+            out.flush();
+        }
+
+        static void writeString(DataOutputStream out, String str) throws IOException {
+            byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+            out.writeShort(bytes.length);
+            out.write(bytes);
+        }
+
+        void send(String type, byte[] data) throws IOException {
+            writeString(out, type);
+            out.writeInt(data.length);
+            out.write(data);
+            out.flush();
+        }
+
+        void sendAliased(int aliasId, byte[] data) throws IOException {
+            out.writeShort(0);
+            out.writeShort(aliasId);
+            out.writeInt(data.length);
+            out.write(data);
+            out.flush();
+        }
+
+        void sendString(String type, String str) throws IOException {
+            ByteArrayOutputStream data = new ByteArrayOutputStream();
+            writeString(new DataOutputStream(data), str);
+            send(type, data.toByteArray());
+        }
+
+        // Reads the next message, type is null if it was sent using an alias
+        RawFrame read() throws IOException {
+            RawFrame frame = new RawFrame();
+            int typeLen = in.readUnsignedShort();
+            if (typeLen == 0) {
+                frame.aliasId = in.readUnsignedShort();
+            } else {
+                byte[] type = new byte[typeLen];
+                in.readFully(type);
+                frame.type = new String(type, StandardCharsets.UTF_8);
+            }
+            frame.data = new byte[in.readInt()];
+            in.readFully(frame.data);
+            return frame;
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    private static final class RawFrame {
+        String type;
+        int aliasId;
+        byte[] data;
+    }
+
+    @Test
+    public void test_aliasesAreUsedInBothDirections() throws Exception {
+        try (MessengerServer server = startServer();
+                RawClient raw = new RawClient(server, "Raw")) {
+            ByteArrayOutputStream define = new ByteArrayOutputStream();
+            DataOutputStream defineOut = new DataOutputStream(define);
+            defineOut.writeByte(0); // Define
+            defineOut.writeShort(5);
+            RawClient.writeString(defineOut, "Test:Pos");
+            raw.send("_Alias", define.toByteArray());
+
+            // Acknowledged with the same data
+            RawFrame ack = raw.read();
+            assertEquals("_Alias", ack.type);
+            byte[] expectedAck = define.toByteArray();
+            expectedAck[0] = 1; // Acknowledge
+            assertTrue(Arrays.equals(expectedAck, ack.data));
+
+            // Receiving its own message back means the listens have been handled
+            raw.sendString("_Listen", "Test:Pos");
+            raw.sendString("_Listen", "Test:Sync");
+            raw.send("Test:Sync", new byte[0]);
+            assertEquals("Test:Sync", raw.read().type);
+
+            MessengerClient client = connect(server, "Client");
+            List<Integer> received = new ArrayList<>();
+            client.addHandler("Test:Pos", (type, reader) -> received.add(reader.readInt()));
+            sync(client);
+
+            // Forwarded to the raw client using its alias
+            client.prepare("Test:Pos").addInt(42).send();
+            RawFrame frame = raw.read();
+            assertNull(frame.type);
+            assertEquals(5, frame.aliasId);
+            assertEquals(42, ByteBuffer.wrap(frame.data).getInt());
+
+            // Forwarded from the raw client with the full type
+            raw.sendAliased(5, ByteBuffer.allocate(4).putInt(7).array());
+            readUntil(client, () -> received.contains(7));
+            assertEquals(List.of(42, 7), received);
+
+            client.disconnect();
+        }
+    }
+
+    @Test
+    public void test_unknownAliasDisconnectsClient() throws Exception {
+        try (MessengerServer server = startServer();
+                RawClient raw = new RawClient(server, "Raw")) {
+            raw.sendAliased(9, new byte[0]);
+
+            try {
+                while (true) raw.read();
+            } catch (EOFException expected) {
+                // Server closed the connection
+            }
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while (server.getClientCount() > 0) {
+                assertTrue("Client was not removed", System.currentTimeMillis() < deadline);
+                Thread.sleep(1);
+            }
+        }
+    }
+
+    // Must match StreamManager
+    private static final byte STREAM_OPEN = 0;
+    private static final byte STREAM_DATA = 1;
+    private static final byte STREAM_CANCEL = 2;
+    private static final byte STREAM_ACK = 0;
+    private static final byte STREAM_ABORT = 2;
+    private static final int STREAM_CHUNK_SIZE = 16 * 1024;
+    private static final int STREAM_WINDOW = 256 * 1024;
+
+    // Reads messages for a raw client in the background, so a test can keep
+    // another client reading while it waits for them
+    private static BlockingQueue<RawFrame> startReading(RawClient raw) {
+        BlockingQueue<RawFrame> frames = new LinkedBlockingQueue<>();
+        Thread thread =
+                new Thread(
+                        () -> {
+                            try {
+                                while (true) frames.add(raw.read());
+                            } catch (IOException e) {
+                                // Closed at the end of the test
+                            }
+                        });
+        thread.setDaemon(true);
+        thread.start();
+        return frames;
+    }
+
+    // Gets the next message that is not part of the protocol, or null if none
+    // arrives in time
+    private static RawFrame poll(BlockingQueue<RawFrame> frames, MessengerClient client, long ms)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + ms;
+        while (System.currentTimeMillis() < deadline) {
+            client.readMessages();
+            RawFrame frame = frames.poll(1, TimeUnit.MILLISECONDS);
+            if (frame != null && (frame.type == null || !frame.type.startsWith("_"))) return frame;
+        }
+        return null;
+    }
+
+    private static RawFrame next(BlockingQueue<RawFrame> frames, MessengerClient client)
+            throws InterruptedException {
+        RawFrame frame = poll(frames, client, 5000);
+        assertNotNull("Timed out", frame);
+        return frame;
+    }
+
+    // Checks the next message is a chunk of the stream, returns its offset
+    private static long expectData(
+            BlockingQueue<RawFrame> frames, MessengerClient client, long id, byte[] data)
+            throws InterruptedException {
+        RawFrame frame = next(frames, client);
+        assertEquals("Test:Stream", frame.type);
+        ByteBuffer buf = ByteBuffer.wrap(frame.data);
+        assertEquals(STREAM_DATA, buf.get());
+        assertEquals(id, buf.getLong());
+        int offset = (int) buf.getLong();
+        int length = buf.remaining();
+        assertEquals(Math.min(STREAM_CHUNK_SIZE, data.length - offset), length);
+        byte[] chunk = new byte[length];
+        buf.get(chunk);
+        assertTrue(Arrays.equals(Arrays.copyOfRange(data, offset, offset + length), chunk));
+        return offset;
+    }
+
+    // Expects the chunks from one offset to another, in order
+    private static void expectChunks(
+            BlockingQueue<RawFrame> frames,
+            MessengerClient client,
+            long id,
+            byte[] data,
+            long from,
+            long to)
+            throws InterruptedException {
+        for (long offset = from; offset < to; offset += STREAM_CHUNK_SIZE)
+            assertEquals(offset, expectData(frames, client, id, data));
+    }
+
+    private static void sendAck(RawClient raw, byte kind, long id, long offset)
+            throws IOException {
+        ByteBuffer ack = ByteBuffer.allocate(21);
+        ack.put(kind).putLong(id).putLong(offset).putInt(STREAM_WINDOW);
+        raw.send("Test:Stream:Ack", ack.array());
+    }
+
+    private static void listen(RawClient raw, String type) throws IOException {
+        raw.sendString("_Listen", type);
+        raw.sendString("_Listen", "Test:Sync");
+        raw.send("Test:Sync", new byte[0]);
+
+        // Receiving its own message back means the listens have been handled
+        while (!"Test:Sync".equals(raw.read().type)) {}
+    }
+
+    @Test
+    public void test_streamMessageSequence() throws Exception {
+        try (MessengerServer server = startServer();
+                RawClient raw = new RawClient(server, "Raw")) {
+            listen(raw, "Test:Stream");
+            BlockingQueue<RawFrame> frames = startReading(raw);
+            MessengerClient tx = connect(server, "Tx");
+
+            // More than two windows, and not a whole number of chunks
+            byte[] data = new byte[600_000];
+            ThreadLocalRandom.current().nextBytes(data);
+            OutgoingStream stream = tx.prepare("Test:Stream").addString("file").sendStream(data);
+            long id = stream.getId();
+
+            RawFrame open = next(frames, tx);
+            assertEquals("Test:Stream", open.type);
+            MessageReader reader = new MessageReader(open.data);
+            assertEquals(STREAM_OPEN, reader.readByte());
+            assertEquals(id, reader.readLong());
+            assertEquals(data.length, reader.readLong());
+            assertEquals("file", reader.readString());
+
+            // Only one window is sent until it is acknowledged
+            expectChunks(frames, tx, id, data, 0, STREAM_WINDOW);
+            assertNull(poll(frames, tx, 200));
+
+            sendAck(raw, STREAM_ACK, id, STREAM_WINDOW);
+            expectChunks(frames, tx, id, data, STREAM_WINDOW, 2 * STREAM_WINDOW);
+            assertEquals(STREAM_WINDOW, stream.getAcknowledgedSize());
+            assertNull(poll(frames, tx, 200));
+
+            sendAck(raw, STREAM_ACK, id, 2 * STREAM_WINDOW);
+            expectChunks(frames, tx, id, data, 2 * STREAM_WINDOW, data.length);
+            assertFalse(stream.getFuture().isDone());
+
+            sendAck(raw, STREAM_ACK, id, data.length);
+            readUntil(tx, () -> stream.getFuture().isDone());
+            stream.getFuture().get();
+            assertNull(poll(frames, tx, 200));
+
+            tx.disconnect();
+        }
+    }
+
+    @Test
+    public void test_cancelMidStream() throws Exception {
+        try (MessengerServer server = startServer();
+                RawClient raw = new RawClient(server, "Raw")) {
+            listen(raw, "Test:Stream");
+            BlockingQueue<RawFrame> frames = startReading(raw);
+            MessengerClient tx = connect(server, "Tx");
+
+            byte[] data = new byte[1_000_000];
+            OutgoingStream stream = tx.prepare("Test:Stream").sendStream(data);
+            long id = stream.getId();
+            assertEquals("Test:Stream", next(frames, tx).type);
+            expectChunks(frames, tx, id, data, 0, STREAM_WINDOW);
+
+            sendAck(raw, STREAM_ACK, id, STREAM_CHUNK_SIZE);
+            readUntil(tx, () -> stream.getAcknowledgedSize() == STREAM_CHUNK_SIZE);
+            stream.cancel();
+
+            // The chunk sent for the acknowledgement, then the cancel
+            assertEquals(STREAM_WINDOW, expectData(frames, tx, id, data));
+            RawFrame cancel = next(frames, tx);
+            ByteBuffer buf = ByteBuffer.wrap(cancel.data);
+            assertEquals(STREAM_CANCEL, buf.get());
+            assertEquals(id, buf.getLong());
+            assertTrue(stream.getFuture().isCancelled());
+
+            // Nothing more is sent, even if the receiver asks for it
+            sendAck(raw, STREAM_ACK, id, 2 * STREAM_CHUNK_SIZE);
+            assertNull(poll(frames, tx, 200));
+
+            tx.disconnect();
+        }
+    }
+
+    @Test
+    public void test_cancelledStreamIsAborted() throws Exception {
+        try (MessengerServer server = startServer()) {
+            CollectingReceiver receiver = new CollectingReceiver();
+            MessengerClient rx = connect(server, "Rx");
+            rx.addStreamHandler("Test:Stream", (type, header, size) -> receiver);
+            sync(rx);
+            MessengerClient tx = connect(server, "Tx");
+
+            // The first window is sent right away, followed by the cancel
+            byte[] data = new byte[1_000_000];
+            ThreadLocalRandom.current().nextBytes(data);
+            OutgoingStream stream = tx.prepare("Test:Stream").sendStream(data);
+            stream.cancel();
+            readUntil(tx, rx, () -> receiver.aborted);
+
+            assertFalse(receiver.completed);
+            byte[] received = receiver.data.toByteArray();
+            assertEquals(STREAM_WINDOW, received.length);
+            assertTrue(Arrays.equals(Arrays.copyOf(data, received.length), received));
+            assertTrue(stream.getFuture().isCancelled());
+
+            tx.disconnect();
+            rx.disconnect();
+        }
+    }
+
+    @Test
+    public void test_receiverAbortsMidStream() throws Exception {
+        try (MessengerServer server = startServer();
+                RawClient raw = new RawClient(server, "Raw")) {
+            listen(raw, "Test:Stream");
+            BlockingQueue<RawFrame> frames = startReading(raw);
+            MessengerClient tx = connect(server, "Tx");
+
+            byte[] data = new byte[1_000_000];
+            OutgoingStream stream = tx.prepare("Test:Stream").sendStream(data);
+            long id = stream.getId();
+            assertEquals("Test:Stream", next(frames, tx).type);
+            expectChunks(frames, tx, id, data, 0, STREAM_WINDOW);
+
+            ByteBuffer abort = ByteBuffer.allocate(9).put(STREAM_ABORT).putLong(id);
+            raw.send("Test:Stream:Ack", abort.array());
+            readUntil(tx, () -> stream.getFuture().isDone());
+            try {
+                stream.getFuture().get();
+                fail("Aborted stream completed");
+            } catch (ExecutionException expected) {
+                assertTrue(expected.getCause() instanceof IOException);
+            }
+
+            // Aborted streams are not cancelled, the receiver already dropped it
+            sendAck(raw, STREAM_ACK, id, STREAM_WINDOW);
+            assertNull(poll(frames, tx, 200));
+
+            tx.disconnect();
+        }
+    }
+
+    @Test
+    public void test_failingReceiverAbortsStream() throws Exception {
+        try (MessengerServer server = startServer()) {
+            CollectingReceiver receiver =
+                    new CollectingReceiver() {
+                        @Override
+                        public void receive(ByteBuffer chunk) {
+                            if (data.size() >= 4 * STREAM_CHUNK_SIZE)
+                                throw new IllegalStateException("Disk full");
+                            super.receive(chunk);
+                        }
+                    };
+            MessengerClient rx = connect(server, "Rx");
+            rx.addStreamHandler("Test:Stream", (type, header, size) -> receiver);
+            sync(rx);
+            MessengerClient tx = connect(server, "Tx");
+
+            OutgoingStream stream = tx.prepare("Test:Stream").sendStream(new byte[1_000_000]);
+            readUntil(tx, rx, () -> stream.getFuture().isDone());
+
+            assertTrue(stream.getFuture().isCompletedExceptionally());
+            assertTrue(receiver.aborted);
+            assertFalse(receiver.completed);
+            assertEquals(4 * STREAM_CHUNK_SIZE, receiver.data.size());
+
+            tx.disconnect();
+            rx.disconnect();
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.swrobotics.messenger.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+public final class SubscriptionIndexTest {
+    private static List<SubscriptionIndex.Subscriber> collect(
+            SubscriptionIndex index, String type) {
+        List<SubscriptionIndex.Subscriber> out = new ArrayList<>();
+        index.collect(type, out);
+        return out;
+    }
+
+    @Test
+    public void test_exactAndWildcardPatterns() {
+        SubscriptionIndex index = new SubscriptionIndex();
+        SubscriptionIndex.Subscriber exact = new SubscriptionIndex.Subscriber();
+        SubscriptionIndex.Subscriber wildcard = new SubscriptionIndex.Subscriber();
+        SubscriptionIndex.Subscriber all = new SubscriptionIndex.Subscriber();
+        index.add("Foo:Bar", exact);
+        index.add("Foo:*", wildcard);
+        index.add("*", all);
+
+        assertEquals(Set.of(exact, wildcard, all), Set.copyOf(collect(index, "Foo:Bar")));
+        assertEquals(Set.of(wildcard, all), Set.copyOf(collect(index, "Foo:Baz")));
+        assertEquals(Set.of(wildcard, all), Set.copyOf(collect(index, "Foo:Bar2")));
+        assertEquals(List.of(all), collect(index, "Foo"));
+    }
+
+    @Test
+    public void test_subscriberIsOnlyCollectedOnce() {
+        SubscriptionIndex index = new SubscriptionIndex();
+        SubscriptionIndex.Subscriber subscriber = new SubscriptionIndex.Subscriber();
+        index.add("Foo:Bar", subscriber);
+        index.add("Foo:*", subscriber);
+        index.add("F*", subscriber);
+
+        assertEquals(List.of(subscriber), collect(index, "Foo:Bar"));
+        assertEquals(List.of(subscriber), collect(index, "Foo:Bar"));
+    }
+
+    @Test
+    public void test_remove() {
+        SubscriptionIndex index = new SubscriptionIndex();
+        SubscriptionIndex.Subscriber subscriber = new SubscriptionIndex.Subscriber();
+        index.add("Foo:Bar", subscriber);
+        index.add("Foo:*", subscriber);
+
+        assertTrue(index.remove("Foo:Bar", subscriber));
+        assertFalse(index.remove("Foo:Bar", subscriber));
+        assertEquals(List.of(subscriber), collect(index, "Foo:Bar"));
+
+        assertTrue(index.remove("Foo:*", subscriber));
+        assertFalse(index.remove("Bar:*", subscriber));
+        assertTrue(collect(index, "Foo:Bar").isEmpty());
+    }
+}
@@ -1,14 +1,23 @@
-// TODO: Event logging (to messages and file)
+// TODO: Event logging to file
 // TODO: Clean up
 
-use std::{collections::HashSet, error::Error, io::ErrorKind, time::Duration};
+use std::{
+    collections::{HashMap, HashSet},
+    error::Error,
+    io::ErrorKind,
+    sync::{Arc, Mutex},
+    time::{Duration, SystemTime, UNIX_EPOCH},
+};
 
-use bytes::Bytes;
+use bytes::{BufMut, Bytes, BytesMut};
 use futures_util::StreamExt;
 use protocol::Message;
 use tokio::{
     io::{AsyncReadExt, AsyncWriteExt},
-    net::{tcp::OwnedReadHalf, TcpListener, TcpStream},
+    net::{
+        tcp::{OwnedReadHalf, OwnedWriteHalf},
+        TcpListener, TcpStream,
+    },
     sync::broadcast,
 };
 use tokio_util::codec;
@@ -116,6 +125,17 @@ mod protocol {
 
 const MAX_QUEUED_MESSAGES: usize = 256;
 
+const EVENT: &str = "Messenger:Event";
+const GET_CLIENTS: &str = "Messenger:GetClients";
+const CLIENTS: &str = "Messenger:Clients";
+
+fn unix_time_nanos() -> i64 {
+    SystemTime::now()
+        .duration_since(UNIX_EPOCH)
+        .map(|d| d.as_nanos() as i64)
+        .unwrap_or(0)
+}
+
 struct HandlerSet {
     exact_names: HashSet<String>,
     prefix: HashSet<String>,
@@ -129,19 +149,21 @@ impl HandlerSet {
         }
     }
 
-    fn listen(&mut self, name: String) {
+    // Returns whether the client was not already listening
+    fn listen(&mut self, name: String) -> bool {
         if name.starts_with("*") {
-            self.prefix.insert(name[1..].to_string());
+            self.prefix.insert(name[1..].to_string())
         } else {
-            self.exact_names.insert(name);
+            self.exact_names.insert(name)
         }
     }
 
-    fn unlisten(&mut self, name: String) {
+    // Returns whether the client was listening
+    fn unlisten(&mut self, name: &str) -> bool {
         if name.starts_with("*") {
-            self.prefix.remove(&name[1..]);
+            self.prefix.remove(&name[1..])
         } else {
-            self.exact_names.remove(&name);
+            self.exact_names.remove(name)
         }
     }
 
@@ -160,6 +182,70 @@ impl HandlerSet {
     }
 }
 
+// Names of the connected clients, shared by all client tasks
+struct ClientList {
+    next_id: u64,
+    names: HashMap<u64, String>,
+}
+
+type SharedClientList = Arc<Mutex<ClientList>>;
+
+impl ClientList {
+    fn new() -> Self {
+        Self {
+            next_id: 0,
+            names: HashMap::new(),
+        }
+    }
+
+    fn add(&mut self, name: String) -> u64 {
+        let id = self.next_id;
+        self.next_id += 1;
+        self.names.insert(id, name);
+        id
+    }
+
+    fn remove(&mut self, id: u64) {
+        self.names.remove(&id);
+    }
+
+    // Response to Messenger:GetClients, containing the number of clients then
+    // each of their names
+    fn to_message(&self) -> Message {
+        let size = 4 + self.names.values().map(|name| 2 + name.len()).sum::<usize>();
+        let mut data = BytesMut::with_capacity(size);
+        data.put_i32(self.names.len() as i32);
+        for name in self.names.values() {
+            protocol::pack_str(name, &mut data);
+        }
+
+        Message {
+            name: CLIENTS.to_string(),
+            data: data.freeze(),
+        }
+    }
+}
+
+// Tells clients listening to Messenger:Event that something happened
+fn send_event(broadcast_tx: &broadcast::Sender<Message>, kind: &str, name: &str, descriptor: &str) {
+    if descriptor.is_empty() {
+        println!("Messenger: {} from {}", kind, name);
+    } else {
+        println!("Messenger: {} from {}: {}", kind, name, descriptor);
+    }
+
+    let mut data = BytesMut::with_capacity(6 + kind.len() + name.len() + descriptor.len());
+    protocol::pack_str(kind, &mut data);
+    protocol::pack_str(name, &mut data);
+    protocol::pack_str(descriptor, &mut data);
+
+    // Only fails if there are no clients to receive it
+    let _ = broadcast_tx.send(Message {
+        name: EVENT.to_string(),
+        data: data.freeze(),
+    });
+}
+
 async fn read_name(read_half: &mut OwnedReadHalf) -> Result<String, Box<dyn Error>> {
     let mut name_len_buf = [0u8; 2];
     read_half.read_exact(&mut name_len_buf).await?;
@@ -174,19 +260,54 @@ async fn read_name(read_half: &mut OwnedReadHalf) -> Result<String, Box<dyn Erro
 async fn handle_client(
     stream: TcpStream,
     broadcast_tx: broadcast::Sender<Message>,
-    mut broadcast_rx: broadcast::Receiver<Message>,
+    broadcast_rx: broadcast::Receiver<Message>,
+    clients: SharedClientList,
 ) -> Result<(), Box<dyn Error>> {
-    let (mut read_half, mut write_half) = stream.into_split();
+    let (mut read_half, write_half) = stream.into_split();
 
+    let client_name = read_name(&mut read_half).await?;
+    println!("Got name: {}", client_name);
+
+    let id = clients.lock().unwrap().add(client_name.clone());
+    send_event(&broadcast_tx, "Connect", &client_name, "");
+
+    let result = run_client(
+        read_half,
+        write_half,
+        &client_name,
+        &broadcast_tx,
+        broadcast_rx,
+        &clients,
+    )
+    .await;
+
+    clients.lock().unwrap().remove(id);
+    let kind = match &result {
+        Ok(()) => "Disconnect",
+        Err(e) => match e.downcast_ref::<std::io::Error>() {
+            Some(io_err) if io_err.kind() == ErrorKind::TimedOut => "Timeout",
+            _ => "Error",
+        },
+    };
+    send_event(&broadcast_tx, kind, &client_name, "");
+
+    result
+}
+
+async fn run_client(
+    read_half: OwnedReadHalf,
+    mut write_half: OwnedWriteHalf,
+    client_name: &str,
+    broadcast_tx: &broadcast::Sender<Message>,
+    mut broadcast_rx: broadcast::Receiver<Message>,
+    clients: &SharedClientList,
+) -> Result<(), Box<dyn Error>> {
     let packed_heartbeat = Message {
         name: "_Heartbeat".to_string(),
         data: Bytes::new(),
     }
     .pack();
 
-    let client_name = read_name(&mut read_half).await?;
-    println!("Got name: {}", client_name);
-
     let mut message_read = codec::FramedRead::new(read_half, protocol::MessageDecoder);
     let mut handlers = HandlerSet::new();
 
@@ -212,20 +333,37 @@ async fn handle_client(
                     let msg = res?;
                     match msg.name.as_str() {
                         "_Heartbeat" => {
-                            // Respond with matching heartbeat
-                            write_half.write_all(&packed_heartbeat).await?;
+                            // Respond with matching heartbeat. If the client sent a timestamp,
+                            // echo it back with the server's time so it can measure latency
+                            if msg.data.len() >= 8 {
+                                let mut data = BytesMut::with_capacity(16);
+                                data.put_slice(&msg.data[..8]);
+                                data.put_i64(unix_time_nanos());
+
+                                let response = Message {
+                                    name: "_Heartbeat".to_string(),
+                                    data: data.freeze(),
+                                };
+                                write_half.write_all(&response.pack()).await?;
+                            } else {
+                                write_half.write_all(&packed_heartbeat).await?;
+                            }
                         }
                         "_Listen" => if let Some(name) = protocol::unpack_string(&msg.data) {
-                            println!("Client {} listening to {}", client_name, name);
-                            handlers.listen(name);
+                            if handlers.listen(name.clone()) {
+                                send_event(broadcast_tx, "Listen", client_name, &name);
+                            }
                         }
                         "_Unlisten" => if let Some(name) = protocol::unpack_string(&msg.data) {
-                            println!("Client {} no longer listening to {}", client_name, name);
-                            handlers.unlisten(name);
+                            if handlers.unlisten(&name) {
+                                send_event(broadcast_tx, "Unlisten", client_name, &name);
+                            }
                         }
-                        "_Disconnect" => {
-                            println!("Client {} disconnected", client_name);
-                            return Ok(());
+                        "_Disconnect" => return Ok(()),
+                        GET_CLIENTS => if handlers.is_listening(&CLIENTS.to_string()) {
+                            // Only sent to the client that asked
+                            let response = clients.lock().unwrap().to_message();
+                            write_half.write_all(&response.pack()).await?;
                         }
                         _ => {broadcast_tx.send(msg)?;}
                     }
@@ -245,6 +383,7 @@ async fn main() -> Result<(), Box<dyn Error>> {
     let listener = TcpListener::bind(("0.0.0.0", 5805)).await?;
 
     let (broadcast_tx, mut _broadcast_rx) = broadcast::channel(MAX_QUEUED_MESSAGES);
+    let clients: SharedClientList = Arc::new(Mutex::new(ClientList::new()));
 
     // tokio::spawn(async move {
     //     loop {
@@ -252,8 +391,6 @@ async fn main() -> Result<(), Box<dyn Error>> {
     //     }
     // });
 
-    // TODO: Respond to Messenger:GetClients
-
     println!("Listening for incoming connections");
 
     loop {
@@ -262,8 +399,11 @@ async fn main() -> Result<(), Box<dyn Error>> {
                 println!("Client has connected");
                 let client_tx = broadcast_tx.clone();
                 let client_rx = client_tx.subscribe();
+                let client_list = clients.clone();
                 tokio::spawn(async move {
-                    if let Err(e) = handle_client(client_stream, client_tx, client_rx).await {
+                    if let Err(e) =
+                        handle_client(client_stream, client_tx, client_rx, client_list).await
+                    {
                         eprintln!("Client failed with error: {}", e);
                     }
                 });
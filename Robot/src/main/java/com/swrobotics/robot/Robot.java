@@ -1,6 +1,7 @@
 package com.swrobotics.robot;
 
 import com.swrobotics.lib.ThreadUtils;
+import com.swrobotics.messenger.client.MessengerClient;
 import com.swrobotics.robot.config.Settings;
 import com.swrobotics.robot.config.Settings.Mode;
 import com.swrobotics.robot.config.Settings.RobotType;
@@ -131,9 +132,29 @@ public class Robot extends LoggedRobot {
     public void robotPeriodic() {
         Threads.setCurrentThreadPriority(true, 99);
 
-        robotContainer.messenger.readMessages();
+        // Record how many messages built up since the last periodic
+        MessengerClient messenger = robotContainer.messenger;
+        Logger.getInstance()
+                .recordOutput("Messenger/InboundQueueDepth", messenger.getInboundQueueDepth());
+        messenger.readMessages();
+        Logger.getInstance()
+                .recordOutput("Messenger/DroppedMessages", messenger.getDroppedMessageCount());
+
         ThreadUtils.runMainThreadOperations();
         CommandScheduler.getInstance().run(); // Leave this alone
+
+        // Send everything from this periodic at once
+        messenger.flush();
+    }
+
+    @Override
+    public void disabledInit() {
+        robotContainer.stopMessengerRecording();
+    }
+
+    @Override
+    public void disabledExit() {
+        robotContainer.startMessengerRecording();
     }
 
     @Override
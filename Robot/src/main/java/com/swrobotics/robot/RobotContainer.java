@@ -4,11 +4,17 @@ import com.pathplanner.lib.PathConstraints;
 import com.swrobotics.lib.drive.swerve.commands.DriveBlindCommand;
 import com.swrobotics.lib.gyro.PigeonGyroscope;
 import com.swrobotics.mathlib.CCWAngle;
+import com.swrobotics.messenger.client.DropPolicy;
+import com.swrobotics.messenger.client.FlushPolicy;
+import com.swrobotics.messenger.client.MessagePriority;
+import com.swrobotics.messenger.client.MessageRecorder;
 import com.swrobotics.messenger.client.MessengerClient;
+import com.swrobotics.messenger.client.ReadMode;
 import com.swrobotics.robot.commands.BalanceSequenceCommand;
 import com.swrobotics.robot.commands.DefaultDriveCommand;
 import com.swrobotics.robot.commands.ScoreSequenceCommand;
 import com.swrobotics.robot.commands.arm.MoveArmToPositionCommand;
+import com.swrobotics.robot.config.NTData;
 import com.swrobotics.robot.config.Settings;
 import com.swrobotics.robot.input.Input;
 import com.swrobotics.robot.subsystems.arm.ArmPosition;
@@ -25,7 +31,11 @@ import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
 import edu.wpi.first.wpilibj2.command.Command;
 import edu.wpi.first.wpilibj2.command.InstantCommand;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -46,6 +56,13 @@ public class RobotContainer {
     private static final int MESSENGER_PORT = 5805;
     private static final String MESSENGER_NAME = "Robot";
 
+    // Messenger traffic can be recorded on the robot so matches can be replayed.
+    // Recording copies every message on the main loop, so it is only done while
+    // enabled, and only if turned on with NTData.MESSENGER_RECORD
+    private static final String MESSENGER_RECORDING_DIR = "messenger-recordings";
+    private static final long MAX_MESSENGER_RECORDING_SIZE = 64L * 1024 * 1024;
+    private static final long MAX_MESSENGER_RECORDINGS_SIZE = 256L * 1024 * 1024;
+
     private static final int PIGEON_CAN_ID = 20;
 
     // Create a way to choose between autonomous sequences
@@ -70,6 +87,14 @@ public class RobotContainer {
         String host = RobotBase.isSimulation() ? MESSENGER_HOST_SIM : MESSENGER_HOST_ROBOT;
         //        String host = MESSENGER_HOST_ROBOT;
         messenger = new MessengerClient(host, MESSENGER_PORT, MESSENGER_NAME);
+        messenger.setFlushPolicy(FlushPolicy.BUFFERED); // Flushed at the end of robotPeriodic()
+        messenger.setReadMode(ReadMode.BACKGROUND_THREAD); // Keep socket reads off the main loop
+
+        // High priority messages are setpoints, so old ones aren't worth waiting for
+        messenger.setQueuePolicy(MessagePriority.HIGH, 64, DropPolicy.DROP_OLDEST);
+        Runtime.getRuntime()
+                .addShutdownHook(
+                        new Thread(this::stopMessengerRecording, "Messenger Recording Shutdown"));
 
         new FileSystemAPI(messenger, "RoboRIO", Filesystem.getOperatingDirectory());
 
@@ -203,6 +228,56 @@ public class RobotContainer {
         SmartDashboard.putData("Auto", autoSelector);
     }
 
+    /**
+     * Starts recording Messenger traffic if recording is turned on. Old recordings are deleted to
+     * keep the total size of the recordings within the limit.
+     */
+    public void startMessengerRecording() {
+        if (!RobotBase.isReal() || !NTData.MESSENGER_RECORD.get()) return;
+        if (messenger.getRecorder() != null) return;
+
+        File dir = new File(Filesystem.getOperatingDirectory(), MESSENGER_RECORDING_DIR);
+        dir.mkdirs();
+
+        // Delete the oldest recordings to make room for this one
+        File[] recordings = dir.listFiles((d, name) -> name.endsWith(".rec"));
+        if (recordings != null) {
+            Arrays.sort(recordings, Comparator.comparingLong(File::lastModified));
+            long totalSize = 0;
+            for (File recording : recordings) totalSize += getRecordingSize(recording);
+
+            long budget = MAX_MESSENGER_RECORDINGS_SIZE - MAX_MESSENGER_RECORDING_SIZE;
+            for (int i = 0; i < recordings.length && totalSize > budget; i++) {
+                totalSize -= getRecordingSize(recordings[i]);
+                recordings[i].delete();
+                MessageRecorder.getIndexPath(recordings[i].toPath()).toFile().delete();
+            }
+        }
+
+        File file = new File(dir, "robot-" + System.currentTimeMillis() + ".rec");
+        try {
+            messenger.setRecorder(
+                    new MessageRecorder(file.toPath(), MAX_MESSENGER_RECORDING_SIZE));
+        } catch (IOException e) {
+            System.err.println("Failed to start Messenger recording:");
+            e.printStackTrace();
+        }
+    }
+
+    private static long getRecordingSize(File recording) {
+        return recording.length()
+                + MessageRecorder.getIndexPath(recording.toPath()).toFile().length();
+    }
+
+    /** Stops recording Messenger traffic and closes the recording, if one is in progress. */
+    public void stopMessengerRecording() {
+        MessageRecorder recorder = messenger.getRecorder();
+        if (recorder == null) return;
+
+        messenger.setRecorder(null);
+        recorder.close();
+    }
+
     private void putArmEvent(Map<String, Command> eventMap, String name, ArmPosition.NT pos) {
         eventMap.put(name, new MoveArmToPositionCommand(this, pos));
     }
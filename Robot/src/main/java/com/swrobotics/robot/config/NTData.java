@@ -120,4 +120,7 @@ public final class NTData {
             new NTDouble("Balance/Start End Tolerance", 0).setPersistent(); // FIXME: Tune
     public static final NTEntry<Double> BALANCE_BLIND_SPEED =
             new NTDouble("Balance/Blind Speed", -1.5).setPersistent();
+
+    public static final NTEntry<Boolean> MESSENGER_RECORD =
+            new NTBoolean("Messenger/Record Traffic", false).setPersistent();
 }
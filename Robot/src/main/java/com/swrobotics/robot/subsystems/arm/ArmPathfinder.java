@@ -2,6 +2,7 @@ package com.swrobotics.robot.subsystems.arm;
 
 import com.swrobotics.mathlib.Angle;
 import com.swrobotics.mathlib.CCWAngle;
+import com.swrobotics.messenger.client.MessagePriority;
 import com.swrobotics.messenger.client.MessageReader;
 import com.swrobotics.messenger.client.MessengerClient;
 
@@ -46,7 +47,10 @@ public final class ArmPathfinder {
         // Something non-null it'll never be set to
         target = new PathPoint(Angle.ZERO, Angle.ZERO);
 
-        msg.addHandler(MSG_PATH, this::onPath);
+        // Only the newest path and endpoints are relevant
+        msg.addLatestHandler(MSG_PATH, this::onPath);
+        msg.setSendLatestOnly(MSG_CALC, true);
+        msg.setPriority(MSG_CALC, MessagePriority.HIGH);
     }
 
     public void setEndpoints(PathPoint start, PathPoint goal) {
@@ -83,11 +87,12 @@ public final class ArmPathfinder {
             return;
         }
 
-        path = new ArrayList<>();
         int length = reader.readInt();
+        double[] points = reader.readDoubleArray(length * 2);
+        path = new ArrayList<>(length);
         for (int i = 0; i < length; i++) {
-            double bot = reader.readDouble();
-            double top = reader.readDouble();
+            double bot = points[i * 2];
+            double top = points[i * 2 + 1];
             path.add(new PathPoint(CCWAngle.rad(bot), CCWAngle.rad(top)));
         }
     }
@@ -1,6 +1,8 @@
 package com.swrobotics.lib.drive.swerve;
 
 import com.swrobotics.mathlib.Vec2d;
+import com.swrobotics.messenger.client.MessageBuilder;
+import com.swrobotics.messenger.client.MessagePriority;
 import com.swrobotics.messenger.client.MessageReader;
 import com.swrobotics.messenger.client.MessengerClient;
 
@@ -10,7 +12,15 @@ import edu.wpi.first.wpilibj2.command.SubsystemBase;
 import java.util.ArrayList;
 import java.util.List;
 
-/** Subsystem to request paths from the Pathfinder module. */
+/**
+ * Subsystem to request paths from the Pathfinder module.
+ *
+ * <p>Once the Messenger clock is synchronized, each position sent to the pathfinder ends with a
+ * timestamp from {@link com.swrobotics.messenger.client.MessageBuilder#addTimestamp()}. A
+ * pathfinder that supports this adds the timestamp of the position a path starts from to the end
+ * of the path message. Older pathfinders ignore it and leave it out, which is handled as an
+ * unknown path age.
+ */
 // TODO: Remove
 public final class Pathfinder extends SubsystemBase {
     private static final String MSG_SET_POS = "Pathfinder:SetPos";
@@ -23,6 +33,8 @@ public final class Pathfinder extends SubsystemBase {
     private final SwerveDrive drive;
 
     private final List<Vec2d> path;
+    private boolean hasPathTimestamp;
+    private long pathTimestamp;
 
     private double goalX, goalY;
 
@@ -36,8 +48,12 @@ public final class Pathfinder extends SubsystemBase {
         this.msg = msg;
         this.drive = drive;
         path = new ArrayList<>();
+        hasPathTimestamp = false;
 
-        msg.addHandler(MSG_PATH, this::onPath);
+        // Only the newest path and position are relevant
+        msg.addLatestHandler(MSG_PATH, this::onPath);
+        msg.setSendLatestOnly(MSG_SET_POS, true);
+        msg.setPriority(MSG_SET_POS, MessagePriority.HIGH);
     }
 
     /**
@@ -90,9 +106,31 @@ public final class Pathfinder extends SubsystemBase {
         return pathCopy;
     }
 
+    /**
+     * Gets the time since the robot was at the position the latest path starts from. This is
+     * measured from the timestamp the pathfinder sends back with the path, using the Messenger
+     * clock offset.
+     *
+     * @return path age in seconds, or infinity if no path has been received or its age is unknown
+     *     because the pathfinder did not send the timestamp or the clock is not synchronized
+     */
+    public double getPathAge() {
+        if (path.isEmpty() || !hasPathTimestamp || !msg.isClockSynchronized())
+            return Double.POSITIVE_INFINITY;
+
+        // Changes to the clock offset estimate can make very recent paths
+        // appear to be slightly from the future
+        return Math.max(0, msg.getTimestampAge(pathTimestamp)) / 1e9;
+    }
+
     // Sends set position message
     private void setPosition(double x, double y) {
-        msg.prepare(MSG_SET_POS).addDouble(x).addDouble(y).send();
+        MessageBuilder builder = msg.prepare(MSG_SET_POS).addDouble(x).addDouble(y);
+
+        // Timestamps taken before synchronizing are in a different time base
+        if (msg.isClockSynchronized()) builder.addTimestamp();
+
+        builder.send();
     }
 
     // Handler for received path
@@ -103,13 +141,17 @@ public final class Pathfinder extends SubsystemBase {
         }
 
         int count = reader.readInt();
+        double[] points = reader.readDoubleArray(count * 2);
         path.clear();
         for (int i = 0; i < count; i++) {
-            double x = reader.readDouble();
-            double y = reader.readDouble();
+            double x = points[i * 2];
+            double y = points[i * 2 + 1];
 
             path.add(new Vec2d(x, y));
         }
+
+        hasPathTimestamp = reader.hasRemaining();
+        if (hasPathTimestamp) pathTimestamp = reader.readLong();
     }
 
     @Override
@@ -19,6 +19,19 @@ public final class PathfindToPointCommand extends CommandBase {
     // Position tolerance in meters
     private static final double TOLERANCE = 0.06;
 
+    // Size of the pathfinder's grid cells in meters. The path starts at the center of the cell the
+    // robot was in, so the start can be up to half of a cell diagonal away from the robot
+    private static final double PATH_CELL_SIZE = 0.1524;
+
+    // Positions are sent once per robot loop, so the pose the robot drove from may be up to one
+    // loop period older than its timestamp. Errors in the clock offset are much smaller, since
+    // they are limited to half the round trip time on the local network. In seconds
+    private static final double MAX_AGE_ERROR = 0.02;
+
+    // Extra distance along the path the robot may appear to have moved beyond what its speed
+    // allows since the path age, in meters
+    static final double REACH_MARGIN = PATH_CELL_SIZE * Math.sqrt(2) / 2 + VELOCITY * MAX_AGE_ERROR;
+
     private final SwerveDrive drive;
     private final Pathfinder finder;
     private final PIDController pid;
@@ -57,24 +70,8 @@ public final class PathfindToPointCommand extends CommandBase {
             target = goal;
         } else {
             List<Vec2d> currentPath = finder.getPath(); // Update path with the new, valid path
-
-            // Because of latency, the starting point of the path can be significantly
-            // behind the actual location
-            // With the predefined path there is effectively infinite latency so this is very
-            // important
-            double minDist = Double.POSITIVE_INFINITY;
-            for (int i = currentPath.size() - 1; i > 0; i--) {
-                Vec2d point = currentPath.get(i);
-                Vec2d prev = currentPath.get(i - 1);
-
-                double dist = currentPosition.distanceToLineSegmentSq(point, prev);
-
-                // If the robot is closest to this line, use its endpoint as the target
-                if (dist < minDist) {
-                    minDist = dist;
-                    target = point;
-                }
-            }
+            double reachDistance = getReachDistance(finder.getPathAge());
+            target = findTarget(currentPath, currentPosition, reachDistance);
 
             // If we aren't near the path at all, we need to wait for the pathfinder to make a valid
             // path
@@ -107,6 +104,57 @@ public final class PathfindToPointCommand extends CommandBase {
         drive.addTranslation(new Translation2d(deltaX, deltaY), true);
     }
 
+    /**
+     * Gets how far along a path the robot could have moved since the path was started.
+     *
+     * @param pathAge age of the path in seconds, may be infinite if unknown
+     * @return distance in meters
+     */
+    static double getReachDistance(double pathAge) {
+        return VELOCITY * pathAge + REACH_MARGIN;
+    }
+
+    /**
+     * Finds the point on a path to drive towards. This is the end of the segment closest to the
+     * robot, out of the segments that start within the reach distance along the path.
+     *
+     * @param path path to follow, starting from where the robot was when it was calculated
+     * @param position current position of the robot
+     * @param reachDistance how far along the path the robot could have moved
+     * @return target point, or null if the path has no segments
+     */
+    static Vec2d findTarget(List<Vec2d> path, Vec2d position, double reachDistance) {
+        // Because of latency, the starting point of the path can be significantly
+        // behind the actual location
+        // With the predefined path there is effectively infinite latency so this is very
+        // important
+        // The robot can't have moved further along the path than its speed allows since
+        // the path was started, so only search that part. This keeps the target from
+        // skipping ahead when the path passes close to itself
+        Vec2d target = null;
+        double distAlong = 0;
+        double minDist = Double.POSITIVE_INFINITY;
+
+        // Checks the distance to the start of each segment, since the robot
+        // can be anywhere along the segment the reach distance ends in
+        for (int i = 1; i < path.size() && distAlong <= reachDistance; i++) {
+            Vec2d point = path.get(i);
+            Vec2d prev = path.get(i - 1);
+
+            double dist = position.distanceToLineSegmentSq(point, prev);
+
+            // If the robot is closest to this line, use its endpoint as the target
+            if (dist <= minDist) {
+                minDist = dist;
+                target = point;
+            }
+
+            distAlong += prev.distanceTo(point);
+        }
+
+        return target;
+    }
+
     @Override
     public boolean isFinished() {
         return finished;
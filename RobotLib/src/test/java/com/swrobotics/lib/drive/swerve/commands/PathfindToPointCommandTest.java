@@ -0,0 +1,64 @@
+package com.swrobotics.lib.drive.swerve.commands;
+
+import static org.junit.Assert.*;
+
+import com.swrobotics.mathlib.Vec2d;
+
+import org.junit.Test;
+
+import java.util.List;
+
+public final class PathfindToPointCommandTest {
+    // Goes out along the x axis, then comes back close to where it started
+    private static final List<Vec2d> U_TURN =
+            List.of(new Vec2d(0, 0), new Vec2d(2, 0), new Vec2d(2, 0.4), new Vec2d(0, 0.4));
+
+    // Closer to the end of the path than to its start
+    private static final Vec2d NEAR_END = new Vec2d(0.1, 0.25);
+
+    private static void assertVecEquals(Vec2d expected, Vec2d actual) {
+        assertNotNull(actual);
+        assertEquals(expected.x, actual.x, 0.0001);
+        assertEquals(expected.y, actual.y, 0.0001);
+    }
+
+    @Test
+    public void test_zeroAgeOnlySearchesStart() {
+        double reach = PathfindToPointCommand.getReachDistance(0);
+        assertEquals(PathfindToPointCommand.REACH_MARGIN, reach, 0.0001);
+
+        // The robot can't have reached the end yet, so it follows the start
+        assertVecEquals(
+                new Vec2d(2, 0), PathfindToPointCommand.findTarget(U_TURN, NEAR_END, reach));
+
+        // Segment the reach distance ends in is still searched
+        List<Vec2d> path =
+                List.of(new Vec2d(0, 0), new Vec2d(0.1, 0), new Vec2d(1, 0), new Vec2d(1, 1));
+        assertVecEquals(
+                new Vec2d(1, 0),
+                PathfindToPointCommand.findTarget(path, new Vec2d(0.9, 0.5), reach));
+    }
+
+    @Test
+    public void test_largeAgeSearchesWholePath() {
+        for (double age : new double[] {10, Double.POSITIVE_INFINITY}) {
+            double reach = PathfindToPointCommand.getReachDistance(age);
+            assertVecEquals(
+                    new Vec2d(0, 0.4), PathfindToPointCommand.findTarget(U_TURN, NEAR_END, reach));
+        }
+    }
+
+    @Test
+    public void test_pathShorterThanReach() {
+        double reach = PathfindToPointCommand.getReachDistance(1);
+        List<Vec2d> path = List.of(new Vec2d(0, 0), new Vec2d(0.5, 0));
+        assertTrue(reach > 0.5);
+
+        assertVecEquals(
+                new Vec2d(0.5, 0),
+                PathfindToPointCommand.findTarget(path, new Vec2d(0.8, 0.05), reach));
+
+        // Nothing to follow without a segment
+        assertNull(PathfindToPointCommand.findTarget(List.of(new Vec2d(0, 0)), NEAR_END, reach));
+    }
+}
@@ -7,6 +7,9 @@ public final class ToolConstants {
     // Query that will be repeated constantly, slower to reduce bandwidth usage
     public static final long MSG_CONSTANT_QUERY_COOLDOWN_TIME = 4_000_000_000L;
 
+    // Most often to handle values that are only displayed, in messages per second
+    public static final double MSG_DISPLAY_RATE = 20;
+
     private ToolConstants() {
         throw new AssertionError();
     }
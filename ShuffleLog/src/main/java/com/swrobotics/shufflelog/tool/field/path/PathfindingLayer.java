@@ -15,6 +15,7 @@ import com.swrobotics.shufflelog.tool.field.path.shape.Circle;
 import com.swrobotics.shufflelog.tool.field.path.shape.Rectangle;
 import com.swrobotics.shufflelog.tool.field.path.shape.Shape;
 import com.swrobotics.shufflelog.util.Cooldown;
+import com.swrobotics.shufflelog.util.Query;
 
 import imgui.ImGui;
 import imgui.flag.ImGuiTableFlags;
@@ -50,10 +51,10 @@ public final class PathfindingLayer implements FieldLayer {
 
     private final MessengerClient msg;
     private final FieldViewTool tool;
-    private final Cooldown reqFieldInfoCooldown;
-    private final Cooldown reqGridsCooldown;
+    private final Query fieldInfoQuery;
+    private final Query gridsQuery;
     private final Cooldown reqCellDataCooldown;
-    private final Cooldown reqRobotShapeCooldown;
+    private final Query robotShapeQuery;
 
     private final ImBoolean showGridLines;
     private final ImBoolean showGridCells;
@@ -79,18 +80,18 @@ public final class PathfindingLayer implements FieldLayer {
     public PathfindingLayer(MessengerClient msg, FieldViewTool tool) {
         this.msg = msg;
         this.tool = tool;
-        reqFieldInfoCooldown = new Cooldown(ToolConstants.MSG_QUERY_COOLDOWN_TIME);
-        reqGridsCooldown = new Cooldown(ToolConstants.MSG_QUERY_COOLDOWN_TIME);
+        fieldInfoQuery = new Query(() -> msg.request(MSG_GET_FIELD_INFO, MSG_FIELD_INFO));
+        gridsQuery = new Query(() -> msg.request(MSG_GET_GRIDS, MSG_GRIDS));
         reqCellDataCooldown = new Cooldown(ToolConstants.MSG_QUERY_COOLDOWN_TIME);
-        reqRobotShapeCooldown = new Cooldown(ToolConstants.MSG_QUERY_COOLDOWN_TIME);
+        robotShapeQuery = new Query(() -> msg.request(MSG_GET_ROBOT_SHAPE, MSG_ROBOT_SHAPE));
 
-        msg.addHandler(MSG_PATH, this::onPath);
         msg.addHandler(MSG_FIELD_INFO, this::onFieldInfo);
         msg.addHandler(MSG_GRIDS, this::onGrids);
-        msg.addHandler(MSG_CELL_DATA, this::onCellData);
-        msg.addHandler(MSG_SET_POS, this::onSetPos);
-        msg.addHandler(MSG_SET_GOAL, this::onSetGoal);
         msg.addHandler(MSG_ROBOT_SHAPE, this::onRobotShape);
+        msg.addLatestHandler(MSG_PATH, this::onPath);
+        msg.addHandler(MSG_CELL_DATA, this::onCellData);
+        msg.addHandler(MSG_SET_POS, this::onSetPos, ToolConstants.MSG_DISPLAY_RATE);
+        msg.addHandler(MSG_SET_GOAL, this::onSetGoal, ToolConstants.MSG_DISPLAY_RATE);
 
         msg.addDisconnectHandler(
                 () -> {
@@ -174,17 +175,13 @@ public final class PathfindingLayer implements FieldLayer {
     public void draw(PGraphics g) {
         if (!msg.isConnected()) return;
 
-        if (grid == null && reqGridsCooldown.request()) {
-            msg.send(MSG_GET_GRIDS);
-        }
+        if (grid == null) gridsQuery.request();
         if (needsRefreshCellData && reqCellDataCooldown.request()) {
             msg.send(MSG_GET_CELL_DATA);
         }
-        if (robotShape == null && reqRobotShapeCooldown.request()) {
-            msg.send(MSG_GET_ROBOT_SHAPE);
-        }
+        if (robotShape == null) robotShapeQuery.request();
         if (fieldInfo == null) {
-            if (reqFieldInfoCooldown.request()) msg.send(MSG_GET_FIELD_INFO);
+            fieldInfoQuery.request();
             return;
         }
 
@@ -32,11 +32,7 @@ public final class BitfieldGrid extends Grid {
         width = reader.readInt();
         height = reader.readInt();
         int len = reader.readInt();
-        long[] l = new long[len];
-        for (int i = 0; i < len; i++) {
-            l[i] = reader.readLong();
-        }
-        data = BitSet.valueOf(l);
+        data = BitSet.valueOf(reader.readLongArray(len));
     }
 
     @Override
@@ -40,6 +40,7 @@ public final class TagTrackerLayer implements FieldLayer {
     private RobotPose robotPose;
 
     private final List<Matrix4f> estimatedPoses = new ArrayList<>();
+    private final float[] matrixData = new float[16];
 
     public TagTrackerLayer(FieldViewTool tool, MessengerClient msg) {
         this.tool = tool;
@@ -75,7 +76,8 @@ public final class TagTrackerLayer implements FieldLayer {
                     for (int i = 0; i < count; i++) {
                         estimatedPoses.add(readMatrix(reader));
                     }
-                });
+                },
+                ToolConstants.MSG_DISPLAY_RATE);
     }
 
     @Override
@@ -84,9 +86,9 @@ public final class TagTrackerLayer implements FieldLayer {
     }
 
     private Matrix4f readMatrix(MessageReader reader) {
-        float[] data = new float[16];
-        for (int i = 0; i < data.length; i++) data[i] = reader.readFloat();
-        return Matrix4f.fromColumnMajor(data);
+        // fromColumnMajor() copies the values, so the array can be reused
+        reader.readFloatArray(matrixData);
+        return Matrix4f.fromColumnMajor(matrixData);
     }
 
     private void onEnvironment(String type, MessageReader reader) {
@@ -9,6 +9,7 @@ import com.swrobotics.shufflelog.tool.ToolConstants;
 import com.swrobotics.shufflelog.tool.field.FieldLayer;
 import com.swrobotics.shufflelog.tool.field.FieldViewTool;
 import com.swrobotics.shufflelog.util.Cooldown;
+import com.swrobotics.shufflelog.util.Query;
 
 import imgui.ImGui;
 import imgui.flag.ImGuiMouseButton;
@@ -31,7 +32,8 @@ public final class WaypointLayer implements FieldLayer {
 
     private final FieldViewTool tool;
     private final MessengerClient msg;
-    private final Cooldown cooldown;
+    private final Query waypointsQuery;
+    private final Cooldown refreshCooldown;
 
     private final ImBoolean show;
     private final ImString nameInput;
@@ -48,7 +50,8 @@ public final class WaypointLayer implements FieldLayer {
 
         this.tool = tool;
         this.msg = msg;
-        cooldown = new Cooldown(ToolConstants.MSG_CONSTANT_QUERY_COOLDOWN_TIME);
+        waypointsQuery = new Query(() -> msg.request(MSG_GET_WAYPOINTS, MSG_WAYPOINTS));
+        refreshCooldown = new Cooldown(ToolConstants.MSG_CONSTANT_QUERY_COOLDOWN_TIME);
 
         msg.addHandler(MSG_WAYPOINTS, this::onWaypoints);
 
@@ -109,7 +112,11 @@ public final class WaypointLayer implements FieldLayer {
 
     @Override
     public void processAlways() {
-        if (cooldown.request()) msg.send(MSG_GET_WAYPOINTS);
+        if (!msg.isConnected()) return;
+
+        // The robot doesn't send the list when it changes, so keep refreshing
+        // it in case it was edited by another client
+        if (!hasWaypoints || refreshCooldown.request()) waypointsQuery.request();
     }
 
     @Override
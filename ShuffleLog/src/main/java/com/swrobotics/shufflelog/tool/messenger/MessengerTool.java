@@ -5,8 +5,7 @@ import com.swrobotics.messenger.client.MessengerClient;
 import com.swrobotics.shufflelog.ShuffleLog;
 import com.swrobotics.shufflelog.StreamUtil;
 import com.swrobotics.shufflelog.tool.Tool;
-import com.swrobotics.shufflelog.tool.ToolConstants;
-import com.swrobotics.shufflelog.util.Cooldown;
+import com.swrobotics.shufflelog.util.Query;
 import com.swrobotics.shufflelog.util.RollingBuffer;
 
 import imgui.ImGui;
@@ -47,7 +46,8 @@ public final class MessengerTool implements Tool {
     private boolean prevConnected;
 
     private final List<String> clientNames;
-    private final Cooldown clientsCooldown;
+    private final Query clientsQuery;
+    private boolean clientsOutdated;
 
     public MessengerTool(ShuffleLog log) {
         shuffleLog = log;
@@ -59,6 +59,10 @@ public final class MessengerTool implements Tool {
         name.set("ShuffleLog");
 
         msg = new MessengerClient(host.get(), port.get(), name.get());
+
+        // Task logs and file contents are mostly text, which compresses well
+        // over the field network
+        msg.setCompression(true);
         msg.addHandler(MessengerClient.EVENT_TYPE, this::onEvent);
         msg.addHandler(MessengerClient.CLIENT_LIST_TYPE, this::onClients);
         log.setMessenger(msg);
@@ -67,7 +71,13 @@ public final class MessengerTool implements Tool {
         prevConnected = false;
 
         clientNames = new ArrayList<>();
-        clientsCooldown = new Cooldown(ToolConstants.MSG_CONSTANT_QUERY_COOLDOWN_TIME);
+        clientsQuery =
+                new Query(
+                        () ->
+                                msg.request(
+                                        MessengerClient.GET_CLIENTS_TYPE,
+                                        MessengerClient.CLIENT_LIST_TYPE));
+        clientsOutdated = true;
     }
 
     private void onEvent(String msgType, MessageReader reader) {
@@ -76,9 +86,14 @@ public final class MessengerTool implements Tool {
         String desc = reader.readString();
 
         eventLog.insert(new MessengerEvent(shuffleLog.getTimestamp(), type, name, desc));
+
+        // The client list only changes when a client connects or disconnects
+        if (!type.equals("Listen") && !type.equals("Unlisten")) clientsOutdated = true;
     }
 
     private void onClients(String type, MessageReader reader) {
+        clientsOutdated = false;
+
         int count = reader.readInt();
         clientNames.clear();
         for (int i = 0; i < count; i++) clientNames.add(reader.readString());
@@ -135,7 +150,7 @@ public final class MessengerTool implements Tool {
                 "Connected clients (" + clientNames.size() + "):##clients",
                 ImGuiTreeNodeFlags.DefaultOpen)) return;
 
-        if (clientsCooldown.request()) msg.send(MessengerClient.GET_CLIENTS_TYPE);
+        if (clientsOutdated) clientsQuery.request();
 
         for (String client : clientNames) {
             ImGui.text(client);
@@ -67,8 +67,8 @@ public final class PathfinderTool extends ViewportTool {
         goalPose = new Vec2d(0, 0);
         path = new ArrayList<>();
 
-        msg.addHandler(MSG_CALC, this::onCalc);
-        msg.addHandler(MSG_PATH, this::onPath);
+        msg.addLatestHandler(MSG_CALC, this::onCalc);
+        msg.addLatestHandler(MSG_PATH, this::onPath);
         msg.addHandler(MSG_INFO, this::onInfo);
 
         msg.addDisconnectHandler(
@@ -97,9 +97,10 @@ public final class PathfinderTool extends ViewportTool {
         if (!good) return;
 
         int len = reader.readInt();
+        double[] points = reader.readDoubleArray(len * 2);
         for (int i = 0; i < len; i++) {
-            double bottom = reader.readDouble();
-            double top = reader.readDouble();
+            double bottom = points[i * 2];
+            double top = points[i * 2 + 1];
             path.add(new Vec2d(bottom, top));
         }
     }
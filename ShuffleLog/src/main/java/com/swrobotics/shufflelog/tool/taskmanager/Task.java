@@ -13,21 +13,47 @@ public final class Task {
     public ImString command;
     public ImBoolean enabled;
 
+    // Process settings, empty if not set
+    public ImString cpuAffinity;
+    public ImString nice;
+    public ImString ioNice;
+    public ImString schedPolicy;
+
     public boolean edited;
     public boolean nameEdited;
     public String syncedName;
 
     public Task(String name, String workingDirectory, String command, boolean enabled) {
+        this(name, workingDirectory, command, enabled, "", "", "", "");
+    }
+
+    public Task(
+            String name,
+            String workingDirectory,
+            String command,
+            boolean enabled,
+            String cpuAffinity,
+            String nice,
+            String ioNice,
+            String schedPolicy) {
         this.uuid = UUID.randomUUID().toString();
 
         this.name = new ImString(64);
         this.workingDirectory = new ImString(128);
         this.command = new ImString(256);
         this.enabled = new ImBoolean(enabled);
+        this.cpuAffinity = new ImString(64);
+        this.nice = new ImString(8);
+        this.ioNice = new ImString(32);
+        this.schedPolicy = new ImString(32);
 
         this.name.set(name);
         this.workingDirectory.set(workingDirectory);
         this.command.set(command);
+        this.cpuAffinity.set(cpuAffinity);
+        this.nice.set(nice);
+        this.ioNice.set(ioNice);
+        this.schedPolicy.set(schedPolicy);
 
         syncedName = name;
     }
@@ -1,41 +1,79 @@
 package com.swrobotics.shufflelog.tool.taskmanager;
 
+import com.swrobotics.messenger.client.MessageReader;
+import com.swrobotics.messenger.client.MessengerClient;
 import com.swrobotics.shufflelog.ShuffleLog;
 import com.swrobotics.shufflelog.tool.Tool;
 
 import imgui.ImGui;
 import imgui.flag.ImGuiCol;
 import imgui.flag.ImGuiCond;
+import imgui.flag.ImGuiInputTextFlags;
 import imgui.type.ImBoolean;
+import imgui.type.ImString;
 
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.List;
 
 public final class TaskLogTool implements Tool {
-    private static final int MAX_LOG_HISTORY = 100;
+    // Only the most recent live output is kept. A batch from TaskManager can be
+    // about 32 KB, so one batch of short lines can replace all of it, but the
+    // older lines can still be loaded from the stored log
+    private static final int MAX_LOG_HISTORY = 500;
+
+    // Most lines to load from the log stored by TaskManager
+    private static final int MAX_STORED_LINES = 5000;
+
+    private static final DateTimeFormatter TIME_FORMAT =
+            DateTimeFormatter.ofPattern("HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
 
     private final String taskName;
     private final ShuffleLog shuffleLog;
+    private final MessengerClient msg;
+    private final String managerName;
     private final ImBoolean open;
 
     private static final class Entry {
         final boolean isErr;
+        final long timestamp;
+        final String time;
         final String line;
 
-        public Entry(boolean isErr, String line) {
+        public Entry(boolean isErr, long timestamp, String line) {
             this.isErr = isErr;
+            this.timestamp = timestamp;
+            time = TIME_FORMAT.format(Instant.ofEpochMilli(timestamp));
             this.line = line;
         }
     }
 
     private final List<Entry> log;
 
-    public TaskLogTool(String taskName, ShuffleLog shuffleLog) {
+    // Lines loaded from the stored log, shown instead of the live output
+    private final ImString searchInput;
+    private List<Entry> stored;
+    private String storedStatus;
+    private int nextRequestId;
+    private int pendingRequestId;
+
+    public TaskLogTool(
+            String taskName, ShuffleLog shuffleLog, MessengerClient msg, String managerName) {
         this.taskName = taskName;
         this.shuffleLog = shuffleLog;
+        this.msg = msg;
+        this.managerName = managerName;
         open = new ImBoolean(false);
 
         log = new ArrayList<>();
+
+        searchInput = new ImString(256);
+        stored = null;
+        storedStatus = null;
+        nextRequestId = 0;
+        pendingRequestId = -1;
     }
 
     public void setOpen() {
@@ -46,26 +84,131 @@ public final class TaskLogTool implements Tool {
         return open.get();
     }
 
-    public void addEntry(boolean err, String message) {
-        Entry entry = new Entry(err, message);
-        log.add(entry);
+    /**
+     * Adds a line of output to the log. Standard output and error arrive in separate batches, so
+     * lines are kept in order of their timestamps instead of the order they arrive in.
+     *
+     * @param err whether the line is from standard error
+     * @param timestamp time the task output the line, in milliseconds since the epoch
+     * @param message output line
+     */
+    public void addEntry(boolean err, long timestamp, String message) {
+        Entry entry = new Entry(err, timestamp, message);
+
+        // Usually goes at the end, so search from there
+        int index = log.size();
+        while (index > 0 && log.get(index - 1).timestamp > timestamp) index--;
+        log.add(index, entry);
+
         if (log.size() > MAX_LOG_HISTORY) {
             log.remove(0);
         }
     }
 
+    /**
+     * Adds a note that the TaskManager's rate limit dropped some lines of output.
+     *
+     * @param err whether the lines were from standard error
+     * @param count number of lines dropped
+     */
+    public void addDropped(boolean err, int count) {
+        // The lines were dropped some time before the latest batch was sent
+        long timestamp =
+                log.isEmpty() ? System.currentTimeMillis() : log.get(log.size() - 1).timestamp;
+        addEntry(err, timestamp, "(" + count + " lines dropped)");
+    }
+
+    private void requestTail() {
+        pendingRequestId = nextRequestId++;
+        storedStatus = "Loading...";
+        msg.prepare(managerName + TaskManagerTool.MSG_LOG_TAIL)
+                .addInt(pendingRequestId)
+                .addString(taskName)
+                .addInt(MAX_STORED_LINES)
+                .send();
+    }
+
+    private void requestSearch(String regex) {
+        pendingRequestId = nextRequestId++;
+        storedStatus = "Searching...";
+        msg.prepare(managerName + TaskManagerTool.MSG_LOG_SEARCH)
+                .addInt(pendingRequestId)
+                .addString(taskName)
+                .addString(regex)
+                .addLong(0)
+                .addLong(Long.MAX_VALUE)
+                .addInt(MAX_STORED_LINES)
+                .send();
+    }
+
+    /**
+     * Shows the result of a query of the stored log. Results of queries other than the latest
+     * one are ignored.
+     *
+     * @param requestId ID the query was sent with
+     * @param reader reader for the result records, or null if the query failed
+     * @param count number of records in the result
+     */
+    public void setHistory(int requestId, MessageReader reader, int count) {
+        if (requestId != pendingRequestId) return;
+        pendingRequestId = -1;
+
+        if (reader == null) {
+            storedStatus = "Failed to load stored log";
+            return;
+        }
+
+        stored = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long timestamp = reader.readLong();
+            boolean err = reader.readBoolean();
+            stored.add(new Entry(err, timestamp, reader.readString()));
+        }
+        storedStatus = count + " stored lines";
+    }
+
+    private void showEntries(List<Entry> entries) {
+        for (Entry entry : entries) {
+            ImGui.textDisabled(entry.time);
+            ImGui.sameLine();
+            if (entry.isErr) ImGui.pushStyleColor(ImGuiCol.Text, 1, 0, 0, 1);
+            ImGui.text(entry.line);
+            if (entry.isErr) ImGui.popStyleColor();
+        }
+    }
+
     @Override
     public void process() {
         ImGui.setNextWindowSize(350, 350, ImGuiCond.Appearing);
         if (ImGui.begin("Task Log [" + taskName + "]", open)) {
-            for (Entry entry : log) {
-                if (entry.isErr) ImGui.pushStyleColor(ImGuiCol.Text, 1, 0, 0, 1);
-                ImGui.text(entry.line);
-                if (entry.isErr) ImGui.popStyleColor();
+            if (ImGui.button("History")) requestTail();
+            ImGui.sameLine();
+            ImGui.setNextItemWidth(150);
+            boolean search =
+                    ImGui.inputText("##search", searchInput, ImGuiInputTextFlags.EnterReturnsTrue);
+            ImGui.sameLine();
+            if (ImGui.button("Search") || search) requestSearch(searchInput.get());
+            if (stored != null || storedStatus != null) {
+                ImGui.sameLine();
+                if (ImGui.button("Live")) {
+                    stored = null;
+                    storedStatus = null;
+                    pendingRequestId = -1;
+                }
             }
+            if (storedStatus != null) ImGui.textDisabled(storedStatus);
+            ImGui.separator();
 
-            // Autoscroll
-            if (ImGui.getScrollY() >= ImGui.getScrollMaxY()) ImGui.setScrollHereY(1.0f);
+            ImGui.beginChild("##lines");
+            if (stored != null) {
+                showEntries(stored);
+            } else if (storedStatus == null) {
+                showEntries(log);
+
+                // Autoscroll
+                if (ImGui.getScrollY() >= ImGui.getScrollMaxY()) ImGui.setScrollHereY(1.0f);
+            }
+            ImGui.endChild();
         }
         ImGui.end();
 
@@ -3,6 +3,7 @@ package com.swrobotics.shufflelog.tool.taskmanager;
 import com.swrobotics.messenger.client.MessageBuilder;
 import com.swrobotics.messenger.client.MessageReader;
 import com.swrobotics.messenger.client.MessengerClient;
+import com.swrobotics.messenger.client.StreamReceiver;
 import com.swrobotics.shufflelog.ShuffleLog;
 import com.swrobotics.shufflelog.tool.Tool;
 import com.swrobotics.shufflelog.tool.ToolConstants;
@@ -11,8 +12,14 @@ import com.swrobotics.shufflelog.tool.taskmanager.file.RemoteFileView;
 import com.swrobotics.shufflelog.util.Cooldown;
 
 import imgui.ImGui;
+import imgui.ImVec2;
+import imgui.extension.implot.ImPlot;
+import imgui.extension.implot.flag.ImPlotFlags;
+import imgui.flag.ImGuiCond;
 import imgui.flag.ImGuiTableFlags;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -28,6 +35,17 @@ public final class TaskManagerTool implements Tool {
     // Logging
     public static final String MSG_STDOUT_PREFIX = ":StdOut:";
     public static final String MSG_STDERR_PREFIX = ":StdErr:";
+    public static final String MSG_LOG_TAIL = ":LogTail";
+    public static final String MSG_LOG_SEARCH = ":LogSearch";
+    public static final String MSG_LOG_RESULT = ":LogResult";
+
+    // Resources
+    public static final String MSG_RESOURCES = ":Resources";
+    public static final String MSG_GET_RESOURCE_HISTORY = ":GetResourceHistory";
+    public static final String MSG_RESOURCE_HISTORY = ":ResourceHistory";
+
+    private static final double RESOURCE_GRAPH_TIME = 300; // Seconds
+    private static final ImVec2 RESOURCE_GRAPH_SIZE = new ImVec2(-1, 150);
 
     private final ShuffleLog log;
     private final MessengerClient msg;
@@ -40,6 +58,12 @@ public final class TaskManagerTool implements Tool {
     private final RemoteFileView remoteFiles;
     private final Map<String, TaskLogTool> logTools;
 
+    private final Cooldown reqResourceHistoryCooldown;
+    private final Map<String, TaskResources> resources;
+    private boolean receivedResourceHistory;
+    // Sample time that is zero on the graphs, in milliseconds since the epoch
+    private long resourceBaseTime;
+
     public TaskManagerTool(ShuffleLog log, String name) {
         this.log = log;
         this.msg = log.getMessenger();
@@ -51,31 +75,201 @@ public final class TaskManagerTool implements Tool {
         msg.addHandler(name + MSG_TASKS, this::onTasks);
         msg.addHandler(name + MSG_STDOUT_PREFIX + "*", this::onStdOut);
         msg.addHandler(name + MSG_STDERR_PREFIX + "*", this::onStdErr);
+        msg.addStreamHandler(name + MSG_LOG_RESULT, this::onLogResult);
+        msg.addHandler(name + MSG_RESOURCES, this::onResources);
+        msg.addHandler(name + MSG_RESOURCE_HISTORY, this::onResourceHistory);
 
         remoteFiles = new RemoteFileView(log, name);
 
         logTools = new HashMap<>();
         receivedTasks = false;
 
+        reqResourceHistoryCooldown = new Cooldown(ToolConstants.MSG_QUERY_COOLDOWN_TIME);
+        resources = new HashMap<>();
+        receivedResourceHistory = false;
+        resourceBaseTime = -1;
+
         msg.addDisconnectHandler(
                 () -> {
                     receivedTasks = false;
                     tasks.clear();
+                    receivedResourceHistory = false;
+                    resources.clear();
                 });
     }
 
     private TaskLogTool getLog(String task) {
-        return logTools.computeIfAbsent(task, (n) -> new TaskLogTool(n, log));
+        return logTools.computeIfAbsent(task, (n) -> new TaskLogTool(n, log, msg, name));
     }
 
     private void onStdOut(String type, MessageReader reader) {
-        getLog(type.substring(name.length() + MSG_STDOUT_PREFIX.length()))
-                .addEntry(false, reader.readString());
+        String task = type.substring(name.length() + MSG_STDOUT_PREFIX.length());
+        readOutput(getLog(task), false, reader);
     }
 
     private void onStdErr(String type, MessageReader reader) {
-        getLog(type.substring(name.length() + MSG_STDERR_PREFIX.length()))
-                .addEntry(true, reader.readString());
+        String task = type.substring(name.length() + MSG_STDERR_PREFIX.length());
+        readOutput(getLog(task), true, reader);
+    }
+
+    private StreamReceiver onLogResult(String type, MessageReader header, long size) {
+        int requestId = header.readInt();
+        String task = header.readString();
+        boolean success = header.readBoolean();
+        int count = header.readInt();
+
+        TaskLogTool tool = getLog(task);
+        if (!success) {
+            tool.setHistory(requestId, null, 0);
+            return null;
+        }
+
+        ByteArrayOutputStream data = new ByteArrayOutputStream((int) Math.min(size, 1 << 20));
+        return new StreamReceiver() {
+            @Override
+            public void receive(ByteBuffer chunk) {
+                byte[] bytes = new byte[chunk.remaining()];
+                chunk.get(bytes);
+                data.write(bytes, 0, bytes.length);
+            }
+
+            @Override
+            public void complete() {
+                tool.setHistory(requestId, new MessageReader(data.toByteArray()), count);
+            }
+
+            @Override
+            public void abort() {
+                tool.setHistory(requestId, null, 0);
+            }
+        };
+    }
+
+    private void readOutput(TaskLogTool tool, boolean err, MessageReader reader) {
+        int dropped = reader.readInt();
+        int count = reader.readInt();
+        for (int i = 0; i < count; i++) {
+            long timestamp = reader.readLong();
+            tool.addEntry(err, timestamp, reader.readString());
+        }
+        if (dropped > 0) tool.addDropped(err, dropped);
+    }
+
+    private double getResourceTime(long time) {
+        if (resourceBaseTime < 0) resourceBaseTime = time;
+        return (time - resourceBaseTime) / 1000.0;
+    }
+
+    private void onResources(String type, MessageReader reader) {
+        double time = getResourceTime(reader.readLong());
+        int count = reader.readInt();
+        for (int i = 0; i < count; i++) {
+            String task = reader.readString();
+            TaskResources res = resources.computeIfAbsent(task, (n) -> new TaskResources());
+            res.processCount = reader.readInt();
+            float cpuPercent = reader.readFloat();
+            long rssBytes = reader.readLong();
+            res.threadCount = reader.readInt();
+            res.readRate = reader.readFloat();
+            res.writeRate = reader.readFloat();
+            res.add(time, cpuPercent, rssBytes);
+        }
+    }
+
+    private void onResourceHistory(String type, MessageReader reader) {
+        // Includes all samples already received
+        resources.clear();
+
+        int taskCount = reader.readInt();
+        for (int i = 0; i < taskCount; i++) {
+            TaskResources res = new TaskResources();
+            resources.put(reader.readString(), res);
+
+            int sampleCount = reader.readInt();
+            for (int j = 0; j < sampleCount; j++) {
+                double time = getResourceTime(reader.readLong());
+                float cpuPercent = reader.readFloat();
+                long rssBytes = reader.readLong();
+                res.threadCount = reader.readInt();
+                res.readRate = reader.readFloat();
+                res.writeRate = reader.readFloat();
+                res.add(time, cpuPercent, rssBytes);
+            }
+        }
+        receivedResourceHistory = true;
+    }
+
+    private void showResourceSummary(String taskName) {
+        TaskResources res = resources.get(taskName);
+        if (res == null) return;
+        int latest = res.getLatest();
+        if (latest < 0) return;
+
+        ImGui.sameLine();
+        ImGui.textDisabled(
+                String.format(
+                        "%.0f%% CPU, %.1f MB",
+                        res.cpuPercents[latest], res.memoryMegabytes[latest]));
+        if (ImGui.isItemHovered()) {
+            ImGui.setTooltip(
+                    String.format(
+                            "Processes: %d%nThreads: %d%nRead: %.1f KB/s%nWrite: %.1f KB/s",
+                            res.processCount,
+                            res.threadCount,
+                            res.readRate / 1024,
+                            res.writeRate / 1024));
+        }
+    }
+
+    private void plotResources(String title, boolean memory) {
+        double maxTime = 0;
+        double maxValue = 0;
+        for (TaskResources res : resources.values()) {
+            int latest = res.getLatest();
+            if (latest < 0) continue;
+            maxTime = Math.max(maxTime, res.times[latest]);
+
+            double[] values = memory ? res.memoryMegabytes : res.cpuPercents;
+            for (int i = 0; i < res.getCount(); i++) maxValue = Math.max(maxValue, values[i]);
+        }
+
+        // Leave some space above the highest line
+        ImPlot.setNextPlotLimits(
+                maxTime - RESOURCE_GRAPH_TIME,
+                maxTime,
+                0,
+                Math.max(maxValue * 1.1, 1),
+                ImGuiCond.Always);
+        if (ImPlot.beginPlot(
+                title,
+                "Time (s)",
+                title,
+                RESOURCE_GRAPH_SIZE,
+                ImPlotFlags.NoMenus | ImPlotFlags.NoChild,
+                0,
+                0)) {
+            for (Map.Entry<String, TaskResources> entry : resources.entrySet()) {
+                TaskResources res = entry.getValue();
+                double[] values = memory ? res.memoryMegabytes : res.cpuPercents;
+                ImPlot.plotLine(
+                        entry.getKey(), res.times, values, res.getCount(), res.getOffset());
+            }
+            ImPlot.endPlot();
+        }
+    }
+
+    private void showResources() {
+        if (!receivedResourceHistory && reqResourceHistoryCooldown.request()) {
+            msg.send(name + MSG_GET_RESOURCE_HISTORY);
+        }
+
+        if (resources.isEmpty()) {
+            ImGui.textDisabled("No resource samples");
+            return;
+        }
+
+        plotResources("CPU (%)", false);
+        plotResources("Memory (MB)", true);
     }
 
     private void showTasks() {
@@ -104,6 +298,7 @@ public final class TaskManagerTool implements Tool {
                 ImGui.sameLine();
                 ImGui.textDisabled("- Edited");
             }
+            showResourceSummary(task.syncedName);
 
             if (open) {
                 ImGui.indent();
@@ -141,6 +336,38 @@ public final class TaskManagerTool implements Tool {
                     ImGui.tableNextColumn();
                     task.edited |= ImGui.checkbox("##task_enabled", task.enabled);
 
+                    ImGui.tableNextColumn();
+                    ImGui.text("CPU Affinity:");
+                    ImGui.tableNextColumn();
+                    ImGui.setNextItemWidth(-1);
+                    task.edited |=
+                            ImGui.inputTextWithHint(
+                                    "##task_cpus", "All, or e.g. 0-1,3", task.cpuAffinity);
+
+                    ImGui.tableNextColumn();
+                    ImGui.text("Nice:");
+                    ImGui.tableNextColumn();
+                    ImGui.setNextItemWidth(-1);
+                    task.edited |=
+                            ImGui.inputTextWithHint(
+                                    "##task_nice", "Default, or -20 to 19", task.nice);
+
+                    ImGui.tableNextColumn();
+                    ImGui.text("I/O Priority:");
+                    ImGui.tableNextColumn();
+                    ImGui.setNextItemWidth(-1);
+                    task.edited |=
+                            ImGui.inputTextWithHint(
+                                    "##task_ionice", "Default, or e.g. best-effort:4", task.ioNice);
+
+                    ImGui.tableNextColumn();
+                    ImGui.text("Scheduling:");
+                    ImGui.tableNextColumn();
+                    ImGui.setNextItemWidth(-1);
+                    task.edited |=
+                            ImGui.inputTextWithHint(
+                                    "##task_sched", "Default, or e.g. fifo:50", task.schedPolicy);
+
                     ImGui.endTable();
                 }
 
@@ -157,6 +384,12 @@ public final class TaskManagerTool implements Tool {
                     builder.addInt(cmdSplit.length);
                     for (String str : cmdSplit) builder.addString(str);
                     builder.addBoolean(task.enabled.get());
+                    builder.addString(task.cpuAffinity.get().trim());
+                    Integer nice = parseNice(task.nice.get());
+                    builder.addBoolean(nice != null);
+                    builder.addInt(nice != null ? nice : 0);
+                    builder.addString(task.ioNice.get().trim());
+                    builder.addString(task.schedPolicy.get().trim());
                     builder.send();
 
                     task.markSynced();
@@ -187,6 +420,15 @@ public final class TaskManagerTool implements Tool {
         }
     }
 
+    // Empty or invalid niceness leaves it at the default
+    private Integer parseNice(String nice) {
+        try {
+            return Integer.parseInt(nice.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
     private boolean taskExists(String name) {
         for (Task task : tasks) {
             if (task.name.get().equals(name)) return true;
@@ -196,10 +438,13 @@ public final class TaskManagerTool implements Tool {
 
     private void onTasks(String type, MessageReader reader) {
         int count = reader.readInt();
-        tasks.clear();
+        String[] names = new String[count];
+        String[] workDirs = new String[count];
+        String[] commands = new String[count];
+        boolean[] enabled = new boolean[count];
         for (int i = 0; i < count; i++) {
-            String name = reader.readString();
-            String workDir = reader.readString();
+            names[i] = reader.readString();
+            workDirs[i] = reader.readString();
             int cmdLen = reader.readInt();
             StringBuilder cmdBuilder = new StringBuilder();
             boolean space = false;
@@ -208,9 +453,37 @@ public final class TaskManagerTool implements Tool {
                 else space = true;
                 cmdBuilder.append(reader.readString());
             }
-            boolean enabled = reader.readBoolean();
+            commands[i] = cmdBuilder.toString();
+            enabled[i] = reader.readBoolean();
+        }
 
-            Task task = new Task(name, workDir, cmdBuilder.toString(), enabled);
+        // Process settings follow all the tasks, older TaskManagers don't send them
+        boolean hasSettings = reader.hasRemaining();
+        tasks.clear();
+        for (int i = 0; i < count; i++) {
+            String cpuAffinity = "";
+            String nice = "";
+            String ioNice = "";
+            String schedPolicy = "";
+            if (hasSettings) {
+                cpuAffinity = reader.readString();
+                boolean hasNice = reader.readBoolean();
+                int niceValue = reader.readInt();
+                if (hasNice) nice = String.valueOf(niceValue);
+                ioNice = reader.readString();
+                schedPolicy = reader.readString();
+            }
+
+            Task task =
+                    new Task(
+                            names[i],
+                            workDirs[i],
+                            commands[i],
+                            enabled[i],
+                            cpuAffinity,
+                            nice,
+                            ioNice,
+                            schedPolicy);
             tasks.add(task);
         }
         receivedTasks = true;
@@ -241,6 +514,8 @@ public final class TaskManagerTool implements Tool {
                 remoteFiles.process();
                 ImGui.endTable();
             }
+
+            if (ImGui.collapsingHeader("Resources")) showResources();
         }
         ImGui.end();
     }
@@ -0,0 +1,62 @@
+package com.swrobotics.shufflelog.tool.taskmanager;
+
+/**
+ * Recent resource usage of a task, as sampled by TaskManager. The history is kept in primitive
+ * arrays used as a ring buffer, which ImPlot can draw directly by giving it the offset of the
+ * oldest sample.
+ */
+final class TaskResources {
+    private static final int CAPACITY = 300;
+
+    // Time in seconds since the tool's base time
+    final double[] times;
+    final double[] cpuPercents;
+    final double[] memoryMegabytes;
+    private int next;
+    private int count;
+
+    // Latest sample
+    int processCount;
+    int threadCount;
+    float readRate;
+    float writeRate;
+
+    TaskResources() {
+        times = new double[CAPACITY];
+        cpuPercents = new double[CAPACITY];
+        memoryMegabytes = new double[CAPACITY];
+        clear();
+    }
+
+    void clear() {
+        next = 0;
+        count = 0;
+        processCount = 0;
+        threadCount = 0;
+        readRate = 0;
+        writeRate = 0;
+    }
+
+    void add(double time, float cpuPercent, long rssBytes) {
+        times[next] = time;
+        cpuPercents[next] = cpuPercent;
+        memoryMegabytes[next] = rssBytes / (1024.0 * 1024.0);
+
+        next = (next + 1) % CAPACITY;
+        if (count < CAPACITY) count++;
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    /** @return index of the oldest sample */
+    int getOffset() {
+        return count < CAPACITY ? 0 : next;
+    }
+
+    /** @return index of the latest sample, or -1 if there are no samples */
+    int getLatest() {
+        return count == 0 ? -1 : (next + CAPACITY - 1) % CAPACITY;
+    }
+}
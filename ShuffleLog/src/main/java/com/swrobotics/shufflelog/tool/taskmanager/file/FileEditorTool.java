@@ -52,7 +52,7 @@ public final class FileEditorTool implements Tool {
             ImGui.beginDisabled(!changed);
             if (ImGui.button("Save")) {
                 byte[] data = content.get().getBytes(StandardCharsets.UTF_8);
-                msg.prepare(msgWrite).addString(path).addInt(data.length).addRaw(data).send();
+                msg.prepare(msgWrite).addString(path).sendStream(data);
                 changed = false;
             }
             ImGui.endDisabled();
@@ -2,9 +2,8 @@ package com.swrobotics.shufflelog.tool.taskmanager.file;
 
 import com.swrobotics.messenger.client.MessageReader;
 import com.swrobotics.messenger.client.MessengerClient;
+import com.swrobotics.messenger.client.StreamReceiver;
 import com.swrobotics.shufflelog.ShuffleLog;
-import com.swrobotics.shufflelog.tool.ToolConstants;
-import com.swrobotics.shufflelog.util.Cooldown;
 import com.swrobotics.shufflelog.util.FileChooser;
 
 import imgui.ImGui;
@@ -16,9 +15,13 @@ import imgui.type.ImString;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Set;
 
 public final class RemoteFileView {
     // Filesystem API
@@ -39,7 +42,7 @@ public final class RemoteFileView {
     private final MessengerClient msg;
     private final String name;
 
-    private final Cooldown reqContentCooldown;
+    private final Set<String> listingPaths;
     private final RemoteDirectory remoteRoot;
     private final ImString mkdirName;
 
@@ -48,16 +51,15 @@ public final class RemoteFileView {
         this.msg = log.getMessenger();
         this.name = name;
 
-        reqContentCooldown = new Cooldown(ToolConstants.MSG_QUERY_COOLDOWN_TIME);
+        listingPaths = new HashSet<>();
         remoteRoot = new RemoteDirectory("");
         mkdirName = new ImString(64);
 
-        msg.addHandler(name + MSG_FILES, this::onFiles);
         msg.addHandler(name + MSG_DELETE_CONFIRM, this::onDeleteConfirm);
         msg.addHandler(name + MSG_MKDIR_CONFIRM, this::onMkdirConfirm);
         msg.addHandler(name + MSG_WRITE_CONFIRM, this::onWriteConfirm);
         msg.addHandler(name + MSG_MOVE_CONFIRM, this::onMoveConfirm);
-        msg.addHandler(name + MSG_FILE_CONTENT, this::onFileContent);
+        msg.addStreamHandler(name + MSG_FILE_CONTENT, this::onFileContent);
     }
 
     private RemoteNode evalPath(String path) {
@@ -71,7 +73,23 @@ public final class RemoteFileView {
         return node;
     }
 
-    private void onFiles(String type, MessageReader reader) {
+    private void listFiles(String path) {
+        // Already waiting for this directory
+        if (!listingPaths.add(path)) return;
+
+        // Responses for all directories have the same type, so find the one
+        // for the requested path
+        msg.prepare(name + MSG_LIST_FILES)
+                .addString(path)
+                .request(name + MSG_FILES, (reader) -> reader.readString().equals(path))
+                .whenComplete(
+                        (reader, error) -> {
+                            listingPaths.remove(path);
+                            if (reader != null) onFiles(reader);
+                        });
+    }
+
+    private void onFiles(MessageReader reader) {
         String path = reader.readString();
         boolean success = reader.readBoolean();
         if (!success) {
@@ -183,44 +201,52 @@ public final class RemoteFileView {
         createLocalFile(dstPath, srcNode instanceof RemoteDirectory);
     }
 
-    private void onFileContent(String type, MessageReader reader) {
-        String filePath = reader.readString();
-        boolean success = reader.readBoolean();
-        if (!success) return;
-
-        int dataLen = reader.readInt();
-        byte[] data = reader.readRaw(dataLen);
-        String dataStr = new String(data, StandardCharsets.UTF_8);
+    private StreamReceiver onFileContent(String type, MessageReader header, long size) {
+        String filePath = header.readString();
+        boolean success = header.readBoolean();
+        if (!success) return null;
+
+        ByteArrayOutputStream data = new ByteArrayOutputStream((int) Math.min(size, 1 << 20));
+        return new StreamReceiver() {
+            @Override
+            public void receive(ByteBuffer chunk) {
+                byte[] bytes = new byte[chunk.remaining()];
+                chunk.get(bytes);
+                data.write(bytes, 0, bytes.length);
+            }
 
-        FileEditorTool editor =
-                new FileEditorTool(filePath, dataStr, msg, name + MSG_WRITE_FILE, log);
-        log.addTool(editor);
-    }
+            @Override
+            public void complete() {
+                String dataStr = data.toString(StandardCharsets.UTF_8);
+                FileEditorTool editor =
+                        new FileEditorTool(filePath, dataStr, msg, name + MSG_WRITE_FILE, log);
+                log.addTool(editor);
+            }
 
-    private byte[] readFile(File file) throws IOException {
-        FileInputStream in = new FileInputStream(file);
-        ByteArrayOutputStream b = new ByteArrayOutputStream();
-        byte[] buffer = new byte[1024];
-        int read;
-        while ((read = in.read(buffer)) > 0) {
-            b.write(buffer, 0, read);
-        }
-        in.close();
-        b.close();
-        return b.toByteArray();
+            @Override
+            public void abort() {
+                System.err.println("Failed to read " + filePath);
+            }
+        };
     }
 
     private void uploadFile(File file, String targetDirPath) {
         String path =
                 targetDirPath.equals("") ? file.getName() : targetDirPath + "/" + file.getName();
         if (file.isFile()) {
+            // Streamed so large files aren't loaded into memory all at once
             try {
-                byte[] data = readFile(file);
+                FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
                 msg.prepare(name + MSG_WRITE_FILE)
                         .addString(path)
-                        .addInt(data.length)
-                        .addRaw(data)
-                        .send();
+                        .sendStream(channel)
+                        .getFuture()
+                        .whenComplete(
+                                (result, error) -> {
+                                    if (error == null) return;
+                                    System.err.println("Failed to upload file: " + file);
+                                    error.printStackTrace();
+                                });
             } catch (IOException e) {
                 System.out.println("Failed to read file to upload: " + file);
                 e.printStackTrace();
@@ -333,9 +359,7 @@ public final class RemoteFileView {
                 ImGui.textDisabled("Fetching...");
                 ImGui.unindent(ImGui.getTreeNodeToLabelSpacing());
 
-                if (reqContentCooldown.request()) {
-                    msg.prepare(name + MSG_LIST_FILES).addString(dir.getFullPath()).send();
-                }
+                listFiles(dir.getFullPath());
             } else {
                 for (RemoteNode node : dir.getChildren()) {
                     showNode(node);
@@ -0,0 +1,33 @@
+package com.swrobotics.shufflelog.util;
+
+import com.swrobotics.messenger.client.MessageReader;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Messenger request that is only sent again once the previous one has finished, so it can be
+ * requested every frame until the data arrives. If a request times out, the next call sends it
+ * again.
+ *
+ * <p>The response is not handled here. Register a normal handler for the response type instead,
+ * which also receives responses that the other side sends without being asked, such as after its
+ * data changes.
+ */
+public final class Query {
+    private final Supplier<CompletableFuture<MessageReader>> sender;
+    private boolean inFlight;
+
+    /** @param sender sends the request */
+    public Query(Supplier<CompletableFuture<MessageReader>> sender) {
+        this.sender = sender;
+        inFlight = false;
+    }
+
+    public void request() {
+        if (inFlight) return;
+
+        inFlight = true;
+        sender.get().whenComplete((reader, error) -> inFlight = false);
+    }
+}
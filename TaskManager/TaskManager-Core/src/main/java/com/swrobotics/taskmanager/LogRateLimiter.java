@@ -0,0 +1,37 @@
+package com.swrobotics.taskmanager;
+
+/**
+ * Limits how many log lines per second a task can send. Lines are allowed in bursts of up to one
+ * second's worth, then at the limited rate.
+ */
+public final class LogRateLimiter {
+    private final double maxRate;
+    private double available;
+    private long lastRefill;
+
+    /**
+     * @param maxRate maximum lines per second, or zero or less to allow every line
+     */
+    public LogRateLimiter(double maxRate) {
+        this.maxRate = maxRate;
+        available = maxRate;
+        lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Takes one line from the limit. This can be called from any thread.
+     *
+     * @return whether the line can be sent
+     */
+    public synchronized boolean tryAcquire() {
+        if (maxRate <= 0) return true;
+
+        long now = System.nanoTime();
+        available = Math.min(maxRate, available + (now - lastRefill) / 1_000_000_000.0 * maxRate);
+        lastRefill = now;
+
+        if (available < 1) return false;
+        available--;
+        return true;
+    }
+}
@@ -0,0 +1,171 @@
+package com.swrobotics.taskmanager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Optional settings for how the OS schedules a task's processes. They are applied at launch by
+ * running the task's command through {@code taskset}, {@code chrt}, {@code ionice} and {@code
+ * nice}, so every process the task starts inherits them. Settings that are null are left at the
+ * system default. Negative niceness and real-time policies usually need TaskManager to run as
+ * root.
+ */
+public final class ProcessSettings {
+    public static final ProcessSettings DEFAULT = new ProcessSettings(null, null, null, null);
+
+    private static final Pattern CPU_LIST = Pattern.compile("\\d+(-\\d+)?(,\\d+(-\\d+)?)*");
+
+    private static final int MIN_NICE = -20;
+    private static final int MAX_NICE = 19;
+    private static final int MAX_IO_LEVEL = 7;
+    private static final int MIN_RT_PRIORITY = 1;
+    private static final int MAX_RT_PRIORITY = 99;
+
+    private final String cpuAffinity;
+    private final Integer nice;
+    private final String ioNice;
+    private final String schedPolicy;
+
+    /**
+     * @param cpuAffinity CPUs the task may run on, as a list like {@code "3"} or {@code "0-1,3"}
+     * @param nice niceness from -20 (highest priority) to 19 (lowest priority)
+     * @param ioNice I/O scheduling class and level, as {@code "realtime:<0-7>"}, {@code
+     *     "best-effort:<0-7>"} or {@code "idle"}
+     * @param schedPolicy CPU scheduling policy, as {@code "other"}, {@code "batch"}, {@code
+     *     "idle"}, {@code "fifo:<1-99>"} or {@code "rr:<1-99>"}
+     */
+    public ProcessSettings(String cpuAffinity, Integer nice, String ioNice, String schedPolicy) {
+        this.cpuAffinity = emptyToNull(cpuAffinity);
+        this.nice = nice;
+        this.ioNice = emptyToNull(ioNice);
+        this.schedPolicy = emptyToNull(schedPolicy);
+    }
+
+    private static String emptyToNull(String str) {
+        if (str == null) return null;
+        str = str.trim();
+        return str.isEmpty() ? null : str;
+    }
+
+    public String getCpuAffinity() {
+        return cpuAffinity;
+    }
+
+    public Integer getNice() {
+        return nice;
+    }
+
+    public String getIoNice() {
+        return ioNice;
+    }
+
+    public String getSchedPolicy() {
+        return schedPolicy;
+    }
+
+    /**
+     * Adds the commands that apply these settings in front of a task's command. Settings that are
+     * invalid are reported and left out.
+     *
+     * @param taskName name of the task, for error messages
+     * @param command task's command
+     * @return command to run
+     */
+    public String[] wrapCommand(String taskName, String[] command) {
+        List<String> wrapped = new ArrayList<>();
+
+        if (cpuAffinity != null) {
+            if (CPU_LIST.matcher(cpuAffinity).matches()) {
+                wrapped.addAll(Arrays.asList("taskset", "-c", cpuAffinity));
+            } else {
+                reportInvalid(taskName, "cpuAffinity", cpuAffinity);
+            }
+        }
+
+        if (schedPolicy != null) {
+            List<String> chrt = getChrtArgs();
+            if (chrt != null) wrapped.addAll(chrt);
+            else reportInvalid(taskName, "schedPolicy", schedPolicy);
+        }
+
+        if (ioNice != null) {
+            List<String> ionice = getIoniceArgs();
+            if (ionice != null) wrapped.addAll(ionice);
+            else reportInvalid(taskName, "ioNice", ioNice);
+        }
+
+        if (nice != null) {
+            if (nice >= MIN_NICE && nice <= MAX_NICE) {
+                wrapped.addAll(Arrays.asList("nice", "-n", String.valueOf(nice)));
+            } else {
+                reportInvalid(taskName, "nice", String.valueOf(nice));
+            }
+        }
+
+        wrapped.addAll(Arrays.asList(command));
+        return wrapped.toArray(new String[0]);
+    }
+
+    private void reportInvalid(String taskName, String setting, String value) {
+        System.err.println(
+                "Invalid " + setting + " '" + value + "' for task '" + taskName + "', ignoring it");
+    }
+
+    // Splits a "name:value" setting, returns null for the value if there is none
+    private static String[] splitSetting(String setting) {
+        int colon = setting.indexOf(':');
+        if (colon < 0) return new String[] {setting, null};
+        return new String[] {setting.substring(0, colon), setting.substring(colon + 1)};
+    }
+
+    // Parses a number within a range, returns null if it is invalid
+    private static Integer parseInRange(String str, int min, int max) {
+        if (str == null) return null;
+        try {
+            int value = Integer.parseInt(str.trim());
+            return value >= min && value <= max ? value : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private List<String> getChrtArgs() {
+        String[] parts = splitSetting(schedPolicy);
+        String policy = parts[0].trim();
+        switch (policy) {
+            case "other":
+            case "batch":
+            case "idle":
+                // These policies have no priority, chrt expects 0
+                if (parts[1] != null) return null;
+                return Arrays.asList("chrt", "--" + policy, "0");
+            case "fifo":
+            case "rr":
+                Integer priority = parseInRange(parts[1], MIN_RT_PRIORITY, MAX_RT_PRIORITY);
+                if (priority == null) return null;
+                return Arrays.asList("chrt", "--" + policy, String.valueOf(priority));
+            default:
+                return null;
+        }
+    }
+
+    private List<String> getIoniceArgs() {
+        String[] parts = splitSetting(ioNice);
+        String ioClass = parts[0].trim();
+        switch (ioClass) {
+            case "idle":
+                if (parts[1] != null) return null;
+                return Arrays.asList("ionice", "-c", "3");
+            case "realtime":
+            case "best-effort":
+                Integer level = parseInRange(parts[1], 0, MAX_IO_LEVEL);
+                if (level == null) return null;
+                String classId = ioClass.equals("realtime") ? "1" : "2";
+                return Arrays.asList("ionice", "-c", classId, "-n", String.valueOf(level));
+            default:
+                return null;
+        }
+    }
+}
@@ -1,38 +1,58 @@
 package com.swrobotics.taskmanager;
 
+import com.swrobotics.taskmanager.log.LogStore;
+
 import org.zeroturnaround.exec.ProcessExecutor;
 import org.zeroturnaround.exec.StartedProcess;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 public final class Task {
+    // Delay before restarting a task whose process ended, doubled after each
+    // failure so a task that keeps crashing doesn't use up the CPU
+    static final long MIN_RESTART_DELAY = 100;
+    static final long MAX_RESTART_DELAY = 5000;
+
     // Settings
     private File workingDirectory;
     private String[] command;
     private boolean enabled;
+    private ProcessSettings processSettings;
 
     // Status
     private final transient TaskManagerAPI api;
+    private final transient TaskScheduler scheduler;
     private final transient int maxFailCount;
     private transient String name;
     private transient boolean running;
+    private transient boolean stopped;
     private transient int failedStartCount;
     private transient Process process;
+    private transient Runnable pendingRestart;
 
     public Task(
             File workingDirectory,
             String[] command,
             boolean enabled,
+            ProcessSettings processSettings,
             TaskManagerAPI api,
+            TaskScheduler scheduler,
             int maxFailCount) {
         this.api = api;
+        this.scheduler = scheduler;
         this.maxFailCount = maxFailCount;
         this.workingDirectory = workingDirectory;
         this.command = command;
         this.enabled = enabled;
+        this.processSettings = processSettings;
 
         running = false;
+        stopped = false;
         failedStartCount = 0;
     }
 
@@ -40,10 +60,12 @@ public final class Task {
             File workingDirectory,
             String[] command,
             boolean enabled,
+            ProcessSettings processSettings,
             TaskManagerAPI api,
+            TaskScheduler scheduler,
             int maxFailCount,
             String name) {
-        this(workingDirectory, command, enabled, api, maxFailCount);
+        this(workingDirectory, command, enabled, processSettings, api, scheduler, maxFailCount);
         this.name = name;
     }
 
@@ -64,35 +86,79 @@ public final class Task {
     private void startProcess() {
         try {
             System.out.println("Starting task '" + name + "'");
+            TaskManagerConfiguration config = api.getConfig();
+            LogRateLimiter rateLimiter = new LogRateLimiter(config.getMaxLogRate());
+            LogStore store = api.getLogStore(this);
             StartedProcess p =
                     new ProcessExecutor()
-                            .command(command)
+                            .command(processSettings.wrapCommand(name, command))
                             .directory(workingDirectory)
-                            .redirectOutput(new TaskOutputLogger(this, LogOutputType.STDOUT, api))
-                            .redirectError(new TaskOutputLogger(this, LogOutputType.STDERR, api))
+                            .redirectOutput(
+                                    new TaskOutputLogger(
+                                            this,
+                                            LogOutputType.STDOUT,
+                                            api::broadcastTaskOutput,
+                                            scheduler,
+                                            store,
+                                            rateLimiter,
+                                            config.getLogBatchTime()))
+                            .redirectError(
+                                    new TaskOutputLogger(
+                                            this,
+                                            LogOutputType.STDERR,
+                                            api::broadcastTaskOutput,
+                                            scheduler,
+                                            store,
+                                            rateLimiter,
+                                            config.getLogBatchTime()))
                             .start();
             process = p.getProcess();
+
+            // Handle the exit on the main thread, so it never races with
+            // commands from Messenger
+            Process started = process;
+            started.onExit().thenRun(() -> scheduler.post(() -> onProcessExit(started)));
         } catch (IOException e) {
             System.err.println("Exception whilst starting task '" + name + "'");
             e.printStackTrace();
+
+            process = null;
+            System.err.println("Process not present for task '" + name + "'");
+            scheduleRestart();
         }
     }
 
-    public void restartIfProcessEnded() {
-        if (!enabled) return;
+    private void onProcessExit(Process exited) {
+        // Already replaced or deliberately stopped
+        if (exited != process || stopped) return;
+
+        System.err.println(
+                "Process terminated unexpectedly for task '"
+                        + name
+                        + "' (exit code "
+                        + exited.exitValue()
+                        + ")");
+        scheduleRestart();
+    }
+
+    // Starts the process again after a delay, package-private for testing
+    void scheduleRestart() {
+        if (!enabled || stopped) return;
         if (failedStartCount >= maxFailCount) return;
-        if (process != null && process.isAlive()) return;
 
-        if (process != null)
-            System.err.println(
-                    "Process terminated unexpectedly for task '"
-                            + name
-                            + "' (exit code "
-                            + process.exitValue()
-                            + ")");
-        else System.err.println("Process not present for task '" + name + "'");
+        // Only one restart can be pending
+        cancelRestart();
+
+        int doublings = Math.min(failedStartCount, 16);
+        long delay = Math.min(MIN_RESTART_DELAY << doublings, MAX_RESTART_DELAY);
+        Runnable restart =
+                () -> {
+                    pendingRestart = null;
+                    if (!stopped) startProcess();
+                };
+        pendingRestart = restart;
+        scheduler.schedule(restart, delay, TimeUnit.MILLISECONDS);
 
-        startProcess();
         failedStartCount++;
         if (failedStartCount == maxFailCount) {
             System.err.println(
@@ -104,7 +170,31 @@ public final class Task {
         }
     }
 
+    /**
+     * Gets the task's process and all of its descendants, such as processes started by a shell
+     * script.
+     *
+     * @return process tree, or an empty list if the task is not running
+     */
+    public List<ProcessHandle> getProcessTree() {
+        if (process == null || !process.isAlive()) return Collections.emptyList();
+
+        List<ProcessHandle> tree = new ArrayList<>();
+        tree.add(process.toHandle());
+        process.descendants().forEach(tree::add);
+        return tree;
+    }
+
+    private void cancelRestart() {
+        if (pendingRestart != null) {
+            scheduler.cancel(pendingRestart);
+            pendingRestart = null;
+        }
+    }
+
     public void forceStop() {
+        stopped = true;
+        cancelRestart();
         if (!enabled || process == null || !process.isAlive()) return;
 
         System.out.println("Stopping task '" + name + "'");
@@ -129,4 +219,8 @@ public final class Task {
     public boolean isEnabled() {
         return enabled;
     }
+
+    public ProcessSettings getProcessSettings() {
+        return processSettings;
+    }
 }
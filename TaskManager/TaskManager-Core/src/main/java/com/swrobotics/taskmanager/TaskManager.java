@@ -9,7 +9,9 @@ import java.io.FileReader;
 import java.io.FileWriter;
 import java.lang.reflect.Type;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 public final class TaskManager {
     private static final Type TASKS_MAP_TYPE = new TypeToken<Map<String, Task>>() {}.getType();
@@ -17,25 +19,47 @@ public final class TaskManager {
     private static final File CONFIG_FILE = new File("config.json");
     private static final File TASKS_FILE = new File("tasks.json");
 
+    // Longest time to wait for messages, so Messenger's timers still run
+    private static final long MAX_WAIT_TIME = TimeUnit.MILLISECONDS.toNanos(500);
+
     private final Gson tasksGson;
+    private final TaskScheduler scheduler;
     private final TaskManagerAPI api;
     private final Map<String, Task> tasks;
 
     public TaskManager() {
         TaskManagerConfiguration config = TaskManagerConfiguration.load(CONFIG_FILE);
-        api = new TaskManagerAPI(this, config);
+        scheduler = new TaskScheduler();
+        api = new TaskManagerAPI(this, scheduler, config);
+        scheduler.setWakeup(api::wakeup);
         tasksGson =
                 new GsonBuilder()
                         .registerTypeAdapter(File.class, new FileTypeAdapter())
-                        .registerTypeAdapter(Task.class, new TaskSerializer(api, config))
+                        .registerTypeAdapter(
+                                Task.class, new TaskSerializer(api, scheduler, config))
                         .setPrettyPrinting()
                         .create();
 
         tasks = loadTasks();
 
-        for (Map.Entry<String, Task> entry : tasks.entrySet()) {
+        // Tasks that can't be sent would break the task list, so they are skipped
+        // like invalid tasks from :CreateTask
+        for (Iterator<Map.Entry<String, Task>> iter = tasks.entrySet().iterator();
+                iter.hasNext(); ) {
+            Map.Entry<String, Task> entry = iter.next();
             Task task = entry.getValue();
             task.setName(entry.getKey());
+            if (!api.canSend(task)) {
+                System.err.println(
+                        "Not loading task '"
+                                + entry.getKey()
+                                + "', it has settings that can't be sent."
+                                + " It will be removed from "
+                                + TASKS_FILE);
+                iter.remove();
+                continue;
+            }
+
             task.start();
         }
 
@@ -85,18 +109,15 @@ public final class TaskManager {
         return new HashMap<>(tasks);
     }
 
+    /**
+     * Handles Messenger messages and task events forever. Between them, this waits until a message
+     * arrives, a task's process exits, or a task is due to be restarted.
+     */
     public void run() {
         while (true) {
             api.read();
-            for (Task task : tasks.values()) {
-                task.restartIfProcessEnded();
-            }
-
-            try {
-                Thread.sleep(1000 / 50);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
+            long untilNextEvent = scheduler.runEvents();
+            api.waitForMessages(Math.min(untilNextEvent, MAX_WAIT_TIME));
         }
     }
 }
@@ -1,12 +1,18 @@
 package com.swrobotics.taskmanager;
 
 import com.swrobotics.messenger.client.MessageBuilder;
+import com.swrobotics.messenger.client.MessagePriority;
 import com.swrobotics.messenger.client.MessageReader;
 import com.swrobotics.messenger.client.MessengerClient;
 import com.swrobotics.taskmanager.filesystem.FileSystemAPI;
+import com.swrobotics.taskmanager.log.LogStore;
+import com.swrobotics.taskmanager.log.TaskLogAPI;
+import com.swrobotics.taskmanager.resource.TaskResourceAPI;
 
 import java.io.File;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 public final class TaskManagerAPI {
     // Tasks API
@@ -20,8 +26,10 @@ public final class TaskManagerAPI {
     private static final String MSG_STDERR = ":StdErr:";
 
     private final TaskManager mgr;
+    private final TaskScheduler scheduler;
     private final TaskManagerConfiguration config;
     private final MessengerClient msg;
+    private final TaskLogAPI logs;
 
     private final String msgTasks;
     private final String msgStdOut;
@@ -29,8 +37,10 @@ public final class TaskManagerAPI {
 
     private final File tasksRoot;
 
-    public TaskManagerAPI(TaskManager mgr, TaskManagerConfiguration config) {
+    public TaskManagerAPI(
+            TaskManager mgr, TaskScheduler scheduler, TaskManagerConfiguration config) {
         this.mgr = mgr;
+        this.scheduler = scheduler;
         this.config = config;
 
         System.out.println(
@@ -45,9 +55,25 @@ public final class TaskManagerAPI {
                         config.getMessengerHost(),
                         config.getMessengerPort(),
                         config.getMessengerName());
+        msg.setCompression(config.isMessengerCompression());
 
         String prefix = config.getMessengerName();
         new FileSystemAPI(msg, prefix, config.getTasksRoot());
+        logs =
+                new TaskLogAPI(
+                        msg,
+                        prefix,
+                        scheduler,
+                        config.getLogsRoot(),
+                        config.getLogSegmentSize(),
+                        config.getMaxLogSegments());
+        new TaskResourceAPI(
+                msg,
+                prefix,
+                scheduler,
+                mgr::getTasks,
+                config.getResourceSampleInterval(),
+                config.getResourceHistorySize());
 
         String msgListTasks = prefix + MSG_LIST_TASKS;
         String msgCreateTask = prefix + MSG_CREATE_TASK;
@@ -57,6 +83,10 @@ public final class TaskManagerAPI {
         msgStdOut = prefix + MSG_STDOUT;
         msgStdErr = prefix + MSG_STDERR;
 
+        // Log output can be bursty, don't let it delay other messages
+        msg.setPriority(msgStdOut + "*", MessagePriority.LOW);
+        msg.setPriority(msgStdErr + "*", MessagePriority.LOW);
+
         tasksRoot = config.getTasksRoot();
         if (!tasksRoot.exists()) tasksRoot.mkdirs();
 
@@ -70,16 +100,48 @@ public final class TaskManagerAPI {
         return path;
     }
 
+    // Gets the path of a file relative to the tasks root, or null if it is outside of it
     private String getTaskPath(File file) {
         String rootAbsolute = removeTrailingSeparator(tasksRoot.getAbsolutePath());
         String fileAbsolute = removeTrailingSeparator(file.getAbsolutePath());
 
-        if (!fileAbsolute.startsWith(rootAbsolute))
-            throw new AssertionError("File is not a task tile: " + file);
+        if (!fileAbsolute.startsWith(rootAbsolute)) return null;
 
         return fileAbsolute.substring(rootAbsolute.length());
     }
 
+    private String emptyIfNull(String str) {
+        return str == null ? "" : str;
+    }
+
+    private boolean fitsInString(String str) {
+        return str == null
+                || str.getBytes(StandardCharsets.UTF_8).length <= MessageBuilder.MAX_STRING_SIZE;
+    }
+
+    /**
+     * Checks whether a task can be sent over Messenger. A task with a name, working directory,
+     * command or setting that is too long to send would make sending the task list and its output
+     * fail. The working directory must also be within the tasks root.
+     *
+     * @param task task to check
+     * @return whether it can be sent
+     */
+    public boolean canSend(Task task) {
+        // Both output types have the same length
+        if (!fitsInString(msgStdOut + task.getName())) return false;
+        String path = getTaskPath(task.getWorkingDirectory());
+        if (path == null || !fitsInString(path)) return false;
+        for (String token : task.getCommand()) {
+            if (!fitsInString(token)) return false;
+        }
+
+        ProcessSettings settings = task.getProcessSettings();
+        return fitsInString(settings.getCpuAffinity())
+                && fitsInString(settings.getIoNice())
+                && fitsInString(settings.getSchedPolicy());
+    }
+
     private void onListTasks(String type, MessageReader reader) {
         MessageBuilder out = msg.prepare(msgTasks);
         Map<String, Task> tasks = mgr.getTasks();
@@ -89,13 +151,25 @@ public final class TaskManagerAPI {
             out.addString(entry.getKey());
 
             Task task = entry.getValue();
-            out.addString(getTaskPath(task.getWorkingDirectory()));
+            out.addString(emptyIfNull(getTaskPath(task.getWorkingDirectory())));
             String[] command = task.getCommand();
             out.addInt(command.length);
             for (String token : command) out.addString(token);
             out.addBoolean(task.isEnabled());
         }
 
+        // Process settings are sent after all the tasks, in the same order, so
+        // receivers from before they were added can still read the message.
+        // Unset settings are sent as empty strings, or false for nice
+        for (Task task : tasks.values()) {
+            ProcessSettings settings = task.getProcessSettings();
+            out.addString(emptyIfNull(settings.getCpuAffinity()));
+            out.addBoolean(settings.getNice() != null);
+            out.addInt(settings.getNice() != null ? settings.getNice() : 0);
+            out.addString(emptyIfNull(settings.getIoNice()));
+            out.addString(emptyIfNull(settings.getSchedPolicy()));
+        }
+
         out.send();
     }
 
@@ -110,7 +184,36 @@ public final class TaskManagerAPI {
             command[i] = reader.readString();
         }
         boolean enabled = reader.readBoolean();
-        Task task = new Task(workingDir, command, enabled, this, config.getMaxFailCount(), name);
+
+        // Process settings were added to the end of the message, so senders
+        // from before them leave them out
+        ProcessSettings processSettings = ProcessSettings.DEFAULT;
+        if (reader.hasRemaining()) {
+            String cpuAffinity = reader.readString();
+            boolean hasNice = reader.readBoolean();
+            int nice = reader.readInt();
+            String ioNice = reader.readString();
+            String schedPolicy = reader.readString();
+            processSettings =
+                    new ProcessSettings(cpuAffinity, hasNice ? nice : null, ioNice, schedPolicy);
+        }
+
+        Task task =
+                new Task(
+                        workingDir,
+                        command,
+                        enabled,
+                        processSettings,
+                        this,
+                        scheduler,
+                        config.getMaxFailCount(),
+                        name);
+
+        if (!canSend(task)) {
+            System.err.println(
+                    "Not creating task '" + name + "', it has settings that can't be sent");
+            return;
+        }
 
         // Remove old task
         if (mgr.getTask(name) != null) mgr.removeTask(name);
@@ -122,13 +225,61 @@ public final class TaskManagerAPI {
         mgr.removeTask(reader.readString());
     }
 
-    public void broadcastTaskOutput(Task task, LogOutputType type, String line) {
-        msg.prepare((type == LogOutputType.STDOUT ? msgStdOut : msgStdErr) + task.getName())
-                .addString(line)
-                .send();
+    /**
+     * Sends a batch of a task's output lines.
+     *
+     * @param task task the output is from
+     * @param type which output stream the lines are from
+     * @param timestamps time each line was output, in milliseconds since the epoch
+     * @param lines output lines
+     * @param count number of lines in the arrays to send
+     * @param dropped number of lines dropped by the rate limit since the previous batch
+     */
+    public void broadcastTaskOutput(
+            Task task,
+            LogOutputType type,
+            long[] timestamps,
+            String[] lines,
+            int count,
+            int dropped) {
+        String prefix = type == LogOutputType.STDOUT ? msgStdOut : msgStdErr;
+        MessageBuilder builder = msg.prepare(prefix + task.getName());
+        builder.addInt(dropped);
+        builder.addInt(count);
+        for (int i = 0; i < count; i++) {
+            builder.addLong(timestamps[i]);
+            builder.addString(lines[i]);
+        }
+        builder.send();
+    }
+
+    public TaskManagerConfiguration getConfig() {
+        return config;
+    }
+
+    public LogStore getLogStore(Task task) {
+        return logs.getStore(task.getName());
     }
 
     public void read() {
         msg.readMessages();
     }
+
+    /**
+     * Waits until a Messenger message arrives, the timeout passes, or {@link #wakeup()} is called.
+     *
+     * @param timeoutNanos maximum time to wait in nanoseconds
+     */
+    public void waitForMessages(long timeoutNanos) {
+        try {
+            msg.waitForMessages(timeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Makes {@link #waitForMessages} return early. This can be called from any thread. */
+    public void wakeup() {
+        msg.wakeup();
+    }
 }
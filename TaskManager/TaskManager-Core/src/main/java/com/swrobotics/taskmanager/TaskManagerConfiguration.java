@@ -38,8 +38,16 @@ public final class TaskManagerConfiguration {
     private String messengerHost = "localhost";
     private int messengerPort = 5805;
     private String messengerName = "TaskManager";
+    private boolean messengerCompression = true;
     private File tasksRoot = new File("tasks");
     private int maxFailCount = 10;
+    private int logBatchTime = 50;
+    private int maxLogRate = 1000;
+    private File logsRoot = new File("logs");
+    private int logSegmentSize = 4 * 1024 * 1024;
+    private int maxLogSegments = 8;
+    private int resourceSampleInterval = 1000;
+    private int resourceHistorySize = 300;
 
     private TaskManagerConfiguration() {}
 
@@ -55,6 +63,10 @@ public final class TaskManagerConfiguration {
         return messengerName;
     }
 
+    public boolean isMessengerCompression() {
+        return messengerCompression;
+    }
+
     public File getTasksRoot() {
         return tasksRoot;
     }
@@ -62,4 +74,32 @@ public final class TaskManagerConfiguration {
     public int getMaxFailCount() {
         return maxFailCount;
     }
+
+    public int getLogBatchTime() {
+        return logBatchTime;
+    }
+
+    public int getMaxLogRate() {
+        return maxLogRate;
+    }
+
+    public File getLogsRoot() {
+        return logsRoot;
+    }
+
+    public int getLogSegmentSize() {
+        return logSegmentSize;
+    }
+
+    public int getMaxLogSegments() {
+        return maxLogSegments;
+    }
+
+    public int getResourceSampleInterval() {
+        return resourceSampleInterval;
+    }
+
+    public int getResourceHistorySize() {
+        return resourceHistorySize;
+    }
 }
@@ -1,25 +1,168 @@
 package com.swrobotics.taskmanager;
 
+import com.swrobotics.taskmanager.log.LogStore;
+
 import org.zeroturnaround.exec.stream.LogOutputStream;
 
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects the output of a task's process into batches of lines. A batch is sent when the batch
+ * time has passed since its first line, or once it gets too large, so a task printing many lines
+ * sends a few large messages instead of one message per line. Every line is also stored in the
+ * task's {@link LogStore}, including lines dropped by the rate limit.
+ */
 public final class TaskOutputLogger extends LogOutputStream {
+    /** Sends a batch of lines, normally {@link TaskManagerAPI#broadcastTaskOutput}. */
+    @FunctionalInterface
+    public interface BatchSender {
+        void send(
+                Task task,
+                LogOutputType type,
+                long[] timestamps,
+                String[] lines,
+                int count,
+                int dropped);
+    }
+
+    // Batch is sent immediately once its lines take this many bytes to send, so
+    // a batch is at most this plus one line of LogStore.MAX_LINE_SIZE bytes
+    static final int MAX_BATCH_SIZE = 32 * 1024;
+
+    // Timestamp and string length sent with each line
+    static final int LINE_OVERHEAD = 8 + 2;
+
     private final Task task;
     private final LogOutputType type;
-    private final TaskManagerAPI api;
+    private final BatchSender sender;
+    private final TaskScheduler scheduler;
+    private final LogStore store;
+    private final LogRateLimiter rateLimiter;
+    private final long batchTime;
 
-    public TaskOutputLogger(Task task, LogOutputType type, TaskManagerAPI api) {
+    // Current batch, guarded by this
+    private long[] timestamps;
+    private String[] lines;
+    private int count;
+    private int size;
+    private int dropped;
+    private boolean flushScheduled;
+
+    /**
+     * @param task task the output is from
+     * @param type which output stream this is
+     * @param sender sends the batches
+     * @param scheduler scheduler to time the batches on
+     * @param store store to save the lines in
+     * @param rateLimiter rate limit shared by all output streams of the task
+     * @param batchTime time in milliseconds to collect lines for before sending them
+     */
+    public TaskOutputLogger(
+            Task task,
+            LogOutputType type,
+            BatchSender sender,
+            TaskScheduler scheduler,
+            LogStore store,
+            LogRateLimiter rateLimiter,
+            long batchTime) {
         this.task = task;
         this.type = type;
-        this.api = api;
+        this.sender = sender;
+        this.scheduler = scheduler;
+        this.store = store;
+        this.rateLimiter = rateLimiter;
+        this.batchTime = batchTime;
+
+        timestamps = new long[16];
+        lines = new String[16];
+        count = 0;
+        size = 0;
+        dropped = 0;
+        flushScheduled = false;
     }
 
     @Override
     protected void processLine(String line) {
-        api.broadcastTaskOutput(task, type, line);
+        // Lines are sent as strings, which have a maximum size
+        line = LogStore.truncateLine(line);
+
+        long timestamp = System.currentTimeMillis();
+        store.append(timestamp, type == LogOutputType.STDERR, line);
+
+        synchronized (this) {
+            if (rateLimiter.tryAcquire()) {
+                if (count == lines.length) {
+                    timestamps = Arrays.copyOf(timestamps, count * 2);
+                    lines = Arrays.copyOf(lines, count * 2);
+                }
+                timestamps[count] = timestamp;
+                lines[count] = line;
+                count++;
+                size += LINE_OVERHEAD + utf8Length(line);
+            } else {
+                // Still schedule a batch so the dropped count gets reported
+                dropped++;
+            }
+
+            if (size >= MAX_BATCH_SIZE) {
+                flush();
+            } else if (!flushScheduled) {
+                flushScheduled = true;
+                scheduler.schedule(this::flush, batchTime, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private static int utf8Length(String str) {
+        int length = 0;
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if (c < 0x80) length += 1;
+            else if (c < 0x800 || Character.isSurrogate(c)) length += 2; // Pairs are 4 bytes
+            else length += 3;
+        }
+        return length;
+    }
+
+    /** Sends the current batch, if there is anything in it. */
+    public synchronized void flush() {
+        flushScheduled = false;
+        if (count == 0 && dropped == 0) return;
+
+        try {
+            printBatch();
+            sender.send(task, type, timestamps, lines, count, dropped);
+        } catch (RuntimeException e) {
+            System.err.println("Failed to send output of task '" + task.getName() + "'");
+            e.printStackTrace();
+        } finally {
+            // Always start a new batch, so one bad batch can't stop all output
+            Arrays.fill(lines, 0, count, null);
+            count = 0;
+            size = 0;
+            dropped = 0;
+        }
+    }
+
+    private void printBatch() {
+        String prefix = "[" + task.getName() + (type == LogOutputType.STDOUT ? "/Out] " : "/Err] ");
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            builder.append(prefix).append(lines[i]).append(System.lineSeparator());
+        }
+        if (dropped > 0) {
+            builder.append(prefix)
+                    .append("(")
+                    .append(dropped)
+                    .append(" lines dropped)")
+                    .append(System.lineSeparator());
+        }
+
         if (type == LogOutputType.STDOUT) {
-            System.out.println("[" + task.getName() + "/Out] " + line);
+            System.out.print(builder);
         } else {
-            System.err.println("[" + task.getName() + "/Err] " + line);
+            System.err.print(builder);
         }
     }
 }
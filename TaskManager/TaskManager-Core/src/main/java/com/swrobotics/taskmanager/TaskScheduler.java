@@ -0,0 +1,128 @@
+package com.swrobotics.taskmanager;
+
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs events on the TaskManager's main thread. Other threads post events to it, such as when a
+ * task's process exits, and events can be scheduled to run later, such as restarting a task.
+ * Between events, the main thread waits for Messenger messages, so it does nothing while idle.
+ */
+public final class TaskScheduler {
+    private static final class ScheduledEvent implements Comparable<ScheduledEvent> {
+        final long time;
+        final long order;
+        final Runnable event;
+
+        ScheduledEvent(long time, long order, Runnable event) {
+            this.time = time;
+            this.order = order;
+            this.event = event;
+        }
+
+        @Override
+        public int compareTo(ScheduledEvent o) {
+            // Times are from System.nanoTime(), so only their difference is meaningful
+            long diff = time - o.time;
+            if (diff != 0) return diff < 0 ? -1 : 1;
+            return Long.compare(order, o.order);
+        }
+    }
+
+    private final Queue<Runnable> posted;
+    private final PriorityQueue<ScheduledEvent> scheduled;
+    private long nextOrder;
+    private volatile Runnable wakeup;
+
+    public TaskScheduler() {
+        posted = new ConcurrentLinkedQueue<>();
+        scheduled = new PriorityQueue<>();
+        nextOrder = 0;
+        wakeup = () -> {};
+    }
+
+    /**
+     * Sets what to call to wake up the main thread when an event is posted.
+     *
+     * @param wakeup function to wake up the main thread
+     */
+    public void setWakeup(Runnable wakeup) {
+        this.wakeup = wakeup;
+    }
+
+    /**
+     * Runs an event on the main thread as soon as possible. This can be called from any thread.
+     *
+     * @param event event to run
+     */
+    public void post(Runnable event) {
+        posted.add(event);
+        wakeup.run();
+    }
+
+    /**
+     * Runs an event on the main thread after a delay. This can be called from any thread.
+     *
+     * @param event event to run
+     * @param delay time to wait before running it
+     * @param unit unit of the delay
+     */
+    public void schedule(Runnable event, long delay, TimeUnit unit) {
+        long time = System.nanoTime() + unit.toNanos(delay);
+        synchronized (scheduled) {
+            scheduled.add(new ScheduledEvent(time, nextOrder++, event));
+        }
+
+        // The main thread may be waiting for an event that is later than this one
+        wakeup.run();
+    }
+
+    /**
+     * Cancels a scheduled event that has not run yet. This can be called from any thread.
+     *
+     * @param event event passed to {@link #schedule}
+     */
+    public void cancel(Runnable event) {
+        synchronized (scheduled) {
+            scheduled.removeIf((e) -> e.event == event);
+        }
+    }
+
+    /**
+     * Runs all posted events, and scheduled events that are due. This must be called from the
+     * main thread.
+     *
+     * @return nanoseconds until the next scheduled event, or {@link Long#MAX_VALUE} if there is
+     *     none
+     */
+    public long runEvents() {
+        Runnable event;
+        while ((event = posted.poll()) != null) run(event);
+
+        while (true) {
+            ScheduledEvent next;
+            synchronized (scheduled) {
+                if (scheduled.isEmpty()) return Long.MAX_VALUE;
+
+                long untilNext = scheduled.peek().time - System.nanoTime();
+                if (untilNext > 0) return untilNext;
+                next = scheduled.poll();
+            }
+            run(next.event);
+
+            // Anything posted while running is handled before waiting again
+            while ((event = posted.poll()) != null) run(event);
+        }
+    }
+
+    private void run(Runnable event) {
+        try {
+            event.run();
+        } catch (Throwable t) {
+            System.err.println("Error in TaskManager event:");
+            t.printStackTrace();
+        }
+    }
+}
@@ -13,10 +13,13 @@ import java.lang.reflect.Type;
 
 public final class TaskSerializer implements JsonSerializer<Task>, JsonDeserializer<Task> {
     private final TaskManagerAPI api;
+    private final TaskScheduler scheduler;
     private final TaskManagerConfiguration config;
 
-    public TaskSerializer(TaskManagerAPI api, TaskManagerConfiguration config) {
+    public TaskSerializer(
+            TaskManagerAPI api, TaskScheduler scheduler, TaskManagerConfiguration config) {
         this.api = api;
+        this.scheduler = scheduler;
         this.config = config;
     }
 
@@ -27,7 +30,31 @@ public final class TaskSerializer implements JsonSerializer<Task>, JsonDeseriali
         File workingDir = context.deserialize(obj.get("workingDirectory"), File.class);
         String[] command = context.deserialize(obj.get("command"), String[].class);
         boolean enabled = obj.get("enabled").getAsBoolean();
-        return new Task(workingDir, command, enabled, api, config.getMaxFailCount());
+
+        // Process settings are optional
+        ProcessSettings processSettings =
+                new ProcessSettings(
+                        getOptionalString(obj, "cpuAffinity"),
+                        hasValue(obj, "nice") ? obj.get("nice").getAsInt() : null,
+                        getOptionalString(obj, "ioNice"),
+                        getOptionalString(obj, "schedPolicy"));
+
+        return new Task(
+                workingDir,
+                command,
+                enabled,
+                processSettings,
+                api,
+                scheduler,
+                config.getMaxFailCount());
+    }
+
+    private boolean hasValue(JsonObject obj, String key) {
+        return obj.has(key) && !obj.get(key).isJsonNull();
+    }
+
+    private String getOptionalString(JsonObject obj, String key) {
+        return hasValue(obj, key) ? obj.get(key).getAsString() : null;
     }
 
     @Override
@@ -36,6 +63,17 @@ public final class TaskSerializer implements JsonSerializer<Task>, JsonDeseriali
         obj.add("workingDirectory", context.serialize(src.getWorkingDirectory()));
         obj.add("command", context.serialize(src.getCommand()));
         obj.addProperty("enabled", src.isEnabled());
+
+        // Only settings that are set are saved
+        ProcessSettings processSettings = src.getProcessSettings();
+        if (processSettings.getCpuAffinity() != null)
+            obj.addProperty("cpuAffinity", processSettings.getCpuAffinity());
+        if (processSettings.getNice() != null)
+            obj.addProperty("nice", processSettings.getNice());
+        if (processSettings.getIoNice() != null)
+            obj.addProperty("ioNice", processSettings.getIoNice());
+        if (processSettings.getSchedPolicy() != null)
+            obj.addProperty("schedPolicy", processSettings.getSchedPolicy());
         return obj;
     }
 }
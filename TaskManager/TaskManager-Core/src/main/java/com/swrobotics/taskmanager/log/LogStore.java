@@ -0,0 +1,493 @@
+package com.swrobotics.taskmanager.log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Stores the output of one task on disk, so it can still be read after it has scrolled out of
+ * ShuffleLog, or if ShuffleLog wasn't connected. Lines are appended to a memory-mapped segment
+ * file. Once it is full a new segment is started, and the oldest segment is deleted if there are
+ * too many. Each segment has a sparse index of the time and line number at regular offsets, so
+ * queries can skip to where they start instead of reading the whole log.
+ *
+ * <p>Each line is stored as a record: the time in milliseconds since the epoch as a {@code long},
+ * a {@code byte} that is 1 for standard error, the length of the text in bytes as an unsigned
+ * {@code short}, and the UTF-8 text. A time of zero marks the end of the data. This is the same
+ * encoding as Messenger's {@code long}, {@code boolean} and {@code String}, so query results are
+ * sent as the records themselves.
+ */
+public final class LogStore {
+    private static final String DATA_SUFFIX = ".log";
+    private static final String INDEX_SUFFIX = ".idx";
+
+    static final int RECORD_HEADER_SIZE = 8 + 1 + 2;
+    /** Maximum size of a line in UTF-8 bytes. Longer lines are truncated. */
+    public static final int MAX_LINE_SIZE = 0xFFFF;
+
+    // An index entry is added every this many bytes of data
+    private static final int INDEX_INTERVAL = 4096;
+    // Time, line number, and offset
+    private static final int INDEX_ENTRY_SIZE = 8 + 8 + 4;
+
+    private static final int MIN_SEGMENT_SIZE = 1024 * 1024;
+
+    private static final class Segment {
+        final long firstLine;
+        final File dataFile;
+        final File indexFile;
+
+        Segment(File dir, long firstLine) {
+            this.firstLine = firstLine;
+            String name = String.format("%019d", firstLine);
+            dataFile = new File(dir, name + DATA_SUFFIX);
+            indexFile = new File(dir, name + INDEX_SUFFIX);
+        }
+    }
+
+    // Position in a segment to start reading from
+    private static final class IndexEntry {
+        final long time;
+        final long line;
+        final int offset;
+
+        IndexEntry(long time, long line, int offset) {
+            this.time = time;
+            this.line = line;
+            this.offset = offset;
+        }
+    }
+
+    // Segments and how far the data goes in each, taken when a query starts
+    private static final class Snapshot {
+        final Segment[] segments;
+        final int activeEnd;
+        final long nextLine;
+
+        Snapshot(Segment[] segments, int activeEnd, long nextLine) {
+            this.segments = segments;
+            this.activeEnd = activeEnd;
+            this.nextLine = nextLine;
+        }
+
+        int getEnd(int i, int segmentSize) {
+            return i == segments.length - 1 ? activeEnd : segmentSize;
+        }
+    }
+
+    private final String name;
+    private final File dir;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final int indexCapacity;
+
+    // Oldest first, the last one is written to
+    private final List<Segment> segments;
+    private MappedByteBuffer data;
+    private MappedByteBuffer index;
+    private int writePos;
+    private long nextLine;
+    private int indexCount;
+    private int lastIndexedPos;
+    private long lastIndexedTime;
+
+    /**
+     * Opens the log in a directory, continuing from where it was left if it already exists. If it
+     * can't be opened, an error is printed and lines are not stored.
+     *
+     * @param name name of the task, for error messages
+     * @param dir directory to store the segments in
+     * @param segmentSize size of each segment in bytes
+     * @param maxSegments number of segments to keep
+     */
+    public LogStore(String name, File dir, int segmentSize, int maxSegments) {
+        this.name = name;
+        this.dir = dir;
+        this.segmentSize = Math.max(segmentSize, MIN_SEGMENT_SIZE);
+        this.maxSegments = Math.max(maxSegments, 1);
+        indexCapacity = this.segmentSize / INDEX_INTERVAL + 2;
+        segments = new ArrayList<>();
+
+        try {
+            open();
+        } catch (IOException e) {
+            System.err.println("Failed to open log store for task '" + name + "'");
+            e.printStackTrace();
+            data = null;
+        }
+    }
+
+    private void open() throws IOException {
+        if (!dir.exists()) dir.mkdirs();
+
+        File[] files = dir.listFiles();
+        List<Long> firstLines = new ArrayList<>();
+        if (files != null) {
+            for (File file : files) {
+                String fileName = file.getName();
+                if (!fileName.endsWith(DATA_SUFFIX)) continue;
+                try {
+                    String number = fileName.substring(0, fileName.length() - DATA_SUFFIX.length());
+                    firstLines.add(Long.parseLong(number));
+                } catch (NumberFormatException e) {
+                    // Not a segment
+                }
+            }
+        }
+        firstLines.sort(Long::compare);
+        for (long firstLine : firstLines) segments.add(new Segment(dir, firstLine));
+
+        if (segments.isEmpty()) {
+            startSegment(0);
+            return;
+        }
+
+        // Continue after the last record that was written
+        Segment active = segments.get(segments.size() - 1);
+        mapSegment(active);
+
+        indexCount = 0;
+        while (indexCount < indexCapacity && index.getLong(indexCount * INDEX_ENTRY_SIZE) != 0)
+            indexCount++;
+
+        writePos = 0;
+        nextLine = active.firstLine;
+        lastIndexedPos = 0;
+        lastIndexedTime = 0;
+        if (indexCount > 0) {
+            int entry = (indexCount - 1) * INDEX_ENTRY_SIZE;
+            lastIndexedTime = index.getLong(entry);
+            nextLine = index.getLong(entry + 8);
+            writePos = index.getInt(entry + 16);
+            lastIndexedPos = writePos;
+        }
+        while (writePos + RECORD_HEADER_SIZE <= segmentSize && data.getLong(writePos) != 0) {
+            int length = data.getShort(writePos + 9) & 0xFFFF;
+            if (writePos + RECORD_HEADER_SIZE + length > segmentSize) break;
+            writePos += RECORD_HEADER_SIZE + length;
+            nextLine++;
+        }
+    }
+
+    private void mapSegment(Segment segment) throws IOException {
+        try (FileChannel dataChannel = openForWriting(segment.dataFile);
+                FileChannel indexChannel = openForWriting(segment.indexFile)) {
+            // Mappings stay valid after the channels are closed
+            data = dataChannel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            index =
+                    indexChannel.map(
+                            FileChannel.MapMode.READ_WRITE, 0, indexCapacity * INDEX_ENTRY_SIZE);
+        }
+    }
+
+    private FileChannel openForWriting(File file) throws IOException {
+        return FileChannel.open(
+                file.toPath(),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+    }
+
+    private void startSegment(long firstLine) throws IOException {
+        Segment segment = new Segment(dir, firstLine);
+        segments.add(segment);
+        mapSegment(segment);
+
+        writePos = 0;
+        nextLine = firstLine;
+        indexCount = 0;
+        lastIndexedPos = 0;
+
+        while (segments.size() > maxSegments) {
+            Segment oldest = segments.remove(0);
+            Files.deleteIfExists(oldest.dataFile.toPath());
+            Files.deleteIfExists(oldest.indexFile.toPath());
+        }
+    }
+
+    /**
+     * Appends a line to the log. This can be called from any thread.
+     *
+     * @param time time the line was output in milliseconds since the epoch
+     * @param err whether the line is from standard error
+     * @param line text of the line, truncated by whole characters if it is longer than {@link
+     *     #MAX_LINE_SIZE} bytes
+     */
+    public synchronized void append(long time, boolean err, String line) {
+        if (data == null) return;
+
+        byte[] text = line.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(text.length, MAX_LINE_SIZE);
+        // Don't cut in the middle of a character, continuation bytes are 10xxxxxx
+        while (length < text.length && (text[length] & 0xC0) == 0x80) length--;
+        int size = RECORD_HEADER_SIZE + length;
+
+        // Zero marks the end of the data
+        time = Math.max(time, 1);
+
+        try {
+            if (writePos + size > segmentSize) startSegment(nextLine);
+        } catch (IOException e) {
+            System.err.println("Failed to start log segment for task '" + name + "'");
+            e.printStackTrace();
+            data = null;
+            return;
+        }
+
+        if (indexCount == 0 || writePos - lastIndexedPos >= INDEX_INTERVAL) {
+            // Times in the index never go backwards, so it can be searched
+            // even if the clock was changed
+            lastIndexedTime = Math.max(lastIndexedTime, time);
+
+            int entry = indexCount * INDEX_ENTRY_SIZE;
+            index.putLong(entry + 8, nextLine);
+            index.putInt(entry + 16, writePos);
+            index.putLong(entry, lastIndexedTime);
+            indexCount++;
+            lastIndexedPos = writePos;
+        }
+
+        // Time is written last, so a record is only visible once it is complete
+        data.put(writePos + 8, err ? (byte) 1 : (byte) 0);
+        data.putShort(writePos + 9, (short) length);
+        ByteBuffer dst = data.duplicate();
+        dst.position(writePos + RECORD_HEADER_SIZE);
+        dst.put(text, 0, length);
+        data.putLong(writePos, time);
+
+        writePos += size;
+        nextLine++;
+    }
+
+    /**
+     * Shortens a line to at most {@link #MAX_LINE_SIZE} bytes of UTF-8, without splitting a
+     * character.
+     *
+     * @param line line to truncate
+     * @return the line if it fits, otherwise the longest start of it that fits
+     */
+    public static String truncateLine(String line) {
+        // Each char is at most 3 bytes, so short lines always fit
+        if (line.length() <= MAX_LINE_SIZE / 3) return line;
+
+        int size = 0;
+        for (int i = 0; i < line.length(); ) {
+            int codePoint = line.codePointAt(i);
+            if (codePoint < 0x80) size += 1;
+            else if (codePoint < 0x800) size += 2;
+            else if (codePoint < 0x10000) size += 3;
+            else size += 4;
+
+            if (size > MAX_LINE_SIZE) return line.substring(0, i);
+            i += Character.charCount(codePoint);
+        }
+        return line;
+    }
+
+    private synchronized Snapshot takeSnapshot() {
+        return new Snapshot(segments.toArray(new Segment[0]), writePos, nextLine);
+    }
+
+    /**
+     * Writes the most recent lines of the log to a stream.
+     *
+     * @param maxLines maximum number of lines to write
+     * @param out stream to write the records to
+     * @return number of lines written
+     * @throws IOException if writing to the stream fails
+     */
+    public int tail(int maxLines, OutputStream out) throws IOException {
+        Snapshot snapshot = takeSnapshot();
+        Segment[] segs = snapshot.segments;
+        if (segs.length == 0) return 0;
+
+        long startLine = Math.max(segs[0].firstLine, snapshot.nextLine - maxLines);
+        int first = segs.length - 1;
+        while (first > 0 && segs[first].firstLine > startLine) first--;
+
+        int written = 0;
+        for (int i = first; i < segs.length; i++) {
+            int offset = 0;
+            long line = segs[i].firstLine;
+            if (i == first) {
+                IndexEntry start = null;
+                for (IndexEntry entry : readIndex(segs[i], snapshot.getEnd(i, segmentSize))) {
+                    if (entry.line > startLine) break;
+                    start = entry;
+                }
+                if (start != null) {
+                    offset = start.offset;
+                    line = start.line;
+                }
+            }
+
+            try (SegmentReader reader =
+                    new SegmentReader(segs[i].dataFile, offset, snapshot.getEnd(i, segmentSize))) {
+                while (reader.next()) {
+                    if (line++ < startLine) continue;
+                    reader.writeRecord(out);
+                    written++;
+                }
+            } catch (NoSuchFileException e) {
+                // Deleted since the snapshot was taken
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Writes the lines of the log within a range of time to a stream, optionally only those
+     * matching a pattern. Lines are written oldest first.
+     *
+     * @param from earliest time to include, in milliseconds since the epoch
+     * @param to latest time to include, in milliseconds since the epoch
+     * @param pattern pattern to find in each line, or null to include all lines
+     * @param maxLines maximum number of lines to write
+     * @param out stream to write the records to
+     * @return number of lines written
+     * @throws IOException if writing to the stream fails
+     */
+    public int range(long from, long to, Pattern pattern, int maxLines, OutputStream out)
+            throws IOException {
+        Snapshot snapshot = takeSnapshot();
+        Segment[] segs = snapshot.segments;
+
+        int written = 0;
+        List<IndexEntry> nextIndex = null;
+        for (int i = 0; i < segs.length && written < maxLines; i++) {
+            List<IndexEntry> segIndex = nextIndex;
+            if (segIndex == null) segIndex = readIndex(segs[i], snapshot.getEnd(i, segmentSize));
+            nextIndex =
+                    i + 1 < segs.length
+                            ? readIndex(segs[i + 1], snapshot.getEnd(i + 1, segmentSize))
+                            : null;
+
+            // Skip segments that are entirely before the range, or stop once
+            // they are after it
+            if (nextIndex != null && !nextIndex.isEmpty() && nextIndex.get(0).time <= from)
+                continue;
+            if (!segIndex.isEmpty() && segIndex.get(0).time > to) break;
+
+            int offset = 0;
+            for (IndexEntry entry : segIndex) {
+                if (entry.time > from) break;
+                offset = entry.offset;
+            }
+
+            try (SegmentReader reader =
+                    new SegmentReader(segs[i].dataFile, offset, snapshot.getEnd(i, segmentSize))) {
+                while (written < maxLines && reader.next()) {
+                    if (reader.time < from || reader.time > to) continue;
+                    if (pattern != null && !pattern.matcher(reader.getText()).find()) continue;
+
+                    reader.writeRecord(out);
+                    written++;
+                }
+            } catch (NoSuchFileException e) {
+                // Deleted since the snapshot was taken
+            }
+        }
+        return written;
+    }
+
+    // Reads the index entries that point before the end of the data
+    private List<IndexEntry> readIndex(Segment segment, int end) throws IOException {
+        List<IndexEntry> entries = new ArrayList<>();
+        ByteBuffer buf;
+        try {
+            buf = ByteBuffer.wrap(Files.readAllBytes(segment.indexFile.toPath()));
+        } catch (NoSuchFileException e) {
+            return entries;
+        }
+
+        while (buf.remaining() >= INDEX_ENTRY_SIZE) {
+            long time = buf.getLong();
+            long line = buf.getLong();
+            int offset = buf.getInt();
+            if (time == 0 || offset >= end) break;
+            entries.add(new IndexEntry(time, line, offset));
+        }
+        return entries;
+    }
+
+    // Reads records in order from part of a segment file
+    private static final class SegmentReader implements AutoCloseable {
+        private final FileChannel channel;
+        private final ByteBuffer buf;
+        private final int end;
+        // File offset of the next byte to read into the buffer
+        private int readPos;
+
+        long time;
+        // Buffer position after the current record
+        private int recordEnd;
+        private int length;
+
+        SegmentReader(File file, int offset, int end) throws IOException {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            buf = ByteBuffer.allocate(64 * 1024 + RECORD_HEADER_SIZE + MAX_LINE_SIZE);
+            buf.flip();
+            this.end = end;
+            readPos = offset;
+        }
+
+        // Makes sure there are at least count bytes in the buffer
+        private boolean fill(int count) throws IOException {
+            if (buf.remaining() >= count) return true;
+
+            buf.compact();
+            while (buf.position() < count && readPos < end) {
+                int limit = Math.min(buf.capacity(), buf.position() + end - readPos);
+                buf.limit(limit);
+                int read = channel.read(buf, readPos);
+                if (read <= 0) break;
+                readPos += read;
+            }
+            buf.flip();
+            return buf.remaining() >= count;
+        }
+
+        /** Moves to the next record, returns false if there are no more. */
+        boolean next() throws IOException {
+            if (!fill(RECORD_HEADER_SIZE)) return false;
+            time = buf.getLong(buf.position());
+            if (time == 0) return false;
+
+            length = buf.getShort(buf.position() + 9) & 0xFFFF;
+            if (!fill(RECORD_HEADER_SIZE + length)) return false;
+
+            // The record stays in the buffer until the next call
+            buf.position(buf.position() + RECORD_HEADER_SIZE + length);
+            recordEnd = buf.position();
+            return true;
+        }
+
+        String getText() {
+            return new String(
+                    buf.array(),
+                    buf.arrayOffset() + recordEnd - length,
+                    length,
+                    StandardCharsets.UTF_8);
+        }
+
+        void writeRecord(OutputStream out) throws IOException {
+            int size = RECORD_HEADER_SIZE + length;
+            out.write(buf.array(), buf.arrayOffset() + recordEnd - size, size);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package com.swrobotics.taskmanager.log;
+
+import com.swrobotics.messenger.client.MessagePriority;
+import com.swrobotics.messenger.client.MessageReader;
+import com.swrobotics.messenger.client.MessengerClient;
+import com.swrobotics.taskmanager.TaskScheduler;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Stores each task's output in a {@link LogStore}, and answers queries for it over Messenger.
+ * Queries read from disk on a separate thread into a temporary file, which is then sent as a
+ * stream, so neither the query nor the result is held in memory.
+ */
+public final class TaskLogAPI {
+    private static final String MSG_LOG_TAIL = ":LogTail";
+    private static final String MSG_LOG_RANGE = ":LogRange";
+    private static final String MSG_LOG_SEARCH = ":LogSearch";
+    private static final String MSG_LOG_RESULT = ":LogResult";
+
+    private static final String QUERY_FILE_SUFFIX = ".query";
+
+    @FunctionalInterface
+    private interface Query {
+        int run(LogStore store, OutputStream out) throws IOException;
+    }
+
+    private final MessengerClient msg;
+    private final TaskScheduler scheduler;
+    private final File logsRoot;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final Map<String, LogStore> stores;
+    private final ExecutorService queryExecutor;
+
+    private final String msgLogResult;
+
+    /**
+     * @param msg client to answer queries with
+     * @param prefix prefix of the query message types
+     * @param scheduler scheduler to send results from
+     * @param logsRoot directory to store the logs in, with a subdirectory for each task
+     * @param segmentSize size of each log segment in bytes
+     * @param maxSegments number of segments to keep for each task
+     */
+    public TaskLogAPI(
+            MessengerClient msg,
+            String prefix,
+            TaskScheduler scheduler,
+            File logsRoot,
+            int segmentSize,
+            int maxSegments) {
+        this.msg = msg;
+        this.scheduler = scheduler;
+        this.logsRoot = logsRoot;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+        stores = new ConcurrentHashMap<>();
+        queryExecutor =
+                Executors.newSingleThreadExecutor(
+                        (r) -> {
+                            Thread t = new Thread(r, "Task Log Query");
+                            t.setDaemon(true);
+                            return t;
+                        });
+
+        if (!logsRoot.exists()) logsRoot.mkdirs();
+        deleteQueryFiles();
+
+        msgLogResult = prefix + MSG_LOG_RESULT;
+
+        // Results can be large
+        msg.setPriority(msgLogResult, MessagePriority.LOW);
+
+        msg.addHandler(prefix + MSG_LOG_TAIL, this::onLogTail);
+        msg.addHandler(prefix + MSG_LOG_RANGE, this::onLogRange);
+        msg.addHandler(prefix + MSG_LOG_SEARCH, this::onLogSearch);
+    }
+
+    // Results left over from before a restart
+    private void deleteQueryFiles() {
+        File[] files = logsRoot.listFiles();
+        if (files == null) return;
+
+        for (File file : files) {
+            if (file.getName().endsWith(QUERY_FILE_SUFFIX)) file.delete();
+        }
+    }
+
+    private File getTaskDir(String task) {
+        // Task names come from Messenger, so they can't be trusted as paths
+        String dirName = task.replaceAll("[^A-Za-z0-9_.-]", "_");
+        if (dirName.isEmpty() || dirName.startsWith(".")) dirName = "_" + dirName;
+        return new File(logsRoot, dirName);
+    }
+
+    /**
+     * Gets the log store for a task, opening it if needed. This can be called from any thread.
+     *
+     * @param task name of the task
+     * @return log store
+     */
+    public LogStore getStore(String task) {
+        return stores.computeIfAbsent(
+                task, (name) -> new LogStore(name, getTaskDir(name), segmentSize, maxSegments));
+    }
+
+    private void onLogTail(String type, MessageReader reader) {
+        int requestId = reader.readInt();
+        String task = reader.readString();
+        int lines = reader.readInt();
+
+        runQuery(requestId, task, (store, out) -> store.tail(lines, out));
+    }
+
+    private void onLogRange(String type, MessageReader reader) {
+        int requestId = reader.readInt();
+        String task = reader.readString();
+        long from = reader.readLong();
+        long to = reader.readLong();
+        int maxLines = reader.readInt();
+
+        runQuery(requestId, task, (store, out) -> store.range(from, to, null, maxLines, out));
+    }
+
+    private void onLogSearch(String type, MessageReader reader) {
+        int requestId = reader.readInt();
+        String task = reader.readString();
+        String regex = reader.readString();
+        long from = reader.readLong();
+        long to = reader.readLong();
+        int maxLines = reader.readInt();
+
+        Pattern pattern;
+        try {
+            pattern = Pattern.compile(regex);
+        } catch (PatternSyntaxException e) {
+            System.err.println("Invalid log search pattern: " + regex);
+            sendFailure(requestId, task);
+            return;
+        }
+
+        runQuery(requestId, task, (store, out) -> store.range(from, to, pattern, maxLines, out));
+    }
+
+    private void runQuery(int requestId, String task, Query query) {
+        // Only tasks that have stored output can be queried
+        if (!stores.containsKey(task) && !getTaskDir(task).isDirectory()) {
+            sendFailure(requestId, task);
+            return;
+        }
+        LogStore store = getStore(task);
+
+        queryExecutor.execute(
+                () -> {
+                    Path result = null;
+                    try {
+                        result = Files.createTempFile(logsRoot.toPath(), "", QUERY_FILE_SUFFIX);
+                        int count;
+                        try (OutputStream out =
+                                new BufferedOutputStream(Files.newOutputStream(result))) {
+                            count = query.run(store, out);
+                        }
+
+                        // The file is deleted once the stream is done with it
+                        FileChannel channel =
+                                FileChannel.open(
+                                        result,
+                                        StandardOpenOption.READ,
+                                        StandardOpenOption.DELETE_ON_CLOSE);
+                        scheduler.post(() -> sendResult(requestId, task, count, channel));
+                    } catch (IOException e) {
+                        System.err.println("Log query failed for task '" + task + "'");
+                        e.printStackTrace();
+
+                        try {
+                            if (result != null) Files.deleteIfExists(result);
+                        } catch (IOException e2) {
+                            e2.printStackTrace();
+                        }
+                        scheduler.post(() -> sendFailure(requestId, task));
+                    }
+                });
+    }
+
+    private void sendResult(int requestId, String task, int count, FileChannel channel) {
+        try {
+            msg.prepare(msgLogResult)
+                    .addInt(requestId)
+                    .addString(task)
+                    .addBoolean(true)
+                    .addInt(count)
+                    .sendStream(channel);
+        } catch (IOException e) {
+            System.err.println("Failed to send log query result for task '" + task + "'");
+            e.printStackTrace();
+            sendFailure(requestId, task);
+        }
+    }
+
+    private void sendFailure(int requestId, String task) {
+        msg.prepare(msgLogResult)
+                .addInt(requestId)
+                .addString(task)
+                .addBoolean(false)
+                .addInt(0)
+                .sendStream(new byte[0]);
+    }
+}
@@ -0,0 +1,84 @@
+package com.swrobotics.taskmanager.resource;
+
+/**
+ * Fixed-size history of a task's resource samples. Samples are stored in primitive arrays used as
+ * a ring buffer, so adding a sample never allocates, and once full the oldest sample is replaced.
+ */
+public final class ResourceHistory {
+    private final long[] times;
+    private final float[] cpuPercents;
+    private final long[] rssBytes;
+    private final int[] threadCounts;
+    private final float[] readRates;
+    private final float[] writeRates;
+
+    // Index the next sample is stored at
+    private int next;
+    private int size;
+
+    /** @param capacity number of samples to keep */
+    public ResourceHistory(int capacity) {
+        times = new long[capacity];
+        cpuPercents = new float[capacity];
+        rssBytes = new long[capacity];
+        threadCounts = new int[capacity];
+        readRates = new float[capacity];
+        writeRates = new float[capacity];
+        next = 0;
+        size = 0;
+    }
+
+    /**
+     * Adds a sample, replacing the oldest one if the history is full.
+     *
+     * @param time time of the sample in milliseconds since the epoch
+     * @param sampler sampler to take the values from
+     */
+    public void add(long time, ResourceSampler sampler) {
+        if (times.length == 0) return;
+
+        times[next] = time;
+        cpuPercents[next] = sampler.getCpuPercent();
+        rssBytes[next] = sampler.getRssBytes();
+        threadCounts[next] = sampler.getThreadCount();
+        readRates[next] = sampler.getReadRate();
+        writeRates[next] = sampler.getWriteRate();
+
+        next = (next + 1) % times.length;
+        if (size < times.length) size++;
+    }
+
+    /** @return number of samples stored */
+    public int size() {
+        return size;
+    }
+
+    // Gets the array index of a sample, where 0 is the oldest
+    private int index(int i) {
+        return (next - size + i + times.length) % times.length;
+    }
+
+    public long getTime(int i) {
+        return times[index(i)];
+    }
+
+    public float getCpuPercent(int i) {
+        return cpuPercents[index(i)];
+    }
+
+    public long getRssBytes(int i) {
+        return rssBytes[index(i)];
+    }
+
+    public int getThreadCount(int i) {
+        return threadCounts[index(i)];
+    }
+
+    public float getReadRate(int i) {
+        return readRates[index(i)];
+    }
+
+    public float getWriteRate(int i) {
+        return writeRates[index(i)];
+    }
+}
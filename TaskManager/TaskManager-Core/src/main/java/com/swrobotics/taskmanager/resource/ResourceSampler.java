@@ -0,0 +1,232 @@
+package com.swrobotics.taskmanager.resource;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Measures the resources used by one task's process tree by reading {@code /proc/<pid>/stat},
+ * {@code statm} and {@code io} for each process. CPU usage and I/O are counted as the difference
+ * from the previous sample, so the first sample of a task reports none.
+ */
+public final class ResourceSampler {
+    // Used if they can't be read from the system
+    private static final long DEFAULT_CLOCK_TICKS = 100;
+    private static final long DEFAULT_PAGE_SIZE = 4096;
+
+    private static final long CLOCK_TICKS = getSystemValue("CLK_TCK", DEFAULT_CLOCK_TICKS);
+    private static final long PAGE_SIZE = getSystemValue("PAGESIZE", DEFAULT_PAGE_SIZE);
+
+    // Indices of fields in /proc/<pid>/stat, counted from after the command
+    // name, which can contain spaces
+    private static final int STAT_UTIME = 11;
+    private static final int STAT_STIME = 12;
+    private static final int STAT_NUM_THREADS = 17;
+
+    private static final long[] NO_COUNTERS = new long[3];
+
+    private static final Path PROC_ROOT = Paths.get("/proc");
+
+    /**
+     * Gets whether resources can be sampled on this system.
+     *
+     * @return whether {@code /proc} is available
+     */
+    public static boolean isSupported() {
+        return Files.exists(PROC_ROOT.resolve("self").resolve("stat"));
+    }
+
+    private static long getSystemValue(String name, long fallback) {
+        try {
+            Process p = new ProcessBuilder("getconf", name).start();
+            try (BufferedReader reader =
+                    new BufferedReader(
+                            new InputStreamReader(p.getInputStream(), StandardCharsets.UTF_8))) {
+                String line = reader.readLine();
+                if (p.waitFor() == 0 && line != null) return Long.parseLong(line.trim());
+            }
+        } catch (IOException | NumberFormatException e) {
+            // Not available, use the fallback
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return fallback;
+    }
+
+    private final Path procRoot;
+    private final long clockTicks;
+    private final long pageSize;
+
+    // Counters of each process from the previous sample: CPU ticks, bytes
+    // read, and bytes written
+    private Map<Long, long[]> previous;
+    private Map<Long, long[]> current;
+    private long previousTime;
+
+    private float cpuPercent;
+    private long rssBytes;
+    private int threadCount;
+    private float readRate;
+    private float writeRate;
+    private int processCount;
+
+    public ResourceSampler() {
+        this(PROC_ROOT, CLOCK_TICKS, PAGE_SIZE);
+    }
+
+    // Reads process files from a directory laid out like /proc, for testing
+    ResourceSampler(Path procRoot, long clockTicks, long pageSize) {
+        this.procRoot = procRoot;
+        this.clockTicks = clockTicks;
+        this.pageSize = pageSize;
+        previous = new HashMap<>();
+        current = new HashMap<>();
+        previousTime = 0;
+    }
+
+    /**
+     * Samples the resources used by a process tree.
+     *
+     * @param processTree task's process and all of its descendants
+     */
+    public void sample(List<ProcessHandle> processTree) {
+        long[] pids = new long[processTree.size()];
+        for (int i = 0; i < pids.length; i++) pids[i] = processTree.get(i).pid();
+        sample(pids, System.nanoTime());
+    }
+
+    // Samples processes by PID, now is the time of the sample in nanoseconds
+    void sample(long[] pids, long now) {
+        long cpuTicks = 0;
+        long readBytes = 0;
+        long writtenBytes = 0;
+        rssBytes = 0;
+        threadCount = 0;
+        processCount = 0;
+
+        current.clear();
+        for (long pid : pids) {
+            long[] counters;
+            try {
+                counters = readProcess(pid);
+            } catch (IOException | RuntimeException e) {
+                // The process exited while it was being sampled
+                continue;
+            }
+            current.put(pid, counters);
+            processCount++;
+
+            // Processes that are new since the last sample started after it,
+            // so all of their usage counts
+            long[] prev = previous.getOrDefault(pid, NO_COUNTERS);
+            cpuTicks += Math.max(0, counters[0] - prev[0]);
+            readBytes += Math.max(0, counters[1] - prev[1]);
+            writtenBytes += Math.max(0, counters[2] - prev[2]);
+        }
+
+        if (previousTime == 0) {
+            cpuPercent = 0;
+            readRate = 0;
+            writeRate = 0;
+        } else {
+            double seconds = (now - previousTime) / 1_000_000_000.0;
+            cpuPercent = (float) (cpuTicks * 100.0 / clockTicks / seconds);
+            readRate = (float) (readBytes / seconds);
+            writeRate = (float) (writtenBytes / seconds);
+        }
+
+        Map<Long, long[]> swap = previous;
+        previous = current;
+        current = swap;
+        previousTime = now;
+    }
+
+    // Reads a process's counters, and adds its memory and threads to the totals
+    private long[] readProcess(long pid) throws IOException {
+        Path dir = procRoot.resolve(String.valueOf(pid));
+
+        String[] fields = parseStat(readFile(dir.resolve("stat")));
+        long ticks = Long.parseLong(fields[STAT_UTIME]) + Long.parseLong(fields[STAT_STIME]);
+        int threads = Integer.parseInt(fields[STAT_NUM_THREADS]);
+        long rss = parseStatmRss(readFile(dir.resolve("statm"))) * pageSize;
+
+        // Only readable by the owner of the process, so it may be missing
+        long[] io;
+        try {
+            io = parseIo(readFile(dir.resolve("io")));
+        } catch (IOException e) {
+            // Count it as no I/O
+            io = new long[2];
+        }
+
+        rssBytes += rss;
+        threadCount += threads;
+        return new long[] {ticks, io[0], io[1]};
+    }
+
+    // Splits the contents of /proc/<pid>/stat into the fields after the
+    // command name
+    static String[] parseStat(String stat) {
+        return stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+    }
+
+    // Gets the resident set size in pages from the contents of /proc/<pid>/statm
+    static long parseStatmRss(String statm) {
+        return Long.parseLong(statm.split(" ")[1]);
+    }
+
+    // Gets bytes read and written from the contents of /proc/<pid>/io
+    static long[] parseIo(String io) {
+        long[] counters = new long[2];
+        for (String line : io.split("\n")) {
+            if (line.startsWith("read_bytes:")) counters[0] = parseIoValue(line);
+            else if (line.startsWith("write_bytes:")) counters[1] = parseIoValue(line);
+        }
+        return counters;
+    }
+
+    private String readFile(Path path) throws IOException {
+        return new String(Files.readAllBytes(path), StandardCharsets.US_ASCII).trim();
+    }
+
+    private static long parseIoValue(String line) {
+        return Long.parseLong(line.substring(line.indexOf(':') + 1).trim());
+    }
+
+    /** @return CPU usage since the previous sample, where 100 is one full core */
+    public float getCpuPercent() {
+        return cpuPercent;
+    }
+
+    /** @return resident memory of all processes in bytes */
+    public long getRssBytes() {
+        return rssBytes;
+    }
+
+    /** @return number of threads in all processes */
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    /** @return bytes read from storage per second since the previous sample */
+    public float getReadRate() {
+        return readRate;
+    }
+
+    /** @return bytes written to storage per second since the previous sample */
+    public float getWriteRate() {
+        return writeRate;
+    }
+
+    /** @return number of processes that were sampled */
+    public int getProcessCount() {
+        return processCount;
+    }
+}
@@ -0,0 +1,132 @@
+package com.swrobotics.taskmanager.resource;
+
+import com.swrobotics.messenger.client.MessageBuilder;
+import com.swrobotics.messenger.client.MessagePriority;
+import com.swrobotics.messenger.client.MessageReader;
+import com.swrobotics.messenger.client.MessengerClient;
+import com.swrobotics.taskmanager.Task;
+import com.swrobotics.taskmanager.TaskScheduler;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Periodically samples the resources used by each task, and publishes them over Messenger. A
+ * history of recent samples is kept for each task, so a newly connected client can show what
+ * happened before it connected.
+ */
+public final class TaskResourceAPI {
+    private static final String MSG_RESOURCES = ":Resources";
+    private static final String MSG_GET_RESOURCE_HISTORY = ":GetResourceHistory";
+    private static final String MSG_RESOURCE_HISTORY = ":ResourceHistory";
+
+    private static final class TaskResources {
+        final ResourceSampler sampler;
+        final ResourceHistory history;
+
+        TaskResources(int historySize) {
+            sampler = new ResourceSampler();
+            history = new ResourceHistory(historySize);
+        }
+    }
+
+    private final MessengerClient msg;
+    private final TaskScheduler scheduler;
+    private final Supplier<Map<String, Task>> tasks;
+    private final long sampleInterval;
+    private final int historySize;
+    private final Map<String, TaskResources> resources;
+
+    private final String msgResources;
+    private final String msgResourceHistory;
+
+    /**
+     * @param msg client to publish samples with
+     * @param prefix prefix of the message types
+     * @param scheduler scheduler to sample on
+     * @param tasks gets the current tasks by name
+     * @param sampleInterval time between samples in milliseconds, or 0 to not sample
+     * @param historySize number of samples to keep for each task
+     */
+    public TaskResourceAPI(
+            MessengerClient msg,
+            String prefix,
+            TaskScheduler scheduler,
+            Supplier<Map<String, Task>> tasks,
+            long sampleInterval,
+            int historySize) {
+        this.msg = msg;
+        this.scheduler = scheduler;
+        this.tasks = tasks;
+        this.sampleInterval = sampleInterval;
+        this.historySize = historySize;
+        resources = new HashMap<>();
+
+        msgResources = prefix + MSG_RESOURCES;
+        msgResourceHistory = prefix + MSG_RESOURCE_HISTORY;
+
+        // History can be large
+        msg.setPriority(msgResourceHistory, MessagePriority.LOW);
+
+        msg.addHandler(prefix + MSG_GET_RESOURCE_HISTORY, this::onGetResourceHistory);
+
+        if (sampleInterval <= 0) return;
+        if (!ResourceSampler.isSupported()) {
+            System.err.println("Task resource sampling is not supported on this system");
+            return;
+        }
+        scheduler.post(this::sample);
+    }
+
+    private void sample() {
+        long time = System.currentTimeMillis();
+        Map<String, Task> current = tasks.get();
+
+        // Forget deleted tasks
+        resources.keySet().retainAll(current.keySet());
+
+        MessageBuilder out = msg.prepare(msgResources);
+        out.addLong(time);
+        out.addInt(current.size());
+        for (Map.Entry<String, Task> entry : current.entrySet()) {
+            String name = entry.getKey();
+            TaskResources res =
+                    resources.computeIfAbsent(name, (n) -> new TaskResources(historySize));
+            ResourceSampler sampler = res.sampler;
+            sampler.sample(entry.getValue().getProcessTree());
+            res.history.add(time, sampler);
+
+            out.addString(name);
+            out.addInt(sampler.getProcessCount());
+            out.addFloat(sampler.getCpuPercent());
+            out.addLong(sampler.getRssBytes());
+            out.addInt(sampler.getThreadCount());
+            out.addFloat(sampler.getReadRate());
+            out.addFloat(sampler.getWriteRate());
+        }
+        out.send();
+
+        scheduler.schedule(this::sample, sampleInterval, TimeUnit.MILLISECONDS);
+    }
+
+    private void onGetResourceHistory(String type, MessageReader reader) {
+        MessageBuilder out = msg.prepare(msgResourceHistory);
+        out.addInt(resources.size());
+        for (Map.Entry<String, TaskResources> entry : resources.entrySet()) {
+            ResourceHistory history = entry.getValue().history;
+            out.addString(entry.getKey());
+            out.addInt(history.size());
+            for (int i = 0; i < history.size(); i++) {
+                out.addLong(history.getTime(i));
+                out.addFloat(history.getCpuPercent(i));
+                out.addLong(history.getRssBytes(i));
+                out.addInt(history.getThreadCount(i));
+                out.addFloat(history.getReadRate(i));
+                out.addFloat(history.getWriteRate(i));
+            }
+        }
+        out.send();
+    }
+}
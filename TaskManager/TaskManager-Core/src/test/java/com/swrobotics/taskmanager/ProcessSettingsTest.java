@@ -0,0 +1,100 @@
+package com.swrobotics.taskmanager;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+public final class ProcessSettingsTest {
+    private static final String[] COMMAND = {"python3", "main.py"};
+
+    private static List<String> wrap(ProcessSettings settings) {
+        return Arrays.asList(settings.wrapCommand("Test", COMMAND));
+    }
+
+    private static List<String> wrapped(String... prefix) {
+        String[] command = Arrays.copyOf(prefix, prefix.length + COMMAND.length);
+        System.arraycopy(COMMAND, 0, command, prefix.length, COMMAND.length);
+        return Arrays.asList(command);
+    }
+
+    private static List<String> schedPolicy(String policy) {
+        return wrap(new ProcessSettings(null, null, null, policy));
+    }
+
+    private static List<String> ioNice(String ioNice) {
+        return wrap(new ProcessSettings(null, null, ioNice, null));
+    }
+
+    @Test
+    public void test_defaultLeavesCommandUnchanged() {
+        assertEquals(wrapped(), wrap(ProcessSettings.DEFAULT));
+        assertEquals(wrapped(), wrap(new ProcessSettings("", null, " ", "")));
+    }
+
+    @Test
+    public void test_allSettings() {
+        ProcessSettings settings = new ProcessSettings("0-1,3", 5, "best-effort:4", "rr:10");
+        assertEquals(
+                "taskset -c 0-1,3 chrt --rr 10 ionice -c 2 -n 4 nice -n 5 python3 main.py",
+                String.join(" ", wrap(settings)));
+    }
+
+    @Test
+    public void test_cpuAffinity() {
+        assertEquals(
+                wrapped("taskset", "-c", "3"), wrap(new ProcessSettings("3", null, null, null)));
+        assertEquals(
+                wrapped("taskset", "-c", "0-2,5"),
+                wrap(new ProcessSettings("0-2,5", null, null, null)));
+    }
+
+    @Test
+    public void test_schedPolicies() {
+        assertEquals(wrapped("chrt", "--other", "0"), schedPolicy("other"));
+        assertEquals(wrapped("chrt", "--batch", "0"), schedPolicy("batch"));
+        assertEquals(wrapped("chrt", "--idle", "0"), schedPolicy("idle"));
+        assertEquals(wrapped("chrt", "--fifo", "1"), schedPolicy("fifo:1"));
+        assertEquals(wrapped("chrt", "--rr", "99"), schedPolicy("rr:99"));
+    }
+
+    @Test
+    public void test_ioNiceClasses() {
+        assertEquals(wrapped("ionice", "-c", "3"), ioNice("idle"));
+        assertEquals(wrapped("ionice", "-c", "1", "-n", "0"), ioNice("realtime:0"));
+        assertEquals(wrapped("ionice", "-c", "2", "-n", "7"), ioNice("best-effort:7"));
+    }
+
+    @Test
+    public void test_nice() {
+        assertEquals(
+                wrapped("nice", "-n", "-20"), wrap(new ProcessSettings(null, -20, null, null)));
+        assertEquals(wrapped("nice", "-n", "19"), wrap(new ProcessSettings(null, 19, null, null)));
+    }
+
+    @Test
+    public void test_invalidSettingsAreLeftOut() {
+        assertEquals(wrapped(), schedPolicy("fifo:0"));
+        assertEquals(wrapped(), schedPolicy("rr:100"));
+        assertEquals(wrapped(), schedPolicy("fifo"));
+        assertEquals(wrapped(), schedPolicy("batch:5"));
+        assertEquals(wrapped(), schedPolicy("deadline"));
+
+        assertEquals(wrapped(), ioNice("idle:3"));
+        assertEquals(wrapped(), ioNice("realtime:8"));
+        assertEquals(wrapped(), ioNice("best-effort"));
+        assertEquals(wrapped(), ioNice("best-effort:x"));
+
+        assertEquals(wrapped(), wrap(new ProcessSettings(null, 20, null, null)));
+        assertEquals(wrapped(), wrap(new ProcessSettings(null, -21, null, null)));
+        assertEquals(wrapped(), wrap(new ProcessSettings("0-", null, null, null)));
+        assertEquals(wrapped(), wrap(new ProcessSettings("a", null, null, null)));
+
+        // Valid settings are still applied
+        assertEquals(
+                wrapped("taskset", "-c", "1", "nice", "-n", "2"),
+                wrap(new ProcessSettings("1", 2, "idle:3", "fifo:0")));
+    }
+}
@@ -0,0 +1,137 @@
+package com.swrobotics.taskmanager;
+
+import static org.junit.Assert.*;
+
+import com.swrobotics.messenger.client.MessageBuilder;
+import com.swrobotics.taskmanager.log.LogStore;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+public final class TaskOutputLoggerTest {
+    private static final class Batch {
+        final List<String> lines;
+        final int dropped;
+
+        Batch(List<String> lines, int dropped) {
+            this.lines = lines;
+            this.dropped = dropped;
+        }
+    }
+
+    // Encodes the batch like TaskManagerAPI does, so lines that are too long fail
+    private static Batch encode(String[] lines, int count, int dropped) {
+        MessageBuilder builder = new MessageBuilder(null, "Test:StdOut:Test");
+        for (int i = 0; i < count; i++) builder.addLong(0).addString(lines[i]);
+        return new Batch(new ArrayList<>(Arrays.asList(lines).subList(0, count)), dropped);
+    }
+
+    private static TaskOutputLogger createLogger(Path dir, TaskOutputLogger.BatchSender sender) {
+        TaskScheduler scheduler = new TaskScheduler();
+        Task task = new Task(new File("."), new String[0], false, null, null, scheduler, 0, "Test");
+        LogStore store = new LogStore("Test", dir.toFile(), 0, 1);
+        return new TaskOutputLogger(
+                task, LogOutputType.STDOUT, sender, scheduler, store, new LogRateLimiter(0), 50);
+    }
+
+    private static void delete(Path dir) throws Exception {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void test_oversizedLinesAreTruncated() throws Exception {
+        Path dir = Files.createTempDirectory("logs");
+        try {
+            List<Batch> batches = new ArrayList<>();
+            TaskOutputLogger logger =
+                    createLogger(
+                            dir,
+                            (task, type, timestamps, lines, count, dropped) ->
+                                    batches.add(encode(lines, count, dropped)));
+
+            // Two bytes per character, so this can't be cut at an exact byte count
+            logger.processLine("\u00e9".repeat(40000));
+            // Four bytes per code point, stored as surrogate pairs
+            logger.processLine("a" + "\uD83D\uDE00".repeat(20000));
+            logger.processLine("next");
+            logger.flush();
+
+            List<String> lines = new ArrayList<>();
+            for (Batch batch : batches) lines.addAll(batch.lines);
+            assertEquals(3, lines.size());
+            assertEquals("\u00e9".repeat(LogStore.MAX_LINE_SIZE / 2), lines.get(0));
+            assertEquals(
+                    "a" + "\uD83D\uDE00".repeat((LogStore.MAX_LINE_SIZE - 1) / 4), lines.get(1));
+            assertEquals("next", lines.get(2));
+            for (String line : lines) {
+                byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+                assertTrue(bytes.length <= LogStore.MAX_LINE_SIZE);
+                assertEquals(line, new String(bytes, StandardCharsets.UTF_8));
+            }
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void test_batchSizeCountsBytes() throws Exception {
+        Path dir = Files.createTempDirectory("logs");
+        try {
+            List<Batch> batches = new ArrayList<>();
+            TaskOutputLogger logger =
+                    createLogger(
+                            dir,
+                            (task, type, timestamps, lines, count, dropped) ->
+                                    batches.add(encode(lines, count, dropped)));
+
+            // 1000 characters, but 3000 bytes
+            String line = "\u20ac".repeat(1000);
+            int lineSize = TaskOutputLogger.LINE_OVERHEAD + 3000;
+            for (int i = 0; i < 20; i++) logger.processLine(line);
+
+            // Sent as soon as the bytes reach the limit, not the characters
+            int linesPerBatch = TaskOutputLogger.MAX_BATCH_SIZE / lineSize + 1;
+            assertEquals(1, batches.size());
+            assertEquals(linesPerBatch, batches.get(0).lines.size());
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void test_failedSendStartsNewBatch() throws Exception {
+        Path dir = Files.createTempDirectory("logs");
+        try {
+            List<Batch> batches = new ArrayList<>();
+            TaskOutputLogger logger =
+                    createLogger(
+                            dir,
+                            (task, type, timestamps, lines, count, dropped) -> {
+                                if (lines[0].equals("bad")) throw new IllegalStateException();
+                                batches.add(encode(lines, count, dropped));
+                            });
+
+            logger.processLine("bad");
+            logger.flush();
+            logger.processLine("good");
+            logger.flush();
+
+            assertEquals(1, batches.size());
+            assertEquals(List.of("good"), batches.get(0).lines);
+            assertEquals(0, batches.get(0).dropped);
+        } finally {
+            delete(dir);
+        }
+    }
+}
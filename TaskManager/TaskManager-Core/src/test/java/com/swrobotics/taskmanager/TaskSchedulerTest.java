@@ -0,0 +1,137 @@
+package com.swrobotics.taskmanager;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+public final class TaskSchedulerTest {
+    private static final long MILLIS = 1_000_000;
+
+    // Runs events until there are no more scheduled
+    private static void runAll(TaskScheduler scheduler) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        long untilNext;
+        while ((untilNext = scheduler.runEvents()) != Long.MAX_VALUE) {
+            assertTrue("Timed out", System.currentTimeMillis() < deadline);
+            TimeUnit.NANOSECONDS.sleep(untilNext);
+        }
+    }
+
+    @Test
+    public void test_eventsRunInTimeOrder() throws Exception {
+        TaskScheduler scheduler = new TaskScheduler();
+        List<String> order = new ArrayList<>();
+
+        scheduler.schedule(() -> order.add("30"), 30, TimeUnit.MILLISECONDS);
+        scheduler.schedule(() -> order.add("10"), 10, TimeUnit.MILLISECONDS);
+        scheduler.schedule(() -> order.add("20"), 20, TimeUnit.MILLISECONDS);
+        scheduler.schedule(() -> order.add("0a"), 0, TimeUnit.MILLISECONDS);
+        scheduler.schedule(() -> order.add("0b"), 0, TimeUnit.MILLISECONDS);
+        scheduler.post(() -> order.add("posted"));
+        runAll(scheduler);
+
+        // Posted events run first, and events due at the same time run in the
+        // order they were scheduled
+        assertEquals(List.of("posted", "0a", "0b", "10", "20", "30"), order);
+    }
+
+    @Test
+    public void test_eventsPostedWhileRunningRunBeforeWaiting() {
+        TaskScheduler scheduler = new TaskScheduler();
+        List<String> order = new ArrayList<>();
+
+        scheduler.schedule(() -> order.add("later"), 1, TimeUnit.HOURS);
+        scheduler.post(
+                () -> {
+                    order.add("first");
+                    scheduler.post(() -> order.add("second"));
+                });
+        scheduler.runEvents();
+        assertEquals(List.of("first", "second"), order);
+    }
+
+    @Test
+    public void test_returnsTimeUntilNextEvent() {
+        TaskScheduler scheduler = new TaskScheduler();
+        assertEquals(Long.MAX_VALUE, scheduler.runEvents());
+
+        scheduler.schedule(() -> {}, 2, TimeUnit.SECONDS);
+        scheduler.schedule(() -> {}, 1, TimeUnit.SECONDS);
+        long untilNext = scheduler.runEvents();
+        assertTrue(untilNext <= 1000 * MILLIS);
+        assertTrue(untilNext > 900 * MILLIS);
+    }
+
+    @Test
+    public void test_cancelledEventsDoNotRun() throws Exception {
+        TaskScheduler scheduler = new TaskScheduler();
+        List<String> order = new ArrayList<>();
+
+        Runnable cancelled = () -> order.add("cancelled");
+        scheduler.schedule(cancelled, 10, TimeUnit.MILLISECONDS);
+        scheduler.schedule(() -> order.add("kept"), 20, TimeUnit.MILLISECONDS);
+        scheduler.cancel(cancelled);
+        runAll(scheduler);
+
+        assertEquals(List.of("kept"), order);
+        assertEquals(Long.MAX_VALUE, scheduler.runEvents());
+    }
+
+    @Test
+    public void test_otherThreadsWakeMainLoop() throws Exception {
+        TaskScheduler scheduler = new TaskScheduler();
+        Semaphore wakeup = new Semaphore(0);
+        scheduler.setWakeup(wakeup::release);
+
+        // Nothing is due for an hour, so the loop only runs events early if
+        // it is woken up
+        scheduler.schedule(() -> {}, 1, TimeUnit.HOURS);
+        wakeup.drainPermits();
+
+        List<String> ran = Collections.synchronizedList(new ArrayList<>());
+        Thread loop =
+                new Thread(
+                        () -> {
+                            try {
+                                while (!Thread.interrupted()) {
+                                    long untilNext = scheduler.runEvents();
+                                    wakeup.tryAcquire(untilNext, TimeUnit.NANOSECONDS);
+                                }
+                            } catch (InterruptedException e) {
+                                // Test is done
+                            }
+                        });
+        loop.start();
+        try {
+            CountDownLatch posted = new CountDownLatch(1);
+            scheduler.post(
+                    () -> {
+                        ran.add("posted");
+                        posted.countDown();
+                    });
+            assertTrue(posted.await(5, TimeUnit.SECONDS));
+
+            CountDownLatch scheduled = new CountDownLatch(1);
+            scheduler.schedule(
+                    () -> {
+                        ran.add("scheduled");
+                        scheduled.countDown();
+                    },
+                    10,
+                    TimeUnit.MILLISECONDS);
+            assertTrue(scheduled.await(5, TimeUnit.SECONDS));
+
+            assertEquals(List.of("posted", "scheduled"), ran);
+        } finally {
+            loop.interrupt();
+            loop.join();
+        }
+    }
+}
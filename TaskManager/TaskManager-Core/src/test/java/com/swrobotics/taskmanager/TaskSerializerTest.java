@@ -0,0 +1,92 @@
+package com.swrobotics.taskmanager;
+
+import static org.junit.Assert.*;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+
+import org.junit.Test;
+
+import java.io.File;
+
+public final class TaskSerializerTest {
+    private static Gson createGson() {
+        // Same as TaskManager, but without the API, which deserialized tasks
+        // only use once started
+        TaskManagerConfiguration config =
+                TaskManagerConfiguration.GSON.fromJson("{}", TaskManagerConfiguration.class);
+        return new GsonBuilder()
+                .registerTypeAdapter(File.class, new FileTypeAdapter())
+                .registerTypeAdapter(
+                        Task.class, new TaskSerializer(null, new TaskScheduler(), config))
+                .create();
+    }
+
+    private static Task createTask(ProcessSettings settings) {
+        return new Task(
+                new File("tasks/Test"),
+                new String[] {"python3", "main.py"},
+                true,
+                settings,
+                null,
+                new TaskScheduler(),
+                10);
+    }
+
+    @Test
+    public void test_allSettingsRoundTrip() {
+        Gson gson = createGson();
+        Task task = createTask(new ProcessSettings("0-1,3", -5, "best-effort:4", "fifo:10"));
+
+        JsonObject json = gson.toJsonTree(task).getAsJsonObject();
+        assertEquals("0-1,3", json.get("cpuAffinity").getAsString());
+        assertEquals(-5, json.get("nice").getAsInt());
+        assertEquals("best-effort:4", json.get("ioNice").getAsString());
+        assertEquals("fifo:10", json.get("schedPolicy").getAsString());
+
+        Task read = gson.fromJson(json, Task.class);
+        assertEquals(task.getWorkingDirectory(), read.getWorkingDirectory());
+        assertArrayEquals(task.getCommand(), read.getCommand());
+        assertTrue(read.isEnabled());
+        ProcessSettings settings = read.getProcessSettings();
+        assertEquals("0-1,3", settings.getCpuAffinity());
+        assertEquals(Integer.valueOf(-5), settings.getNice());
+        assertEquals("best-effort:4", settings.getIoNice());
+        assertEquals("fifo:10", settings.getSchedPolicy());
+    }
+
+    @Test
+    public void test_unsetSettingsAreNotWritten() {
+        Gson gson = createGson();
+        Task task = createTask(ProcessSettings.DEFAULT);
+
+        JsonObject json = gson.toJsonTree(task).getAsJsonObject();
+        assertFalse(json.has("cpuAffinity"));
+        assertFalse(json.has("nice"));
+        assertFalse(json.has("ioNice"));
+        assertFalse(json.has("schedPolicy"));
+
+        ProcessSettings settings = gson.fromJson(json, Task.class).getProcessSettings();
+        assertNull(settings.getCpuAffinity());
+        assertNull(settings.getNice());
+        assertNull(settings.getIoNice());
+        assertNull(settings.getSchedPolicy());
+    }
+
+    @Test
+    public void test_readsTasksWithoutSettings() {
+        // Saved before process settings were added
+        Task task =
+                createGson()
+                        .fromJson(
+                                "{\"workingDirectory\": \"tasks/Old\", \"command\": [\"run\"],"
+                                        + " \"enabled\": false}",
+                                Task.class);
+        assertEquals(new File("tasks/Old"), task.getWorkingDirectory());
+        assertFalse(task.isEnabled());
+        ProcessSettings settings = task.getProcessSettings();
+        assertNull(settings.getNice());
+        assertArrayEquals(new String[] {"run"}, settings.wrapCommand("Old", task.getCommand()));
+    }
+}
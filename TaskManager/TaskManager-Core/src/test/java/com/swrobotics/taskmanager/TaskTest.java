@@ -0,0 +1,71 @@
+package com.swrobotics.taskmanager;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.io.File;
+
+public final class TaskTest {
+    private static final long MILLIS = 1_000_000;
+
+    private static Task createTask(TaskScheduler scheduler, int maxFailCount) {
+        return new Task(
+                new File("."),
+                new String[] {"true"},
+                true,
+                ProcessSettings.DEFAULT,
+                null,
+                scheduler,
+                maxFailCount,
+                "Test");
+    }
+
+    // Checks the time until the restart, which may have started counting down
+    private static void assertRestartIn(TaskScheduler scheduler, long delayMillis) {
+        long untilNext = scheduler.runEvents();
+        assertTrue(untilNext <= delayMillis * MILLIS);
+        assertTrue(untilNext > (delayMillis - 50) * MILLIS);
+    }
+
+    @Test
+    public void test_restartDelayDoubles() {
+        TaskScheduler scheduler = new TaskScheduler();
+        Task task = createTask(scheduler, 10);
+
+        long[] delays = {100, 200, 400, 800, 1600, 3200, 5000, 5000, 5000, 5000};
+        for (long delay : delays) {
+            task.scheduleRestart();
+            assertRestartIn(scheduler, delay);
+        }
+
+        // Exceeded the maximum fail count, the pending restart is the last one
+        task.scheduleRestart();
+        assertRestartIn(scheduler, Task.MAX_RESTART_DELAY);
+    }
+
+    @Test
+    public void test_noRestartAfterMaxFailCount() {
+        TaskScheduler scheduler = new TaskScheduler();
+        Task task = createTask(scheduler, 0);
+
+        task.scheduleRestart();
+        assertEquals(Long.MAX_VALUE, scheduler.runEvents());
+    }
+
+    @Test
+    public void test_forceStopCancelsRestart() {
+        TaskScheduler scheduler = new TaskScheduler();
+        Task task = createTask(scheduler, 10);
+
+        task.scheduleRestart();
+        assertRestartIn(scheduler, Task.MIN_RESTART_DELAY);
+
+        task.forceStop();
+        assertEquals(Long.MAX_VALUE, scheduler.runEvents());
+
+        // Stopped tasks are never restarted
+        task.scheduleRestart();
+        assertEquals(Long.MAX_VALUE, scheduler.runEvents());
+    }
+}
@@ -0,0 +1,222 @@
+package com.swrobotics.taskmanager.log;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+public final class LogStoreTest {
+    // About 1 KB each, so about a thousand fit in a segment
+    private static final String PADDING = "x".repeat(1000);
+
+    private static String line(int i) {
+        return String.format("line %05d ", i) + PADDING;
+    }
+
+    private static void appendLines(LogStore store, int from, int to) {
+        for (int i = from; i < to; i++) store.append(1000 + i, i % 2 == 1, line(i));
+    }
+
+    // Reads the text of the records written by a query
+    private static List<String> readText(ByteArrayOutputStream records) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(records.toByteArray()));
+        List<String> lines = new ArrayList<>();
+        while (in.available() > 0) {
+            in.readLong();
+            in.readBoolean();
+            byte[] text = new byte[in.readUnsignedShort()];
+            in.readFully(text);
+            lines.add(new String(text, StandardCharsets.UTF_8));
+        }
+        return lines;
+    }
+
+    private static List<String> tail(LogStore store, int maxLines) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int count = store.tail(maxLines, out);
+        List<String> lines = readText(out);
+        assertEquals(count, lines.size());
+        return lines;
+    }
+
+    private static List<String> range(LogStore store, long from, long to, String pattern)
+            throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        store.range(from, to, pattern == null ? null : Pattern.compile(pattern), 100000, out);
+        return readText(out);
+    }
+
+    private static List<String> lines(int from, int to) {
+        List<String> lines = new ArrayList<>();
+        for (int i = from; i < to; i++) lines.add(line(i));
+        return lines;
+    }
+
+    private static int countSegments(Path dir) {
+        File[] files = dir.toFile().listFiles((d, name) -> name.endsWith(".log"));
+        return files == null ? 0 : files.length;
+    }
+
+    private static void delete(Path dir) throws Exception {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void test_tailAcrossSegments() throws Exception {
+        Path dir = Files.createTempDirectory("logs");
+        try {
+            LogStore store = new LogStore("Test", dir.toFile(), 0, 10);
+            appendLines(store, 0, 2500);
+            assertEquals(3, countSegments(dir));
+
+            assertEquals(lines(1000, 2500), tail(store, 1500));
+            assertEquals(lines(2490, 2500), tail(store, 10));
+            assertEquals(lines(0, 2500), tail(store, 100000));
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void test_rangeAcrossSegments() throws Exception {
+        Path dir = Files.createTempDirectory("logs");
+        try {
+            LogStore store = new LogStore("Test", dir.toFile(), 0, 10);
+            appendLines(store, 0, 2500);
+
+            // A segment holds about a thousand lines, so most of these cross a boundary
+            assertEquals(lines(1000, 1101), range(store, 2000, 2100, null));
+            assertEquals(lines(900, 2201), range(store, 1900, 3200, null));
+            assertEquals(lines(0, 2500), range(store, 0, Long.MAX_VALUE, null));
+            assertEquals(List.of(), range(store, 5000, 6000, null));
+
+            assertEquals(
+                    List.of(line(3), line(1050), line(2100)),
+                    range(store, 0, Long.MAX_VALUE, "line (00003|01050|02100) "));
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            assertEquals(5, store.range(1500, Long.MAX_VALUE, null, 5, out));
+            assertEquals(lines(500, 505), readText(out));
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void test_oldestSegmentsAreDeleted() throws Exception {
+        Path dir = Files.createTempDirectory("logs");
+        try {
+            LogStore store = new LogStore("Test", dir.toFile(), 0, 2);
+            appendLines(store, 0, 3500);
+            assertEquals(2, countSegments(dir));
+
+            // Only whole segments are kept, up to the newest line
+            List<String> kept = tail(store, 100000);
+            int first = Integer.parseInt(kept.get(0).substring(5, 10));
+            assertTrue(first > 0);
+            assertEquals(lines(first, 3500), kept);
+            assertEquals(kept, range(store, 0, Long.MAX_VALUE, null));
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void test_reopenContinuesLog() throws Exception {
+        Path dir = Files.createTempDirectory("logs");
+        try {
+            appendLines(new LogStore("Test", dir.toFile(), 0, 10), 0, 1500);
+
+            LogStore store = new LogStore("Test", dir.toFile(), 0, 10);
+            assertEquals(lines(0, 1500), tail(store, 100000));
+            appendLines(store, 1500, 2500);
+            assertEquals(lines(0, 2500), tail(store, 100000));
+            assertEquals(3, countSegments(dir));
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void test_reopenAfterTruncatedWrite() throws Exception {
+        Path dir = Files.createTempDirectory("logs");
+        try {
+            appendLines(new LogStore("Test", dir.toFile(), 0, 10), 0, 3);
+
+            // Like the process stopped while writing a record: everything except
+            // the time, which is written last, is there
+            int end = 3 * (LogStore.RECORD_HEADER_SIZE + line(0).length());
+            File segment = dir.resolve(String.format("%019d.log", 0)).toFile();
+            try (FileChannel channel =
+                    FileChannel.open(segment.toPath(), StandardOpenOption.WRITE)) {
+                ByteBuffer partial = ByteBuffer.allocate(LogStore.RECORD_HEADER_SIZE + 100);
+                partial.putLong(0).put((byte) 1).putShort((short) 500);
+                while (partial.hasRemaining()) partial.put((byte) 'z');
+                partial.flip();
+                channel.write(partial, end);
+            }
+
+            LogStore store = new LogStore("Test", dir.toFile(), 0, 10);
+            assertEquals(lines(0, 3), tail(store, 10));
+
+            // New lines replace the partial record
+            store.append(2000, false, "after");
+            store.append(2001, false, "after 2");
+            List<String> expected = lines(0, 3);
+            expected.add("after");
+            expected.add("after 2");
+            assertEquals(expected, tail(store, 10));
+            assertEquals(List.of("after 2"), range(store, 2001, 2001, null));
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void test_longLinesAreCutOnCharacterBoundary() throws Exception {
+        Path dir = Files.createTempDirectory("logs");
+        try {
+            LogStore store = new LogStore("Test", dir.toFile(), 0, 10);
+
+            // Cutting at exactly the maximum size would split a character
+            List<String> input =
+                    List.of(
+                            "\u00e9".repeat(40000),
+                            "ab" + "\uD83D\uDE00".repeat(20000),
+                            "x".repeat(70000),
+                            "short");
+            for (int i = 0; i < input.size(); i++) store.append(i + 1, false, input.get(i));
+
+            List<String> stored = tail(store, 10);
+            assertEquals("\u00e9".repeat(LogStore.MAX_LINE_SIZE / 2), stored.get(0));
+            assertEquals(
+                    "ab" + "\uD83D\uDE00".repeat((LogStore.MAX_LINE_SIZE - 2) / 4), stored.get(1));
+            assertEquals("x".repeat(LogStore.MAX_LINE_SIZE), stored.get(2));
+            assertEquals("short", stored.get(3));
+
+            // Same as what is sent live
+            for (int i = 0; i < input.size(); i++)
+                assertEquals(LogStore.truncateLine(input.get(i)), stored.get(i));
+        } finally {
+            delete(dir);
+        }
+    }
+}
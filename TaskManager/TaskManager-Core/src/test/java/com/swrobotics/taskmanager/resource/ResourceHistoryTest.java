@@ -0,0 +1,82 @@
+package com.swrobotics.taskmanager.resource;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+public final class ResourceHistoryTest {
+    // Sampler that has sampled one process with the given number of threads
+    private static ResourceSampler sampler(Path root, int threads) throws Exception {
+        Path dir = Files.createDirectories(root.resolve("1"));
+        String stat = "1 (test) S 1 1 1 0 -1 0 0 0 0 0 0 0 0 0 20 0 " + threads + " 0 0 0 0";
+        Files.write(dir.resolve("stat"), stat.getBytes(StandardCharsets.US_ASCII));
+        Files.write(dir.resolve("statm"), "100 10 0 0 0 0 0".getBytes(StandardCharsets.US_ASCII));
+
+        ResourceSampler sampler = new ResourceSampler(root, 100, 4096);
+        sampler.sample(new long[] {1}, 1);
+        return sampler;
+    }
+
+    private static void delete(Path dir) throws Exception {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void test_samplesAreOldestFirst() throws Exception {
+        Path root = Files.createTempDirectory("proc");
+        try {
+            ResourceHistory history = new ResourceHistory(4);
+            assertEquals(0, history.size());
+
+            for (int i = 0; i < 3; i++) history.add(1000 + i, sampler(root, i + 1));
+            assertEquals(3, history.size());
+            for (int i = 0; i < 3; i++) {
+                assertEquals(1000 + i, history.getTime(i));
+                assertEquals(i + 1, history.getThreadCount(i));
+                assertEquals(10 * 4096, history.getRssBytes(i));
+            }
+        } finally {
+            delete(root);
+        }
+    }
+
+    @Test
+    public void test_oldestSamplesAreReplaced() throws Exception {
+        Path root = Files.createTempDirectory("proc");
+        try {
+            ResourceHistory history = new ResourceHistory(4);
+
+            // Wraps around the end of the arrays more than once
+            for (int i = 0; i < 10; i++) {
+                history.add(1000 + i, sampler(root, i + 1));
+                assertEquals(Math.min(i + 1, 4), history.size());
+            }
+            for (int i = 0; i < 4; i++) {
+                assertEquals(1006 + i, history.getTime(i));
+                assertEquals(7 + i, history.getThreadCount(i));
+            }
+        } finally {
+            delete(root);
+        }
+    }
+
+    @Test
+    public void test_zeroCapacityKeepsNothing() throws Exception {
+        Path root = Files.createTempDirectory("proc");
+        try {
+            ResourceHistory history = new ResourceHistory(0);
+            history.add(1000, sampler(root, 1));
+            assertEquals(0, history.size());
+        } finally {
+            delete(root);
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.swrobotics.taskmanager.resource;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+public final class ResourceSamplerTest {
+    private static final long CLOCK_TICKS = 100;
+    private static final long PAGE_SIZE = 4096;
+    private static final long SECOND = 1_000_000_000L;
+
+    // Command name has spaces and parentheses, like the kernel allows
+    private static String stat(long pid, long utime, long stime, int threads) {
+        return pid
+                + " (python3 (main) x) S 1 "
+                + pid
+                + " "
+                + pid
+                + " 0 -1 4194304 1500 0 2 0 "
+                + utime
+                + " "
+                + stime
+                + " 0 0 20 0 "
+                + threads
+                + " 0 12345 50000000 2000 18446744073709551615\n";
+    }
+
+    private static String statm(long rssPages) {
+        return "12000 " + rssPages + " 900 500 0 3000 0\n";
+    }
+
+    private static String io(long read, long written) {
+        return "rchar: 9000\n"
+                + "wchar: 8000\n"
+                + "syscr: 20\n"
+                + "syscw: 10\n"
+                + "read_bytes: "
+                + read
+                + "\n"
+                + "write_bytes: "
+                + written
+                + "\n"
+                + "cancelled_write_bytes: 0\n";
+    }
+
+    private static void writeProcess(
+            Path root, long pid, long ticks, int threads, long rssPages, String io)
+            throws Exception {
+        Path dir = Files.createDirectories(root.resolve(String.valueOf(pid)));
+        Files.write(dir.resolve("stat"), bytes(stat(pid, ticks / 2, ticks - ticks / 2, threads)));
+        Files.write(dir.resolve("statm"), bytes(statm(rssPages)));
+        if (io != null) Files.write(dir.resolve("io"), bytes(io));
+    }
+
+    private static void removeProcess(Path root, long pid) throws Exception {
+        delete(root.resolve(String.valueOf(pid)));
+    }
+
+    private static byte[] bytes(String str) {
+        return str.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static void delete(Path dir) throws Exception {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void test_parseStat() {
+        String[] fields = ResourceSampler.parseStat(stat(42, 150, 30, 7).trim());
+        assertEquals("S", fields[0]);
+        assertEquals("150", fields[11]);
+        assertEquals("30", fields[12]);
+        assertEquals("7", fields[17]);
+    }
+
+    @Test
+    public void test_parseStatm() {
+        assertEquals(321, ResourceSampler.parseStatmRss(statm(321).trim()));
+    }
+
+    @Test
+    public void test_parseIo() {
+        assertArrayEquals(new long[] {4096, 8192}, ResourceSampler.parseIo(io(4096, 8192)));
+        assertArrayEquals(new long[] {0, 0}, ResourceSampler.parseIo("rchar: 10\n"));
+    }
+
+    @Test
+    public void test_firstSampleHasNoRates() throws Exception {
+        Path root = Files.createTempDirectory("proc");
+        try {
+            writeProcess(root, 10, 500, 4, 100, io(1000, 2000));
+            writeProcess(root, 11, 300, 2, 50, null);
+
+            ResourceSampler sampler = new ResourceSampler(root, CLOCK_TICKS, PAGE_SIZE);
+            sampler.sample(new long[] {10, 11}, SECOND);
+
+            assertEquals(2, sampler.getProcessCount());
+            assertEquals(6, sampler.getThreadCount());
+            assertEquals(150 * PAGE_SIZE, sampler.getRssBytes());
+            assertEquals(0, sampler.getCpuPercent(), 0);
+            assertEquals(0, sampler.getReadRate(), 0);
+            assertEquals(0, sampler.getWriteRate(), 0);
+        } finally {
+            delete(root);
+        }
+    }
+
+    @Test
+    public void test_ratesAreDifferenceFromPreviousSample() throws Exception {
+        Path root = Files.createTempDirectory("proc");
+        try {
+            ResourceSampler sampler = new ResourceSampler(root, CLOCK_TICKS, PAGE_SIZE);
+            writeProcess(root, 10, 500, 4, 100, io(1000, 2000));
+            sampler.sample(new long[] {10}, SECOND);
+
+            // 150 ticks in two seconds is 75% of a core
+            writeProcess(root, 10, 650, 4, 120, io(5000, 2000 + 8192));
+            sampler.sample(new long[] {10}, 3 * SECOND);
+            assertEquals(75, sampler.getCpuPercent(), 0.001);
+            assertEquals(2000, sampler.getReadRate(), 0.001);
+            assertEquals(4096, sampler.getWriteRate(), 0.001);
+            assertEquals(120 * PAGE_SIZE, sampler.getRssBytes());
+
+            // Nothing changed
+            sampler.sample(new long[] {10}, 4 * SECOND);
+            assertEquals(0, sampler.getCpuPercent(), 0);
+            assertEquals(0, sampler.getReadRate(), 0);
+            assertEquals(0, sampler.getWriteRate(), 0);
+
+            // Two cores for half a second
+            writeProcess(root, 10, 750, 4, 120, io(5000, 10192));
+            sampler.sample(new long[] {10}, 4 * SECOND + SECOND / 2);
+            assertEquals(200, sampler.getCpuPercent(), 0.001);
+        } finally {
+            delete(root);
+        }
+    }
+
+    @Test
+    public void test_processesThatExitAreSkipped() throws Exception {
+        Path root = Files.createTempDirectory("proc");
+        try {
+            ResourceSampler sampler = new ResourceSampler(root, CLOCK_TICKS, PAGE_SIZE);
+            writeProcess(root, 10, 500, 4, 100, null);
+            writeProcess(root, 11, 200, 1, 10, null);
+            sampler.sample(new long[] {10, 11}, SECOND);
+
+            // 11 exited after the process tree was listed
+            writeProcess(root, 10, 600, 4, 100, null);
+            removeProcess(root, 11);
+            sampler.sample(new long[] {10, 11}, 2 * SECOND);
+            assertEquals(1, sampler.getProcessCount());
+            assertEquals(4, sampler.getThreadCount());
+            assertEquals(100, sampler.getCpuPercent(), 0.001);
+
+            // A new process 11 counts all of its usage, not the difference from the old one
+            writeProcess(root, 10, 600, 4, 100, null);
+            writeProcess(root, 11, 50, 1, 10, null);
+            sampler.sample(new long[] {10, 11}, 3 * SECOND);
+            assertEquals(2, sampler.getProcessCount());
+            assertEquals(50, sampler.getCpuPercent(), 0.001);
+        } finally {
+            delete(root);
+        }
+    }
+
+    @Test
+    public void test_emptyProcessTree() throws Exception {
+        Path root = Files.createTempDirectory("proc");
+        try {
+            ResourceSampler sampler = new ResourceSampler(root, CLOCK_TICKS, PAGE_SIZE);
+            sampler.sample(new long[] {10}, SECOND);
+            sampler.sample(new long[] {10}, 2 * SECOND);
+
+            assertEquals(0, sampler.getProcessCount());
+            assertEquals(0, sampler.getThreadCount());
+            assertEquals(0, sampler.getRssBytes());
+            assertEquals(0, sampler.getCpuPercent(), 0);
+        } finally {
+            delete(root);
+        }
+    }
+}
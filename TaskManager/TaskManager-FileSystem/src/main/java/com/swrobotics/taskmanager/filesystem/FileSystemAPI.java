@@ -1,11 +1,17 @@
 package com.swrobotics.taskmanager.filesystem;
 
 import com.swrobotics.messenger.client.MessageBuilder;
+import com.swrobotics.messenger.client.MessagePriority;
 import com.swrobotics.messenger.client.MessageReader;
 import com.swrobotics.messenger.client.MessengerClient;
+import com.swrobotics.messenger.client.StreamReceiver;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 
 public final class FileSystemAPI {
     private static final String MSG_LIST_FILES = ":ListFiles";
@@ -21,6 +27,9 @@ public final class FileSystemAPI {
     private static final String MSG_MOVE_CONFIRM = ":MoveConfirm";
     private static final String MSG_MKDIR_CONFIRM = ":MkdirConfirm";
 
+    // Suffix of the file an upload is written to before it is complete
+    private static final String PARTIAL_SUFFIX = ".part";
+
     private final MessengerClient msg;
     private final File rootDir;
 
@@ -49,9 +58,12 @@ public final class FileSystemAPI {
         msgMoveConfirm = prefix + MSG_MOVE_CONFIRM;
         msgMkdirConfirm = prefix + MSG_MKDIR_CONFIRM;
 
+        // File contents can be large
+        msg.setPriority(msgFileContent, MessagePriority.LOW);
+
         msg.addHandler(msgListFiles, this::onListFiles);
         msg.addHandler(msgReadFile, this::onReadFile);
-        msg.addHandler(msgWriteFile, this::onWriteFile);
+        msg.addStreamHandler(msgWriteFile, this::onWriteFile);
         msg.addHandler(msgMoveFile, this::onMoveFile);
         msg.addHandler(msgDeleteFile, this::onDeleteFile);
         msg.addHandler(msgMkdir, this::onMkdir);
@@ -61,19 +73,6 @@ public final class FileSystemAPI {
         return path.replace('/', File.separatorChar);
     }
 
-    private byte[] readFile(File file) throws IOException {
-        FileInputStream in = new FileInputStream(file);
-        ByteArrayOutputStream b = new ByteArrayOutputStream();
-        byte[] buffer = new byte[1024];
-        int read;
-        while ((read = in.read(buffer)) > 0) {
-            b.write(buffer, 0, read);
-        }
-        in.close();
-        b.close();
-        return b.toByteArray();
-    }
-
     private boolean deleteFile(File file) {
         File[] contents = file.listFiles();
         if (contents != null) {
@@ -124,49 +123,87 @@ public final class FileSystemAPI {
         File file = new File(rootDir, localizePath(path));
         out.addString(path);
         if (!file.exists() || !file.isFile()) {
-            out.addBoolean(false);
-            out.send();
+            out.addBoolean(false).sendStream(new byte[0]);
             return;
         }
 
+        // Sent as a stream so the file is read a chunk at a time instead of
+        // all being loaded into memory
         System.out.println("Sending contents of " + path);
+        FileChannel channel;
         try {
-            byte[] fileContent = readFile(file);
-            out.addBoolean(true);
-            out.addInt(fileContent.length);
-            out.addRaw(fileContent);
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
         } catch (IOException e) {
-            out.addBoolean(false);
             System.err.println("Reading file content failed for " + path);
             e.printStackTrace();
+            out.addBoolean(false).sendStream(new byte[0]);
+            return;
         }
 
-        out.send();
+        try {
+            out.addBoolean(true).sendStream(channel);
+        } catch (IOException e) {
+            System.err.println("Reading file content failed for " + path);
+            e.printStackTrace();
+            msg.prepare(msgFileContent).addString(path).addBoolean(false).sendStream(new byte[0]);
+        }
     }
 
-    private void onWriteFile(String type, MessageReader reader) {
-        String path = reader.readString();
+    private StreamReceiver onWriteFile(String type, MessageReader header, long size) {
+        String path = header.readString();
         File file = new File(rootDir, localizePath(path));
         if (file.exists() && !file.isFile()) {
             msg.prepare(msgWriteConfirm).addString(path).addBoolean(false).send();
-            return;
+            return null;
         }
 
-        int dataLen = reader.readInt();
-        byte[] data = reader.readRaw(dataLen);
-
-        try (FileOutputStream fos = new FileOutputStream(file)) {
-            System.out.println("Receiving file data for " + path);
-            fos.write(data);
-            fos.flush();
-
-            msg.prepare(msgWriteConfirm).addString(path).addBoolean(true).send();
+        // Data is written next to the file and moved into place once it is
+        // complete, so a failed upload doesn't leave a partial file
+        File partial = new File(file.getPath() + PARTIAL_SUFFIX);
+        FileChannel channel;
+        try {
+            channel =
+                    FileChannel.open(
+                            partial.toPath(),
+                            StandardOpenOption.CREATE,
+                            StandardOpenOption.TRUNCATE_EXISTING,
+                            StandardOpenOption.WRITE);
         } catch (IOException e) {
             System.err.println("File write failed for " + path);
             e.printStackTrace();
 
             msg.prepare(msgWriteConfirm).addString(path).addBoolean(false).send();
+            return null;
         }
+
+        System.out.println("Receiving file data for " + path);
+        return new StreamReceiver() {
+            @Override
+            public void receive(ByteBuffer data) throws IOException {
+                while (data.hasRemaining()) channel.write(data);
+            }
+
+            @Override
+            public void complete() throws IOException {
+                channel.close();
+                Files.move(partial.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+                msg.prepare(msgWriteConfirm).addString(path).addBoolean(true).send();
+            }
+
+            @Override
+            public void abort() {
+                System.err.println("File write failed for " + path);
+                try {
+                    channel.close();
+                    Files.deleteIfExists(partial.toPath());
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+
+                msg.prepare(msgWriteConfirm).addString(path).addBoolean(false).send();
+            }
+        };
     }
 
     private void onDeleteFile(String type, MessageReader reader) {